@@ -0,0 +1,203 @@
+package com.example.order;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits how many requests are handled at once, adapting the limit to observed latency (AIMD). While
+ * requests complete within the latency target and the limit is being used, it grows by about one per
+ * limit's worth of requests; a response slower than the target cuts it by a tenth, at most once per
+ * target period so a single slow burst counts once. The handler's own 503s are fast fails for a
+ * downstream that is known to be down, not a sign of load here, so they are timed like any other
+ * response. Requests over the limit wait up to maxWaitMs in a bounded queue and are otherwise answered
+ * with 503 and Retry-After. Ordinary requests may only use the limit minus a reserved share, which is
+ * kept for the critical paths.
+ * Exports stream for as long as the client reads, so they hold a slot but are not used as latency samples.
+ */
+public class AdaptiveConcurrencyFilter extends Filter {
+
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyTargetNanos;
+    private final int maxQueue;
+    private final long maxWaitNanos;
+    private final double reservedShare;
+    private final Set<String> criticalPaths;
+    private final LongSupplier clock;
+
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private long lastDecrease;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+
+    public AdaptiveConcurrencyFilter(int initialLimit, int minLimit, int maxLimit, long latencyTargetMs,
+                                     int maxQueue, long maxWaitMs, int reservedPercent, Set<String> criticalPaths) {
+        this(initialLimit, minLimit, maxLimit, latencyTargetMs, maxQueue, maxWaitMs, reservedPercent, criticalPaths, System::nanoTime);
+    }
+
+    AdaptiveConcurrencyFilter(int initialLimit, int minLimit, int maxLimit, long latencyTargetMs,
+                              int maxQueue, long maxWaitMs, int reservedPercent, Set<String> criticalPaths, LongSupplier clock) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.latencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(latencyTargetMs);
+        this.maxQueue = Math.max(0, maxQueue);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMs));
+        this.reservedShare = Math.min(90, Math.max(0, reservedPercent)) / 100.0;
+        this.criticalPaths = criticalPaths;
+        this.clock = clock;
+        this.lastDecrease = clock.getAsLong() - latencyTargetNanos;
+    }
+
+    /**
+     * Reads the settings from CONCURRENCY_INITIAL_LIMIT, CONCURRENCY_MIN_LIMIT, CONCURRENCY_MAX_LIMIT,
+     * CONCURRENCY_LATENCY_TARGET_MS, CONCURRENCY_MAX_QUEUE, CONCURRENCY_MAX_WAIT_MS and
+     * CONCURRENCY_RESERVED_PERCENT.
+     */
+    public static AdaptiveConcurrencyFilter fromEnv(Set<String> criticalPaths) {
+        return new AdaptiveConcurrencyFilter(
+                Integer.parseInt(System.getenv().getOrDefault("CONCURRENCY_INITIAL_LIMIT", "20")),
+                Integer.parseInt(System.getenv().getOrDefault("CONCURRENCY_MIN_LIMIT", "4")),
+                Integer.parseInt(System.getenv().getOrDefault("CONCURRENCY_MAX_LIMIT", "200")),
+                Long.parseLong(System.getenv().getOrDefault("CONCURRENCY_LATENCY_TARGET_MS", "500")),
+                Integer.parseInt(System.getenv().getOrDefault("CONCURRENCY_MAX_QUEUE", "50")),
+                Long.parseLong(System.getenv().getOrDefault("CONCURRENCY_MAX_WAIT_MS", "200")),
+                Integer.parseInt(System.getenv().getOrDefault("CONCURRENCY_RESERVED_PERCENT", "20")),
+                criticalPaths);
+    }
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        boolean critical = criticalPaths.contains(path);
+        boolean admitted;
+        try {
+            admitted = acquire(critical);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            admitted = false;
+        }
+        if (!admitted) {
+            reject(exchange);
+            return;
+        }
+        long started = clock.getAsLong();
+        long latency = -1;
+        try {
+            chain.doFilter(exchange);
+            if (!path.endsWith("/export")) {
+                latency = clock.getAsLong() - started;
+            }
+        } finally {
+            release(latency);
+        }
+    }
+
+    /** Takes a slot, waiting in the queue when none is free. Returns false when the request is shed. */
+    synchronized boolean acquire(boolean critical) throws InterruptedException {
+        if (inFlight < capacity(critical)) {
+            inFlight++;
+            accepted.incrementAndGet();
+            return true;
+        }
+        if (queued >= maxQueue || maxWaitNanos == 0) {
+            shed.incrementAndGet();
+            return false;
+        }
+        queued++;
+        try {
+            long deadline = System.nanoTime() + maxWaitNanos;
+            while (inFlight >= capacity(critical)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    timedOut.incrementAndGet();
+                    shed.incrementAndGet();
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            inFlight++;
+            accepted.incrementAndGet();
+            return true;
+        } finally {
+            queued--;
+        }
+    }
+
+    /** Frees the slot and adjusts the limit. A negative latency means the request is not a latency sample. */
+    synchronized void release(long latencyNanos) {
+        int used = inFlight;
+        inFlight--;
+        long now = clock.getAsLong();
+        if (latencyNanos > latencyTargetNanos) {
+            if (now - lastDecrease >= latencyTargetNanos) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                lastDecrease = now;
+            }
+        } else if (latencyNanos >= 0 && used >= capacity(false)) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    private int capacity(boolean critical) {
+        return capacity((int) limit, critical);
+    }
+
+    private int capacity(int full, boolean critical) {
+        return critical ? full : Math.max(1, (int) (full * (1 - reservedShare)));
+    }
+
+    private void reject(HttpExchange exchange) throws IOException {
+        byte[] bytes = "Server busy, please retry".getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain");
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        exchange.sendResponseHeaders(503, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    public synchronized int getLimit() { return (int) limit; }
+
+    // Threads the filter can hold at once: requests in flight at the highest limit plus those waiting in the queue
+    public int getMaxThreads() { return maxLimit + maxQueue; }
+
+    public synchronized int getInFlight() { return inFlight; }
+
+    public synchronized int getQueued() { return queued; }
+
+    public String toJson() {
+        int currentLimit;
+        int currentInFlight;
+        int currentQueued;
+        synchronized (this) {
+            currentLimit = (int) limit;
+            currentInFlight = inFlight;
+            currentQueued = queued;
+        }
+        return "{\"limit\":" + currentLimit + ",\"reserved\":" + (currentLimit - capacity(currentLimit, false)) +
+               ",\"minLimit\":" + minLimit + ",\"maxLimit\":" + maxLimit +
+               ",\"inFlight\":" + currentInFlight + ",\"queued\":" + currentQueued + ",\"maxQueue\":" + maxQueue +
+               ",\"accepted\":" + accepted.get() + ",\"shed\":" + shed.get() + ",\"timedOut\":" + timedOut.get() + "}";
+    }
+
+    @Override
+    public String description() {
+        return "Limits concurrent requests adaptively and sheds the excess";
+    }
+}
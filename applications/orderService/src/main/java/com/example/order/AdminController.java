@@ -0,0 +1,128 @@
+package com.example.order;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Operational endpoints for order managers, mounted under /admin.
+ */
+public class AdminController implements HttpHandler {
+
+    private final OrderImporter importer;
+    private final List<DownstreamGuard> downstreams;
+    private final OverdueInvoiceScanner overdueScanner;
+    private final ReplicaRouter replicaRouter;
+    private final AdaptiveConcurrencyFilter concurrencyLimit;
+
+    public AdminController(OrderImporter importer, List<DownstreamGuard> downstreams, OverdueInvoiceScanner overdueScanner,
+                           ReplicaRouter replicaRouter, AdaptiveConcurrencyFilter concurrencyLimit) {
+        this.importer = importer;
+        this.downstreams = downstreams;
+        this.overdueScanner = overdueScanner;
+        this.replicaRouter = replicaRouter;
+        this.concurrencyLimit = concurrencyLimit;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+
+        if ("/admin/orders/import".equals(path)) {
+            if ("POST".equalsIgnoreCase(method)) {
+                handleImport(exchange);
+            } else {
+                exchange.sendResponseHeaders(405, -1);
+            }
+        } else if ("/admin/downstreams".equals(path)) {
+            if ("GET".equalsIgnoreCase(method)) {
+                handleDownstreams(exchange);
+            } else {
+                exchange.sendResponseHeaders(405, -1);
+            }
+        } else if ("/admin/replica".equals(path)) {
+            if ("GET".equalsIgnoreCase(method)) {
+                send(exchange, 200, "application/json", replicaRouter.toJson());
+            } else {
+                exchange.sendResponseHeaders(405, -1);
+            }
+        } else if ("/admin/concurrency".equals(path)) {
+            if ("GET".equalsIgnoreCase(method)) {
+                send(exchange, 200, "application/json", concurrencyLimit.toJson());
+            } else {
+                exchange.sendResponseHeaders(405, -1);
+            }
+        } else if ("/admin/jobs/overdue-scan".equals(path)) {
+            if ("GET".equalsIgnoreCase(method)) {
+                send(exchange, 200, "application/json", overdueScanner.toJson());
+            } else if ("POST".equalsIgnoreCase(method)) {
+                if (overdueScanner.triggerNow()) {
+                    send(exchange, 202, "application/json", "{\"status\":\"QUEUED\"}");
+                } else {
+                    send(exchange, 503, "text/plain", "Overdue invoice scanner is not running");
+                }
+            } else {
+                exchange.sendResponseHeaders(405, -1);
+            }
+        } else {
+            exchange.sendResponseHeaders(404, -1);
+        }
+    }
+
+    // Body is CSV (text/csv) or one JSON order per line (application/x-ndjson)
+    private void handleImport(HttpExchange exchange) throws IOException {
+        if (importer == null) {
+            send(exchange, 501, "text/plain", "Bulk import is not available when orders are sharded");
+            return;
+        }
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        OrderImporter.Format format;
+        if (contentType != null && contentType.startsWith("text/csv")) {
+            format = OrderImporter.Format.CSV;
+        } else if (contentType != null && (contentType.startsWith("application/x-ndjson") || contentType.startsWith("application/ndjson"))) {
+            format = OrderImporter.Format.NDJSON;
+        } else {
+            send(exchange, 415, "text/plain", "Expected text/csv or application/x-ndjson");
+            return;
+        }
+
+        try {
+            OrderImporter.Result result = importer.importOrders(exchange.getRequestBody(), format);
+            send(exchange, 200, "application/json",
+                    "{\"orders\":" + result.getOrders() + ",\"items\":" + result.getItems() + "}");
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, "text/plain", e.getMessage());
+        } catch (SQLException e) {
+            e.printStackTrace();
+            send(exchange, 500, "text/plain", "Import failed: " + e.getMessage());
+        }
+    }
+
+    // Breaker state, in-flight calls and rejection counts of every outbound client
+    private void handleDownstreams(HttpExchange exchange) throws IOException {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < downstreams.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(downstreams.get(i).toJson());
+        }
+        json.append(']');
+        send(exchange, 200, "application/json", json.toString());
+    }
+
+    private void send(HttpExchange exchange, int code, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.example.order;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+// Opens a dedicated connection for work that must not hold the shared request connection for long
+@FunctionalInterface
+public interface ConnectionFactory {
+    Connection open() throws SQLException;
+}
@@ -2,24 +2,21 @@ package com.example.order;
 
 import java.sql.SQLException;
 import java.time.LocalDate;
-import java.util.List;
 
 public class CreditService {
-    private final InvoiceRepository invoiceRepository;
+    public static final String CREDIT_LIMIT_EXCEEDED = "CREDIT_LIMIT_EXCEEDED";
+    public static final String OVERDUE_INVOICES = "OVERDUE_INVOICES";
+
+    private final InvoiceStore invoiceRepository;
     private static final double CREDIT_LIMIT = 500.00;
 
-    public CreditService(InvoiceRepository invoiceRepository) {
+    public CreditService(InvoiceStore invoiceRepository) {
         this.invoiceRepository = invoiceRepository;
     }
 
     public boolean checkCreditLimit(String customerName) {
         try {
-            List<Invoice> invoices = invoiceRepository.findByCustomer(customerName);
-            double outstandingAmount = invoices.stream()
-                    .filter(i -> !i.isPaid())
-                    .mapToDouble(Invoice::getAmount)
-                    .sum();
-            return outstandingAmount <= CREDIT_LIMIT;
+            return withinLimit(invoiceRepository.findCredit(customerName));
         } catch (SQLException e) {
             e.printStackTrace();
             return false; // Fail safe
@@ -28,14 +25,34 @@ public class CreditService {
 
     public boolean checkOverdueInvoices(String customerName) {
         try {
-            List<Invoice> invoices = invoiceRepository.findByCustomer(customerName);
-            LocalDate now = LocalDate.now();
-            return invoices.stream()
-                    .filter(i -> !i.isPaid())
-                    .noneMatch(i -> i.getDueDate().isBefore(now));
+            return !invoiceRepository.findCredit(customerName).hasOverdueInvoices(LocalDate.now());
         } catch (SQLException e) {
             e.printStackTrace();
             return false; // Fail safe
         }
     }
+
+    /**
+     * Runs both checks on a single read of the customer's credit row. Returns null when the customer may
+     * order, otherwise the reason the order is refused.
+     */
+    public String checkOrder(String customerName) {
+        try {
+            CustomerCredit credit = invoiceRepository.findCredit(customerName);
+            if (!withinLimit(credit)) {
+                return CREDIT_LIMIT_EXCEEDED;
+            }
+            if (credit.hasOverdueInvoices(LocalDate.now())) {
+                return OVERDUE_INVOICES;
+            }
+            return null;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return CREDIT_LIMIT_EXCEEDED; // Fail safe
+        }
+    }
+
+    private boolean withinLimit(CustomerCredit credit) {
+        return credit.getOutstandingAmount() <= CREDIT_LIMIT;
+    }
 }
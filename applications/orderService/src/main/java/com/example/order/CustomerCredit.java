@@ -0,0 +1,26 @@
+package com.example.order;
+
+import java.time.LocalDate;
+
+public class CustomerCredit {
+    private final String customerName;
+    private final double outstandingAmount;
+    private final LocalDate earliestUnpaidDueDate;
+
+    public CustomerCredit(String customerName, double outstandingAmount, LocalDate earliestUnpaidDueDate) {
+        this.customerName = customerName;
+        this.outstandingAmount = outstandingAmount;
+        this.earliestUnpaidDueDate = earliestUnpaidDueDate;
+    }
+
+    public String getCustomerName() { return customerName; }
+
+    public double getOutstandingAmount() { return outstandingAmount; }
+
+    // Null when the customer has no unpaid invoices
+    public LocalDate getEarliestUnpaidDueDate() { return earliestUnpaidDueDate; }
+
+    public boolean hasOverdueInvoices(LocalDate today) {
+        return earliestUnpaidDueDate != null && earliestUnpaidDueDate.isBefore(today);
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.order;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class CustomerOrderSummary {
+    private final String customerName;
+    private final Map<String, Integer> statusCounts = new LinkedHashMap<>();
+    private int orderCount;
+    private long pointsEarned;
+    private long pointsRedeemed;
+
+    public CustomerOrderSummary(String customerName) {
+        this.customerName = customerName;
+    }
+
+    public String getCustomerName() { return customerName; }
+
+    public int getOrderCount() { return orderCount; }
+
+    public long getPointsEarned() { return pointsEarned; }
+
+    public long getPointsRedeemed() { return pointsRedeemed; }
+
+    public Map<String, Integer> getStatusCounts() { return statusCounts; }
+
+    public void addStatus(String status, int orders, long earned, long redeemed) {
+        if (orders > 0) {
+            statusCounts.merge(status, orders, Integer::sum);
+        }
+        orderCount += orders;
+        pointsEarned += earned;
+        pointsRedeemed += redeemed;
+    }
+}
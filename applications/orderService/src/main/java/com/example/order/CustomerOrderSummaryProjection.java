@@ -0,0 +1,307 @@
+package com.example.order;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Keeps customer_order_summary in step with the orders table. There is one row per customer and status
+ * holding how many of the customer's orders are in that status and the points earned and redeemed on
+ * them, so a customer's summary is a single primary-key range read. OrderRepository applies the deltas
+ * in the same transaction as the order change, so the summary never drifts from the orders it counts.
+ * The same deltas, summed per status over all customers, keep order_status_counts in step.
+ */
+public class CustomerOrderSummaryProjection {
+
+    static final String UNKNOWN_STATUS = "UNKNOWN";
+    private static final String ADD_ON_CONFLICT = "ON CONFLICT (customer_name, status) DO UPDATE SET " +
+            "order_count = customer_order_summary.order_count + EXCLUDED.order_count, " +
+            "points_earned = customer_order_summary.points_earned + EXCLUDED.points_earned, " +
+            "points_redeemed = customer_order_summary.points_redeemed + EXCLUDED.points_redeemed, " +
+            "updated_at = CURRENT_TIMESTAMP";
+
+    private final Connection connection;
+    private final OrderStatusCounters statusCounters;
+
+    public CustomerOrderSummaryProjection(Connection connection) {
+        this(connection, null);
+    }
+
+    // statusCounters, when given, receives the per-status deltas once they have committed
+    public CustomerOrderSummaryProjection(Connection connection, OrderStatusCounters statusCounters) {
+        this.connection = connection;
+        this.statusCounters = statusCounters;
+    }
+
+    /** The columns of an order the summary depends on, as they were before a change. */
+    static class OrderState {
+        final int orderId;
+        final String customerName;
+        final String status;
+        final int pointsEarned;
+        final int pointsRedeemed;
+
+        OrderState(int orderId, String customerName, String status, int pointsEarned, int pointsRedeemed) {
+            this.orderId = orderId;
+            this.customerName = customerName;
+            this.status = status != null ? status : UNKNOWN_STATUS;
+            this.pointsEarned = pointsEarned;
+            this.pointsRedeemed = pointsRedeemed;
+        }
+    }
+
+    public CustomerOrderSummary find(String customerName) throws SQLException {
+        return find(connection, customerName);
+    }
+
+    // Reads through the given connection, which may be a replica of the one the projection writes to
+    public CustomerOrderSummary find(Connection source, String customerName) throws SQLException {
+        String sql = "SELECT status, order_count, points_earned, points_redeemed FROM customer_order_summary " +
+                     "WHERE customer_name = ? ORDER BY status";
+        return Transactions.withConnection(source, () -> {
+            CustomerOrderSummary summary = new CustomerOrderSummary(customerName);
+            try (PreparedStatement stmt = source.prepareStatement(sql)) {
+                stmt.setString(1, customerName);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        summary.addStatus(rs.getString(1), rs.getInt(2), rs.getLong(3), rs.getLong(4));
+                    }
+                }
+            }
+            return summary;
+        });
+    }
+
+    /**
+     * Locks the given orders and returns their current state, keyed by order id. Orders that do not
+     * exist are left out.
+     */
+    Map<Integer, OrderState> lockOrders(Collection<Integer> orderIds) throws SQLException {
+        Map<Integer, OrderState> states = new HashMap<>();
+        if (orderIds.isEmpty()) {
+            return states;
+        }
+        StringBuilder sql = new StringBuilder("SELECT id, customer_name, status, points_earned, points_redeemed FROM orders WHERE id IN (");
+        for (int i = 0; i < orderIds.size(); i++) {
+            sql.append(i > 0 ? ", ?" : "?");
+        }
+        sql.append(") FOR UPDATE");
+        try (PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+            int index = 1;
+            for (Integer id : orderIds) {
+                stmt.setInt(index++, id);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    OrderState state = new OrderState(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getInt(4), rs.getInt(5));
+                    states.put(state.orderId, state);
+                }
+            }
+        }
+        return states;
+    }
+
+    public void orderCreated(Order order) throws SQLException {
+        ordersCreated(List.of(order));
+    }
+
+    public void ordersCreated(Collection<Order> orders) throws SQLException {
+        Deltas deltas = new Deltas();
+        for (Order order : orders) {
+            deltas.add(order.getCustomerName(), order.getStatus(), 1, order.getPointsEarned(), order.getPointsToRedeem());
+        }
+        apply(deltas);
+    }
+
+    /**
+     * Adds orders loaded set-wise on PostgreSQL. The table must have the customer_name, status,
+     * points_earned and points_redeemed columns of orders.
+     */
+    void ordersImported(String table) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("INSERT INTO customer_order_summary (customer_name, status, order_count, points_earned, points_redeemed, updated_at) " +
+                               "SELECT customer_name, COALESCE(status, '" + UNKNOWN_STATUS + "'), COUNT(*), " +
+                               "COALESCE(SUM(points_earned), 0), COALESCE(SUM(points_redeemed), 0), CURRENT_TIMESTAMP FROM " + table + " " +
+                               "WHERE customer_name IS NOT NULL GROUP BY customer_name, COALESCE(status, '" + UNKNOWN_STATUS + "') " +
+                               ADD_ON_CONFLICT);
+            stmt.executeUpdate("INSERT INTO order_status_counts (status, order_count, updated_at) " +
+                               "SELECT COALESCE(status, '" + UNKNOWN_STATUS + "'), COUNT(*), CURRENT_TIMESTAMP FROM " + table + " " +
+                               "GROUP BY COALESCE(status, '" + UNKNOWN_STATUS + "') " +
+                               "ON CONFLICT (status) DO UPDATE SET order_count = order_status_counts.order_count + EXCLUDED.order_count, " +
+                               "updated_at = CURRENT_TIMESTAMP");
+        }
+    }
+
+    /** Moves each order, with its points, from the status it had to the status it now has. */
+    void statusesChanged(Collection<OrderState> before, Map<Integer, String> newStatuses) throws SQLException {
+        Deltas deltas = new Deltas();
+        for (OrderState old : before) {
+            String status = newStatuses.get(old.orderId);
+            if (status == null || status.equals(old.status)) {
+                continue;
+            }
+            deltas.add(old.customerName, old.status, -1, -old.pointsEarned, -old.pointsRedeemed);
+            deltas.add(old.customerName, status, 1, old.pointsEarned, old.pointsRedeemed);
+        }
+        apply(deltas);
+    }
+
+    void pointsEarnedChanged(OrderState before, int pointsEarned) throws SQLException {
+        Deltas deltas = new Deltas();
+        deltas.add(before.customerName, before.status, 0, pointsEarned - before.pointsEarned, 0);
+        apply(deltas);
+    }
+
+    /**
+     * Fills the projection from the orders table when it is empty, which is the case the first time the
+     * service starts against a database that already holds orders.
+     */
+    public void rebuildIfEmpty() throws SQLException {
+        Transactions.run(connection, () -> {
+            try (Statement stmt = connection.createStatement()) {
+                if (isEmpty(stmt, "customer_order_summary")) {
+                    int rows = stmt.executeUpdate(
+                            "INSERT INTO customer_order_summary (customer_name, status, order_count, points_earned, points_redeemed) " +
+                            "SELECT customer_name, COALESCE(status, '" + UNKNOWN_STATUS + "'), COUNT(*), " +
+                            "COALESCE(SUM(points_earned), 0), COALESCE(SUM(points_redeemed), 0) FROM orders " +
+                            "WHERE customer_name IS NOT NULL GROUP BY customer_name, COALESCE(status, '" + UNKNOWN_STATUS + "')");
+                    System.out.println("CustomerOrderSummaryProjection: Rebuilt " + rows + " summary rows from orders");
+                }
+                if (isEmpty(stmt, "order_status_counts")) {
+                    int rows = stmt.executeUpdate(
+                            "INSERT INTO order_status_counts (status, order_count) " +
+                            "SELECT COALESCE(status, '" + UNKNOWN_STATUS + "'), COUNT(*) FROM orders GROUP BY COALESCE(status, '" + UNKNOWN_STATUS + "')");
+                    System.out.println("CustomerOrderSummaryProjection: Rebuilt " + rows + " status counters from orders");
+                }
+            }
+            return null;
+        });
+    }
+
+    private static boolean isEmpty(Statement stmt, String table) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT 1 FROM " + table + " FETCH FIRST 1 ROWS ONLY")) {
+            return !rs.next();
+        }
+    }
+
+    private void apply(Deltas deltas) throws SQLException {
+        applyStatusCounts(deltas.statusCounts());
+        if (deltas.isEmpty()) {
+            return;
+        }
+        String sql = SqlDialect.isPostgres(connection)
+                ? "INSERT INTO customer_order_summary (customer_name, status, order_count, points_earned, points_redeemed, updated_at) " +
+                  "VALUES (?, ?, ?, ?, ?, CURRENT_TIMESTAMP) " + ADD_ON_CONFLICT
+                : "MERGE INTO customer_order_summary s USING (VALUES (CAST(? AS VARCHAR(255)), CAST(? AS VARCHAR(255)), " +
+                  "CAST(? AS INT), CAST(? AS BIGINT), CAST(? AS BIGINT))) AS d(customer_name, status, order_count, points_earned, points_redeemed) " +
+                  "ON s.customer_name = d.customer_name AND s.status = d.status " +
+                  "WHEN MATCHED THEN UPDATE SET order_count = s.order_count + d.order_count, " +
+                  "points_earned = s.points_earned + d.points_earned, points_redeemed = s.points_redeemed + d.points_redeemed, " +
+                  "updated_at = CURRENT_TIMESTAMP " +
+                  "WHEN NOT MATCHED THEN INSERT (customer_name, status, order_count, points_earned, points_redeemed, updated_at) " +
+                  "VALUES (d.customer_name, d.status, d.order_count, d.points_earned, d.points_redeemed, CURRENT_TIMESTAMP)";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            for (Map.Entry<Key, long[]> entry : deltas.entries()) {
+                long[] delta = entry.getValue();
+                stmt.setString(1, entry.getKey().customerName);
+                stmt.setString(2, entry.getKey().status);
+                stmt.setInt(3, (int) delta[0]);
+                stmt.setLong(4, delta[1]);
+                stmt.setLong(5, delta[2]);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    private void applyStatusCounts(Map<String, Long> counts) throws SQLException {
+        if (counts.isEmpty()) {
+            return;
+        }
+        String sql = SqlDialect.isPostgres(connection)
+                ? "INSERT INTO order_status_counts (status, order_count, updated_at) VALUES (?, ?, CURRENT_TIMESTAMP) " +
+                  "ON CONFLICT (status) DO UPDATE SET order_count = order_status_counts.order_count + EXCLUDED.order_count, " +
+                  "updated_at = CURRENT_TIMESTAMP"
+                : "MERGE INTO order_status_counts c USING (VALUES (CAST(? AS VARCHAR(50)), CAST(? AS BIGINT))) AS d(status, order_count) " +
+                  "ON c.status = d.status " +
+                  "WHEN MATCHED THEN UPDATE SET order_count = c.order_count + d.order_count, updated_at = CURRENT_TIMESTAMP " +
+                  "WHEN NOT MATCHED THEN INSERT (status, order_count, updated_at) VALUES (d.status, d.order_count, CURRENT_TIMESTAMP)";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            for (Map.Entry<String, Long> count : counts.entrySet()) {
+                stmt.setString(1, count.getKey());
+                stmt.setLong(2, count.getValue());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+        if (statusCounters != null) {
+            Transactions.afterCommit(connection, () -> statusCounters.committed(counts));
+        }
+    }
+
+    // Changes summed per (customer, status) so a batch touching many orders of one customer writes each row once,
+    // and per status over all orders, including those without a customer
+    private static class Deltas {
+        private final Map<Key, long[]> byKey = new LinkedHashMap<>();
+        private final Map<String, Long> byStatus = new TreeMap<>();
+
+        void add(String customerName, String status, int orders, long earned, long redeemed) {
+            String key = status != null ? status : UNKNOWN_STATUS;
+            if (orders != 0) {
+                byStatus.merge(key, (long) orders, Long::sum);
+            }
+            if (customerName == null) {
+                return;
+            }
+            long[] delta = byKey.computeIfAbsent(new Key(customerName, key), k -> new long[3]);
+            delta[0] += orders;
+            delta[1] += earned;
+            delta[2] += redeemed;
+        }
+
+        boolean isEmpty() {
+            byKey.values().removeIf(d -> d[0] == 0 && d[1] == 0 && d[2] == 0);
+            return byKey.isEmpty();
+        }
+
+        Map<String, Long> statusCounts() {
+            byStatus.values().removeIf(count -> count == 0);
+            return byStatus;
+        }
+
+        Collection<Map.Entry<Key, long[]>> entries() {
+            return byKey.entrySet();
+        }
+    }
+
+    private static class Key {
+        final String customerName;
+        final String status;
+
+        Key(String customerName, String status) {
+            this.customerName = customerName;
+            this.status = status;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return customerName.equals(other.customerName) && status.equals(other.status);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(customerName, status);
+        }
+    }
+}
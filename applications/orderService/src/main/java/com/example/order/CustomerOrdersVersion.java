@@ -0,0 +1,27 @@
+package com.example.order;
+
+public class CustomerOrdersVersion {
+    private final int orderCount;
+    private final int maxOrderId;
+    private final long changeVersion;
+
+    public CustomerOrdersVersion(int orderCount, int maxOrderId, long changeVersion) {
+        this.orderCount = orderCount;
+        this.maxOrderId = maxOrderId;
+        this.changeVersion = changeVersion;
+    }
+
+    public int getOrderCount() { return orderCount; }
+
+    public int getMaxOrderId() { return maxOrderId; }
+
+    // Version token accepted by ?since=: the customer's change counter, 0 when no order has been written since it existed
+    public long getVersion() { return changeVersion; }
+
+    // ETag of one page of the list: the same orders read with other paging, since or scope are another representation
+    public String toETag(Integer afterId, int limit, Long sinceVersion, boolean includeHistory) {
+        return "\"" + orderCount + "-" + maxOrderId + "-" + changeVersion +
+               ";after=" + (afterId != null ? afterId : "") + ";limit=" + limit +
+               ";since=" + (sinceVersion != null ? sinceVersion : "") + ";scope=" + (includeHistory ? "all" : "hot") + "\"";
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.order;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Protects callers from one downstream service. Every call gets a deadline, at most maxConcurrent
+ * calls are in flight at once (further calls are rejected, not queued), and a circuit breaker opens
+ * after failureThreshold consecutive failures. While open, calls fail immediately with
+ * DownstreamUnavailableException. After openMs a limited number of probe calls are let through; the
+ * first successful probe closes the breaker and a failed one opens it again. Only probes move the
+ * breaker out of half-open: calls admitted before it opened, or probes of an earlier half-open
+ * period, are counted in the statistics when they complete but leave the state alone.
+ */
+public class DownstreamGuard {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final long timeoutMs;
+    private final int maxConcurrent;
+    private final int failureThreshold;
+    private final long openMs;
+    private final int halfOpenProbes;
+    private final LongSupplier clock;
+    private final Semaphore bulkhead;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private int probesInFlight;
+    // Numbers the half-open periods, so a probe's outcome only applies to the period it was let through in
+    private long halfOpenPeriod;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong bulkheadRejections = new AtomicLong();
+    private final AtomicLong breakerRejections = new AtomicLong();
+
+    public DownstreamGuard(String name, long timeoutMs, int maxConcurrent, int failureThreshold, long openMs, int halfOpenProbes) {
+        this(name, timeoutMs, maxConcurrent, failureThreshold, openMs, halfOpenProbes, System::currentTimeMillis);
+    }
+
+    DownstreamGuard(String name, long timeoutMs, int maxConcurrent, int failureThreshold, long openMs, int halfOpenProbes, LongSupplier clock) {
+        this.name = name;
+        this.timeoutMs = timeoutMs;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMs = openMs;
+        this.halfOpenProbes = Math.max(1, halfOpenProbes);
+        this.clock = clock;
+        this.bulkhead = new Semaphore(this.maxConcurrent);
+    }
+
+    /**
+     * Reads the settings from environment variables named after the prefix, e.g. LOYALTY_TIMEOUT_MS,
+     * LOYALTY_MAX_CONCURRENT, LOYALTY_BREAKER_FAILURES, LOYALTY_BREAKER_OPEN_MS and
+     * LOYALTY_BREAKER_PROBES.
+     */
+    public static DownstreamGuard fromEnv(String name, String prefix) {
+        return new DownstreamGuard(name,
+                Long.parseLong(System.getenv().getOrDefault(prefix + "_TIMEOUT_MS", "3000")),
+                Integer.parseInt(System.getenv().getOrDefault(prefix + "_MAX_CONCURRENT", "32")),
+                Integer.parseInt(System.getenv().getOrDefault(prefix + "_BREAKER_FAILURES", "5")),
+                Long.parseLong(System.getenv().getOrDefault(prefix + "_BREAKER_OPEN_MS", "10000")),
+                Integer.parseInt(System.getenv().getOrDefault(prefix + "_BREAKER_PROBES", "1")));
+    }
+
+    /** Sends the request with the deadline applied. 5xx responses count as failures but are still returned. */
+    public CompletableFuture<HttpResponse<String>> send(HttpClient client, HttpRequest.Builder request) {
+        return call(() -> client.sendAsync(request.timeout(Duration.ofMillis(timeoutMs)).build(), HttpResponse.BodyHandlers.ofString()),
+                response -> response.statusCode() >= 500);
+    }
+
+    public <T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> call, Predicate<T> isFailure) {
+        long probeOf;
+        synchronized (this) {
+            if (state == State.OPEN && clock.getAsLong() - openedAt >= openMs) {
+                state = State.HALF_OPEN;
+                probesInFlight = 0;
+                halfOpenPeriod++;
+            }
+            if (state == State.OPEN || (state == State.HALF_OPEN && probesInFlight >= halfOpenProbes)) {
+                breakerRejections.incrementAndGet();
+                return CompletableFuture.failedFuture(new DownstreamUnavailableException(name, "circuit breaker open", retryAfterMs()));
+            }
+            probeOf = state == State.HALF_OPEN ? halfOpenPeriod : -1;
+            if (probeOf >= 0) {
+                probesInFlight++;
+            }
+        }
+        if (!bulkhead.tryAcquire()) {
+            bulkheadRejections.incrementAndGet();
+            synchronized (this) {
+                if (isCurrentProbe(probeOf)) {
+                    probesInFlight--;
+                }
+            }
+            return CompletableFuture.failedFuture(new DownstreamUnavailableException(name, maxConcurrent + " calls already in flight", 1000));
+        }
+
+        calls.incrementAndGet();
+        CompletableFuture<T> future;
+        try {
+            future = call.get().orTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        return future.whenComplete((result, error) -> {
+            bulkhead.release();
+            boolean failed = error != null || isFailure.test(result);
+            if (error instanceof TimeoutException || (error != null && error.getCause() instanceof TimeoutException)) {
+                timeouts.incrementAndGet();
+            }
+            onComplete(failed, probeOf);
+        });
+    }
+
+    private boolean isCurrentProbe(long probeOf) {
+        return probeOf >= 0 && state == State.HALF_OPEN && probeOf == halfOpenPeriod;
+    }
+
+    private synchronized void onComplete(boolean failed, long probeOf) {
+        boolean probe = isCurrentProbe(probeOf);
+        if (probe) {
+            probesInFlight--;
+        }
+        if (failed) {
+            failures.incrementAndGet();
+            if (probe || (state == State.CLOSED && ++consecutiveFailures >= failureThreshold)) {
+                System.out.println("DownstreamGuard: Opening circuit breaker for " + name);
+                state = State.OPEN;
+                openedAt = clock.getAsLong();
+            }
+        } else if (probe) {
+            System.out.println("DownstreamGuard: Closing circuit breaker for " + name);
+            state = State.CLOSED;
+            consecutiveFailures = 0;
+        } else if (state == State.CLOSED) {
+            consecutiveFailures = 0;
+        }
+    }
+
+    private long retryAfterMs() {
+        return Math.max(1000, openMs - (clock.getAsLong() - openedAt));
+    }
+
+    public String getName() { return name; }
+
+    public long getTimeoutMs() { return timeoutMs; }
+
+    public synchronized State getState() { return state; }
+
+    public int getInFlight() { return maxConcurrent - bulkhead.availablePermits(); }
+
+    public String toJson() {
+        State current = getState();
+        return "{\"name\":\"" + name + "\",\"state\":\"" + current + "\",\"inFlight\":" + getInFlight() +
+               ",\"maxConcurrent\":" + maxConcurrent + ",\"timeoutMs\":" + timeoutMs +
+               ",\"calls\":" + calls.get() + ",\"failures\":" + failures.get() + ",\"timeouts\":" + timeouts.get() +
+               ",\"bulkheadRejections\":" + bulkheadRejections.get() + ",\"breakerRejections\":" + breakerRejections.get() + "}";
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.order;
+
+/**
+ * Thrown without calling the downstream service when its circuit breaker is open or its bulkhead is
+ * full. Callers answer with 503 and Retry-After instead of waiting on a service that is known to be
+ * struggling.
+ */
+public class DownstreamUnavailableException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String downstream;
+    private final long retryAfterMs;
+
+    public DownstreamUnavailableException(String downstream, String reason, long retryAfterMs) {
+        super(downstream + " unavailable: " + reason);
+        this.downstream = downstream;
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    public String getDownstream() { return downstream; }
+
+    public long getRetryAfterMs() { return retryAfterMs; }
+
+    // Futures wrap failures in CompletionException, sometimes more than once
+    public static DownstreamUnavailableException find(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DownstreamUnavailableException) {
+                return (DownstreamUnavailableException) cause;
+            }
+        }
+        return null;
+    }
+}
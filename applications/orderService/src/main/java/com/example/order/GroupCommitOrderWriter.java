@@ -0,0 +1,154 @@
+package com.example.order;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes orders from concurrent callers in shared transactions. A single writer thread takes the first
+ * waiting order, keeps collecting until maxBatch orders are waiting or maxDelayMs has passed since the
+ * first one arrived, and inserts them all with OrderRepository.createOrders, so a burst of N orders costs
+ * a handful of commits instead of N. Each caller waits for and gets the id of its own order. When a batch
+ * fails its orders are retried one by one, so a bad order only fails its own caller; this relies on
+ * createOrders being all or nothing, which holds for a single database.
+ */
+public class GroupCommitOrderWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(GroupCommitOrderWriter.class);
+
+    private static class Pending {
+        final Order order;
+        final CompletableFuture<Integer> id = new CompletableFuture<>();
+
+        Pending(Order order) {
+            this.order = order;
+        }
+    }
+
+    private final OrderStore repository;
+    private final int maxBatch;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong orders = new AtomicLong();
+    private volatile Thread writer;
+
+    public GroupCommitOrderWriter(OrderStore repository, int maxBatch, long maxDelayMs) {
+        this.repository = repository;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxDelayMs));
+    }
+
+    public void start() {
+        Thread thread = new Thread(this::run, "order-group-commit");
+        thread.setDaemon(true);
+        writer = thread;
+        thread.start();
+        logger.info("Group commit of orders started (up to {} orders or {} ms per transaction)",
+                maxBatch, TimeUnit.NANOSECONDS.toMillis(maxDelayNanos));
+    }
+
+    public void stop() {
+        Thread thread = writer;
+        writer = null;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    public CompletableFuture<Integer> submit(Order order) {
+        if (writer == null) {
+            throw new IllegalStateException("Group commit writer is not running");
+        }
+        Pending pending = new Pending(order);
+        queue.add(pending);
+        return pending.id;
+    }
+
+    /** Queues the order and blocks until the transaction holding it has committed. */
+    public int createOrder(Order order) throws SQLException {
+        try {
+            return submit(order).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SQLException("Creating order failed", cause);
+        }
+    }
+
+    public long getCommits() { return commits.get(); }
+
+    public long getOrders() { return orders.get(); }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        boolean stopped = false;
+        while (!stopped) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatch) {
+                    Pending next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                stopped = true;
+            }
+            flush(batch);
+            batch.clear();
+        }
+        for (Pending pending; (pending = queue.poll()) != null; ) {
+            pending.id.completeExceptionally(new IllegalStateException("Group commit writer stopped"));
+        }
+    }
+
+    private void flush(List<Pending> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Order> batchOrders = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            batchOrders.add(pending.order);
+        }
+        try {
+            List<Integer> ids = repository.createOrders(batchOrders);
+            commits.incrementAndGet();
+            orders.addAndGet(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).id.complete(ids.get(i));
+            }
+        } catch (SQLException | RuntimeException e) {
+            if (batch.size() == 1) {
+                batch.get(0).id.completeExceptionally(e);
+                return;
+            }
+            logger.warn("Group commit of {} orders failed, writing them one by one: {}", batch.size(), e.getMessage());
+            for (Pending pending : batch) {
+                try {
+                    pending.id.complete(repository.createOrder(pending.order));
+                    commits.incrementAndGet();
+                    orders.incrementAndGet();
+                } catch (SQLException | RuntimeException single) {
+                    pending.id.completeExceptionally(single);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.order;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The HttpClient shared by every outbound integration, so that all of them draw on one connection pool
+ * per host and one bounded set of threads. HTTP/2 is preferred and the client falls back to HTTP/1.1
+ * with keep-alive when the server does not offer it.
+ */
+public final class HttpClients {
+
+    private HttpClients() {}
+
+    private static class Holder {
+        static final HttpClient SHARED = create(Integer.parseInt(System.getenv().getOrDefault("HTTP_CLIENT_THREADS",
+                String.valueOf(Math.max(4, Runtime.getRuntime().availableProcessors())))));
+    }
+
+    public static HttpClient shared() {
+        return Holder.SHARED;
+    }
+
+    // Response handling runs on these threads; a fixed pool keeps a slow downstream from spawning threads without bound
+    public static HttpClient create(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "order-http-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(executor)
+                .build();
+    }
+}
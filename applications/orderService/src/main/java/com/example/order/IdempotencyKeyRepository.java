@@ -0,0 +1,222 @@
+package com.example.order;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the response sent for each Idempotency-Key. The table's primary key makes a key unique
+ * across replicas; completed responses are also kept in a bounded LRU so that retry storms are
+ * answered without a database round trip. Each key records a fingerprint of the customer and request
+ * body it was first used with, so a reused key is not answered with another request's response, and
+ * when it was claimed, so a claim left behind by a request that died can be taken over. Keys are
+ * purged once they are older than the retention period.
+ */
+public class IdempotencyKeyRepository {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyKeyRepository.class);
+
+    private static final String UNIQUE_VIOLATION_CLASS = "23";
+
+    private final Connection connection;
+    private final long claimTimeoutMs;
+    private final Map<String, StoredResponse> recent;
+    private ScheduledExecutorService scheduler;
+
+    public IdempotencyKeyRepository(Connection connection, int cacheSize) {
+        this(connection, cacheSize, 60_000);
+    }
+
+    public IdempotencyKeyRepository(Connection connection, int cacheSize, long claimTimeoutMs) {
+        this.connection = connection;
+        this.claimTimeoutMs = claimTimeoutMs;
+        this.recent = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, StoredResponse> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /** SHA-256 of the customer and the request body, hex encoded. */
+    public static String fingerprint(String customerName, String body) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.valueOf(customerName).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(body.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Claims the key for the calling request. Returns null when the caller should process the request:
+     * the key is new, or its last claim is older than the claim timeout and still has no response, which
+     * means the request holding it died. Otherwise returns the stored response, which is still in progress
+     * when the request holding the key has not finished yet. Callers must check that the stored response
+     * matches their fingerprint before replaying it.
+     */
+    public StoredResponse claim(String key, String fingerprint) throws SQLException {
+        StoredResponse cached = cached(key);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            // Own transaction, so a duplicate key never aborts a transaction another thread has open
+            Transactions.run(connection, () -> {
+                String sql = "INSERT INTO idempotency_keys (idempotency_key, request_hash, claimed_at) VALUES (?, ?, ?)";
+                try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                    stmt.setString(1, key);
+                    stmt.setString(2, fingerprint);
+                    stmt.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+                    stmt.executeUpdate();
+                }
+                return null;
+            });
+            return null;
+        } catch (SQLException e) {
+            if (e.getSQLState() == null || !e.getSQLState().startsWith(UNIQUE_VIOLATION_CLASS)) {
+                throw e;
+            }
+        }
+        StoredResponse stored = find(key);
+        if (stored == null) {
+            // Released by a failed request in the meantime
+            return claim(key, fingerprint);
+        }
+        if (!stored.isInProgress()) {
+            remember(key, stored);
+        } else if (stored.matches(fingerprint) && takeOver(key)) {
+            System.out.println("IdempotencyKeyRepository: Took over stale claim on " + key);
+            return null;
+        }
+        return stored;
+    }
+
+    // Moves a claim that has had no response for claimTimeoutMs to the caller. Only one caller's update matches.
+    private boolean takeOver(String key) throws SQLException {
+        String sql = "UPDATE idempotency_keys SET claimed_at = ? WHERE idempotency_key = ? " +
+                     "AND response_status IS NULL AND COALESCE(claimed_at, created_at) < ?";
+        long now = System.currentTimeMillis();
+        return Transactions.withConnection(connection, () -> {
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                stmt.setTimestamp(1, new Timestamp(now));
+                stmt.setString(2, key);
+                stmt.setTimestamp(3, new Timestamp(now - claimTimeoutMs));
+                return stmt.executeUpdate() == 1;
+            }
+        });
+    }
+
+    public void complete(String key, int orderId, int statusCode, String body) throws SQLException {
+        String sql = "UPDATE idempotency_keys SET order_id = ?, response_status = ?, response_body = ? WHERE idempotency_key = ?";
+        String fingerprint = Transactions.withConnection(connection, () -> {
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                stmt.setInt(1, orderId);
+                stmt.setInt(2, statusCode);
+                stmt.setString(3, body);
+                stmt.setString(4, key);
+                stmt.executeUpdate();
+            }
+            StoredResponse stored = find(key);
+            return stored != null ? stored.getRequestHash() : null;
+        });
+        remember(key, new StoredResponse(statusCode, body, fingerprint));
+    }
+
+    // Frees a key whose request failed before it changed anything, so a retry can run again
+    public void release(String key) throws SQLException {
+        String sql = "DELETE FROM idempotency_keys WHERE idempotency_key = ? AND response_status IS NULL";
+        Transactions.withConnection(connection, () -> {
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                stmt.setString(1, key);
+                return stmt.executeUpdate();
+            }
+        });
+    }
+
+    /** Deletes keys created before the cutoff, answered or not, and returns how many were deleted. */
+    public int purgeCreatedBefore(Timestamp cutoff) throws SQLException {
+        String sql = "DELETE FROM idempotency_keys WHERE created_at < ?";
+        int purged = Transactions.withConnection(connection, () -> {
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                stmt.setTimestamp(1, cutoff);
+                return stmt.executeUpdate();
+            }
+        });
+        // Purged keys must not live on in the cache; completed ones still there are simply read again
+        synchronized (recent) {
+            recent.clear();
+        }
+        return purged;
+    }
+
+    private StoredResponse find(String key) throws SQLException {
+        String sql = "SELECT response_status, response_body, request_hash FROM idempotency_keys WHERE idempotency_key = ?";
+        return Transactions.withConnection(connection, () -> {
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                stmt.setString(1, key);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        return new StoredResponse(rs.getInt("response_status"), rs.getString("response_body"), rs.getString("request_hash"));
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    private StoredResponse cached(String key) {
+        synchronized (recent) {
+            return recent.get(key);
+        }
+    }
+
+    private void remember(String key, StoredResponse response) {
+        synchronized (recent) {
+            recent.put(key, response);
+        }
+    }
+
+    /** Purges keys older than retentionMs every purgeIntervalMs. */
+    public void start(long purgeIntervalMs, long retentionMs) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "idempotency-key-purge");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                int purged = purgeCreatedBefore(new Timestamp(System.currentTimeMillis() - retentionMs));
+                if (purged > 0) {
+                    logger.info("Purged {} idempotency keys older than {} ms", purged, retentionMs);
+                }
+            } catch (Exception e) {
+                logger.error("Purging idempotency keys failed", e);
+            }
+        }, purgeIntervalMs, purgeIntervalMs, TimeUnit.MILLISECONDS);
+        logger.info("Idempotency keys are kept for {} ms and purged every {} ms", retentionMs, purgeIntervalMs);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -12,18 +12,30 @@ import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 
 public class InvoiceController implements HttpHandler {
 
-    private final InvoiceRepository repository;
-    private final OrderRepository orderRepository;
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
 
-    public InvoiceController(InvoiceRepository repository, OrderRepository orderRepository) {
+    private final InvoiceStore repository;
+    private final OrderStore orderRepository;
+    private final StreamingExporter exporter;
+
+    public InvoiceController(InvoiceStore repository, OrderStore orderRepository, StreamingExporter exporter) {
         this.repository = repository;
         this.orderRepository = orderRepository;
+        this.exporter = exporter;
+    }
+
+    public InvoiceController(InvoiceStore repository, OrderStore orderRepository) {
+        this(repository, orderRepository, null);
     }
 
-    public InvoiceController(InvoiceRepository repository) {
+    public InvoiceController(InvoiceStore repository) {
         this(repository, null);
     }
 
@@ -60,25 +72,54 @@ public class InvoiceController implements HttpHandler {
             } else {
                 exchange.sendResponseHeaders(405, -1);
             }
+        } else if ("/invoices/export".equals(path) && exporter != null) {
+            if ("GET".equalsIgnoreCase(method)) {
+                String query = exchange.getRequestURI().getRawQuery();
+                StreamingExporter.respond(exchange, query == null ? new HashMap<>() : parseFormData(query), "invoices", exporter::exportInvoices);
+            } else {
+                exchange.sendResponseHeaders(405, -1);
+            }
         } else {
             exchange.sendResponseHeaders(404, -1);
         }
     }
 
+    // Filters: state=paid|unpaid|overdue, customer, dueFrom and dueTo (yyyy-MM-dd). Paged by afterId and limit.
     private void handleListInvoices(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        Map<String, String> params = query == null ? new HashMap<>() : parseFormData(query);
+        InvoiceFilter filter;
+        Integer afterId;
+        int limit;
+        try {
+            filter = parseFilter(params);
+            afterId = parseAfterId(params);
+            limit = parseLimit(params);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            byte[] bytes = ("Invalid invoice filter: " + e.getMessage()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(400, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+            return;
+        }
+
         try {
-            List<Invoice> invoices = repository.findAll();
+            List<Invoice> invoices = repository.findPage(filter, afterId, limit);
+            String filterQuery = toQuery(params);
             StringBuilder sb = new StringBuilder();
             sb.append("<!DOCTYPE html><html><head><style>").append(CSS).append("</style></head><body><div class='container'>");
             sb.append(getHeader());
             sb.append("<h1>Invoices</h1>");
+            appendFilterForm(sb, params);
             sb.append("<table><thead><tr><th>ID</th><th>Order ID</th><th>Customer</th><th>Amount</th><th>Due Date</th><th>Paid</th><th>Action</th></tr></thead><tbody>");
             
             for (Invoice i : invoices) {
                 sb.append("<tr>");
                 sb.append("<td>").append(i.getId()).append("</td>");
                 sb.append("<td>").append(i.getOrderId()).append("</td>");
-                sb.append("<td>").append(i.getCustomerName()).append("</td>");
+                sb.append("<td>").append(escape(i.getCustomerName())).append("</td>");
                 sb.append("<td>").append(i.getAmount()).append("</td>");
                 sb.append("<td>").append(i.getDueDate()).append("</td>");
                 sb.append("<td>").append(i.isPaid() ? "Yes" : "No").append("</td>");
@@ -92,7 +133,15 @@ public class InvoiceController implements HttpHandler {
                 sb.append("</td>");
                 sb.append("</tr>");
             }
-            sb.append("</tbody></table></div></body></html>");
+            sb.append("</tbody></table>");
+            if (afterId != null) {
+                sb.append("<a href='/invoices?").append(escape(filterQuery)).append("limit=").append(limit).append("' class='btn btn-secondary'>Newest</a>");
+            }
+            if (invoices.size() == limit) {
+                int nextAfterId = invoices.get(invoices.size() - 1).getId();
+                sb.append("<a href='/invoices?").append(escape(filterQuery)).append("afterId=").append(nextAfterId).append("&amp;limit=").append(limit).append("' class='btn btn-secondary'>Older Invoices</a>");
+            }
+            sb.append("</div></body></html>");
             
             String response = sb.toString();
             byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
@@ -133,9 +182,78 @@ public class InvoiceController implements HttpHandler {
         if (orderRepository != null) {
             Invoice invoice = repository.findById(invoiceId);
             if (invoice != null) {
-                orderRepository.updateStatus(invoice.getOrderId(), "PAID");
+                orderRepository.updateStatus(invoice.getOrderId(), OrderStatus.PAID.name());
+            }
+        }
+    }
+
+    private void appendFilterForm(StringBuilder sb, Map<String, String> params) {
+        String state = params.getOrDefault("state", "");
+        sb.append("<form action='/invoices' method='get' style='margin-bottom:20px;'>");
+        sb.append("<select name='state'>");
+        for (String option : new String[] {"", "unpaid", "overdue", "paid"}) {
+            sb.append("<option value='").append(option).append("'").append(option.equals(state) ? " selected" : "").append(">")
+              .append(option.isEmpty() ? "all" : option).append("</option>");
+        }
+        sb.append("</select> ");
+        sb.append("<input type='text' name='customer' placeholder='Customer' value='").append(escape(params.getOrDefault("customer", ""))).append("'> ");
+        sb.append("Due from <input type='date' name='dueFrom' value='").append(escape(params.getOrDefault("dueFrom", ""))).append("'> ");
+        sb.append("to <input type='date' name='dueTo' value='").append(escape(params.getOrDefault("dueTo", ""))).append("'> ");
+        sb.append("<button type='submit' class='btn btn-primary'>Filter</button>");
+        sb.append("</form>");
+    }
+
+    private static InvoiceFilter parseFilter(Map<String, String> params) {
+        InvoiceFilter filter = new InvoiceFilter();
+        String state = params.get("state");
+        if (state != null && !state.isEmpty()) {
+            filter.setPaymentState(InvoiceFilter.PaymentState.valueOf(state.toUpperCase()));
+        }
+        String customer = params.get("customer");
+        if (customer != null && !customer.isEmpty()) {
+            filter.setCustomerName(customer);
+        }
+        String dueFrom = params.get("dueFrom");
+        if (dueFrom != null && !dueFrom.isEmpty()) {
+            filter.setDueFrom(LocalDate.parse(dueFrom));
+        }
+        String dueTo = params.get("dueTo");
+        if (dueTo != null && !dueTo.isEmpty()) {
+            filter.setDueTo(LocalDate.parse(dueTo));
+        }
+        return filter;
+    }
+
+    private static Integer parseAfterId(Map<String, String> params) {
+        String afterId = params.get("afterId");
+        return afterId == null || afterId.isEmpty() ? null : Integer.parseInt(afterId);
+    }
+
+    private static int parseLimit(Map<String, String> params) {
+        String limit = params.get("limit");
+        if (limit == null || limit.isEmpty()) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        return Math.max(1, Math.min(MAX_PAGE_SIZE, Integer.parseInt(limit)));
+    }
+
+    // The active filters as a query-string prefix ending in '&', for the paging links
+    private static String toQuery(Map<String, String> params) {
+        StringBuilder query = new StringBuilder();
+        for (String name : new String[] {"state", "customer", "dueFrom", "dueTo"}) {
+            String value = params.get(name);
+            if (value != null && !value.isEmpty()) {
+                query.append(name).append('=').append(URLEncoder.encode(value, StandardCharsets.UTF_8)).append('&');
             }
         }
+        return query.toString();
+    }
+
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("'", "&#39;").replace("\"", "&quot;");
     }
 
     private static Map<String, String> parseFormData(String formData) {
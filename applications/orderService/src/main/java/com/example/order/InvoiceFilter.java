@@ -0,0 +1,29 @@
+package com.example.order;
+
+import java.time.LocalDate;
+
+/**
+ * Criteria for the invoice listing. Every field is optional; null means no restriction.
+ */
+public class InvoiceFilter {
+
+    public enum PaymentState { PAID, UNPAID, OVERDUE }
+
+    private PaymentState paymentState;
+    private String customerName;
+    private LocalDate dueFrom;
+    private LocalDate dueTo;
+
+    public PaymentState getPaymentState() { return paymentState; }
+    public void setPaymentState(PaymentState paymentState) { this.paymentState = paymentState; }
+
+    public String getCustomerName() { return customerName; }
+    public void setCustomerName(String customerName) { this.customerName = customerName; }
+
+    // Inclusive bounds on due_date
+    public LocalDate getDueFrom() { return dueFrom; }
+    public void setDueFrom(LocalDate dueFrom) { this.dueFrom = dueFrom; }
+
+    public LocalDate getDueTo() { return dueTo; }
+    public void setDueTo(LocalDate dueTo) { this.dueTo = dueTo; }
+}
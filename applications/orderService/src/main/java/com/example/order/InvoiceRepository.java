@@ -5,74 +5,255 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Date;
+import java.sql.Statement;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 
-public class InvoiceRepository {
+public class InvoiceRepository implements InvoiceStore {
+    private static final String INVOICE_COLUMNS = "id, order_id, customer_name, amount, due_date, paid";
+
     private final Connection connection;
+    private final ReplicaRouter reads;
 
     public InvoiceRepository(Connection connection) {
-        this.connection = connection;
+        this(ReplicaRouter.primaryOnly(connection));
+    }
+
+    // Writes go to the router's primary, the find methods to whichever connection it picks for reads
+    public InvoiceRepository(ReplicaRouter reads) {
+        this.connection = reads.primary();
+        this.reads = reads;
     }
 
+    /**
+     * Inserts the invoice and, when it is unpaid, adds it to the customer's customer_credit row in the
+     * same transaction, so credit checks never see an invoice without its balance or the reverse.
+     */
+    @Override
     public void createInvoice(Invoice invoice) throws SQLException {
         String sql = "INSERT INTO invoices (order_id, customer_name, amount, due_date, paid) VALUES (?, ?, ?, ?, ?)";
+        Transactions.run(connection, () -> {
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                stmt.setInt(1, invoice.getOrderId());
+                stmt.setString(2, invoice.getCustomerName());
+                stmt.setDouble(3, invoice.getAmount());
+                stmt.setDate(4, Date.valueOf(invoice.getDueDate()));
+                stmt.setBoolean(5, invoice.isPaid());
+                stmt.executeUpdate();
+            }
+            if (!invoice.isPaid() && invoice.getCustomerName() != null) {
+                addToCredit(invoice.getCustomerName(), invoice.getAmount(), invoice.getDueDate());
+            }
+            return null;
+        });
+    }
+
+    private void addToCredit(String customerName, double amount, LocalDate dueDate) throws SQLException {
+        String sql = SqlDialect.isPostgres(connection)
+                ? "INSERT INTO customer_credit (customer_name, outstanding_amount, earliest_unpaid_due, updated_at) " +
+                  "VALUES (?, ?, ?, CURRENT_TIMESTAMP) ON CONFLICT (customer_name) DO UPDATE SET " +
+                  "outstanding_amount = customer_credit.outstanding_amount + EXCLUDED.outstanding_amount, " +
+                  "earliest_unpaid_due = CASE WHEN customer_credit.earliest_unpaid_due IS NULL " +
+                  "OR EXCLUDED.earliest_unpaid_due < customer_credit.earliest_unpaid_due " +
+                  "THEN EXCLUDED.earliest_unpaid_due ELSE customer_credit.earliest_unpaid_due END, " +
+                  "updated_at = CURRENT_TIMESTAMP"
+                : "MERGE INTO customer_credit c USING (VALUES (CAST(? AS VARCHAR(255)), CAST(? AS DECIMAL(12, 2)), CAST(? AS DATE))) " +
+                  "AS d(customer_name, outstanding_amount, earliest_unpaid_due) ON c.customer_name = d.customer_name " +
+                  "WHEN MATCHED THEN UPDATE SET outstanding_amount = c.outstanding_amount + d.outstanding_amount, " +
+                  "earliest_unpaid_due = CASE WHEN c.earliest_unpaid_due IS NULL OR d.earliest_unpaid_due < c.earliest_unpaid_due " +
+                  "THEN d.earliest_unpaid_due ELSE c.earliest_unpaid_due END, updated_at = CURRENT_TIMESTAMP " +
+                  "WHEN NOT MATCHED THEN INSERT (customer_name, outstanding_amount, earliest_unpaid_due, updated_at) " +
+                  "VALUES (d.customer_name, d.outstanding_amount, d.earliest_unpaid_due, CURRENT_TIMESTAMP)";
         try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setInt(1, invoice.getOrderId());
-            stmt.setString(2, invoice.getCustomerName());
-            stmt.setDouble(3, invoice.getAmount());
-            stmt.setDate(4, Date.valueOf(invoice.getDueDate()));
-            stmt.setBoolean(5, invoice.isPaid());
+            stmt.setString(1, customerName);
+            stmt.setDouble(2, amount);
+            stmt.setDate(3, Date.valueOf(dueDate));
             stmt.executeUpdate();
         }
     }
 
+    @Override
+    public CustomerCredit findCredit(String customerName) throws SQLException {
+        String sql = "SELECT outstanding_amount, earliest_unpaid_due FROM customer_credit WHERE customer_name = ?";
+        Connection source = reads.forRead();
+        return Transactions.withConnection(source, () -> {
+            try (PreparedStatement stmt = source.prepareStatement(sql)) {
+                stmt.setString(1, customerName);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        Date earliest = rs.getDate(2);
+                        return new CustomerCredit(customerName, rs.getDouble(1), earliest != null ? earliest.toLocalDate() : null);
+                    }
+                }
+            }
+            return new CustomerCredit(customerName, 0, null);
+        });
+    }
+
+    /**
+     * Fills customer_credit from the unpaid invoices when it is empty, which is the case the first time
+     * the service starts against a database that already holds invoices.
+     */
+    @Override
+    public void rebuildCreditIfEmpty() throws SQLException {
+        Transactions.run(connection, () -> {
+            try (Statement stmt = connection.createStatement()) {
+                try (ResultSet rs = stmt.executeQuery("SELECT 1 FROM customer_credit FETCH FIRST 1 ROWS ONLY")) {
+                    if (rs.next()) {
+                        return null;
+                    }
+                }
+                int rows = stmt.executeUpdate(
+                        "INSERT INTO customer_credit (customer_name, outstanding_amount, earliest_unpaid_due) " +
+                        "SELECT customer_name, SUM(amount), MIN(due_date) FROM invoices " +
+                        "WHERE paid = false AND customer_name IS NOT NULL GROUP BY customer_name");
+                System.out.println("InvoiceRepository: Rebuilt credit for " + rows + " customers from invoices");
+            }
+            return null;
+        });
+    }
+
+    @Override
     public List<Invoice> findByCustomer(String customerName) throws SQLException {
-        List<Invoice> invoices = new ArrayList<>();
-        String sql = "SELECT * FROM invoices WHERE customer_name = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, customerName);
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    invoices.add(mapRow(rs));
+        String sql = "SELECT " + INVOICE_COLUMNS + " FROM invoices WHERE customer_name = ?";
+        Connection source = reads.forRead();
+        return Transactions.withConnection(source, () -> {
+            List<Invoice> invoices = new ArrayList<>();
+            try (PreparedStatement stmt = source.prepareStatement(sql)) {
+                stmt.setString(1, customerName);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        invoices.add(mapRow(rs));
+                    }
                 }
             }
-        }
-        return invoices;
+            return invoices;
+        });
     }
 
+    @Override
     public Invoice findById(int id) throws SQLException {
-        String sql = "SELECT * FROM invoices WHERE id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setInt(1, id);
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return mapRow(rs);
+        String sql = "SELECT " + INVOICE_COLUMNS + " FROM invoices WHERE id = ?";
+        Connection source = reads.forRead();
+        return Transactions.withConnection(source, () -> {
+            try (PreparedStatement stmt = source.prepareStatement(sql)) {
+                stmt.setInt(1, id);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        return mapRow(rs);
+                    }
                 }
             }
-        }
-        return null;
+            return null;
+        });
     }
 
+    // Takes the invoice off the customer's balance; the earliest unpaid due date is re-read from the unpaid invoices
+    @Override
     public void markPaid(int id) throws SQLException {
-        String sql = "UPDATE invoices SET paid = true WHERE id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setInt(1, id);
-            stmt.executeUpdate();
-        }
+        Transactions.run(connection, () -> {
+            String customerName;
+            double amount;
+            try (PreparedStatement stmt = connection.prepareStatement("SELECT customer_name, amount, paid FROM invoices WHERE id = ? FOR UPDATE")) {
+                stmt.setInt(1, id);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (!rs.next() || rs.getBoolean("paid")) {
+                        return null;
+                    }
+                    customerName = rs.getString("customer_name");
+                    amount = rs.getDouble("amount");
+                }
+            }
+            try (PreparedStatement stmt = connection.prepareStatement("UPDATE invoices SET paid = true WHERE id = ?")) {
+                stmt.setInt(1, id);
+                stmt.executeUpdate();
+            }
+            String sql = "UPDATE customer_credit SET outstanding_amount = outstanding_amount - ?, " +
+                         "earliest_unpaid_due = (SELECT MIN(due_date) FROM invoices WHERE customer_name = ? AND paid = false), " +
+                         "updated_at = CURRENT_TIMESTAMP WHERE customer_name = ?";
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                stmt.setDouble(1, amount);
+                stmt.setString(2, customerName);
+                stmt.setString(3, customerName);
+                stmt.executeUpdate();
+            }
+            return null;
+        });
     }
     
+    @Override
     public List<Invoice> findAll() throws SQLException {
-        List<Invoice> invoices = new ArrayList<>();
-        String sql = "SELECT * FROM invoices";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    invoices.add(mapRow(rs));
+        String sql = "SELECT " + INVOICE_COLUMNS + " FROM invoices";
+        Connection source = reads.forRead();
+        return Transactions.withConnection(source, () -> {
+            List<Invoice> invoices = new ArrayList<>();
+            try (PreparedStatement stmt = source.prepareStatement(sql)) {
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        invoices.add(mapRow(rs));
+                    }
                 }
             }
+            return invoices;
+        });
+    }
+
+    /**
+     * Keyset pagination over id DESC: returns up to 'limit' invoices matching the filter with id < afterId
+     * (or the newest when afterId is null). Customer filters are served by idx_invoices_customer_id and
+     * payment-state and due-date filters by idx_invoices_paid_due, so the cost of a page does not grow
+     * with the number of invoices.
+     */
+    @Override
+    public List<Invoice> findPage(InvoiceFilter filter, Integer afterId, int limit) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT " + INVOICE_COLUMNS + " FROM invoices WHERE id < ?");
+        List<Object> args = new ArrayList<>();
+        args.add(afterId != null ? afterId : Integer.MAX_VALUE);
+        if (filter.getCustomerName() != null) {
+            sql.append(" AND customer_name = ?");
+            args.add(filter.getCustomerName());
+        }
+        if (filter.getPaymentState() != null) {
+            switch (filter.getPaymentState()) {
+                case PAID:
+                    sql.append(" AND paid = true");
+                    break;
+                case UNPAID:
+                    sql.append(" AND paid = false");
+                    break;
+                case OVERDUE:
+                    sql.append(" AND paid = false AND due_date < ?");
+                    args.add(Date.valueOf(LocalDate.now()));
+                    break;
+            }
+        }
+        if (filter.getDueFrom() != null) {
+            sql.append(" AND due_date >= ?");
+            args.add(Date.valueOf(filter.getDueFrom()));
+        }
+        if (filter.getDueTo() != null) {
+            sql.append(" AND due_date <= ?");
+            args.add(Date.valueOf(filter.getDueTo()));
         }
-        return invoices;
+        sql.append(" ORDER BY id DESC LIMIT ?");
+        args.add(limit);
+
+        Connection source = reads.forRead();
+        return Transactions.withConnection(source, () -> {
+            List<Invoice> invoices = new ArrayList<>();
+            try (PreparedStatement stmt = source.prepareStatement(sql.toString())) {
+                for (int i = 0; i < args.size(); i++) {
+                    stmt.setObject(i + 1, args.get(i));
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        invoices.add(mapRow(rs));
+                    }
+                }
+            }
+            return invoices;
+        });
     }
 
     private Invoice mapRow(ResultSet rs) throws SQLException {
@@ -0,0 +1,24 @@
+package com.example.order;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/** The invoice and credit operations, implemented by InvoiceRepository and ShardedInvoiceRepository. */
+public interface InvoiceStore {
+
+    void createInvoice(Invoice invoice) throws SQLException;
+
+    CustomerCredit findCredit(String customerName) throws SQLException;
+
+    void rebuildCreditIfEmpty() throws SQLException;
+
+    List<Invoice> findByCustomer(String customerName) throws SQLException;
+
+    Invoice findById(int id) throws SQLException;
+
+    void markPaid(int id) throws SQLException;
+
+    List<Invoice> findAll() throws SQLException;
+
+    List<Invoice> findPage(InvoiceFilter filter, Integer afterId, int limit) throws SQLException;
+}
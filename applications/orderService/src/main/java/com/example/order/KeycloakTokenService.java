@@ -6,6 +6,7 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -18,28 +19,56 @@ public class KeycloakTokenService implements TokenService {
 
     private String accessToken;
     private long tokenExpiresAt;
+    // Callers that find the token expired while it is being refreshed wait for the same request
+    private CompletableFuture<String> pendingToken;
+    private final AtomicInteger tokenRequests = new AtomicInteger();
 
     public KeycloakTokenService(String keycloakTokenUrl, String clientId, String clientSecret) {
-        this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(5))
-                .build();
+        this(HttpClients.shared(), keycloakTokenUrl, clientId, clientSecret);
+    }
+
+    public KeycloakTokenService(HttpClient httpClient, String keycloakTokenUrl, String clientId, String clientSecret) {
+        this.httpClient = httpClient;
         this.keycloakTokenUrl = keycloakTokenUrl;
         this.clientId = clientId;
         this.clientSecret = clientSecret;
     }
 
     @Override
-    public CompletableFuture<String> getAccessToken() {
+    public synchronized CompletableFuture<String> getAccessToken() {
         if (accessToken != null && tokenExpiresAt > System.currentTimeMillis() + 5000) { // Refresh 5s before expiry
             return CompletableFuture.completedFuture(accessToken);
         }
+        if (pendingToken != null) {
+            return pendingToken;
+        }
+        CompletableFuture<String> request = requestToken();
+        if (!request.isDone()) {
+            pendingToken = request;
+            request.whenComplete((token, error) -> clearPending(request));
+        }
+        return request;
+    }
+
+    public int getTokenRequests() {
+        return tokenRequests.get();
+    }
+
+    private synchronized void clearPending(CompletableFuture<String> request) {
+        if (pendingToken == request) {
+            pendingToken = null;
+        }
+    }
 
+    private CompletableFuture<String> requestToken() {
+        tokenRequests.incrementAndGet();
         System.out.println("KeycloakTokenService: Requesting new token for client " + clientId + " from " + keycloakTokenUrl);
         String requestBody = "grant_type=client_credentials&client_id=" + clientId + "&client_secret=" + clientSecret;
         
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(URI.create(keycloakTokenUrl))
                 .header("Content-Type", "application/x-www-form-urlencoded")
+                .timeout(Duration.ofSeconds(5))
                 .POST(HttpRequest.BodyPublishers.ofString(requestBody))
                 .build();
 
@@ -64,8 +93,10 @@ public class KeycloakTokenService implements TokenService {
                         }
 
                         if (token != null) {
-                            this.accessToken = token;
-                            this.tokenExpiresAt = System.currentTimeMillis() + (expiresIn * 1000);
+                            synchronized (this) {
+                                this.accessToken = token;
+                                this.tokenExpiresAt = System.currentTimeMillis() + (expiresIn * 1000);
+                            }
                             System.out.println("KeycloakTokenService: Token obtained successfully. Length: " + token.length());
                             return token;
                         } else {
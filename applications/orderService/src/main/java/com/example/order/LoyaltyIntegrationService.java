@@ -3,8 +3,6 @@ package com.example.order;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -15,42 +13,46 @@ public class LoyaltyIntegrationService {
     private final String loyaltyAccrueUrl;
     private final String loyaltyRedeemUrl;
     private final TokenService tokenService;
+    private final DownstreamGuard guard;
 
-    public LoyaltyIntegrationService() {
+    public LoyaltyIntegrationService(HttpClient httpClient, TokenService tokenService) {
         this(
+            httpClient,
             System.getenv().getOrDefault("LOYALTY_ACCRUE_URL", "http://loyalty-service:8084/api/loyalty/accrue"),
             System.getenv().getOrDefault("LOYALTY_REDEEM_URL", "http://loyalty-service:8084/api/loyalty/redeem"),
-            new KeycloakTokenService(
-                System.getenv().getOrDefault("TOKEN_URL", "http://keycloak:8080/realms/webshop-realm/protocol/openid-connect/token"),
-                System.getenv().getOrDefault("CLIENT_ID", "order-client"),
-                System.getenv().getOrDefault("CLIENT_SECRET", "order-secret")
-            )
+            tokenService,
+            DownstreamGuard.fromEnv("loyalty", "LOYALTY")
         );
     }
 
     public LoyaltyIntegrationService(String loyaltyAccrueUrl, String loyaltyRedeemUrl, TokenService tokenService) {
-        this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(5))
-                .build();
+        this(HttpClients.shared(), loyaltyAccrueUrl, loyaltyRedeemUrl, tokenService, DownstreamGuard.fromEnv("loyalty", "LOYALTY"));
+    }
+
+    public LoyaltyIntegrationService(HttpClient httpClient, String loyaltyAccrueUrl, String loyaltyRedeemUrl, TokenService tokenService,
+                                     DownstreamGuard guard) {
+        this.httpClient = httpClient;
         this.loyaltyAccrueUrl = loyaltyAccrueUrl;
         this.loyaltyRedeemUrl = loyaltyRedeemUrl;
         this.tokenService = tokenService;
+        this.guard = guard;
     }
 
+    public DownstreamGuard getGuard() { return guard; }
+
     public CompletableFuture<Integer> accruePoints(String customerId, int orderId, double totalAmount, String itemsJson) {
         System.out.println("LoyaltyIntegrationService: Accruing points for order " + orderId);
         return tokenService.getAccessToken().thenCompose(token -> {
             String json = String.format("{\"customerId\":\"%s\",\"orderId\":\"%d\",\"totalAmount\":%.2f,\"currency\":\"EUR\",\"items\":%s}",
                 customerId, orderId, totalAmount, itemsJson);
             
-            HttpRequest request = HttpRequest.newBuilder()
+            HttpRequest.Builder request = HttpRequest.newBuilder()
                     .uri(URI.create(loyaltyAccrueUrl))
                     .header("Content-Type", "application/json")
                     .header("Authorization", "Bearer " + token)
-                    .POST(HttpRequest.BodyPublishers.ofString(json))
-                    .build();
+                    .POST(HttpRequest.BodyPublishers.ofString(json));
 
-            return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+            return guard.send(httpClient, request)
                     .thenApply(response -> {
                         if (response.statusCode() == 200) {
                             String body = response.body();
@@ -59,10 +61,10 @@ public class LoyaltyIntegrationService {
                             if (m.find()) {
                                 return Integer.parseInt(m.group(1));
                             }
-                        } else {
-                            System.err.println("Failed to accrue points for order " + orderId + ". Status: " + response.statusCode() + ", Body: " + response.body());
+                            return 0;
                         }
-                        return 0;
+                        System.err.println("Failed to accrue points for order " + orderId + ". Status: " + response.statusCode() + ", Body: " + response.body());
+                        throw new IllegalStateException("Loyalty service returned status " + response.statusCode());
                     });
         });
     }
@@ -73,14 +75,13 @@ public class LoyaltyIntegrationService {
             String json = String.format("{\"customerId\":\"%s\",\"orderId\":\"%d\",\"pointsToRedeem\":%d}",
                 customerId, orderId, pointsToRedeem);
 
-            HttpRequest request = HttpRequest.newBuilder()
+            HttpRequest.Builder request = HttpRequest.newBuilder()
                     .uri(URI.create(loyaltyRedeemUrl))
                     .header("Content-Type", "application/json")
                     .header("Authorization", "Bearer " + token)
-                    .POST(HttpRequest.BodyPublishers.ofString(json))
-                    .build();
+                    .POST(HttpRequest.BodyPublishers.ofString(json));
 
-            return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+            return guard.send(httpClient, request)
                     .thenApply(response -> {
                         if (response.statusCode() == 200) {
                             return true;
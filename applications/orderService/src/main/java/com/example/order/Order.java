@@ -1,5 +1,6 @@
 package com.example.order;
 
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -10,6 +11,7 @@ public class Order {
     private int pointsToRedeem;
     private int pointsEarned;
     private double totalAmount;
+    private Timestamp createdAt;
     private List<OrderItem> items = new ArrayList<>();
 
     public Order() {}
@@ -38,6 +40,9 @@ public class Order {
     public double getTotalAmount() { return totalAmount; }
     public void setTotalAmount(double totalAmount) { this.totalAmount = totalAmount; }
 
+    public Timestamp getCreatedAt() { return createdAt; }
+    public void setCreatedAt(Timestamp createdAt) { this.createdAt = createdAt; }
+
     public List<OrderItem> getItems() { return items; }
     public void setItems(List<OrderItem> items) { this.items = items; }
     
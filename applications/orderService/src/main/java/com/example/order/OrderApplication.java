@@ -21,9 +21,12 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executors;
 import java.net.URLEncoder;
 
@@ -43,7 +46,7 @@ public class OrderApplication {
 
     public static void main(String[] args) throws IOException, SQLException {
         // --- Database Setup ---
-        String dbUrl = System.getenv().getOrDefault("DB_URL", "jdbc:postgresql://localhost:5432/postgres");
+        String dbUrl = System.getenv().getOrDefault("DB_URL", "jdbc:postgresql://localhost:5432/postgres?reWriteBatchedInserts=true");
         String dbUser = System.getenv().getOrDefault("DB_USER", "postgres");
         String dbPassword = System.getenv().getOrDefault("DB_PASSWORD", "postgres");
 
@@ -54,17 +57,37 @@ public class OrderApplication {
         // KEYCLOAK_URL is now derived dynamically if possible, or falls back to env
         String defaultKeycloakUrl = System.getenv().getOrDefault("KEYCLOAK_URL", "https://localhost:8446");
 
-        logger.info("Connecting to database at: {}", dbUrl);
-        Connection connection = DriverManager.getConnection(dbUrl, dbUser, dbPassword);
-        logger.info("Database connection successful.");
+        // SHARD_DB_URLS lists one database per shard, customers are spread over them by name hash
+        String shardUrls = System.getenv("SHARD_DB_URLS");
+        List<String> dbUrls = new ArrayList<>();
+        if (shardUrls == null || shardUrls.isBlank()) {
+            dbUrls.add(dbUrl);
+        } else {
+            for (String url : shardUrls.split(",")) {
+                if (!url.isBlank()) {
+                    dbUrls.add(url.trim());
+                }
+            }
+        }
 
-        // Initialize schema
+        String schemaSql;
         try (InputStream is = OrderApplication.class.getResourceAsStream("/schema.sql")) {
             if (is == null) {
                 throw new IOException("Cannot find schema.sql in resources.");
             }
-            String schemaSql = new String(is.readAllBytes(), StandardCharsets.UTF_8);
-            try (Statement stmt = connection.createStatement()) {
+            schemaSql = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        List<Connection> shardConnections = new ArrayList<>();
+        List<ConnectionFactory> shardFactories = new ArrayList<>();
+        List<OrderPartitionMaintenance> partitionMaintenance = new ArrayList<>();
+        for (String url : dbUrls) {
+            logger.info("Connecting to database at: {}", url);
+            Connection shardConnection = DriverManager.getConnection(url, dbUser, dbPassword);
+            logger.info("Database connection successful.");
+
+            // Initialize schema
+            try (Statement stmt = shardConnection.createStatement()) {
                 String[] statements = schemaSql.split(";");
                 for (String sql : statements) {
                     if (!sql.trim().isEmpty()) {
@@ -73,17 +96,106 @@ public class OrderApplication {
                 }
                 logger.info("Database schema initialized.");
             }
+
+            OrderPartitionMaintenance maintenance = new OrderPartitionMaintenance(shardConnection,
+                    Integer.parseInt(System.getenv().getOrDefault("ORDER_PARTITIONS_AHEAD_MONTHS", "3")),
+                    Integer.parseInt(System.getenv().getOrDefault("ORDER_ARCHIVE_AFTER_MONTHS", "0")));
+            maintenance.run(LocalDate.now());
+            partitionMaintenance.add(maintenance);
+
+            new CustomerOrderSummaryProjection(shardConnection).rebuildIfEmpty();
+
+            shardConnections.add(shardConnection);
+            shardFactories.add(() -> DriverManager.getConnection(url, dbUser, dbPassword));
+        }
+        Connection connection = shardConnections.get(0);
+        ShardRouter router = new ShardRouter(shardConnections);
+        if (Boolean.parseBoolean(System.getenv().getOrDefault("SHARD_VERIFY_PLACEMENT", "false"))) {
+            router.verifyPlacement();
+            logger.info("Every order and invoice is on its shard");
+        }
+        router.prepareIdSequences();
+        boolean sharded = router.size() > 1;
+
+        // DB_READ_URL points at a streaming replica that serves the reads of GET requests while it keeps up
+        String readUrl = System.getenv("DB_READ_URL");
+        ReplicaRouter replicaRouter = ReplicaRouter.primaryOnly(connection);
+        if (readUrl != null && !readUrl.isBlank()) {
+            if (sharded) {
+                logger.warn("DB_READ_URL is ignored when orders are sharded");
+            } else {
+                replicaRouter = new ReplicaRouter(connection, () -> DriverManager.getConnection(readUrl, dbUser, dbPassword),
+                        Integer.parseInt(System.getenv().getOrDefault("DB_READ_POOL_SIZE", "4")),
+                        Long.parseLong(System.getenv().getOrDefault("DB_READ_MAX_LAG_MS", "5000")));
+            }
+        }
+
+        // Status counts for the /orders dashboard, one set per shard, loaded from the counter table
+        List<OrderStatusCounters> statusCounters = new ArrayList<>();
+        for (ConnectionFactory shardFactory : shardFactories) {
+            OrderStatusCounters counters = new OrderStatusCounters(shardFactory);
+            counters.refresh();
+            statusCounters.add(counters);
         }
 
-        OrderRepository repository = new OrderRepository(connection);
-        InvoiceRepository invoiceRepository = new InvoiceRepository(connection);
-        StockReservationService stockService = new StockReservationService();
-        OrderFulfillmentService fulfillmentService = new OrderFulfillmentService();
+        int hotMonths = Integer.parseInt(System.getenv().getOrDefault("ORDER_HOT_MONTHS", "3"));
+        OrderStore repository = sharded
+                ? new ShardedOrderRepository(router, hotMonths, statusCounters)
+                : new OrderRepository(replicaRouter, hotMonths, statusCounters.get(0));
+        InvoiceStore invoiceRepository = sharded ? new ShardedInvoiceRepository(router) : new InvoiceRepository(replicaRouter);
+        invoiceRepository.rebuildCreditIfEmpty();
+        // All integrations share one HTTP client (one connection pool per host) and one cached order-client token
+        HttpClient httpClient = HttpClients.shared();
+        TokenService tokenService = new KeycloakTokenService(httpClient, tokenUrl,
+                System.getenv().getOrDefault("CLIENT_ID", "order-client"),
+                System.getenv().getOrDefault("CLIENT_SECRET", "order-secret"));
+        StockReservationService stockService = new StockReservationService(httpClient, tokenService);
+        OrderFulfillmentService fulfillmentService = new OrderFulfillmentService(httpClient, tokenService);
         CreditService creditService = new CreditService(invoiceRepository);
-        LoyaltyIntegrationService loyaltyService = new LoyaltyIntegrationService();
+        LoyaltyIntegrationService loyaltyService = new LoyaltyIntegrationService(httpClient, tokenService);
+        OutboxWriter outboxRepository = sharded ? new ShardedOutboxRepository(router) : new OutboxRepository(connection);
+        // Idempotency keys are not per customer, they all live on the first shard
+        IdempotencyKeyRepository idempotencyKeys = new IdempotencyKeyRepository(connection,
+                Integer.parseInt(System.getenv().getOrDefault("IDEMPOTENCY_CACHE_SIZE", "10000")),
+                Long.parseLong(System.getenv().getOrDefault("IDEMPOTENCY_CLAIM_TIMEOUT_MS", "60000")));
+
+        // ORDER_GROUP_COMMIT_MS > 0 makes concurrent order creations share transactions, which the retry of a
+        // failed batch can only do safely on a single database
+        long groupCommitMs = Long.parseLong(System.getenv().getOrDefault("ORDER_GROUP_COMMIT_MS", "0"));
+        GroupCommitOrderWriter orderWriter = null;
+        if (groupCommitMs > 0) {
+            if (sharded) {
+                logger.warn("ORDER_GROUP_COMMIT_MS is ignored when orders are sharded");
+            } else {
+                orderWriter = new GroupCommitOrderWriter(repository,
+                        Integer.parseInt(System.getenv().getOrDefault("ORDER_GROUP_COMMIT_MAX_BATCH", "100")), groupCommitMs);
+            }
+        }
+
+        // The importer writes one database in bulk and does not route rows, so it only runs unsharded
+        OrderImporter importer = sharded ? null : new OrderImporter(shardFactories.get(0));
+        StreamingExporter exporter = new StreamingExporter(shardFactories);
+
+        // The dispatcher claims outbox rows in its own transactions, so each shard gets one on a dedicated connection
+        List<OutboxDispatcher> outboxDispatchers = new ArrayList<>();
+        for (ConnectionFactory shardFactory : shardFactories) {
+            outboxDispatchers.add(new OutboxDispatcher(shardFactory.open(), fulfillmentService, loyaltyService,
+                    Integer.parseInt(System.getenv().getOrDefault("OUTBOX_BATCH_SIZE", "20")),
+                    Integer.parseInt(System.getenv().getOrDefault("OUTBOX_MAX_ATTEMPTS", "10")),
+                    Long.parseLong(System.getenv().getOrDefault("OUTBOX_BACKOFF_MS", "2000")),
+                    Long.parseLong(System.getenv().getOrDefault("OUTBOX_MAX_BACKOFF_MS", "600000"))));
+        }
+
+        // The scanner holds a cursor open on its own connection and checkpoints through a second one
+        OverdueInvoiceScanner overdueScanner = new OverdueInvoiceScanner(shardFactories,
+                Integer.parseInt(System.getenv().getOrDefault("OVERDUE_SCAN_CHUNK_SIZE", "5000")),
+                Integer.parseInt(System.getenv().getOrDefault("OVERDUE_SCAN_FETCH_SIZE", "1000")));
         
         SecurityFilter managerFilter = new SecurityFilter(jwksUrl, issuer, "order-manager");
         SecurityFilter historyFilter = new SecurityFilter(jwksUrl, issuer, "order-history");
+        ReplicaReadFilter replicaReadFilter = new ReplicaReadFilter();
+        // Status updates from the warehouse keep orders moving, so they get a reserved share of the limit
+        AdaptiveConcurrencyFilter concurrencyLimit = AdaptiveConcurrencyFilter.fromEnv(Set.of("/api/orders/status", "/api/orders/status/batch"));
 
         // --- HTTP Server Setup ---
         int port = 8003;
@@ -121,7 +233,7 @@ public class OrderApplication {
             exchange.close();
         });
         
-        server.createContext("/login", new LoginHandler(tokenUrl));
+        server.createContext("/login", new LoginHandler(tokenUrl, httpClient));
         
         server.createContext("/logout", (exchange) -> {
             String path = exchange.getRequestURI().getPath();
@@ -152,20 +264,52 @@ public class OrderApplication {
             exchange.close();
         });
         
-        // Mount UI context (protected by order-manager)
-        HttpContext ordersContext = server.createContext("/orders", new OrderController(repository, stockService, fulfillmentService, creditService, invoiceRepository, loyaltyService));
+        // Mount UI context and the orders export (protected by order-manager)
+        HttpContext ordersContext = server.createContext("/orders", new OrderController(repository, stockService, creditService, invoiceRepository, loyaltyService, outboxRepository, idempotencyKeys, exporter));
+        ordersContext.getFilters().add(concurrencyLimit);
         ordersContext.getFilters().add(managerFilter);
+        ordersContext.getFilters().add(replicaReadFilter);
         
         // Mount Invoices context (protected by order-manager)
-        HttpContext invoicesContext = server.createContext("/invoices", new InvoiceController(invoiceRepository, repository));
+        HttpContext invoicesContext = server.createContext("/invoices", new InvoiceController(invoiceRepository, repository, exporter));
+        invoicesContext.getFilters().add(concurrencyLimit);
         invoicesContext.getFilters().add(managerFilter);
+        invoicesContext.getFilters().add(replicaReadFilter);
         
         // Mount API context (protected by order-history)
-        HttpContext apiContext = server.createContext("/api/orders", new OrderController(repository, stockService, fulfillmentService, creditService, invoiceRepository, loyaltyService));
+        HttpContext apiContext = server.createContext("/api/orders", new OrderController(repository, stockService, creditService, invoiceRepository, loyaltyService, outboxRepository, idempotencyKeys, null, orderWriter));
+        apiContext.getFilters().add(concurrencyLimit);
         apiContext.getFilters().add(historyFilter);
+        apiContext.getFilters().add(replicaReadFilter);
+
+        // Mount admin context (protected by order-manager)
+        HttpContext adminContext = server.createContext("/admin", new AdminController(importer,
+                List.of(stockService.getGuard(), fulfillmentService.getGuard(), loyaltyService.getGuard()), overdueScanner, replicaRouter, concurrencyLimit));
+        adminContext.getFilters().add(managerFilter);
         
-        server.setExecutor(Executors.newCachedThreadPool());
+        // One thread per request the concurrency limit can admit or queue, plus SERVER_EXTRA_THREADS for the pages
+        // outside it and for answering shed requests, so the adaptive limit also caps the threads in use
+        int serverThreads = concurrencyLimit.getMaxThreads() + Integer.parseInt(System.getenv().getOrDefault("SERVER_EXTRA_THREADS", "16"));
+        server.setExecutor(Executors.newFixedThreadPool(serverThreads));
+        logger.info("HTTP server runs on {} threads", serverThreads);
         server.start();
+        for (OrderPartitionMaintenance maintenance : partitionMaintenance) {
+            maintenance.start();
+        }
+        for (OutboxDispatcher outboxDispatcher : outboxDispatchers) {
+            outboxDispatcher.start(Long.parseLong(System.getenv().getOrDefault("OUTBOX_POLL_INTERVAL_MS", "1000")));
+        }
+        if (orderWriter != null) {
+            orderWriter.start();
+        }
+        for (OrderStatusCounters counters : statusCounters) {
+            counters.start(Long.parseLong(System.getenv().getOrDefault("ORDER_STATUS_REFRESH_MS", "10000")),
+                    Long.parseLong(System.getenv().getOrDefault("ORDER_STATUS_RECONCILE_MS", "3600000")));
+        }
+        idempotencyKeys.start(Long.parseLong(System.getenv().getOrDefault("IDEMPOTENCY_PURGE_INTERVAL_MS", "3600000")),
+                Long.parseLong(System.getenv().getOrDefault("IDEMPOTENCY_RETENTION_MS", "86400000")));
+        replicaRouter.start(Long.parseLong(System.getenv().getOrDefault("DB_READ_LAG_CHECK_MS", "5000")));
+        overdueScanner.start(Integer.parseInt(System.getenv().getOrDefault("OVERDUE_SCAN_HOUR", "2")));
         logger.info("Order Service started on port {}", port);
     }
 
@@ -174,8 +318,12 @@ public class OrderApplication {
         private final HttpClient httpClient;
 
         public LoginHandler(String tokenUrl) {
+            this(tokenUrl, HttpClients.shared());
+        }
+
+        public LoginHandler(String tokenUrl, HttpClient httpClient) {
             this.tokenUrl = tokenUrl;
-            this.httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+            this.httpClient = httpClient;
         }
 
         @Override
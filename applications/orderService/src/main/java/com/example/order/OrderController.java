@@ -2,41 +2,70 @@ package com.example.order;
 
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpExchange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class OrderController implements HttpHandler {
 
-    private final OrderRepository repository;
+    private static final Logger logger = LoggerFactory.getLogger(OrderController.class);
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+    private static final int MAX_STATUS_BATCH = 1000;
+    private static final Pattern JSON_OBJECT = Pattern.compile("\\{[^{}]*\\}");
+    private static final Pattern ORDER_ID_FIELD = Pattern.compile("\"orderId\"\\s*:\\s*(\\d+)");
+    private static final Pattern STATUS_FIELD = Pattern.compile("\"status\"\\s*:\\s*\"([^\"]+)\"");
+
+    private final OrderStore repository;
     private final StockReservationService stockService;
-    private final OrderFulfillmentService fulfillmentService;
     private final CreditService creditService;
-    private final InvoiceRepository invoiceRepository;
+    private final InvoiceStore invoiceRepository;
     private final LoyaltyIntegrationService loyaltyService;
+    private final OutboxWriter outboxRepository;
+    private final IdempotencyKeyRepository idempotencyKeys;
+    private final StreamingExporter exporter;
+    private final GroupCommitOrderWriter orderWriter;
+
+    public OrderController(OrderStore repository, StockReservationService stockService, CreditService creditService, InvoiceStore invoiceRepository, LoyaltyIntegrationService loyaltyService, OutboxWriter outboxRepository, IdempotencyKeyRepository idempotencyKeys) {
+        this(repository, stockService, creditService, invoiceRepository, loyaltyService, outboxRepository, idempotencyKeys, null);
+    }
 
-    public OrderController(OrderRepository repository, StockReservationService stockService, OrderFulfillmentService fulfillmentService, CreditService creditService, InvoiceRepository invoiceRepository, LoyaltyIntegrationService loyaltyService) {
+    public OrderController(OrderStore repository, StockReservationService stockService, CreditService creditService, InvoiceStore invoiceRepository, LoyaltyIntegrationService loyaltyService, OutboxWriter outboxRepository, IdempotencyKeyRepository idempotencyKeys, StreamingExporter exporter) {
+        this(repository, stockService, creditService, invoiceRepository, loyaltyService, outboxRepository, idempotencyKeys, exporter, null);
+    }
+
+    public OrderController(OrderStore repository, StockReservationService stockService, CreditService creditService, InvoiceStore invoiceRepository, LoyaltyIntegrationService loyaltyService, OutboxWriter outboxRepository, IdempotencyKeyRepository idempotencyKeys, StreamingExporter exporter, GroupCommitOrderWriter orderWriter) {
         this.repository = repository;
         this.stockService = stockService;
-        this.fulfillmentService = fulfillmentService;
         this.creditService = creditService;
         this.invoiceRepository = invoiceRepository;
         this.loyaltyService = loyaltyService;
-    }
-
-    // Constructor for backward compatibility (if needed by tests not yet updated)
-    public OrderController(OrderRepository repository, StockReservationService stockService, OrderFulfillmentService fulfillmentService, CreditService creditService, InvoiceRepository invoiceRepository) {
-        this(repository, stockService, fulfillmentService, creditService, invoiceRepository, new LoyaltyIntegrationService());
+        this.outboxRepository = outboxRepository;
+        this.idempotencyKeys = idempotencyKeys;
+        this.exporter = exporter;
+        this.orderWriter = orderWriter;
     }
 
     private static final String CSS = 
@@ -50,7 +79,10 @@ public class OrderController implements HttpHandler {
         ".btn { display: inline-block; padding: 10px 20px; border-radius: 4px; text-decoration: none; color: #FFFFFF; font-weight: bold; border: none; cursor: pointer; margin-right: 10px; }" +
         ".btn-secondary { background-color: #6C757D; }" +
         ".btn-success { background-color: #28A745; }" +
-        ".btn-primary { background-color: #007BFF; }";
+        ".btn-primary { background-color: #007BFF; }" +
+        ".status-counts { display: flex; flex-wrap: wrap; gap: 10px; margin-bottom: 20px; }" +
+        ".status-count { background-color: #F8F9FA; border: 1px solid #DEE2E6; border-radius: 4px; padding: 10px 15px; min-width: 120px; }" +
+        ".status-count strong { display: block; font-size: 1.5em; }";
 
     private String getHeader() {
         return "<div style='display:flex; justify-content:space-between; align-items:center; margin-bottom: 20px;'>" +
@@ -84,79 +116,202 @@ public class OrderController implements HttpHandler {
             } else {
                 exchange.sendResponseHeaders(405, -1);
             }
+        } else if ("/api/orders/search".equals(path)) {
+            if ("GET".equalsIgnoreCase(method)) {
+                handleSearchOrders(exchange);
+            } else {
+                exchange.sendResponseHeaders(405, -1);
+            }
+        } else if ("/api/orders/summary".equals(path)) {
+            if ("GET".equalsIgnoreCase(method)) {
+                handleCustomerSummary(exchange);
+            } else {
+                exchange.sendResponseHeaders(405, -1);
+            }
+        } else if ("/orders/export".equals(path) && exporter != null) {
+            if ("GET".equalsIgnoreCase(method)) {
+                StreamingExporter.respond(exchange, parseQuery(exchange), "orders", exporter::exportOrders);
+            } else {
+                exchange.sendResponseHeaders(405, -1);
+            }
         } else if ("/api/orders/status".equals(path)) {
             if ("POST".equalsIgnoreCase(method)) {
                 handleUpdateStatus(exchange);
             } else {
                 exchange.sendResponseHeaders(405, -1);
             }
+        } else if ("/api/orders/status/batch".equals(path)) {
+            if ("POST".equalsIgnoreCase(method)) {
+                handleBatchUpdateStatus(exchange);
+            } else {
+                exchange.sendResponseHeaders(405, -1);
+            }
         } else {
             exchange.sendResponseHeaders(404, -1);
         }
     }
 
     private void handleApiListOrders(HttpExchange exchange) throws IOException {
-        String query = exchange.getRequestURI().getQuery();
-        String customerName = null;
-        if (query != null) {
-            for (String param : query.split("&")) {
-                String[] pair = param.split("=");
-                if (pair.length == 2 && "customer".equals(pair[0])) {
-                    customerName = java.net.URLDecoder.decode(pair[1], StandardCharsets.UTF_8);
-                }
-            }
-        }
+        Map<String, String> params = parseQuery(exchange);
+        String customerName = params.get("customer");
 
         try {
-            List<Order> orders = repository.findAll(); // Should filter by customer in DB, but filtering in memory for now
-            List<Order> filteredOrders = new ArrayList<>();
+            Integer afterId = parseAfterId(params);
+            int limit = parseLimit(params);
+            Long sinceVersion = params.containsKey("since") ? Long.parseLong(params.get("since")) : null;
+            boolean includeHistory = customerName != null ? !"hot".equals(params.get("scope")) : includeHistory(params);
+
             if (customerName != null) {
-                for (Order o : orders) {
-                    if (customerName.equals(o.getCustomerName())) {
-                        filteredOrders.add(o);
+                CustomerOrdersVersion version = repository.findCustomerVersion(customerName);
+                if (version != null) {
+                    // Each page, since and scope has its own ETag, so one page's tag never validates another
+                    String etag = version.toETag(afterId, limit, sinceVersion, includeHistory);
+                    exchange.getResponseHeaders().set("ETag", etag);
+                    exchange.getResponseHeaders().set("Cache-Control", "private, no-cache");
+                    exchange.getResponseHeaders().set("X-Orders-Version", String.valueOf(version.getVersion()));
+                    if (isNotModified(exchange, etag)) {
+                        exchange.sendResponseHeaders(304, -1);
+                        return;
                     }
                 }
-            } else {
-                filteredOrders = orders;
             }
 
-            StringBuilder json = new StringBuilder("[");
-            for (int i = 0; i < filteredOrders.size(); i++) {
-                Order o = filteredOrders.get(i);
-                json.append(String.format("{\"id\":%d,\"customerName\":\"%s\",\"status\":\"%s\",\"pointsEarned\":%d,\"pointsRedeemed\":%d}", 
-                    o.getId(), o.getCustomerName(), o.getStatus(), o.getPointsEarned(), o.getPointsToRedeem()));
-                if (i < filteredOrders.size() - 1) {
-                    json.append(",");
+            List<Order> orders = customerName != null
+                    ? repository.findByCustomer(customerName, afterId, limit, sinceVersion, includeHistory)
+                    : repository.findPage(afterId, limit, includeHistory);
+            if (orders.size() == limit) {
+                exchange.getResponseHeaders().set("X-Next-After-Id", String.valueOf(orders.get(limit - 1).getId()));
+            }
+            sendOrderSummaries(exchange, orders);
+        } catch (NumberFormatException e) {
+            sendError(exchange, 400, "Invalid pagination parameters");
+        } catch (SQLException e) {
+            e.printStackTrace();
+            exchange.sendResponseHeaders(500, -1);
+        }
+    }
+
+    // Filters: status (a status name or "actionable"), customerPrefix, from and to (yyyy-MM-dd). Paged by cursor and limit.
+    private void handleSearchOrders(HttpExchange exchange) throws IOException {
+        Map<String, String> params = parseQuery(exchange);
+        try {
+            OrderFilter filter = parseFilter(params);
+            OrderCursor cursor = parseCursor(params);
+            int limit = parseLimit(params);
+            List<Order> orders = repository.search(filter, cursor, limit);
+            if (orders.size() == limit) {
+                exchange.getResponseHeaders().set("X-Next-Cursor", OrderCursor.of(orders.get(limit - 1)).toString());
+            }
+            sendOrderSummaries(exchange, orders);
+        } catch (NumberFormatException e) {
+            sendError(exchange, 400, "Invalid pagination parameters");
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            sendError(exchange, 400, "Invalid order filter: " + e.getMessage());
+        } catch (SQLException e) {
+            e.printStackTrace();
+            exchange.sendResponseHeaders(500, -1);
+        }
+    }
+
+    private void sendOrderSummaries(HttpExchange exchange, List<Order> orders) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+            writer.write('[');
+            for (int i = 0; i < orders.size(); i++) {
+                if (i > 0) {
+                    writer.write(',');
                 }
+                writeOrderSummaryJson(writer, orders.get(i));
             }
-            json.append("]");
+            writer.write(']');
+        }
+    }
 
-            String response = json.toString();
-            byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.sendResponseHeaders(200, bytes.length);
-            try (OutputStream os = exchange.getResponseBody()) {
-                os.write(bytes);
+    private void handleCustomerSummary(HttpExchange exchange) throws IOException {
+        String customerName = parseQuery(exchange).get("customer");
+        if (customerName == null || customerName.isEmpty()) {
+            sendError(exchange, 400, "Missing customer parameter");
+            return;
+        }
+        try {
+            CustomerOrderSummary summary = repository.findCustomerSummary(customerName);
+            StringBuilder json = new StringBuilder();
+            json.append("{\"customerName\":").append(StreamingExporter.json(summary.getCustomerName()))
+                .append(",\"orderCount\":").append(summary.getOrderCount())
+                .append(",\"pointsEarned\":").append(summary.getPointsEarned())
+                .append(",\"pointsRedeemed\":").append(summary.getPointsRedeemed())
+                .append(",\"statuses\":{");
+            int i = 0;
+            for (Map.Entry<String, Integer> entry : summary.getStatusCounts().entrySet()) {
+                if (i++ > 0) {
+                    json.append(',');
+                }
+                json.append(StreamingExporter.json(entry.getKey())).append(':').append(entry.getValue());
             }
+            json.append("}}");
+            sendJson(exchange, 200, json.toString());
         } catch (SQLException e) {
             e.printStackTrace();
             exchange.sendResponseHeaders(500, -1);
         }
     }
 
+    // Only If-None-Match is honoured: a change timestamp would be when a transaction started, not when it
+    // committed, so it cannot say whether a list changed since a given time.
+    private boolean isNotModified(HttpExchange exchange, String etag) {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeOrderSummaryJson(Writer writer, Order o) throws IOException {
+        writer.write("{\"id\":");
+        writer.write(String.valueOf(o.getId()));
+        writer.write(",\"customerName\":");
+        writer.write(StreamingExporter.json(o.getCustomerName()));
+        writer.write(",\"status\":");
+        writer.write(StreamingExporter.json(o.getStatus()));
+        writer.write(",\"pointsEarned\":");
+        writer.write(String.valueOf(o.getPointsEarned()));
+        writer.write(",\"pointsRedeemed\":");
+        writer.write(String.valueOf(o.getPointsToRedeem()));
+        writer.write('}');
+    }
+
     private void handleListOrders(HttpExchange exchange) throws IOException {
+        Map<String, String> params = parseQuery(exchange);
         try {
-            List<Order> orders = repository.findAll();
-            System.out.println("Listing " + orders.size() + " orders."); // Added logging
+            Integer afterId = parseAfterId(params);
+            int limit = parseLimit(params);
+            boolean includeHistory = includeHistory(params);
+            String scope = includeHistory ? "&scope=all" : "";
+            OrderFilter filter = parseFilter(params);
+            OrderCursor cursor = parseCursor(params);
+            boolean searching = cursor != null || isFiltered(filter);
+            List<Order> orders = searching ? repository.search(filter, cursor, limit) : repository.findPage(afterId, limit, includeHistory);
+            logger.debug("Listing {} orders", orders.size());
             
             StringBuilder sb = new StringBuilder();
             sb.append("<!DOCTYPE html><html><head><style>").append(CSS).append("</style></head><body><div class='container'>");
             sb.append(getHeader());
             sb.append("<h1>Order Management</h1>");
+            appendStatusCounts(sb, repository.statusCounts());
+            appendFilterForm(sb, params);
             sb.append("<table><thead><tr><th>ID</th><th>Customer</th><th>Status</th><th>Items</th><th>Points Earned</th><th>Actions</th></tr></thead><tbody>");
             
             for (Order o : orders) {
-                System.out.println("Order: " + o.getId() + ", Status: " + o.getStatus()); // Added logging
                 sb.append("<tr>");
                 sb.append("<td>").append(o.getId()).append("</td>");
                 sb.append("<td>").append(o.getCustomerName()).append("</td>");
@@ -164,7 +319,7 @@ public class OrderController implements HttpHandler {
                 sb.append("<td>").append(o.getItems().size()).append("</td>");
                 sb.append("<td>").append(o.getPointsEarned()).append("</td>");
                 sb.append("<td>");
-                if ("PENDING_CONFIRMATION".equals(o.getStatus())) {
+                if (OrderStatus.parse(o.getStatus()) == OrderStatus.PENDING_CONFIRMATION) {
                      sb.append("<form action='/orders/confirm' method='post' style='display:inline;'>");
                      sb.append("<input type='hidden' name='id' value='").append(o.getId()).append("'>");
                      sb.append("<button type='submit' class='btn btn-success'>Confirm</button>");
@@ -173,7 +328,32 @@ public class OrderController implements HttpHandler {
                 sb.append("</td>");
                 sb.append("</tr>");
             }
-            sb.append("</tbody></table></div></body></html>");
+            sb.append("</tbody></table>");
+            if (searching) {
+                String filterQuery = escapeHtml(toFilterQuery(params));
+                if (cursor != null) {
+                    sb.append("<a href='/orders?").append(filterQuery).append("limit=").append(limit).append("' class='btn btn-secondary'>Newest</a>");
+                }
+                if (orders.size() == limit) {
+                    String next = URLEncoder.encode(OrderCursor.of(orders.get(orders.size() - 1)).toString(), StandardCharsets.UTF_8);
+                    sb.append("<a href='/orders?").append(filterQuery).append("cursor=").append(next).append("&amp;limit=").append(limit).append("' class='btn btn-secondary'>Older Orders</a>");
+                }
+            } else if (afterId != null) {
+                sb.append("<button onclick=\"window.location.href='/orders?limit=").append(limit).append(scope).append("'\" class='btn btn-secondary'>Newest</button>");
+            }
+            if (!searching && orders.size() == limit) {
+                int nextAfterId = orders.get(orders.size() - 1).getId();
+                sb.append("<button onclick=\"window.location.href='/orders?afterId=").append(nextAfterId).append("&limit=").append(limit).append(scope).append("'\" class='btn btn-secondary'>Older Orders</button>");
+            } else if (!searching && !includeHistory) {
+                // The hot window is exhausted; older months are only read on request
+                Integer historyAfterId = orders.isEmpty() ? afterId : Integer.valueOf(orders.get(orders.size() - 1).getId());
+                sb.append("<button onclick=\"window.location.href='/orders?");
+                if (historyAfterId != null) {
+                    sb.append("afterId=").append(historyAfterId).append("&");
+                }
+                sb.append("limit=").append(limit).append("&scope=all'\" class='btn btn-secondary'>Show History</button>");
+            }
+            sb.append("</div></body></html>");
             
             String response = sb.toString();
             byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
@@ -182,25 +362,167 @@ public class OrderController implements HttpHandler {
             try (OutputStream os = exchange.getResponseBody()) {
                 os.write(bytes);
             }
+        } catch (NumberFormatException e) {
+            sendError(exchange, 400, "Invalid pagination parameters");
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            sendError(exchange, 400, "Invalid order filter: " + e.getMessage());
         } catch (SQLException e) {
             e.printStackTrace();
             exchange.sendResponseHeaders(500, -1);
         }
     }
 
+    private static void appendFilterForm(StringBuilder sb, Map<String, String> params) {
+        String status = params.getOrDefault("status", "");
+        sb.append("<form action='/orders' method='get' style='margin-bottom:20px;'>");
+        sb.append("<select name='status'>");
+        sb.append("<option value=''>all statuses</option>");
+        sb.append("<option value='actionable'").append("actionable".equals(status) ? " selected" : "").append(">needs action</option>");
+        for (OrderStatus option : OrderStatus.values()) {
+            sb.append("<option value='").append(option.name()).append("'").append(option.name().equals(status) ? " selected" : "").append(">")
+              .append(option.name()).append("</option>");
+        }
+        sb.append("</select> ");
+        sb.append("<input type='text' name='customerPrefix' placeholder='Customer starts with' value='").append(escapeHtml(params.getOrDefault("customerPrefix", ""))).append("'> ");
+        sb.append("Created from <input type='date' name='from' value='").append(escapeHtml(params.getOrDefault("from", ""))).append("'> ");
+        sb.append("to <input type='date' name='to' value='").append(escapeHtml(params.getOrDefault("to", ""))).append("'> ");
+        sb.append("<button type='submit' class='btn btn-primary'>Search</button>");
+        sb.append("</form>");
+    }
+
+    private static OrderFilter parseFilter(Map<String, String> params) {
+        OrderFilter filter = new OrderFilter();
+        String status = params.get("status");
+        if ("actionable".equals(status)) {
+            filter.setStatuses(OrderStatus.ACTIONABLE);
+        } else if (status != null && !status.isEmpty()) {
+            OrderStatus parsed = OrderStatus.parse(status);
+            if (parsed == null) {
+                throw new IllegalArgumentException("Unknown status " + status);
+            }
+            filter.setStatuses(EnumSet.of(parsed));
+        }
+        String customerPrefix = params.get("customerPrefix");
+        if (customerPrefix != null && !customerPrefix.isEmpty()) {
+            filter.setCustomerPrefix(customerPrefix);
+        }
+        String from = params.get("from");
+        if (from != null && !from.isEmpty()) {
+            filter.setCreatedFrom(LocalDate.parse(from));
+        }
+        String to = params.get("to");
+        if (to != null && !to.isEmpty()) {
+            filter.setCreatedTo(LocalDate.parse(to));
+        }
+        return filter;
+    }
+
+    private static boolean isFiltered(OrderFilter filter) {
+        return !filter.getStatuses().isEmpty() || filter.getCustomerPrefix() != null
+               || filter.getCreatedFrom() != null || filter.getCreatedTo() != null;
+    }
+
+    private static OrderCursor parseCursor(Map<String, String> params) {
+        String cursor = params.get("cursor");
+        return cursor == null || cursor.isEmpty() ? null : OrderCursor.parse(cursor);
+    }
+
+    // The active search filters as a query-string prefix ending in '&', for the paging links
+    private static String toFilterQuery(Map<String, String> params) {
+        StringBuilder query = new StringBuilder();
+        for (String name : new String[] {"status", "customerPrefix", "from", "to"}) {
+            String value = params.get(name);
+            if (value != null && !value.isEmpty()) {
+                query.append(name).append('=').append(URLEncoder.encode(value, StandardCharsets.UTF_8)).append('&');
+            }
+        }
+        return query.toString();
+    }
+
+    private static void appendStatusCounts(StringBuilder sb, Map<String, Long> counts) {
+        // Every known status is shown even when no order has reached it yet; other statuses follow once they occur
+        Map<String, Long> shown = new LinkedHashMap<>();
+        for (OrderStatus status : OrderStatus.values()) {
+            shown.put(status.name(), counts.getOrDefault(status.name(), 0L));
+        }
+        counts.forEach(shown::putIfAbsent);
+        sb.append("<div class='status-counts'>");
+        for (Map.Entry<String, Long> entry : shown.entrySet()) {
+            sb.append("<div class='status-count'><strong>").append(entry.getValue()).append("</strong>")
+              .append(escapeHtml(entry.getKey())).append("</div>");
+        }
+        sb.append("</div>");
+    }
+
+    private static String escapeHtml(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("'", "&#39;").replace("\"", "&quot;");
+    }
+
+    // With group commit enabled the order shares its transaction with other orders arriving at the same time
+    private int insertOrder(Order order) throws SQLException {
+        return orderWriter != null ? orderWriter.createOrder(order) : repository.createOrder(order);
+    }
+
     private void handleCreateOrder(HttpExchange exchange) throws IOException {
+        String idempotencyKey = exchange.getRequestHeaders().getFirst(IDEMPOTENCY_KEY_HEADER);
+        if (idempotencyKey != null && (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH)) {
+            sendError(exchange, 400, "Invalid Idempotency-Key");
+            return;
+        }
+
+        InputStream is = exchange.getRequestBody();
+        String json = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        System.out.println("Received Order: " + json);
+        Order order;
+        try {
+            order = parseOrder(json);
+        } catch (RuntimeException e) {
+            sendError(exchange, 400, "Invalid order");
+            return;
+        }
+
+        if (idempotencyKey != null) {
+            try {
+                String fingerprint = IdempotencyKeyRepository.fingerprint(order.getCustomerName(), json);
+                StoredResponse previous = idempotencyKeys.claim(idempotencyKey, fingerprint);
+                if (previous != null && !previous.matches(fingerprint)) {
+                    System.out.println("OrderController: Idempotency-Key " + idempotencyKey + " was used for a different request");
+                    sendJson(exchange, 422, "{\"status\":\"IDEMPOTENCY_KEY_REUSED\"}");
+                    return;
+                }
+                if (previous != null) {
+                    System.out.println("OrderController: Replaying response for Idempotency-Key " + idempotencyKey);
+                    if (previous.isInProgress()) {
+                        sendJson(exchange, 409, "{\"status\":\"IN_PROGRESS\"}");
+                    } else {
+                        sendJson(exchange, previous.getStatusCode(), previous.getBody());
+                    }
+                    return;
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+        }
+
         int orderId = -1;
+        boolean pointsRedeemed = false;
         try {
-            InputStream is = exchange.getRequestBody();
-            String json = new String(is.readAllBytes(), StandardCharsets.UTF_8);
-            System.out.println("Received Order: " + json);
-            
-            Order order = parseOrder(json);
-            
             if (order.getItems().isEmpty()) {
                 System.out.println("Warning: No items found in order!");
             }
 
+            // Refuse customers over their credit limit or with overdue invoices before any remote call is made
+            String creditRefusal = creditService.checkOrder(order.getCustomerName());
+            if (creditRefusal != null) {
+                System.out.println("OrderController: Credit check failed for " + order.getCustomerName() + ": " + creditRefusal);
+                order.setStatus(OrderStatus.CREDIT_REJECTED.name());
+                orderId = insertOrder(order);
+                respond(exchange, idempotencyKey, orderId, 409, "{\"status\":\"CREDIT_REJECTED\", \"reason\":\"" + creditRefusal + "\", \"orderId\":" + orderId + "}");
+                return;
+            }
+
             // Handle Point Redemption
             if (order.getPointsToRedeem() > 0) {
                 // We need an order ID to redeem points against, but we haven't created the order yet.
@@ -210,51 +532,33 @@ public class OrderController implements HttpHandler {
                 // If redeem fails, we mark order as REJECTED (or FAILED_REDEMPTION).
             }
 
-            order.setStatus("PENDING");
-            orderId = repository.createOrder(order);
+            order.setStatus(OrderStatus.PENDING.name());
+            orderId = insertOrder(order);
             
             boolean redemptionSuccess = true;
             if (order.getPointsToRedeem() > 0) {
                 redemptionSuccess = loyaltyService.redeemPoints(order.getCustomerName(), orderId, order.getPointsToRedeem()).join();
                 if (!redemptionSuccess) {
                     System.out.println("Point redemption failed for order " + orderId);
-                    repository.updateStatus(orderId, "REDEMPTION_FAILED");
-                    String response = "{\"status\":\"REDEMPTION_FAILED\", \"orderId\":" + orderId + "}";
-                    byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
-                    exchange.getResponseHeaders().set("Content-Type", "application/json");
-                    exchange.sendResponseHeaders(409, bytes.length);
-                    try (OutputStream os = exchange.getResponseBody()) {
-                        os.write(bytes);
-                    }
+                    repository.updateStatus(orderId, OrderStatus.REDEMPTION_FAILED.name());
+                    respond(exchange, idempotencyKey, orderId, 409, "{\"status\":\"REDEMPTION_FAILED\", \"orderId\":" + orderId + "}");
                     return;
                 }
+                pointsRedeemed = true;
             }
 
-            // Reserve stock
-            boolean allReserved = true;
-            for (OrderItem item : order.getItems()) {
-                boolean reserved = stockService.reserveStock(item.getProductId(), item.getQuantity()).join();
-                if (!reserved) {
-                    allReserved = false;
-                    break;
-                }
-            }
+            // Reserve all lines concurrently; lines reserved before a refusal are released again
+            boolean allReserved = stockService.reserveAll(order.getItems()).join();
             
             if (allReserved) {
                 // Changed from CONFIRMED to PENDING_CONFIRMATION to allow manual confirmation
-                repository.updateStatus(orderId, "PENDING_CONFIRMATION");
+                repository.updateStatus(orderId, OrderStatus.PENDING_CONFIRMATION.name());
                 
                 // Notification to Warehouse and Invoice creation is now moved to handleConfirmOrder
 
                 // Return 200 and "PENDING_CONFIRMATION" to match Pact contract
                 System.out.println("OrderController: Returning 200 OK");
-                String response = "{\"status\":\"PENDING_CONFIRMATION\", \"orderId\":" + orderId + "}";
-                byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
-                exchange.getResponseHeaders().set("Content-Type", "application/json");
-                exchange.sendResponseHeaders(200, bytes.length);
-                try (OutputStream os = exchange.getResponseBody()) {
-                    os.write(bytes);
-                }
+                respond(exchange, idempotencyKey, orderId, 200, "{\"status\":\"PENDING_CONFIRMATION\", \"orderId\":" + orderId + "}");
             } else {
                 // If stock reservation failed, we should refund points if they were redeemed.
                 // For MVP, we log this.
@@ -262,25 +566,66 @@ public class OrderController implements HttpHandler {
                     System.err.println("CRITICAL: Stock reservation failed but points were redeemed for order " + orderId + ". Manual refund required.");
                 }
 
-                repository.updateStatus(orderId, "REJECTED");
-                String response = "{\"status\":\"REJECTED\", \"orderId\":" + orderId + "}";
-                byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
-                exchange.sendResponseHeaders(409, bytes.length); // Conflict
-                try (OutputStream os = exchange.getResponseBody()) {
-                    os.write(bytes);
-                }
+                repository.updateStatus(orderId, OrderStatus.REJECTED.name());
+                respond(exchange, idempotencyKey, orderId, 409, "{\"status\":\"REJECTED\", \"orderId\":" + orderId + "}"); // Conflict
             }
             
         } catch (Exception e) {
-            e.printStackTrace();
-            if (orderId != -1) {
-                try {
-                    repository.updateStatus(orderId, "ERROR");
-                } catch (SQLException ex) {
-                    e.addSuppressed(ex);
+            // A downstream behind an open breaker or a full bulkhead fails fast; tell the client when to come back
+            DownstreamUnavailableException unavailable = DownstreamUnavailableException.find(e);
+            if (unavailable != null) {
+                System.out.println("OrderController: " + unavailable.getMessage());
+                if (pointsRedeemed) {
+                    System.err.println("CRITICAL: Order " + orderId + " was rejected after its points were redeemed. Manual refund required.");
+                }
+            } else {
+                e.printStackTrace();
+            }
+            // Once points are redeemed the order is final: a retry must not redeem them again, so the client
+            // gets a REJECTED answer that is stored under its key instead of a 503 that invites a retry
+            boolean retryable = unavailable != null && !pointsRedeemed;
+            int code = retryable ? 503 : unavailable != null ? 409 : 500;
+            String body = "{\"status\":\"" + (retryable ? "UNAVAILABLE" : unavailable != null ? "REJECTED" : "ERROR") + "\", \"orderId\":" + orderId + "}";
+            try {
+                if (orderId != -1) {
+                    repository.updateStatus(orderId, (unavailable != null ? OrderStatus.REJECTED : OrderStatus.ERROR).name());
                 }
+                if (idempotencyKey != null) {
+                    // A 503 asks the client to retry, so the key is freed and the retry runs again as a new order.
+                    // After other failures a retry runs again only if nothing was created; otherwise it gets the same answer.
+                    if (orderId == -1 || retryable) {
+                        idempotencyKeys.release(idempotencyKey);
+                    } else {
+                        idempotencyKeys.complete(idempotencyKey, orderId, code, body);
+                    }
+                }
+            } catch (SQLException ex) {
+                e.addSuppressed(ex);
             }
-            exchange.sendResponseHeaders(500, -1);
+            if (retryable) {
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf(Math.max(1, unavailable.getRetryAfterMs() / 1000)));
+                sendJson(exchange, 503, body);
+            } else if (unavailable != null) {
+                sendJson(exchange, 409, body);
+            } else {
+                exchange.sendResponseHeaders(500, -1);
+            }
+        }
+    }
+
+    private void respond(HttpExchange exchange, String idempotencyKey, int orderId, int code, String json) throws IOException, SQLException {
+        if (idempotencyKey != null) {
+            idempotencyKeys.complete(idempotencyKey, orderId, code, json);
+        }
+        sendJson(exchange, code, json);
+    }
+
+    private void sendJson(HttpExchange exchange, int code, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
         }
     }
 
@@ -292,54 +637,29 @@ public class OrderController implements HttpHandler {
             
             int orderId = Integer.parseInt(params.get("id"));
             
-            repository.updateStatus(orderId, "CONFIRMED");
-            
-            // Create Invoice (Moved from handleCreateOrder)
-            // We need to fetch the order details to get customer name and calculate amount
-            // For now, I'll assume we can get it or just use placeholders as per upstream logic
-            // Upstream logic: invoiceRepository.createInvoice(new Invoice(orderId, order.getCustomerName(), totalAmount, LocalDate.now().plusDays(30)));
-            // But we don't have 'order' object here.
-            // Let's fetch it.
-            // Assuming repository has findById.
-            // If not, we might need to add it or use a simplified approach.
-            // repository.findAll() exists.
-            
-            // Let's try to find the order from findAll (inefficient but works for now)
-            List<Order> allOrders = repository.findAll();
-            Order order = allOrders.stream().filter(o -> o.getId() == orderId).findFirst().orElse(null);
-            
-            if (order != null) {
-                 double totalAmount = order.getTotalAmount();
-                 invoiceRepository.createInvoice(new Invoice(orderId, order.getCustomerName(), totalAmount, LocalDate.now().plusDays(30)));
-                 
-                 // Accrue Points
-                 // We need to calculate total amount properly or pass it.
-                 // For now, assuming totalAmount is 0 (placeholder), but we should probably calculate it from items if we had prices.
-                 // Or we can assume the frontend passed it, but Order object doesn't store totalAmount.
-                 // Let's assume 100.0 for now or try to get it.
-                 // Actually, LoyaltyIntegrationService needs itemsJson.
-                 // We can reconstruct itemsJson from order.getItems().
-                 
-                 StringBuilder itemsJson = new StringBuilder("[");
-                 for (int i = 0; i < order.getItems().size(); i++) {
-                     OrderItem item = order.getItems().get(i);
-                     itemsJson.append(String.format("{\"productId\":\"%d\",\"quantity\":%d}", item.getProductId(), item.getQuantity()));
-                     if (i < order.getItems().size() - 1) itemsJson.append(",");
-                 }
-                 itemsJson.append("]");
-                 
-                 int pointsEarned = loyaltyService.accruePoints(order.getCustomerName(), orderId, totalAmount, itemsJson.toString()).join();
-                 repository.updatePointsEarned(orderId, pointsEarned);
-            } else {
-                System.err.println("Order not found for invoice creation: " + orderId);
+            Order order = repository.findById(orderId);
+            if (order == null) {
+                System.err.println("Order not found for confirmation: " + orderId);
+                sendError(exchange, 404, "Order not found");
+                return;
             }
-            
-            // Notify Warehouse for fulfillment
-            boolean notified = fulfillmentService.notifyOrderConfirmed(orderId).join();
-            if (!notified) {
-                System.err.println("Failed to notify warehouse for order " + orderId);
-                repository.updateStatus(orderId, "CONFIRMATION_FAILED");
-                throw new IOException("Failed to notify warehouse for fulfillment");
+
+            // Warehouse notification and loyalty accrual are delivered by OutboxDispatcher (with retries),
+            // so confirming is a single local transaction. Only the request that moves the order out of
+            // PENDING_CONFIRMATION creates the invoice and the events; a repeated confirm gets 409.
+            boolean confirmed = repository.inOrderTransaction(orderId, () -> {
+                if (!repository.transitionStatus(orderId, OrderStatus.PENDING_CONFIRMATION.name(), OrderStatus.CONFIRMED.name())) {
+                    return false;
+                }
+                invoiceRepository.createInvoice(new Invoice(orderId, order.getCustomerName(), order.getTotalAmount(), LocalDate.now().plusDays(30)));
+                outboxRepository.enqueue(OutboxEvent.ORDER_CONFIRMED, orderId);
+                outboxRepository.enqueue(OutboxEvent.POINTS_ACCRUAL, orderId);
+                return true;
+            });
+            if (!confirmed) {
+                System.err.println("Order " + orderId + " is not awaiting confirmation");
+                sendError(exchange, 409, "Order is not awaiting confirmation");
+                return;
             }
 
             exchange.getResponseHeaders().set("Location", "/orders");
@@ -390,6 +710,56 @@ public class OrderController implements HttpHandler {
         }
     }
 
+    // Accepts a JSON array or NDJSON of {"orderId":N,"status":"..."} objects and applies them in one transaction.
+    private void handleBatchUpdateStatus(HttpExchange exchange) throws IOException {
+        try {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+
+            List<Integer> orderIds = new ArrayList<>();
+            Map<Integer, String> statuses = new LinkedHashMap<>();
+            Matcher entries = JSON_OBJECT.matcher(body);
+            while (entries.find()) {
+                Matcher mId = ORDER_ID_FIELD.matcher(entries.group());
+                Matcher mStatus = STATUS_FIELD.matcher(entries.group());
+                if (mId.find() && mStatus.find()) {
+                    int orderId = Integer.parseInt(mId.group(1));
+                    orderIds.add(orderId);
+                    statuses.put(orderId, mStatus.group(1)); // A later entry for the same order wins
+                } else {
+                    orderIds.add(null);
+                }
+            }
+            if (orderIds.isEmpty()) {
+                sendError(exchange, 400, "No status updates in request");
+                return;
+            }
+            if (orderIds.size() > MAX_STATUS_BATCH) {
+                sendError(exchange, 413, "At most " + MAX_STATUS_BATCH + " status updates per request");
+                return;
+            }
+            System.out.println("Batch Update Status Request: " + orderIds.size() + " entries");
+
+            Set<Integer> updated = repository.updateStatuses(statuses);
+
+            StringBuilder response = new StringBuilder("{\"updated\":").append(updated.size()).append(",\"results\":[");
+            for (int i = 0; i < orderIds.size(); i++) {
+                Integer orderId = orderIds.get(i);
+                if (i > 0) {
+                    response.append(',');
+                }
+                String result = orderId == null ? "invalid" : updated.contains(orderId) ? "updated" : "not_found";
+                response.append("{\"orderId\":").append(orderId).append(",\"result\":\"").append(result).append("\"}");
+            }
+            response.append("]}");
+            sendJson(exchange, 200, response.toString());
+        } catch (NumberFormatException e) {
+            sendError(exchange, 400, "Invalid orderId");
+        } catch (Exception e) {
+            e.printStackTrace();
+            exchange.sendResponseHeaders(500, -1);
+        }
+    }
+
     private Order parseOrder(String json) {
         Order order = new Order();
         
@@ -453,6 +823,30 @@ public class OrderController implements HttpHandler {
         }
     }
 
+    // Listings read only the recent (hot) partitions unless scope=all is given. A customer's own list is served
+    // by idx_orders_customer_id whatever its age, so it covers the full history unless scope=hot is given.
+    private boolean includeHistory(Map<String, String> params) {
+        return "all".equals(params.get("scope"));
+    }
+
+    private Map<String, String> parseQuery(HttpExchange exchange) {
+        String query = exchange.getRequestURI().getRawQuery();
+        return query == null ? new HashMap<>() : parseFormData(query);
+    }
+
+    private Integer parseAfterId(Map<String, String> params) {
+        String afterId = params.get("afterId");
+        return afterId == null || afterId.isEmpty() ? null : Integer.parseInt(afterId);
+    }
+
+    private int parseLimit(Map<String, String> params) {
+        String limit = params.get("limit");
+        if (limit == null || limit.isEmpty()) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        return Math.max(1, Math.min(MAX_PAGE_SIZE, Integer.parseInt(limit)));
+    }
+
     private Map<String, String> parseFormData(String formData) {
         Map<String, String> map = new HashMap<>();
         String[] pairs = formData.split("&");
@@ -0,0 +1,47 @@
+package com.example.order;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+
+/**
+ * Position in the order search, which reads newest first by (created_at, id). The text form is the
+ * creation time as an ISO instant and the id, e.g. 2026-10-18T09:15:30.123456Z_42, so no precision of
+ * created_at is lost between pages.
+ */
+public class OrderCursor implements Comparable<OrderCursor> {
+    private final Timestamp createdAt;
+    private final int id;
+
+    public OrderCursor(Timestamp createdAt, int id) {
+        this.createdAt = createdAt;
+        this.id = id;
+    }
+
+    public static OrderCursor of(Order order) {
+        return new OrderCursor(order.getCreatedAt(), order.getId());
+    }
+
+    public static OrderCursor parse(String text) {
+        int separator = text.lastIndexOf('_');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Invalid cursor " + text);
+        }
+        return new OrderCursor(Timestamp.from(Instant.parse(text.substring(0, separator))),
+                Integer.parseInt(text.substring(separator + 1)));
+    }
+
+    public Timestamp getCreatedAt() { return createdAt; }
+
+    public int getId() { return id; }
+
+    @Override
+    public int compareTo(OrderCursor other) {
+        int byTime = createdAt.compareTo(other.createdAt);
+        return byTime != 0 ? byTime : Integer.compare(id, other.id);
+    }
+
+    @Override
+    public String toString() {
+        return createdAt.toInstant() + "_" + id;
+    }
+}
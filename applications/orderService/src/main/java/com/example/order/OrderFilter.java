@@ -0,0 +1,29 @@
+package com.example.order;
+
+import java.time.LocalDate;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Criteria for the order search. Every field is optional; an empty status set or null means no restriction.
+ */
+public class OrderFilter {
+
+    private Set<OrderStatus> statuses = EnumSet.noneOf(OrderStatus.class);
+    private String customerPrefix;
+    private LocalDate createdFrom;
+    private LocalDate createdTo;
+
+    public Set<OrderStatus> getStatuses() { return statuses; }
+    public void setStatuses(Set<OrderStatus> statuses) { this.statuses = statuses; }
+
+    public String getCustomerPrefix() { return customerPrefix; }
+    public void setCustomerPrefix(String customerPrefix) { this.customerPrefix = customerPrefix; }
+
+    // Inclusive bounds on the day created_at falls on
+    public LocalDate getCreatedFrom() { return createdFrom; }
+    public void setCreatedFrom(LocalDate createdFrom) { this.createdFrom = createdFrom; }
+
+    public LocalDate getCreatedTo() { return createdTo; }
+    public void setCreatedTo(LocalDate createdTo) { this.createdTo = createdTo; }
+}
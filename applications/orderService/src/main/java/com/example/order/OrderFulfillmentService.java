@@ -3,8 +3,6 @@ package com.example.order;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
 
 public class OrderFulfillmentService {
@@ -12,40 +10,43 @@ public class OrderFulfillmentService {
     private final HttpClient httpClient;
     private final String warehouseFulfillmentUrl;
     private final TokenService tokenService;
+    private final DownstreamGuard guard;
 
-    public OrderFulfillmentService() {
+    public OrderFulfillmentService(HttpClient httpClient, TokenService tokenService) {
         this(
+            httpClient,
             System.getenv().getOrDefault("WAREHOUSE_FULFILLMENT_URL", "http://warehouse-demo:8002/api/fulfillment/order"),
-            new KeycloakTokenService(
-                System.getenv().getOrDefault("TOKEN_URL", "http://keycloak:8080/realms/webshop-realm/protocol/openid-connect/token"),
-                System.getenv().getOrDefault("CLIENT_ID", "order-client"),
-                System.getenv().getOrDefault("CLIENT_SECRET", "order-secret")
-            )
+            tokenService,
+            DownstreamGuard.fromEnv("warehouse-fulfillment", "WAREHOUSE_FULFILLMENT")
         );
     }
 
     public OrderFulfillmentService(String warehouseFulfillmentUrl, TokenService tokenService) {
-        this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(5))
-                .build();
+        this(HttpClients.shared(), warehouseFulfillmentUrl, tokenService, DownstreamGuard.fromEnv("warehouse-fulfillment", "WAREHOUSE_FULFILLMENT"));
+    }
+
+    public OrderFulfillmentService(HttpClient httpClient, String warehouseFulfillmentUrl, TokenService tokenService, DownstreamGuard guard) {
+        this.httpClient = httpClient;
         this.warehouseFulfillmentUrl = warehouseFulfillmentUrl;
         this.tokenService = tokenService;
+        this.guard = guard;
     }
 
+    public DownstreamGuard getGuard() { return guard; }
+
     public CompletableFuture<Boolean> notifyOrderConfirmed(int orderId) {
         System.out.println("OrderFulfillmentService: Notifying fulfillment for order " + orderId + " at " + warehouseFulfillmentUrl);
         return tokenService.getAccessToken().thenCompose(token -> {
             System.out.println("OrderFulfillmentService: Got token (length: " + (token != null ? token.length() : 0) + ")");
             String json = "{\"orderId\":" + orderId + "}";
             
-            HttpRequest request = HttpRequest.newBuilder()
+            HttpRequest.Builder request = HttpRequest.newBuilder()
                     .uri(URI.create(warehouseFulfillmentUrl))
                     .header("Content-Type", "application/json")
                     .header("Authorization", "Bearer " + token)
-                    .POST(HttpRequest.BodyPublishers.ofString(json))
-                    .build();
+                    .POST(HttpRequest.BodyPublishers.ofString(json));
 
-            return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+            return guard.send(httpClient, request)
                     .thenApply(response -> {
                         System.out.println("OrderFulfillmentService: Response status: " + response.statusCode());
                         if (response.statusCode() != 200) {
@@ -0,0 +1,473 @@
+package com.example.order;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Bulk loads historical orders, e.g. from the legacy system or a backup, without any of the side
+ * effects of POST /api/orders: no stock is reserved, no points are redeemed or accrued and nothing is
+ * put on the outbox. The whole body is loaded in one transaction on a dedicated connection, so either
+ * every order goes in or none does.
+ *
+ * On PostgreSQL the rows are streamed through COPY into a temporary staging table and moved into
+ * orders and order_items with two set-based inserts. Elsewhere they are inserted in JDBC batches.
+ * Imported orders get new ids. Rows that belong to one order must be adjacent in the input.
+ */
+public class OrderImporter {
+
+    public enum Format { CSV, NDJSON }
+
+    public static class Result {
+        private final int orders;
+        private final int items;
+
+        public Result(int orders, int items) {
+            this.orders = orders;
+            this.items = items;
+        }
+
+        public int getOrders() { return orders; }
+        public int getItems() { return items; }
+    }
+
+    // CSV input has one row per order line. Rows of one order share a ref and repeat the order columns.
+    static final String[] CSV_COLUMNS = {"ref", "customer_name", "status", "total_amount", "points_redeemed",
+                                         "points_earned", "created_at", "product_id", "quantity"};
+    private static final int BATCH_SIZE = 1000;
+    private static final int COPY_CHUNK_CHARS = 64 * 1024;
+
+    private final ConnectionFactory connections;
+
+    public OrderImporter(ConnectionFactory connections) {
+        this.connections = connections;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a line cannot be parsed; nothing is imported in that case
+     */
+    public Result importOrders(InputStream body, Format format) throws SQLException, IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        RowReader rows = format == Format.CSV ? new CsvRowReader(reader) : new NdjsonRowReader(reader);
+        long started = System.nanoTime();
+        try (Connection connection = connections.open()) {
+            Result result = Transactions.run(connection, () -> {
+                try {
+                    return SqlDialect.isPostgres(connection) ? copyIn(connection, rows) : insertBatched(connection, rows);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            System.out.println("OrderImporter: Imported " + result.getOrders() + " orders with " + result.getItems() +
+                               " items in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+            return result;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Result copyIn(Connection connection, RowReader rows) throws SQLException, IOException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TEMP TABLE order_import_rows (seq BIGINT, customer_name VARCHAR(255), status VARCHAR(50), " +
+                         "total_amount DECIMAL(10, 2), points_redeemed INT, points_earned INT, created_at TIMESTAMP, " +
+                         "product_id INT, quantity INT) ON COMMIT DROP");
+        }
+
+        CopyIn copy = connection.unwrap(PGConnection.class).getCopyAPI()
+                .copyIn("COPY order_import_rows FROM STDIN (FORMAT csv)");
+        try {
+            StringBuilder chunk = new StringBuilder(COPY_CHUNK_CHARS + 1024);
+            ImportRow row;
+            while ((row = rows.next()) != null) {
+                row.appendCsv(chunk);
+                if (chunk.length() >= COPY_CHUNK_CHARS) {
+                    writeChunk(copy, chunk);
+                }
+            }
+            writeChunk(copy, chunk);
+            copy.endCopy();
+        } finally {
+            if (copy.isActive()) {
+                copy.cancelCopy();
+            }
+        }
+
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ANALYZE order_import_rows");
+            // Ids come from the orders sequence up front so the items can be joined to their order
+            stmt.execute("CREATE TEMP TABLE order_import_orders ON COMMIT DROP AS " +
+                         "SELECT CAST(nextval(pg_get_serial_sequence('orders', 'id')) AS INTEGER) AS id, r.* FROM (" +
+                         "SELECT DISTINCT ON (seq) seq, customer_name, status, total_amount, points_redeemed, points_earned, created_at " +
+                         "FROM order_import_rows ORDER BY seq) r");
+            stmt.execute("ANALYZE order_import_orders");
+            int orders = stmt.executeUpdate(
+                    "INSERT INTO orders (id, customer_name, status, total_amount, points_redeemed, points_earned, created_at) " +
+                    "SELECT id, customer_name, status, total_amount, points_redeemed, points_earned, created_at " +
+                    "FROM order_import_orders ORDER BY id");
+            int items = stmt.executeUpdate(
+                    "INSERT INTO order_items (order_id, order_created_at, product_id, quantity) " +
+                    "SELECT o.id, o.created_at, r.product_id, r.quantity FROM order_import_rows r " +
+                    "JOIN order_import_orders o ON o.seq = r.seq WHERE r.product_id IS NOT NULL");
+            new CustomerOrderSummaryProjection(connection).ordersImported("order_import_orders");
+            return new Result(orders, items);
+        }
+    }
+
+    private static void writeChunk(CopyIn copy, StringBuilder chunk) throws SQLException {
+        if (chunk.length() == 0) {
+            return;
+        }
+        byte[] bytes = chunk.toString().getBytes(StandardCharsets.UTF_8);
+        copy.writeToCopy(bytes, 0, bytes.length);
+        chunk.setLength(0);
+    }
+
+    private Result insertBatched(Connection connection, RowReader rows) throws SQLException, IOException {
+        CustomerOrderSummaryProjection summaries = new CustomerOrderSummaryProjection(connection);
+        List<Order> batch = new ArrayList<>();
+        int orders = 0;
+        int items = 0;
+        Order current = null;
+        long currentSeq = -1;
+        ImportRow row;
+        while ((row = rows.next()) != null) {
+            if (current == null || row.seq != currentSeq) {
+                if (batch.size() == BATCH_SIZE) {
+                    items += insertBatch(connection, batch);
+                    summaries.ordersCreated(batch);
+                    orders += batch.size();
+                    batch.clear();
+                }
+                current = row.toOrder();
+                currentSeq = row.seq;
+                batch.add(current);
+            }
+            if (row.productId != null) {
+                current.addItem(new OrderItem(row.productId, row.quantity));
+            }
+        }
+        if (!batch.isEmpty()) {
+            items += insertBatch(connection, batch);
+            summaries.ordersCreated(batch);
+            orders += batch.size();
+        }
+        return new Result(orders, items);
+    }
+
+    private int insertBatch(Connection connection, List<Order> batch) throws SQLException {
+        String sql = "INSERT INTO orders (customer_name, status, total_amount, points_redeemed, points_earned, created_at) " +
+                     "VALUES (?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            for (Order order : batch) {
+                stmt.setString(1, order.getCustomerName());
+                stmt.setString(2, order.getStatus());
+                stmt.setDouble(3, order.getTotalAmount());
+                stmt.setInt(4, order.getPointsToRedeem());
+                stmt.setInt(5, order.getPointsEarned());
+                stmt.setTimestamp(6, order.getCreatedAt());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                for (Order order : batch) {
+                    if (!keys.next()) {
+                        throw new SQLException("Importing orders failed, no ID obtained.");
+                    }
+                    order.setId(keys.getInt(1));
+                }
+            }
+        }
+
+        int items = 0;
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "INSERT INTO order_items (order_id, order_created_at, product_id, quantity) VALUES (?, ?, ?, ?)")) {
+            for (Order order : batch) {
+                for (OrderItem item : order.getItems()) {
+                    stmt.setInt(1, order.getId());
+                    stmt.setTimestamp(2, order.getCreatedAt());
+                    stmt.setInt(3, item.getProductId());
+                    stmt.setInt(4, item.getQuantity());
+                    stmt.addBatch();
+                    items++;
+                }
+            }
+            if (items > 0) {
+                stmt.executeBatch();
+            }
+        }
+        return items;
+    }
+
+    // One order line; an order without items is a single row with no product
+    static class ImportRow {
+        final long seq;
+        final String customerName;
+        final String status;
+        final double totalAmount;
+        final int pointsRedeemed;
+        final int pointsEarned;
+        final Timestamp createdAt;
+        final Integer productId;
+        final Integer quantity;
+
+        ImportRow(long seq, String customerName, String status, double totalAmount, int pointsRedeemed, int pointsEarned,
+                  Timestamp createdAt, Integer productId, Integer quantity) {
+            this.seq = seq;
+            this.customerName = customerName;
+            this.status = status;
+            this.totalAmount = totalAmount;
+            this.pointsRedeemed = pointsRedeemed;
+            this.pointsEarned = pointsEarned;
+            this.createdAt = createdAt;
+            this.productId = productId;
+            this.quantity = quantity;
+        }
+
+        Order toOrder() {
+            Order order = new Order(0, customerName, status);
+            order.setTotalAmount(totalAmount);
+            order.setPointsToRedeem(pointsRedeemed);
+            order.setPointsEarned(pointsEarned);
+            order.setCreatedAt(createdAt);
+            return order;
+        }
+
+        // COPY csv: unquoted empty fields are NULL, strings are always quoted
+        void appendCsv(StringBuilder out) {
+            out.append(seq).append(',');
+            quote(out, customerName).append(',');
+            quote(out, status).append(',');
+            out.append(totalAmount).append(',')
+               .append(pointsRedeemed).append(',')
+               .append(pointsEarned).append(',')
+               .append(createdAt).append(',');
+            if (productId != null) {
+                out.append(productId).append(',').append(quantity);
+            } else {
+                out.append(',');
+            }
+            out.append('\n');
+        }
+
+        private static StringBuilder quote(StringBuilder out, String value) {
+            return out.append('"').append(value.replace("\"", "\"\"")).append('"');
+        }
+    }
+
+    interface RowReader {
+        // Returns null at the end of the input
+        ImportRow next() throws IOException;
+    }
+
+    static class CsvRowReader implements RowReader {
+        private final BufferedReader reader;
+        private final Map<String, Integer> columns = new HashMap<>();
+        private int lineNumber;
+        private long seq;
+        private String currentRef;
+
+        CsvRowReader(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public ImportRow next() throws IOException {
+            if (lineNumber == 0) {
+                readHeader();
+            }
+            String line;
+            do {
+                line = reader.readLine();
+                lineNumber++;
+                if (line == null) {
+                    return null;
+                }
+            } while (line.isBlank());
+
+            List<String> fields = splitCsv(line, lineNumber);
+            try {
+                String ref = required(fields, "ref");
+                if (!ref.equals(currentRef)) {
+                    currentRef = ref;
+                    seq++;
+                }
+                String productId = optional(fields, "product_id");
+                return new ImportRow(seq, required(fields, "customer_name"), required(fields, "status"),
+                        parseDouble(optional(fields, "total_amount")), parseInt(optional(fields, "points_redeemed")),
+                        parseInt(optional(fields, "points_earned")), parseTimestamp(required(fields, "created_at")),
+                        productId != null ? Integer.valueOf(productId) : null,
+                        productId != null ? Integer.valueOf(required(fields, "quantity")) : null);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+
+        private void readHeader() throws IOException {
+            String header = reader.readLine();
+            lineNumber++;
+            if (header == null) {
+                throw new IllegalArgumentException("Missing CSV header");
+            }
+            List<String> names = splitCsv(header, lineNumber);
+            for (int i = 0; i < names.size(); i++) {
+                columns.put(names.get(i).trim().toLowerCase(), i);
+            }
+            for (String required : new String[] {"ref", "customer_name", "status", "created_at"}) {
+                if (!columns.containsKey(required)) {
+                    throw new IllegalArgumentException("CSV header is missing column " + required);
+                }
+            }
+        }
+
+        private String optional(List<String> fields, String column) {
+            Integer index = columns.get(column);
+            if (index == null || index >= fields.size() || fields.get(index).isEmpty()) {
+                return null;
+            }
+            return fields.get(index);
+        }
+
+        private String required(List<String> fields, String column) {
+            String value = optional(fields, column);
+            if (value == null) {
+                throw new IllegalArgumentException("Missing " + column);
+            }
+            return value;
+        }
+    }
+
+    static class NdjsonRowReader implements RowReader {
+        private static final Pattern ITEM = Pattern.compile(
+                "\\{\\s*\"productId\"\\s*:\\s*\"?(\\d+)\"?\\s*,\\s*\"quantity\"\\s*:\\s*(\\d+)\\s*\\}");
+
+        private final BufferedReader reader;
+        private final Deque<ImportRow> pending = new ArrayDeque<>();
+        private int lineNumber;
+        private long seq;
+
+        NdjsonRowReader(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public ImportRow next() throws IOException {
+            while (pending.isEmpty()) {
+                String line = reader.readLine();
+                lineNumber++;
+                if (line == null) {
+                    return null;
+                }
+                if (!line.isBlank()) {
+                    try {
+                        parseOrder(line);
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+                    }
+                }
+            }
+            return pending.poll();
+        }
+
+        private void parseOrder(String line) {
+            seq++;
+            String customerName = stringField(line, "customerName");
+            String status = stringField(line, "status");
+            String createdAt = stringField(line, "createdAt");
+            if (customerName == null || status == null || createdAt == null) {
+                throw new IllegalArgumentException("customerName, status and createdAt are required");
+            }
+            double totalAmount = parseDouble(numberField(line, "totalAmount"));
+            int pointsRedeemed = parseInt(numberField(line, "pointsRedeemed"));
+            int pointsEarned = parseInt(numberField(line, "pointsEarned"));
+            Timestamp created = parseTimestamp(createdAt);
+
+            int itemsStart = line.indexOf("\"items\"");
+            if (itemsStart >= 0) {
+                Matcher item = ITEM.matcher(line);
+                item.region(itemsStart, line.length());
+                while (item.find()) {
+                    pending.add(new ImportRow(seq, customerName, status, totalAmount, pointsRedeemed, pointsEarned, created,
+                            Integer.valueOf(item.group(1)), Integer.valueOf(item.group(2))));
+                }
+            }
+            if (pending.isEmpty()) {
+                pending.add(new ImportRow(seq, customerName, status, totalAmount, pointsRedeemed, pointsEarned, created, null, null));
+            }
+        }
+
+        private static String stringField(String json, String name) {
+            Matcher m = Pattern.compile("\"" + name + "\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"").matcher(json);
+            return m.find() ? m.group(1).replace("\\\"", "\"").replace("\\\\", "\\") : null;
+        }
+
+        private static String numberField(String json, String name) {
+            Matcher m = Pattern.compile("\"" + name + "\"\\s*:\\s*(-?[0-9]+(?:\\.[0-9]+)?)").matcher(json);
+            return m.find() ? m.group(1) : null;
+        }
+    }
+
+    // Splits one CSV line, honouring double-quoted fields with "" as an escaped quote
+    static List<String> splitCsv(String line, int lineNumber) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": unterminated quoted field");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static double parseDouble(String value) {
+        return value != null ? Double.parseDouble(value) : 0;
+    }
+
+    private static int parseInt(String value) {
+        return value != null ? Integer.parseInt(value) : 0;
+    }
+
+    // Accepts 2021-03-04T10:15:30 as well as 2021-03-04 10:15:30, with optional fractional seconds
+    private static Timestamp parseTimestamp(String value) {
+        return Timestamp.valueOf(value.trim().replace('T', ' '));
+    }
+}
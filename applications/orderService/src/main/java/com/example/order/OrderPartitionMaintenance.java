@@ -0,0 +1,181 @@
+package com.example.order;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the monthly partitions of orders and order_items in step with the calendar: creates the
+ * partitions for the coming months ahead of time and, when archiving is enabled, detaches months that
+ * have fallen out of the retention window. Detached partitions stay in the database as plain tables
+ * (orders_pYYYYMM, order_items_pYYYYMM) but are no longer scanned by any query on orders.
+ * Only applies to PostgreSQL databases whose orders table was created partitioned; elsewhere it does
+ * nothing.
+ */
+public class OrderPartitionMaintenance {
+
+    private static final Logger logger = LoggerFactory.getLogger(OrderPartitionMaintenance.class);
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private final Connection connection;
+    private final int monthsAhead;
+    private final int archiveAfterMonths;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param archiveAfterMonths months of history to keep attached; 0 disables archiving
+     */
+    public OrderPartitionMaintenance(Connection connection, int monthsAhead, int archiveAfterMonths) {
+        this.connection = connection;
+        this.monthsAhead = monthsAhead;
+        this.archiveAfterMonths = archiveAfterMonths;
+    }
+
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "order-partition-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                run(LocalDate.now());
+            } catch (SQLException e) {
+                logger.error("Order partition maintenance failed", e);
+            }
+        }, 1, 1, TimeUnit.DAYS);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public void run(LocalDate today) throws SQLException {
+        if (!SqlDialect.isPostgres(connection)) {
+            return;
+        }
+        if (!isPartitioned("orders")) {
+            backfillItemCreatedAt();
+            logger.warn("orders is not a partitioned table; recreate it from schema.sql and copy the data over to enable monthly partitions");
+            return;
+        }
+        ensureDefaultPartitions();
+        LocalDate month = today.withDayOfMonth(1);
+        for (int i = 0; i <= monthsAhead; i++) {
+            ensurePartition(month.plusMonths(i));
+        }
+        if (archiveAfterMonths > 0) {
+            archiveBefore(month.minusMonths(archiveAfterMonths - 1));
+        }
+    }
+
+    public void ensurePartition(LocalDate month) throws SQLException {
+        String suffix = month.format(SUFFIX);
+        String from = month.toString();
+        String to = month.plusMonths(1).toString();
+        Transactions.run(connection, () -> {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS orders_p" + suffix + " PARTITION OF orders " +
+                             "FOR VALUES FROM ('" + from + "') TO ('" + to + "')");
+                stmt.execute("CREATE TABLE IF NOT EXISTS order_items_p" + suffix + " PARTITION OF order_items " +
+                             "FOR VALUES FROM ('" + from + "') TO ('" + to + "')");
+            }
+            return null;
+        });
+    }
+
+    // Catch-all partitions so an insert never fails for lack of a monthly partition
+    private void ensureDefaultPartitions() throws SQLException {
+        Transactions.run(connection, () -> {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS orders_default PARTITION OF orders DEFAULT");
+                stmt.execute("CREATE TABLE IF NOT EXISTS order_items_default PARTITION OF order_items DEFAULT");
+            }
+            return null;
+        });
+    }
+
+    // Detaches every monthly partition that ends on or before the cutoff; items first, since they reference the orders.
+    public List<String> archiveBefore(LocalDate cutoff) throws SQLException {
+        List<String> archived = new ArrayList<>();
+        for (String orderPartition : attachedMonthlyPartitions("orders")) {
+            LocalDate month = LocalDate.parse(orderPartition.substring("orders_p".length()) + "01", DateTimeFormatter.BASIC_ISO_DATE);
+            if (!month.plusMonths(1).isAfter(cutoff)) {
+                String itemPartition = "order_items_p" + month.format(SUFFIX);
+                Transactions.run(connection, () -> {
+                    try (Statement stmt = connection.createStatement()) {
+                        if (attachedMonthlyPartitions("order_items").contains(itemPartition)) {
+                            stmt.execute("ALTER TABLE order_items DETACH PARTITION " + itemPartition);
+                        }
+                        stmt.execute("ALTER TABLE orders DETACH PARTITION " + orderPartition);
+                    }
+                    return null;
+                });
+                logger.info("Archived order partition {}", orderPartition);
+                archived.add(orderPartition);
+            }
+        }
+        return archived;
+    }
+
+    private boolean isPartitioned(String table) throws SQLException {
+        String sql = "SELECT 1 FROM pg_partitioned_table p JOIN pg_class c ON c.oid = p.partrelid " +
+                     "WHERE c.relname = ? AND pg_table_is_visible(c.oid)";
+        return Transactions.withConnection(connection, () -> {
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                stmt.setString(1, table);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next();
+                }
+            }
+        });
+    }
+
+    private List<String> attachedMonthlyPartitions(String parent) throws SQLException {
+        String sql = "SELECT c.relname FROM pg_inherits i " +
+                     "JOIN pg_class c ON c.oid = i.inhrelid JOIN pg_class p ON p.oid = i.inhparent " +
+                     "WHERE p.relname = ? AND pg_table_is_visible(p.oid) AND c.relname ~ ? ORDER BY c.relname";
+        return Transactions.withConnection(connection, () -> {
+            List<String> partitions = new ArrayList<>();
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                stmt.setString(1, parent);
+                stmt.setString(2, "^" + parent + "_p[0-9]{6}$");
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        partitions.add(rs.getString(1));
+                    }
+                }
+            }
+            return partitions;
+        });
+    }
+
+    // Databases created before partitioning have items without order_created_at, which the item join needs
+    private void backfillItemCreatedAt() throws SQLException {
+        Transactions.run(connection, () -> {
+            try (Statement stmt = connection.createStatement()) {
+                int rows = stmt.executeUpdate("UPDATE order_items i SET order_created_at = o.created_at " +
+                                              "FROM orders o WHERE i.order_id = o.id AND i.order_created_at IS NULL");
+                if (rows > 0) {
+                    logger.info("Backfilled order_created_at on {} order items", rows);
+                }
+            }
+            return null;
+        });
+    }
+}
@@ -1,56 +1,352 @@
 package com.example.order;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.sql.*;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class OrderRepository implements OrderStore {
 
-public class OrderRepository {
+    private static final Logger logger = LoggerFactory.getLogger(OrderRepository.class);
+    private static final int DEFAULT_HOT_MONTHS = 3;
 
     private final Connection connection;
+    private final ReplicaRouter reads;
+    private final int hotMonths;
+    private final CustomerOrderSummaryProjection summaries;
+    private final OrderStatusCounters statusCounters;
 
     public OrderRepository(Connection connection) {
-        this.connection = connection;
+        this(connection, DEFAULT_HOT_MONTHS);
+    }
+
+    public OrderRepository(Connection connection, int hotMonths) {
+        this(ReplicaRouter.primaryOnly(connection), hotMonths);
+    }
+
+    // Writes go to the router's primary, the find methods to whichever connection it picks for reads
+    public OrderRepository(ReplicaRouter reads, int hotMonths) {
+        this(reads, hotMonths, null);
+    }
+
+    public OrderRepository(ReplicaRouter reads, int hotMonths, OrderStatusCounters statusCounters) {
+        this.connection = reads.primary();
+        this.reads = reads;
+        this.hotMonths = Math.max(1, hotMonths);
+        this.statusCounters = statusCounters;
+        this.summaries = new CustomerOrderSummaryProjection(connection, statusCounters);
     }
 
+    // Repositories share the application's connection, so work done through InvoiceRepository or
+    // OutboxRepository inside the callback joins the same transaction.
+    public <T> T inTransaction(SqlWork<T> work) throws SQLException {
+        return Transactions.run(connection, work);
+    }
+
+    // A transaction on the database that holds the order. The same as inTransaction unless orders are sharded.
+    @Override
+    public <T> T inOrderTransaction(int orderId, SqlWork<T> work) throws SQLException {
+        return inTransaction(work);
+    }
+
+    private static final String ORDER_COLUMNS = "id, customer_name, status, total_amount, points_redeemed, points_earned, created_at";
+    private static final String ORDER_WITH_ITEM_COLUMNS =
+            "o.id, o.customer_name, o.status, o.total_amount, o.points_redeemed, o.points_earned, o.created_at, " +
+            "i.id AS item_id, i.product_id, i.quantity";
+    // Items are partitioned by their order's creation time, so joining on it lets PostgreSQL prune item partitions
+    private static final String JOIN_ITEMS = "LEFT JOIN order_items i ON i.order_id = o.id AND i.order_created_at = o.created_at";
+
+    /**
+     * Start of the hot window: the current month and the (hotMonths - 1) months before it. Listings are
+     * limited to orders created since then unless history is requested, so they only touch the newest
+     * partitions however long the history grows.
+     */
+    public Timestamp hotCutoff() {
+        LocalDate firstOfMonth = LocalDate.now().withDayOfMonth(1).minusMonths(hotMonths - 1);
+        return Timestamp.valueOf(firstOfMonth.atStartOfDay());
+    }
+
+    @Override
     public List<Order> findAll() throws SQLException {
-        List<Order> orders = new ArrayList<>();
-        String sql = "SELECT id, customer_name, status, total_amount, points_redeemed, points_earned FROM orders ORDER BY id DESC";
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            while (rs.next()) {
-                Order o = new Order(rs.getInt("id"), rs.getString("customer_name"), rs.getString("status"));
-                o.setTotalAmount(rs.getDouble("total_amount"));
-                o.setPointsToRedeem(rs.getInt("points_redeemed"));
-                o.setPointsEarned(rs.getInt("points_earned"));
-                o.setItems(findItemsByOrderId(o.getId()));
-                orders.add(o);
-            }
-        }
-        System.out.println("OrderRepository: Found " + orders.size() + " orders.");
+        String sql = "SELECT " + ORDER_WITH_ITEM_COLUMNS + " FROM orders o " +
+                     JOIN_ITEMS + " ORDER BY o.id DESC, i.id";
+        Connection source = reads.forRead();
+        List<Order> orders = Transactions.withConnection(source, () -> {
+            try (Statement stmt = source.createStatement();
+                 ResultSet rs = stmt.executeQuery(sql)) {
+                return readOrdersWithItems(rs);
+            }
+        });
+        logger.debug("Found {} orders", orders.size());
         return orders;
     }
 
+    // Keyset pagination over id DESC: returns up to 'limit' orders with id < afterId (or the newest when afterId is null),
+    // items included, in a single round trip. Only the hot window is read unless includeHistory is set.
+    @Override
+    public List<Order> findPage(Integer afterId, int limit, boolean includeHistory) throws SQLException {
+        String sql = "SELECT " + ORDER_WITH_ITEM_COLUMNS + " FROM " +
+                     "(SELECT " + ORDER_COLUMNS + " FROM orders WHERE id < ?" + (includeHistory ? "" : " AND created_at >= ?") +
+                     " ORDER BY id DESC LIMIT ?) o " +
+                     JOIN_ITEMS + " ORDER BY o.id DESC, i.id";
+        Connection source = reads.forRead();
+        return Transactions.withConnection(source, () -> {
+            try (PreparedStatement stmt = source.prepareStatement(sql)) {
+                int index = 1;
+                stmt.setInt(index++, afterId != null ? afterId : Integer.MAX_VALUE);
+                if (!includeHistory) {
+                    stmt.setTimestamp(index++, hotCutoff());
+                }
+                stmt.setInt(index, limit);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return readOrdersWithItems(rs);
+                }
+            }
+        });
+    }
+
+    /**
+     * Keyset pagination over (created_at, id) DESC: returns up to 'limit' orders matching the filter that
+     * come after the cursor (or the newest when it is null), items included. Statuses are matched on
+     * status_code with the codes inlined, so a status filter is served by idx_orders_status_created, or by
+     * the smaller idx_orders_actionable for actionable statuses, and the date range prunes partitions.
+     */
+    @Override
+    public List<Order> search(OrderFilter filter, OrderCursor after, int limit) throws SQLException {
+        StringBuilder where = new StringBuilder(" WHERE 1 = 1");
+        List<Object> args = new ArrayList<>();
+        if (!filter.getStatuses().isEmpty()) {
+            where.append(" AND ").append(OrderStatus.codeCondition(filter.getStatuses()));
+        }
+        if (filter.getCustomerPrefix() != null) {
+            where.append(" AND customer_name LIKE ? ESCAPE '\\'");
+            args.add(filter.getCustomerPrefix().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%");
+        }
+        if (filter.getCreatedFrom() != null) {
+            where.append(" AND created_at >= ?");
+            args.add(Timestamp.valueOf(filter.getCreatedFrom().atStartOfDay()));
+        }
+        if (filter.getCreatedTo() != null) {
+            where.append(" AND created_at < ?");
+            args.add(Timestamp.valueOf(filter.getCreatedTo().plusDays(1).atStartOfDay()));
+        }
+        if (after != null) {
+            where.append(" AND (created_at, id) < (?, ?)");
+            args.add(after.getCreatedAt());
+            args.add(after.getId());
+        }
+        args.add(limit);
+        String sql = "SELECT " + ORDER_WITH_ITEM_COLUMNS + " FROM " +
+                     "(SELECT " + ORDER_COLUMNS + " FROM orders" + where + " ORDER BY created_at DESC, id DESC LIMIT ?) o " +
+                     JOIN_ITEMS + " ORDER BY o.created_at DESC, o.id DESC, i.id";
+        Connection source = reads.forRead();
+        return Transactions.withConnection(source, () -> {
+            try (PreparedStatement stmt = source.prepareStatement(sql)) {
+                for (int i = 0; i < args.size(); i++) {
+                    stmt.setObject(i + 1, args.get(i));
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return readOrdersWithItems(rs);
+                }
+            }
+        });
+    }
+
+    @Override
+    public Order findById(int id) throws SQLException {
+        String sql = "SELECT " + ORDER_WITH_ITEM_COLUMNS + " FROM orders o " +
+                     JOIN_ITEMS + " WHERE o.id = ? ORDER BY i.id";
+        Connection source = reads.forRead();
+        return Transactions.withConnection(source, () -> {
+            try (PreparedStatement stmt = source.prepareStatement(sql)) {
+                stmt.setInt(1, id);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    List<Order> orders = readOrdersWithItems(rs);
+                    return orders.isEmpty() ? null : orders.get(0);
+                }
+            }
+        });
+    }
+
+    // Order headers only (no items) for one customer, newest first, served by idx_orders_customer_id.
+    // Restricted to orders changed after the customer's change counter stood at sinceVersion when
+    // it is given, and to the hot window unless includeHistory is set.
+    @Override
+    public List<Order> findByCustomer(String customerName, Integer afterId, int limit, Long sinceVersion, boolean includeHistory) throws SQLException {
+        String sql = "SELECT " + ORDER_COLUMNS + " FROM orders WHERE customer_name = ? AND id < ?" +
+                     (includeHistory ? "" : " AND created_at >= ?") +
+                     (sinceVersion != null ? " AND change_version > ?" : "") +
+                     " ORDER BY id DESC LIMIT ?";
+        Connection source = reads.forRead();
+        return Transactions.withConnection(source, () -> {
+            List<Order> orders = new ArrayList<>();
+            try (PreparedStatement stmt = source.prepareStatement(sql)) {
+                int index = 1;
+                stmt.setString(index++, customerName);
+                stmt.setInt(index++, afterId != null ? afterId : Integer.MAX_VALUE);
+                if (!includeHistory) {
+                    stmt.setTimestamp(index++, hotCutoff());
+                }
+                if (sinceVersion != null) {
+                    stmt.setLong(index++, sinceVersion);
+                }
+                stmt.setInt(index, limit);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        orders.add(mapOrder(rs));
+                    }
+                }
+            }
+            return orders;
+        });
+    }
+
+    // Cheap fingerprint of a customer's order list: it changes whenever an order is added or modified.
+    @Override
+    public CustomerOrdersVersion findCustomerVersion(String customerName) throws SQLException {
+        String sql = "SELECT COUNT(*), MAX(id), COALESCE(MAX(change_version), 0) FROM orders WHERE customer_name = ?";
+        Connection source = reads.forRead();
+        return Transactions.withConnection(source, () -> {
+            try (PreparedStatement stmt = source.prepareStatement(sql)) {
+                stmt.setString(1, customerName);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    rs.next();
+                    return new CustomerOrdersVersion(rs.getInt(1), rs.getInt(2), rs.getLong(3));
+                }
+            }
+        });
+    }
+
+    @Override
+    public CustomerOrderSummary findCustomerSummary(String customerName) throws SQLException {
+        return summaries.find(reads.forRead(), customerName);
+    }
+
+    // Number of orders per status, from memory when counters are kept, otherwise one row per status
+    @Override
+    public Map<String, Long> statusCounts() throws SQLException {
+        return statusCounters != null ? statusCounters.snapshot() : OrderStatusCounters.read(reads.forRead());
+    }
+
+    /**
+     * Inserts the order and all of its items in one transaction, so an order is never stored without
+     * its lines. The items go in as a single JDBC batch on one prepared statement, and the customer's
+     * summary row is updated in the same transaction.
+     */
+    @Override
     public int createOrder(Order order) throws SQLException {
-        String sql = "INSERT INTO orders (customer_name, status, total_amount, points_redeemed) VALUES (?, ?, ?, ?)";
-        try (PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            stmt.setString(1, order.getCustomerName());
-            stmt.setString(2, order.getStatus());
-            stmt.setDouble(3, order.getTotalAmount());
-            stmt.setInt(4, order.getPointsToRedeem());
+        // Set here rather than defaulted by the database: the items carry the same value as their partition key
+        Timestamp createdAt = new Timestamp(System.currentTimeMillis());
+        return inTransaction(() -> {
+            Map<String, Long> versions = nextChangeVersions(Collections.singletonList(order.getCustomerName()));
+            int orderId = insertOrder(order, createdAt, versions.get(order.getCustomerName()));
+            createOrderItems(orderId, createdAt, order.getItems());
+            summaries.orderCreated(order);
+            logger.debug("Created order {} with {} items", orderId, order.getItems().size());
+            return orderId;
+        });
+    }
+
+    /**
+     * Inserts several orders in one transaction: one batch for the order rows, one for the items of all
+     * of them and one summary update. Returns the generated ids in the order of the list.
+     */
+    @Override
+    public List<Integer> createOrders(List<Order> orders) throws SQLException {
+        Timestamp createdAt = new Timestamp(System.currentTimeMillis());
+        return inTransaction(() -> {
+            List<String> customers = new ArrayList<>();
+            for (Order order : orders) {
+                customers.add(order.getCustomerName());
+            }
+            List<Integer> ids = insertOrders(orders, createdAt, nextChangeVersions(customers));
+            try (PreparedStatement stmt = connection.prepareStatement(INSERT_ITEM)) {
+                for (int i = 0; i < orders.size(); i++) {
+                    addItems(stmt, ids.get(i), createdAt, orders.get(i).getItems());
+                }
+                stmt.executeBatch();
+            }
+            summaries.ordersCreated(orders);
+            logger.debug("Created {} orders in one transaction", orders.size());
+            return ids;
+        });
+    }
+
+    @Override
+    public void updatePointsEarned(int orderId, int points) throws SQLException {
+        logger.debug("Updating points earned for order {} to {}", orderId, points);
+        String sql = "UPDATE orders SET points_earned = ? WHERE id = ?";
+        inTransaction(() -> {
+            CustomerOrderSummaryProjection.OrderState before = summaries.lockOrders(List.of(orderId)).get(orderId);
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                stmt.setInt(1, points);
+                stmt.setInt(2, orderId);
+                stmt.executeUpdate();
+            }
+            if (before != null) {
+                stampChangeVersions(List.of(before));
+                summaries.pointsEarnedChanged(before, points);
+            }
+            logger.debug("Updated points earned for order {}", orderId);
+            return null;
+        });
+    }
+
+    private static final String INSERT_ORDER =
+            "INSERT INTO orders (customer_name, status, total_amount, points_redeemed, created_at, change_version) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_ITEM = "INSERT INTO order_items (order_id, order_created_at, product_id, quantity) VALUES (?, ?, ?, ?)";
+
+    private static void setOrder(PreparedStatement stmt, Order order, Timestamp createdAt, Long changeVersion) throws SQLException {
+        stmt.setString(1, order.getCustomerName());
+        stmt.setString(2, order.getStatus());
+        stmt.setDouble(3, order.getTotalAmount());
+        stmt.setInt(4, order.getPointsToRedeem());
+        stmt.setTimestamp(5, createdAt);
+        stmt.setObject(6, changeVersion, Types.BIGINT);
+    }
+
+    private List<Integer> insertOrders(List<Order> orders, Timestamp createdAt, Map<String, Long> versions) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(INSERT_ORDER, Statement.RETURN_GENERATED_KEYS)) {
+            for (Order order : orders) {
+                setOrder(stmt, order, createdAt, versions.get(order.getCustomerName()));
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            List<Integer> ids = new ArrayList<>(orders.size());
+            try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
+                while (generatedKeys.next()) {
+                    ids.add(generatedKeys.getInt(1));
+                }
+            }
+            if (ids.size() != orders.size()) {
+                throw new SQLException("Creating orders failed, got " + ids.size() + " ids for " + orders.size() + " orders.");
+            }
+            return ids;
+        }
+    }
+
+    private int insertOrder(Order order, Timestamp createdAt, Long changeVersion) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(INSERT_ORDER, Statement.RETURN_GENERATED_KEYS)) {
+            setOrder(stmt, order, createdAt, changeVersion);
             int affectedRows = stmt.executeUpdate();
-            
+
             if (affectedRows == 0) {
                 throw new SQLException("Creating order failed, no rows affected.");
             }
 
             try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
                 if (generatedKeys.next()) {
-                    int orderId = generatedKeys.getInt(1);
-                    System.out.println("OrderRepository: Created order with ID " + orderId);
-                    for (OrderItem item : order.getItems()) {
-                        createOrderItem(orderId, item);
-                    }
-                    return orderId;
+                    return generatedKeys.getInt(1);
                 } else {
                     throw new SQLException("Creating order failed, no ID obtained.");
                 }
@@ -58,53 +354,233 @@ public class OrderRepository {
         }
     }
 
-    public void updatePointsEarned(int orderId, int points) throws SQLException {
-        System.out.println("OrderRepository: Updating points earned for order " + orderId + " to " + points);
-        String sql = "UPDATE orders SET points_earned = ? WHERE id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setInt(1, points);
-            stmt.setInt(2, orderId);
-            stmt.executeUpdate();
-            System.out.println("OrderRepository: Updated points earned for order " + orderId);
+    private void createOrderItems(int orderId, Timestamp orderCreatedAt, List<OrderItem> items) throws SQLException {
+        if (items.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement stmt = connection.prepareStatement(INSERT_ITEM)) {
+            addItems(stmt, orderId, orderCreatedAt, items);
+            stmt.executeBatch();
         }
     }
 
-    private void createOrderItem(int orderId, OrderItem item) throws SQLException {
-        String sql = "INSERT INTO order_items (order_id, product_id, quantity) VALUES (?, ?, ?)";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+    private static void addItems(PreparedStatement stmt, int orderId, Timestamp orderCreatedAt, List<OrderItem> items) throws SQLException {
+        for (OrderItem item : items) {
             stmt.setInt(1, orderId);
-            stmt.setInt(2, item.getProductId());
-            stmt.setInt(3, item.getQuantity());
-            stmt.executeUpdate();
+            stmt.setTimestamp(2, orderCreatedAt);
+            stmt.setInt(3, item.getProductId());
+            stmt.setInt(4, item.getQuantity());
+            stmt.addBatch();
         }
     }
 
+    @Override
     public void updateStatus(int orderId, String status) throws SQLException {
         String sql = "UPDATE orders SET status = ? WHERE id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setString(1, status);
-            stmt.setInt(2, orderId);
-            int rows = stmt.executeUpdate();
-            System.out.println("OrderRepository: Updated status for order " + orderId + " to " + status + ". Rows affected: " + rows);
+        inTransaction(() -> {
+            Map<Integer, CustomerOrderSummaryProjection.OrderState> before = summaries.lockOrders(List.of(orderId));
+            int rows;
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                stmt.setString(1, status);
+                stmt.setInt(2, orderId);
+                rows = stmt.executeUpdate();
+            }
+            stampChangeVersions(before.values());
+            summaries.statusesChanged(before.values(), Map.of(orderId, status));
+            logger.debug("Updated status for order {} to {}, rows affected: {}", orderId, status, rows);
+            return null;
+        });
+    }
+
+    /**
+     * Moves the order from one status to another only if it still has the expected status, and returns
+     * whether it did. The check and the change are one UPDATE, so of two concurrent transitions out of
+     * the same status only one succeeds.
+     */
+    @Override
+    public boolean transitionStatus(int orderId, String from, String to) throws SQLException {
+        String sql = "UPDATE orders SET status = ? WHERE id = ? AND status = ?";
+        return inTransaction(() -> {
+            Map<Integer, CustomerOrderSummaryProjection.OrderState> before = summaries.lockOrders(List.of(orderId));
+            int rows;
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                stmt.setString(1, to);
+                stmt.setInt(2, orderId);
+                stmt.setString(3, from);
+                rows = stmt.executeUpdate();
+            }
+            if (rows != 1) {
+                return false;
+            }
+            stampChangeVersions(before.values());
+            summaries.statusesChanged(before.values(), Map.of(orderId, to));
+            logger.debug("Moved order {} from {} to {}", orderId, from, to);
+            return true;
+        });
+    }
+
+    /**
+     * Applies many status changes in one transaction and returns the ids of the orders that exist and
+     * were updated. On PostgreSQL this is a single UPDATE ... FROM (VALUES ...); elsewhere it falls back
+     * to a JDBC batch of single-row updates. The affected rows are locked and read first so the
+     * customer summaries can be moved from the old statuses to the new ones.
+     */
+    @Override
+    public Set<Integer> updateStatuses(Map<Integer, String> statuses) throws SQLException {
+        if (statuses.isEmpty()) {
+            return new HashSet<>();
         }
+        Set<Integer> updated = inTransaction(() -> {
+            Map<Integer, CustomerOrderSummaryProjection.OrderState> before = summaries.lockOrders(statuses.keySet());
+            Set<Integer> ids = SqlDialect.isPostgres(connection)
+                    ? updateStatusesFromValues(statuses)
+                    : updateStatusesBatched(statuses);
+            before.keySet().retainAll(ids);
+            stampChangeVersions(before.values());
+            summaries.statusesChanged(before.values(), statuses);
+            return ids;
+        });
+        logger.debug("Updated status for {} of {} orders", updated.size(), statuses.size());
+        return updated;
     }
 
-    private List<OrderItem> findItemsByOrderId(int orderId) throws SQLException {
-        List<OrderItem> list = new ArrayList<>();
-        String sql = "SELECT id, product_id, quantity FROM order_items WHERE order_id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setInt(1, orderId);
+    private Set<Integer> updateStatusesFromValues(Map<Integer, String> statuses) throws SQLException {
+        StringBuilder sql = new StringBuilder("UPDATE orders o SET status = v.status FROM (VALUES ");
+        for (int i = 0; i < statuses.size(); i++) {
+            sql.append(i > 0 ? ", " : "").append("(CAST(? AS INTEGER), CAST(? AS VARCHAR))");
+        }
+        sql.append(") AS v(id, status) WHERE o.id = v.id RETURNING o.id");
+
+        Set<Integer> updated = new HashSet<>();
+        try (PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+            int index = 1;
+            for (Map.Entry<Integer, String> entry : statuses.entrySet()) {
+                stmt.setInt(index++, entry.getKey());
+                stmt.setString(index++, entry.getValue());
+            }
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    OrderItem item = new OrderItem();
-                    item.setId(rs.getInt("id"));
-                    item.setOrderId(orderId);
-                    item.setProductId(rs.getInt("product_id"));
-                    item.setQuantity(rs.getInt("quantity"));
-                    list.add(item);
+                    updated.add(rs.getInt(1));
+                }
+            }
+        }
+        return updated;
+    }
+
+    private Set<Integer> updateStatusesBatched(Map<Integer, String> statuses) throws SQLException {
+        Set<Integer> updated = new HashSet<>();
+        List<Integer> ids = new ArrayList<>(statuses.keySet());
+        try (PreparedStatement stmt = connection.prepareStatement("UPDATE orders SET status = ? WHERE id = ?")) {
+            for (Integer id : ids) {
+                stmt.setString(1, statuses.get(id));
+                stmt.setInt(2, id);
+                stmt.addBatch();
+            }
+            int[] counts = stmt.executeBatch();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0 || counts[i] == Statement.SUCCESS_NO_INFO) {
+                    updated.add(ids.get(i));
+                }
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Takes the next value of each customer's change counter, once per customer and in name order. The
+     * counter rows stay locked until the transaction ends, so one customer's changes commit in counter
+     * order: unlike a timestamp, which would be the time the transaction started, a change that commits late
+     * never gets a lower version than one a reader has already seen, and ?since= does not skip it.
+     */
+    private Map<String, Long> nextChangeVersions(Collection<String> customerNames) throws SQLException {
+        Map<String, Long> versions = new HashMap<>();
+        Set<String> names = new TreeSet<>();
+        for (String customerName : customerNames) {
+            if (customerName != null) {
+                names.add(customerName);
+            }
+        }
+        for (String customerName : names) {
+            versions.put(customerName, nextChangeVersion(customerName));
+        }
+        return versions;
+    }
+
+    private long nextChangeVersion(String customerName) throws SQLException {
+        if (SqlDialect.isPostgres(connection)) {
+            String sql = "INSERT INTO customer_order_versions (customer_name, version) VALUES (?, 1) " +
+                         "ON CONFLICT (customer_name) DO UPDATE SET version = customer_order_versions.version + 1 RETURNING version";
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                stmt.setString(1, customerName);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    rs.next();
+                    return rs.getLong(1);
                 }
             }
         }
-        return list;
+        String merge = "MERGE INTO customer_order_versions v USING (VALUES (CAST(? AS VARCHAR(255)))) AS d(customer_name) " +
+                       "ON v.customer_name = d.customer_name " +
+                       "WHEN MATCHED THEN UPDATE SET version = v.version + 1 " +
+                       "WHEN NOT MATCHED THEN INSERT (customer_name, version) VALUES (d.customer_name, 1)";
+        try (PreparedStatement stmt = connection.prepareStatement(merge)) {
+            stmt.setString(1, customerName);
+            stmt.executeUpdate();
+        }
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT version FROM customer_order_versions WHERE customer_name = ?")) {
+            stmt.setString(1, customerName);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    // Gives each changed order its customer's next change version
+    private void stampChangeVersions(Collection<CustomerOrderSummaryProjection.OrderState> changed) throws SQLException {
+        List<String> customers = new ArrayList<>();
+        for (CustomerOrderSummaryProjection.OrderState state : changed) {
+            customers.add(state.customerName);
+        }
+        Map<String, Long> versions = nextChangeVersions(customers);
+        try (PreparedStatement stmt = connection.prepareStatement("UPDATE orders SET change_version = ? WHERE id = ?")) {
+            for (CustomerOrderSummaryProjection.OrderState state : changed) {
+                stmt.setObject(1, versions.get(state.customerName), Types.BIGINT);
+                stmt.setInt(2, state.orderId);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    // Rows arrive ordered by order id, so each order is complete once the id changes.
+    private List<Order> readOrdersWithItems(ResultSet rs) throws SQLException {
+        List<Order> orders = new ArrayList<>();
+        Order current = null;
+        while (rs.next()) {
+            int orderId = rs.getInt("id");
+            if (current == null || current.getId() != orderId) {
+                current = mapOrder(rs);
+                orders.add(current);
+            }
+            int itemId = rs.getInt("item_id");
+            if (!rs.wasNull()) {
+                OrderItem item = new OrderItem();
+                item.setId(itemId);
+                item.setOrderId(orderId);
+                item.setProductId(rs.getInt("product_id"));
+                item.setQuantity(rs.getInt("quantity"));
+                current.addItem(item);
+            }
+        }
+        return orders;
+    }
+
+    private Order mapOrder(ResultSet rs) throws SQLException {
+        Order o = new Order(rs.getInt("id"), rs.getString("customer_name"), rs.getString("status"));
+        o.setTotalAmount(rs.getDouble("total_amount"));
+        o.setPointsToRedeem(rs.getInt("points_redeemed"));
+        o.setPointsEarned(rs.getInt("points_earned"));
+        o.setCreatedAt(rs.getTimestamp("created_at"));
+        return o;
     }
 }
@@ -0,0 +1,82 @@
+package com.example.order;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The statuses this service gives orders, each with a stable small code. orders.status keeps the name,
+ * which is what the API and the exports carry; orders.status_code is generated from it by the database
+ * (see statusCodeExpression) and is what the search indexes are built on. Codes are never reused or
+ * renumbered. Statuses sent by other services that are not listed here have no code.
+ */
+public enum OrderStatus {
+    PENDING(1),
+    PENDING_CONFIRMATION(2),
+    CONFIRMED(3),
+    SHIPPED(4),
+    DELIVERED(5),
+    PAID(6),
+    CANCELLED(7),
+    REJECTED(8),
+    CREDIT_REJECTED(9),
+    REDEMPTION_FAILED(10),
+    CONFIRMATION_FAILED(11),
+    ERROR(12);
+
+    // Orders waiting for an order manager. idx_orders_actionable covers exactly these.
+    public static final Set<OrderStatus> ACTIONABLE = EnumSet.of(PENDING_CONFIRMATION, CONFIRMATION_FAILED, ERROR);
+
+    private final int code;
+
+    OrderStatus(int code) {
+        this.code = code;
+    }
+
+    public int code() {
+        return code;
+    }
+
+    /** The status with this name, or null for a status this service does not know. */
+    public static OrderStatus parse(String name) {
+        if (name == null) {
+            return null;
+        }
+        for (OrderStatus status : values()) {
+            if (status.name().equals(name)) {
+                return status;
+            }
+        }
+        return null;
+    }
+
+    public static OrderStatus fromCode(int code) {
+        for (OrderStatus status : values()) {
+            if (status.code == code) {
+                return status;
+            }
+        }
+        throw new IllegalArgumentException("Unknown order status code " + code);
+    }
+
+    /** SQL condition on status_code matching any of the statuses, with the codes inlined in code order. */
+    public static String codeCondition(Set<OrderStatus> statuses) {
+        if (statuses.size() == 1) {
+            return "status_code = " + statuses.iterator().next().code;
+        }
+        StringBuilder sql = new StringBuilder("status_code IN (");
+        int i = 0;
+        for (OrderStatus status : EnumSet.copyOf(statuses)) {
+            sql.append(i++ > 0 ? ", " : "").append(status.code);
+        }
+        return sql.append(')').toString();
+    }
+
+    /** The expression orders.status_code is generated from. schema.sql carries the same text. */
+    public static String statusCodeExpression() {
+        StringBuilder sql = new StringBuilder("CASE status");
+        for (OrderStatus status : values()) {
+            sql.append(" WHEN '").append(status.name()).append("' THEN ").append(status.code);
+        }
+        return sql.append(" END").toString();
+    }
+}
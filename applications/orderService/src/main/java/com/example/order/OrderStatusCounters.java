@@ -0,0 +1,188 @@
+package com.example.order;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Order counts per status for the dashboard on /orders. order_status_counts holds one row per status and
+ * is changed by CustomerOrderSummaryProjection in the same transactions that change orders. This class
+ * mirrors the table in memory: deltas committed in this process are added to per-status LongAdders, and
+ * the mirror is reloaded from the table periodically to take in changes made by other instances and by
+ * jobs on their own connections. Reading the counts costs one entry per status however many orders there
+ * are. A less frequent reconciliation recounts the orders table and corrects rows that have drifted.
+ */
+public class OrderStatusCounters {
+
+    private static final Logger logger = LoggerFactory.getLogger(OrderStatusCounters.class);
+
+    private final ConnectionFactory connections;
+    private volatile Map<String, LongAdder> local = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    public OrderStatusCounters(ConnectionFactory connections) {
+        this.connections = connections;
+    }
+
+    /** Adds deltas that have been committed to order_status_counts. */
+    void committed(Map<String, Long> deltas) {
+        Map<String, LongAdder> counters = local;
+        for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+            counters.computeIfAbsent(delta.getKey(), k -> new LongAdder()).add(delta.getValue());
+        }
+    }
+
+    /** Current count per status, sorted by status. */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> counter : local.entrySet()) {
+            counts.put(counter.getKey(), counter.getValue().sum());
+        }
+        return counts;
+    }
+
+    public static Map<String, Long> read(Connection connection) throws SQLException {
+        return Transactions.withConnection(connection, () -> {
+            Map<String, Long> counts = new TreeMap<>();
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT status, order_count FROM order_status_counts")) {
+                while (rs.next()) {
+                    counts.put(rs.getString(1), rs.getLong(2));
+                }
+            }
+            return counts;
+        });
+    }
+
+    /** Replaces the in-memory counts with the rows of order_status_counts. */
+    public void refresh() throws SQLException {
+        try (Connection connection = connections.open()) {
+            load(connection);
+        }
+    }
+
+    private void load(Connection connection) throws SQLException {
+        Map<String, LongAdder> loaded = new ConcurrentHashMap<>();
+        for (Map.Entry<String, Long> count : read(connection).entrySet()) {
+            LongAdder adder = new LongAdder();
+            adder.add(count.getValue());
+            loaded.put(count.getKey(), adder);
+        }
+        local = loaded;
+    }
+
+    /**
+     * Recounts orders per status and corrects the counter rows that differ, then reloads the mirror.
+     * The counters and the orders are read in one repeatable-read snapshot without locking anything, so
+     * order changes go on while the orders table is counted. A drifted row is then corrected by adding
+     * the difference between the count and the counter as the snapshot saw it, which keeps the deltas of
+     * changes committed since; only the rows being corrected are locked, by that write. Returns the number
+     * of rows corrected.
+     */
+    public int reconcile() throws SQLException {
+        try (Connection connection = connections.open()) {
+            Map<String, Long> stored = new HashMap<>();
+            Map<String, Long> counted = new HashMap<>();
+            int isolation = connection.getTransactionIsolation();
+            connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            try {
+                Transactions.run(connection, () -> {
+                    stored.putAll(read(connection));
+                    try (Statement stmt = connection.createStatement();
+                         ResultSet rs = stmt.executeQuery("SELECT COALESCE(status, '" + CustomerOrderSummaryProjection.UNKNOWN_STATUS + "'), COUNT(*) " +
+                                                          "FROM orders GROUP BY COALESCE(status, '" + CustomerOrderSummaryProjection.UNKNOWN_STATUS + "')")) {
+                        while (rs.next()) {
+                            counted.put(rs.getString(1), rs.getLong(2));
+                        }
+                    }
+                    return null;
+                });
+            } finally {
+                connection.setTransactionIsolation(isolation);
+            }
+
+            Map<String, Long> corrections = new TreeMap<>();
+            Set<String> statuses = new HashSet<>(stored.keySet());
+            statuses.addAll(counted.keySet());
+            for (String status : statuses) {
+                long actual = counted.getOrDefault(status, 0L);
+                Long recorded = stored.get(status);
+                if (recorded != null && recorded == actual) {
+                    continue;
+                }
+                logger.warn("Order status counter {} was {}, orders say {}", status, recorded, actual);
+                corrections.put(status, actual - (recorded != null ? recorded : 0L));
+            }
+            if (!corrections.isEmpty()) {
+                String sql = SqlDialect.isPostgres(connection)
+                        ? "INSERT INTO order_status_counts (status, order_count, updated_at) VALUES (?, ?, CURRENT_TIMESTAMP) " +
+                          "ON CONFLICT (status) DO UPDATE SET order_count = order_status_counts.order_count + EXCLUDED.order_count, " +
+                          "updated_at = CURRENT_TIMESTAMP"
+                        : "MERGE INTO order_status_counts c USING (VALUES (CAST(? AS VARCHAR(50)), CAST(? AS BIGINT))) AS d(status, order_count) " +
+                          "ON c.status = d.status " +
+                          "WHEN MATCHED THEN UPDATE SET order_count = c.order_count + d.order_count, updated_at = CURRENT_TIMESTAMP " +
+                          "WHEN NOT MATCHED THEN INSERT (status, order_count, updated_at) VALUES (d.status, d.order_count, CURRENT_TIMESTAMP)";
+                // Sorted by status, so two reconciliations never lock the same rows in opposite order
+                Transactions.run(connection, () -> {
+                    try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                        for (Map.Entry<String, Long> correction : corrections.entrySet()) {
+                            stmt.setString(1, correction.getKey());
+                            stmt.setLong(2, correction.getValue());
+                            stmt.addBatch();
+                        }
+                        stmt.executeBatch();
+                    }
+                    return null;
+                });
+            }
+            load(connection);
+            return corrections.size();
+        }
+    }
+
+    public void start(long refreshIntervalMs, long reconcileIntervalMs) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "order-status-counters");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (Exception e) {
+                logger.error("Refreshing order status counters failed", e);
+            }
+        }, refreshIntervalMs, refreshIntervalMs, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                long started = System.nanoTime();
+                int corrected = reconcile();
+                logger.info("Order status counters reconciled in {} ms, {} rows corrected", (System.nanoTime() - started) / 1_000_000, corrected);
+            } catch (Exception e) {
+                logger.error("Reconciling order status counters failed", e);
+            }
+        }, reconcileIntervalMs, reconcileIntervalMs, TimeUnit.MILLISECONDS);
+        logger.info("Order status counters refresh every {} ms and reconcile every {} ms", refreshIntervalMs, reconcileIntervalMs);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.order;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The order operations the controllers and writers use. OrderRepository implements them on one database
+ * and ShardedOrderRepository routes them across shards, so a transaction is only ever opened for a
+ * given order, on the database that holds it.
+ */
+public interface OrderStore {
+
+    <T> T inOrderTransaction(int orderId, SqlWork<T> work) throws SQLException;
+
+    List<Order> findAll() throws SQLException;
+
+    List<Order> findPage(Integer afterId, int limit, boolean includeHistory) throws SQLException;
+
+    List<Order> search(OrderFilter filter, OrderCursor after, int limit) throws SQLException;
+
+    Order findById(int id) throws SQLException;
+
+    // The customer's orders in the hot window, whenever they last changed
+    default List<Order> findByCustomer(String customerName, Integer afterId, int limit) throws SQLException {
+        return findByCustomer(customerName, afterId, limit, null, false);
+    }
+
+    List<Order> findByCustomer(String customerName, Integer afterId, int limit, Long sinceVersion, boolean includeHistory) throws SQLException;
+
+    CustomerOrdersVersion findCustomerVersion(String customerName) throws SQLException;
+
+    CustomerOrderSummary findCustomerSummary(String customerName) throws SQLException;
+
+    Map<String, Long> statusCounts() throws SQLException;
+
+    int createOrder(Order order) throws SQLException;
+
+    List<Integer> createOrders(List<Order> orders) throws SQLException;
+
+    void updatePointsEarned(int orderId, int points) throws SQLException;
+
+    void updateStatus(int orderId, String status) throws SQLException;
+
+    boolean transitionStatus(int orderId, String from, String to) throws SQLException;
+
+    Set<Integer> updateStatuses(Map<Integer, String> statuses) throws SQLException;
+}
@@ -0,0 +1,192 @@
+package com.example.order;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drains the outbox table in batches and delivers each event to the warehouse or the loyalty service.
+ * Runs on its own connection so that its transactions never interleave with request threads.
+ * Several replicas can run a dispatcher at once: a claim leases its events, and the others skip them
+ * until the lease runs out. Delivery is at-least-once, so an event may be delivered again if the
+ * process dies, or recording its outcome fails, after the remote call succeeded.
+ */
+public class OutboxDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboxDispatcher.class);
+    private static final long DELIVERY_TIMEOUT_SECONDS = 30;
+    // Long enough for every delivery of a batch to time out and its outcome to be recorded
+    private static final long CLAIM_LEASE_MS = TimeUnit.SECONDS.toMillis(2 * DELIVERY_TIMEOUT_SECONDS);
+
+    private final Connection connection;
+    private final OutboxRepository outboxRepository;
+    private final OrderRepository orderRepository;
+    private final OrderFulfillmentService fulfillmentService;
+    private final LoyaltyIntegrationService loyaltyService;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long baseBackoffMs;
+    private final long maxBackoffMs;
+
+    private ScheduledExecutorService scheduler;
+
+    public OutboxDispatcher(Connection connection, OrderFulfillmentService fulfillmentService, LoyaltyIntegrationService loyaltyService,
+                            int batchSize, int maxAttempts, long baseBackoffMs, long maxBackoffMs) {
+        this.connection = connection;
+        this.outboxRepository = new OutboxRepository(connection);
+        this.orderRepository = new OrderRepository(connection);
+        this.fulfillmentService = fulfillmentService;
+        this.loyaltyService = loyaltyService;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMs = baseBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+    }
+
+    public void start(long pollIntervalMs) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "outbox-dispatcher");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::drain, pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+        logger.info("Outbox dispatcher started (batch size {}, poll interval {} ms)", batchSize, pollIntervalMs);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void drain() {
+        try {
+            while (dispatchBatch() == batchSize) {
+                // Keep going while full batches are being claimed
+            }
+        } catch (Exception e) {
+            logger.error("Outbox dispatch failed", e);
+        }
+    }
+
+    /**
+     * Claims and leases one batch in a short transaction, delivers its events concurrently with no
+     * transaction open, and records the outcome of each event in a transaction of its own. An event whose
+     * outcome cannot be recorded is claimed again when its lease runs out; the rest of the batch is kept.
+     * Returns the number of events claimed.
+     */
+    public int dispatchBatch() throws SQLException {
+        List<OutboxEvent> batch = outboxRepository.claimBatch(batchSize, new Timestamp(System.currentTimeMillis() + CLAIM_LEASE_MS));
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        long started = System.nanoTime();
+        List<CompletableFuture<Integer>> deliveries = new ArrayList<>();
+        for (OutboxEvent event : batch) {
+            // Each event's own latency, taken when its call completes, shows which downstream a slow batch waited on
+            long eventStarted = System.nanoTime();
+            deliveries.add(deliver(event).orTimeout(DELIVERY_TIMEOUT_SECONDS, TimeUnit.SECONDS).whenComplete((result, failure) ->
+                    logger.info("Outbox event {} ({} for order {}) {} after {} ms", event.getId(), event.getEventType(), event.getOrderId(),
+                            failure == null ? "delivered" : "failed", (System.nanoTime() - eventStarted) / 1_000_000)));
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            OutboxEvent event = batch.get(i);
+            Integer result = null;
+            Throwable failure = null;
+            try {
+                result = deliveries.get(i).join();
+            } catch (CompletionException e) {
+                failure = e.getCause() != null ? e.getCause() : e;
+            }
+            try {
+                settle(event, result, failure);
+            } catch (SQLException e) {
+                logger.error("Recording the outcome of outbox event {} ({} for order {}) failed, it is retried when its lease runs out",
+                        event.getId(), event.getEventType(), event.getOrderId(), e);
+            }
+        }
+        logger.info("Outbox batch of {} events dispatched in {} ms", batch.size(), (System.nanoTime() - started) / 1_000_000);
+        return batch.size();
+    }
+
+    private CompletableFuture<Integer> deliver(OutboxEvent event) {
+        try {
+            switch (event.getEventType()) {
+                case OutboxEvent.ORDER_CONFIRMED:
+                    return fulfillmentService.notifyOrderConfirmed(event.getOrderId()).thenApply(notified -> {
+                        if (!notified) {
+                            throw new IllegalStateException("Warehouse refused fulfillment notification");
+                        }
+                        return 0;
+                    });
+                case OutboxEvent.POINTS_ACCRUAL:
+                    Order order = orderRepository.findById(event.getOrderId());
+                    if (order == null) {
+                        return CompletableFuture.failedFuture(new IllegalStateException("Order " + event.getOrderId() + " not found"));
+                    }
+                    return loyaltyService.accruePoints(order.getCustomerName(), order.getId(), order.getTotalAmount(), toItemsJson(order));
+                default:
+                    return CompletableFuture.failedFuture(new IllegalStateException("Unknown outbox event type " + event.getEventType()));
+            }
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private void settle(OutboxEvent event, Integer result, Throwable failure) throws SQLException {
+        Transactions.run(connection, () -> {
+            if (failure == null) {
+                onDelivered(event, result);
+            } else {
+                onFailed(event, failure);
+            }
+            return null;
+        });
+    }
+
+    private void onDelivered(OutboxEvent event, Integer result) throws SQLException {
+        if (OutboxEvent.POINTS_ACCRUAL.equals(event.getEventType())) {
+            orderRepository.updatePointsEarned(event.getOrderId(), result != null ? result : 0);
+        }
+        outboxRepository.markSent(event.getId());
+    }
+
+    private void onFailed(OutboxEvent event, Throwable cause) throws SQLException {
+        int attempts = event.getAttempts() + 1;
+        String error = cause.getClass().getSimpleName() + ": " + cause.getMessage();
+        if (attempts >= maxAttempts) {
+            logger.error("Giving up on outbox event {} ({} for order {}) after {} attempts: {}", event.getId(), event.getEventType(), event.getOrderId(), attempts, error);
+            outboxRepository.markDead(event.getId(), attempts, error);
+            if (OutboxEvent.ORDER_CONFIRMED.equals(event.getEventType())) {
+                orderRepository.updateStatus(event.getOrderId(), OrderStatus.CONFIRMATION_FAILED.name());
+            }
+            return;
+        }
+        long backoffMs = Math.min(maxBackoffMs, baseBackoffMs << Math.min(attempts - 1, 20));
+        logger.warn("Outbox event {} ({} for order {}) failed, attempt {} of {}, retrying in {} ms: {}", event.getId(), event.getEventType(), event.getOrderId(), attempts, maxAttempts, backoffMs, error);
+        outboxRepository.reschedule(event.getId(), attempts, new Timestamp(System.currentTimeMillis() + backoffMs), error);
+    }
+
+    private static String toItemsJson(Order order) {
+        StringBuilder itemsJson = new StringBuilder("[");
+        for (int i = 0; i < order.getItems().size(); i++) {
+            OrderItem item = order.getItems().get(i);
+            itemsJson.append(String.format("{\"productId\":\"%d\",\"quantity\":%d}", item.getProductId(), item.getQuantity()));
+            if (i < order.getItems().size() - 1) itemsJson.append(",");
+        }
+        itemsJson.append("]");
+        return itemsJson.toString();
+    }
+}
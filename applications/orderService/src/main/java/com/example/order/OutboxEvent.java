@@ -0,0 +1,32 @@
+package com.example.order;
+
+public class OutboxEvent {
+    public static final String ORDER_CONFIRMED = "ORDER_CONFIRMED";
+    public static final String POINTS_ACCRUAL = "POINTS_ACCRUAL";
+
+    private int id;
+    private String eventType;
+    private int orderId;
+    private int attempts;
+
+    public OutboxEvent() {}
+
+    public OutboxEvent(int id, String eventType, int orderId, int attempts) {
+        this.id = id;
+        this.eventType = eventType;
+        this.orderId = orderId;
+        this.attempts = attempts;
+    }
+
+    public int getId() { return id; }
+    public void setId(int id) { this.id = id; }
+
+    public String getEventType() { return eventType; }
+    public void setEventType(String eventType) { this.eventType = eventType; }
+
+    public int getOrderId() { return orderId; }
+    public void setOrderId(int orderId) { this.orderId = orderId; }
+
+    public int getAttempts() { return attempts; }
+    public void setAttempts(int attempts) { this.attempts = attempts; }
+}
@@ -0,0 +1,95 @@
+package com.example.order;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+public class OutboxRepository implements OutboxWriter {
+
+    private final Connection connection;
+
+    public OutboxRepository(Connection connection) {
+        this.connection = connection;
+    }
+
+    @Override
+    public void enqueue(String eventType, int orderId) throws SQLException {
+        String sql = "INSERT INTO outbox (event_type, order_id, status, attempts, next_attempt_at) VALUES (?, ?, 'PENDING', 0, CURRENT_TIMESTAMP)";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, eventType);
+            stmt.setInt(2, orderId);
+            stmt.executeUpdate();
+        }
+    }
+
+    // Claims due events by moving their next attempt to leasedUntil, so no dispatcher claims them again
+    // before then. Rows another replica's dispatcher is claiming are skipped rather than waited for, and
+    // the lock is only held until the claim commits.
+    public List<OutboxEvent> claimBatch(int limit, Timestamp leasedUntil) throws SQLException {
+        return Transactions.run(connection, () -> {
+            List<OutboxEvent> events = new ArrayList<>();
+            String sql = "SELECT id, event_type, order_id, attempts FROM outbox " +
+                         "WHERE status = 'PENDING' AND next_attempt_at <= CURRENT_TIMESTAMP " +
+                         "ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED";
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                stmt.setInt(1, limit);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        events.add(new OutboxEvent(rs.getInt("id"), rs.getString("event_type"), rs.getInt("order_id"), rs.getInt("attempts")));
+                    }
+                }
+            }
+            try (PreparedStatement stmt = connection.prepareStatement("UPDATE outbox SET next_attempt_at = ? WHERE id = ?")) {
+                for (OutboxEvent event : events) {
+                    stmt.setTimestamp(1, leasedUntil);
+                    stmt.setInt(2, event.getId());
+                    stmt.addBatch();
+                }
+                if (!events.isEmpty()) {
+                    stmt.executeBatch();
+                }
+            }
+            return events;
+        });
+    }
+
+    public void markSent(int id) throws SQLException {
+        String sql = "UPDATE outbox SET status = 'SENT', processed_at = CURRENT_TIMESTAMP WHERE id = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, id);
+            stmt.executeUpdate();
+        }
+    }
+
+    public void reschedule(int id, int attempts, Timestamp nextAttemptAt, String error) throws SQLException {
+        String sql = "UPDATE outbox SET attempts = ?, next_attempt_at = ?, last_error = ? WHERE id = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, attempts);
+            stmt.setTimestamp(2, nextAttemptAt);
+            stmt.setString(3, truncate(error));
+            stmt.setInt(4, id);
+            stmt.executeUpdate();
+        }
+    }
+
+    public void markDead(int id, int attempts, String error) throws SQLException {
+        String sql = "UPDATE outbox SET status = 'DEAD', attempts = ?, last_error = ?, processed_at = CURRENT_TIMESTAMP WHERE id = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, attempts);
+            stmt.setString(2, truncate(error));
+            stmt.setInt(3, id);
+            stmt.executeUpdate();
+        }
+    }
+
+    private static String truncate(String error) {
+        if (error == null) {
+            return null;
+        }
+        return error.length() > 1000 ? error.substring(0, 1000) : error;
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.order;
+
+import java.sql.SQLException;
+
+/**
+ * Adds outbox events in the caller's transaction. Claiming and settling events is OutboxRepository's
+ * business alone, since each database's outbox is drained by its own OutboxDispatcher.
+ */
+public interface OutboxWriter {
+
+    void enqueue(String eventType, int orderId) throws SQLException;
+}
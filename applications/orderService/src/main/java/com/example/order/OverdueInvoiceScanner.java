@@ -0,0 +1,399 @@
+package com.example.order;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nightly job that flags customers with unpaid invoices past their due date for dunning. The overdue
+ * invoices are read through a server-side cursor (autocommit off, bounded fetch size) on a dedicated
+ * connection, so memory use does not depend on the number of invoices. Rows are folded into
+ * customer_dunning in chunks, and each chunk commits together with a checkpoint in job_checkpoints on a
+ * second connection. A run that dies part-way resumes after the last committed invoice id, without
+ * counting any invoice twice: when it is started again on the same day, and in any case as soon as the
+ * scanner starts, for the day the run began. Customers not flagged by a finished run are removed from
+ * customer_dunning.
+ */
+public class OverdueInvoiceScanner {
+
+    private static final Logger logger = LoggerFactory.getLogger(OverdueInvoiceScanner.class);
+    static final String JOB_NAME = "overdue-invoice-scan";
+    private static final long PROGRESS_LOG_INTERVAL_MS = 10_000;
+
+    private final List<ConnectionFactory> shards;
+    private final int chunkSize;
+    private final int fetchSize;
+
+    private ScheduledExecutorService scheduler;
+    private volatile String lastRun = "{\"job\":\"" + JOB_NAME + "\",\"state\":\"NEVER_RUN\"}";
+
+    public OverdueInvoiceScanner(ConnectionFactory connections, int chunkSize, int fetchSize) {
+        this(List.of(connections), chunkSize, fetchSize);
+    }
+
+    // Each shard keeps its own checkpoint and dunning flags, so shards are scanned and resumed independently
+    public OverdueInvoiceScanner(List<ConnectionFactory> shards, int chunkSize, int fetchSize) {
+        this.shards = List.copyOf(shards);
+        this.chunkSize = Math.max(1, chunkSize);
+        this.fetchSize = Math.max(1, fetchSize);
+    }
+
+    /**
+     * Runs the scan every day at the given hour (local time), starting with the next occurrence. Right
+     * away it finishes runs a previous process left unfinished and, when today's hour has already passed,
+     * runs today's scan if it has not finished yet.
+     */
+    public void start(int hourOfDay) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "overdue-invoice-scanner");
+            t.setDaemon(true);
+            return t;
+        });
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime next = now.toLocalDate().atTime(hourOfDay, 0);
+        if (!next.isAfter(now)) {
+            next = next.plusDays(1);
+        }
+        boolean todayDue = !next.toLocalDate().equals(now.toLocalDate());
+        scheduler.execute(() -> {
+            try {
+                recover(LocalDate.now(), todayDue);
+            } catch (Exception e) {
+                logger.error("Recovering the overdue invoice scan failed; the next run resumes from the last checkpoint", e);
+            }
+        });
+        scheduler.scheduleAtFixedRate(this::runSafely, Duration.between(now, next).toMillis(),
+                TimeUnit.DAYS.toMillis(1), TimeUnit.MILLISECONDS);
+        logger.info("Overdue invoice scanner scheduled daily at {}:00 (chunk size {}, fetch size {})", hourOfDay, chunkSize, fetchSize);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /** Queues a run on the scanner thread. Returns false when the scanner was not started. */
+    public boolean triggerNow() {
+        if (scheduler == null) {
+            return false;
+        }
+        scheduler.execute(this::runSafely);
+        return true;
+    }
+
+    private void runSafely() {
+        try {
+            run(LocalDate.now());
+        } catch (Exception e) {
+            logger.error("Overdue invoice scan failed; the next run resumes from the last checkpoint", e);
+        }
+    }
+
+    /**
+     * Scans the invoices that are unpaid and due before today on every shard. Returns the number of
+     * invoices processed by this call, which is 0 when today's run has already finished everywhere.
+     */
+    public long run(LocalDate today) throws SQLException {
+        Runtime runtime = Runtime.getRuntime();
+        long started = System.nanoTime();
+        long rows = 0;
+        int flagged = 0;
+        long peakHeap = usedHeap(runtime);
+        boolean ran = false;
+        for (int shard = 0; shard < shards.size(); shard++) {
+            ShardRun run = runShard(shards.get(shard), shard, today, started);
+            if (run == null) {
+                continue;
+            }
+            ran = true;
+            rows += run.rows;
+            flagged += run.flagged;
+            peakHeap = Math.max(peakHeap, run.peakHeap);
+        }
+        if (!ran) {
+            logger.info("Overdue invoice scan for {} already finished", today);
+            return 0;
+        }
+
+        long elapsedMs = (System.nanoTime() - started) / 1_000_000;
+        logger.info("Overdue invoice scan for {} finished: {} invoices in {} ms ({} rows/s), {} customers flagged, peak heap used {} MB",
+                today, rows, elapsedMs, rowsPerSecond(rows, started), flagged, peakHeap / (1024 * 1024));
+        lastRun = "{\"job\":\"" + JOB_NAME + "\",\"state\":\"FINISHED\",\"runDate\":\"" + today + "\"" +
+                  ",\"shards\":" + shards.size() + ",\"invoices\":" + rows + ",\"customersFlagged\":" + flagged +
+                  ",\"elapsedMs\":" + elapsedMs + ",\"rowsPerSecond\":" + rowsPerSecond(rows, started) +
+                  ",\"peakHeapBytes\":" + peakHeap + "}";
+        return rows;
+    }
+
+    /**
+     * Finishes the runs left unfinished on each shard: one begun on an earlier day is completed from its
+     * checkpoint for that day, so its flags are consistent before a new run replaces them. Then runs today's
+     * scan when it is due or was left unfinished; shards that already finished today are skipped. Returns
+     * the number of invoices processed.
+     */
+    long recover(LocalDate today, boolean todayDue) throws SQLException {
+        long rows = 0;
+        boolean unfinishedToday = false;
+        long started = System.nanoTime();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            LocalDate runDate = unfinishedRunDate(shards.get(shard));
+            if (runDate == null) {
+                continue;
+            }
+            if (runDate.isBefore(today)) {
+                logger.info("Finishing the overdue invoice scan for {} left unfinished on shard {}", runDate, shard);
+                ShardRun run = runShard(shards.get(shard), shard, runDate, started);
+                rows += run != null ? run.rows : 0;
+            } else {
+                unfinishedToday = true;
+            }
+        }
+        if (todayDue || unfinishedToday) {
+            rows += run(today);
+        }
+        return rows;
+    }
+
+    // The day of the shard's unfinished run, or null when its last run finished or it never ran
+    private LocalDate unfinishedRunDate(ConnectionFactory connections) throws SQLException {
+        try (Connection connection = connections.open();
+             PreparedStatement stmt = connection.prepareStatement("SELECT run_date, completed FROM job_checkpoints WHERE job_name = ?")) {
+            stmt.setString(1, JOB_NAME);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && !rs.getBoolean(2) ? rs.getDate(1).toLocalDate() : null;
+            }
+        }
+    }
+
+    // Returns null when today's run on this shard has already finished
+    private ShardRun runShard(ConnectionFactory connections, int shard, LocalDate today, long started) throws SQLException {
+        try (Connection reader = connections.open(); Connection writer = connections.open()) {
+            int resumeAfter = startOrResume(writer, today);
+            if (resumeAfter < 0) {
+                return null;
+            }
+            if (resumeAfter > 0) {
+                logger.info("Resuming overdue invoice scan for {} on shard {} after invoice {}", today, shard, resumeAfter);
+            }
+
+            Runtime runtime = Runtime.getRuntime();
+            ShardRun run = new ShardRun();
+            run.peakHeap = usedHeap(runtime);
+            long lastLog = System.currentTimeMillis();
+            int committedId = resumeAfter;
+            int lastId = resumeAfter;
+            Chunk chunk = new Chunk();
+
+            // Autocommit off makes the PostgreSQL driver fetch fetchSize rows at a time instead of the whole result
+            reader.setReadOnly(true);
+            reader.setAutoCommit(false);
+            String sql = "SELECT id, customer_name, amount, due_date FROM invoices " +
+                         "WHERE paid = false AND due_date < ? AND id > ? ORDER BY id";
+            try (PreparedStatement stmt = reader.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                stmt.setFetchSize(fetchSize);
+                stmt.setDate(1, Date.valueOf(today));
+                stmt.setInt(2, resumeAfter);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        lastId = rs.getInt(1);
+                        chunk.add(rs.getString(2), rs.getDouble(3), rs.getDate(4).toLocalDate());
+                        if (chunk.rows == chunkSize) {
+                            checkpoint(writer, today, committedId, lastId, chunk);
+                            run.rows += chunk.rows;
+                            committedId = lastId;
+                            chunk = new Chunk();
+                            run.peakHeap = Math.max(run.peakHeap, usedHeap(runtime));
+                            if (System.currentTimeMillis() - lastLog >= PROGRESS_LOG_INTERVAL_MS) {
+                                lastLog = System.currentTimeMillis();
+                                logger.info("Overdue invoice scan: {} invoices so far on shard {}, {} rows/s, heap used {} MB",
+                                        run.rows, shard, rowsPerSecond(run.rows, started), run.peakHeap / (1024 * 1024));
+                            }
+                        }
+                    }
+                }
+            } finally {
+                reader.rollback();
+            }
+            if (chunk.rows > 0) {
+                checkpoint(writer, today, committedId, lastId, chunk);
+                run.rows += chunk.rows;
+            }
+            run.flagged = finish(writer, today);
+            run.peakHeap = Math.max(run.peakHeap, usedHeap(runtime));
+            return run;
+        }
+    }
+
+    public String toJson() {
+        return lastRun;
+    }
+
+    /**
+     * Returns the invoice id to resume after: 0 for a fresh run, the checkpoint of an unfinished run of the
+     * same day, or -1 when today's run has already finished.
+     */
+    private int startOrResume(Connection writer, LocalDate today) throws SQLException {
+        return Transactions.run(writer, () -> {
+            String select = "SELECT run_date, last_id, completed FROM job_checkpoints WHERE job_name = ? FOR UPDATE";
+            try (PreparedStatement stmt = writer.prepareStatement(select)) {
+                stmt.setString(1, JOB_NAME);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next() && today.equals(rs.getDate(1).toLocalDate())) {
+                        return rs.getBoolean(3) ? -1 : rs.getInt(2);
+                    }
+                }
+            }
+            String update = "UPDATE job_checkpoints SET run_date = ?, last_id = 0, rows_processed = 0, completed = false, " +
+                            "updated_at = CURRENT_TIMESTAMP WHERE job_name = ?";
+            try (PreparedStatement stmt = writer.prepareStatement(update)) {
+                stmt.setDate(1, Date.valueOf(today));
+                stmt.setString(2, JOB_NAME);
+                if (stmt.executeUpdate() == 0) {
+                    try (PreparedStatement insert = writer.prepareStatement(
+                            "INSERT INTO job_checkpoints (job_name, run_date, last_id, rows_processed, completed, updated_at) " +
+                            "VALUES (?, ?, 0, 0, false, CURRENT_TIMESTAMP)")) {
+                        insert.setString(1, JOB_NAME);
+                        insert.setDate(2, Date.valueOf(today));
+                        insert.executeUpdate();
+                    }
+                }
+            }
+            return 0;
+        });
+    }
+
+    /**
+     * Adds the chunk to today's dunning flags and moves the checkpoint from fromId to toId in one
+     * transaction. The checkpoint only moves if it is still at fromId, so a second scanner working on the
+     * same run fails instead of counting invoices twice.
+     */
+    private void checkpoint(Connection writer, LocalDate today, int fromId, int toId, Chunk chunk) throws SQLException {
+        Transactions.run(writer, () -> {
+            String advance = "UPDATE job_checkpoints SET last_id = ?, rows_processed = rows_processed + ?, updated_at = CURRENT_TIMESTAMP " +
+                             "WHERE job_name = ? AND run_date = ? AND last_id = ? AND completed = false";
+            try (PreparedStatement stmt = writer.prepareStatement(advance)) {
+                stmt.setInt(1, toId);
+                stmt.setInt(2, chunk.rows);
+                stmt.setString(3, JOB_NAME);
+                stmt.setDate(4, Date.valueOf(today));
+                stmt.setInt(5, fromId);
+                if (stmt.executeUpdate() == 0) {
+                    throw new IllegalStateException("Checkpoint of " + JOB_NAME + " moved past invoice " + fromId + " under this run");
+                }
+            }
+            String sql = SqlDialect.isPostgres(writer)
+                    ? "INSERT INTO customer_dunning (customer_name, overdue_invoices, overdue_amount, oldest_due_date, run_date, flagged_at) " +
+                      "VALUES (?, ?, ?, ?, ?, CURRENT_TIMESTAMP) ON CONFLICT (customer_name) DO UPDATE SET " +
+                      "overdue_invoices = CASE WHEN customer_dunning.run_date = EXCLUDED.run_date " +
+                      "THEN customer_dunning.overdue_invoices + EXCLUDED.overdue_invoices ELSE EXCLUDED.overdue_invoices END, " +
+                      "overdue_amount = CASE WHEN customer_dunning.run_date = EXCLUDED.run_date " +
+                      "THEN customer_dunning.overdue_amount + EXCLUDED.overdue_amount ELSE EXCLUDED.overdue_amount END, " +
+                      "oldest_due_date = CASE WHEN customer_dunning.run_date = EXCLUDED.run_date " +
+                      "AND customer_dunning.oldest_due_date < EXCLUDED.oldest_due_date " +
+                      "THEN customer_dunning.oldest_due_date ELSE EXCLUDED.oldest_due_date END, " +
+                      "flagged_at = CASE WHEN customer_dunning.run_date = EXCLUDED.run_date " +
+                      "THEN customer_dunning.flagged_at ELSE EXCLUDED.flagged_at END, " +
+                      "run_date = EXCLUDED.run_date"
+                    : "MERGE INTO customer_dunning c USING (VALUES (CAST(? AS VARCHAR(255)), CAST(? AS INT), CAST(? AS DECIMAL(12, 2)), " +
+                      "CAST(? AS DATE), CAST(? AS DATE))) AS d(customer_name, overdue_invoices, overdue_amount, oldest_due_date, run_date) " +
+                      "ON c.customer_name = d.customer_name " +
+                      "WHEN MATCHED THEN UPDATE SET " +
+                      "overdue_invoices = CASE WHEN c.run_date = d.run_date THEN c.overdue_invoices + d.overdue_invoices ELSE d.overdue_invoices END, " +
+                      "overdue_amount = CASE WHEN c.run_date = d.run_date THEN c.overdue_amount + d.overdue_amount ELSE d.overdue_amount END, " +
+                      "oldest_due_date = CASE WHEN c.run_date = d.run_date AND c.oldest_due_date < d.oldest_due_date " +
+                      "THEN c.oldest_due_date ELSE d.oldest_due_date END, " +
+                      "flagged_at = CASE WHEN c.run_date = d.run_date THEN c.flagged_at ELSE CURRENT_TIMESTAMP END, " +
+                      "run_date = d.run_date " +
+                      "WHEN NOT MATCHED THEN INSERT (customer_name, overdue_invoices, overdue_amount, oldest_due_date, run_date, flagged_at) " +
+                      "VALUES (d.customer_name, d.overdue_invoices, d.overdue_amount, d.oldest_due_date, d.run_date, CURRENT_TIMESTAMP)";
+            try (PreparedStatement stmt = writer.prepareStatement(sql)) {
+                for (Map.Entry<String, Totals> entry : chunk.byCustomer.entrySet()) {
+                    Totals totals = entry.getValue();
+                    stmt.setString(1, entry.getKey());
+                    stmt.setInt(2, totals.invoices);
+                    stmt.setDouble(3, totals.amount);
+                    stmt.setDate(4, Date.valueOf(totals.oldestDue));
+                    stmt.setDate(5, Date.valueOf(today));
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+            return null;
+        });
+    }
+
+    // Drops flags left over from earlier runs (those customers have nothing overdue any more) and closes the run
+    private int finish(Connection writer, LocalDate today) throws SQLException {
+        return Transactions.run(writer, () -> {
+            try (PreparedStatement stmt = writer.prepareStatement("DELETE FROM customer_dunning WHERE run_date < ?")) {
+                stmt.setDate(1, Date.valueOf(today));
+                stmt.executeUpdate();
+            }
+            try (PreparedStatement stmt = writer.prepareStatement(
+                    "UPDATE job_checkpoints SET completed = true, updated_at = CURRENT_TIMESTAMP WHERE job_name = ?")) {
+                stmt.setString(1, JOB_NAME);
+                stmt.executeUpdate();
+            }
+            try (PreparedStatement stmt = writer.prepareStatement("SELECT COUNT(*) FROM customer_dunning");
+                 ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        });
+    }
+
+    private static long usedHeap(Runtime runtime) {
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long rowsPerSecond(long rows, long startedNanos) {
+        long elapsedMs = Math.max(1, (System.nanoTime() - startedNanos) / 1_000_000);
+        return rows * 1000 / elapsedMs;
+    }
+
+    // Overdue totals per customer for one chunk, so each customer is written once per chunk
+    private static class Chunk {
+        final Map<String, Totals> byCustomer = new LinkedHashMap<>();
+        int rows;
+
+        void add(String customerName, double amount, LocalDate dueDate) {
+            rows++;
+            if (customerName == null) {
+                return;
+            }
+            Totals totals = byCustomer.computeIfAbsent(customerName, k -> new Totals());
+            totals.invoices++;
+            totals.amount += amount;
+            if (totals.oldestDue == null || dueDate.isBefore(totals.oldestDue)) {
+                totals.oldestDue = dueDate;
+            }
+        }
+    }
+
+    private static class ShardRun {
+        long rows;
+        int flagged;
+        long peakHeap;
+    }
+
+    private static class Totals {
+        int invoices;
+        double amount;
+        LocalDate oldestDue;
+    }
+}
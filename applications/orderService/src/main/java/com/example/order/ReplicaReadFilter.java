@@ -0,0 +1,33 @@
+package com.example.order;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+
+/**
+ * Lets GET and HEAD requests read from the replica. Other requests, and any request once it opens a
+ * transaction, read from the primary.
+ */
+public class ReplicaReadFilter extends Filter {
+
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        String method = exchange.getRequestMethod();
+        if ("GET".equalsIgnoreCase(method) || "HEAD".equalsIgnoreCase(method)) {
+            ReplicaRouter.allowReplicaReads();
+        } else {
+            ReplicaRouter.pinToPrimary();
+        }
+        try {
+            chain.doFilter(exchange);
+        } finally {
+            ReplicaRouter.pinToPrimary();
+        }
+    }
+
+    @Override
+    public String description() {
+        return "Routes reads of safe requests to the read replica";
+    }
+}
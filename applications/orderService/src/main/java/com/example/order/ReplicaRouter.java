@@ -0,0 +1,170 @@
+package com.example.order;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Chooses the connection read-only queries run on. A thread may read from the replica only while
+ * ReplicaReadFilter allows it, which it does for GET and HEAD requests, and only until it opens a
+ * transaction; from then on it stays on the primary for the rest of the request so it reads its own
+ * writes. Background jobs never read from the replica. Replication lag is measured periodically, and
+ * while it is above the limit or the replica cannot be reached every read goes to the primary.
+ */
+public class ReplicaRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaRouter.class);
+    private static final ThreadLocal<Boolean> REPLICA_ALLOWED = new ThreadLocal<>();
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    public enum State { DISABLED, UNCHECKED, REPLICA, LAGGING, UNREACHABLE }
+
+    private final Connection primary;
+    private final ConnectionFactory replicaFactory;
+    private final AtomicReferenceArray<Connection> replicas;
+    private final long maxLagMs;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicLong replicaReads = new AtomicLong();
+    private final AtomicLong primaryReads = new AtomicLong();
+    private volatile State state;
+    private volatile long lagMs = -1;
+    private ScheduledExecutorService scheduler;
+
+    public ReplicaRouter(Connection primary, ConnectionFactory replicaFactory, int poolSize, long maxLagMs) {
+        this.primary = primary;
+        this.replicaFactory = replicaFactory;
+        this.replicas = new AtomicReferenceArray<>(replicaFactory != null ? Math.max(1, poolSize) : 0);
+        this.maxLagMs = maxLagMs;
+        this.state = replicaFactory != null ? State.UNCHECKED : State.DISABLED;
+    }
+
+    public static ReplicaRouter primaryOnly(Connection primary) {
+        return new ReplicaRouter(primary, null, 0, 0);
+    }
+
+    /** Lets the current thread read from the replica until pinToPrimary is called. */
+    public static void allowReplicaReads() {
+        REPLICA_ALLOWED.set(Boolean.TRUE);
+    }
+
+    /** Sends every further read of the current thread to the primary. */
+    public static void pinToPrimary() {
+        REPLICA_ALLOWED.remove();
+    }
+
+    public Connection primary() {
+        return primary;
+    }
+
+    public Connection forRead() {
+        if (state == State.REPLICA && REPLICA_ALLOWED.get() != null) {
+            Connection replica = replicas.get(Math.floorMod(next.getAndIncrement(), replicas.length()));
+            if (replica != null) {
+                replicaReads.incrementAndGet();
+                return replica;
+            }
+        }
+        primaryReads.incrementAndGet();
+        return primary;
+    }
+
+    public void start(long intervalMs) {
+        if (replicaFactory == null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "replica-lag-check");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::checkReplica, 0, intervalMs, TimeUnit.MILLISECONDS);
+        logger.info("Replica reads enabled ({} connections, max lag {} ms)", replicas.length(), maxLagMs);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Reopens replica connections that are no longer valid, then measures the lag and decides whether
+     * reads may use the replica until the next check.
+     */
+    public void checkReplica() {
+        if (replicaFactory == null) {
+            return;
+        }
+        State checked;
+        try {
+            for (int i = 0; i < replicas.length(); i++) {
+                Connection replica = replicas.get(i);
+                if (replica == null || !replica.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                    closeQuietly(replica);
+                    replica = replicaFactory.open();
+                    replica.setReadOnly(true);
+                    replicas.set(i, replica);
+                }
+            }
+            lagMs = measureLag(replicas.get(0));
+            checked = lagMs <= maxLagMs ? State.REPLICA : State.LAGGING;
+        } catch (SQLException e) {
+            lagMs = -1;
+            checked = State.UNREACHABLE;
+            logger.warn("Replica check failed: {}", e.getMessage());
+        }
+        if (checked != state) {
+            if (checked == State.REPLICA) {
+                logger.info("Reads go to the replica again (lag {} ms)", lagMs);
+            } else {
+                logger.warn("Reads fall back to the primary: replica is {} (lag {} ms, limit {} ms)", checked, lagMs, maxLagMs);
+            }
+        }
+        state = checked;
+    }
+
+    // Time since the last replayed transaction, or zero when the replica has replayed everything it received
+    private static long measureLag(Connection replica) throws SQLException {
+        if (!SqlDialect.isPostgres(replica)) {
+            return 0;
+        }
+        String sql = "SELECT CASE WHEN NOT pg_is_in_recovery() OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+                     "ELSE COALESCE(CAST(EXTRACT(EPOCH FROM (now() - pg_last_xact_replay_timestamp())) * 1000 AS BIGINT), 0) END";
+        try (Statement stmt = replica.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+            // Already broken
+        }
+    }
+
+    public State getState() { return state; }
+
+    public long getLagMs() { return lagMs; }
+
+    public String toJson() {
+        return "{\"state\":\"" + state + "\",\"lagMs\":" + lagMs + ",\"maxLagMs\":" + maxLagMs +
+               ",\"connections\":" + replicas.length() +
+               ",\"replicaReads\":" + replicaReads.get() + ",\"primaryReads\":" + primaryReads.get() + "}";
+    }
+}
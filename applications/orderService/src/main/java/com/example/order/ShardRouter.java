@@ -0,0 +1,248 @@
+package com.example.order;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.ToIntFunction;
+import java.util.zip.CRC32;
+
+/**
+ * Maps customers and ids to database shards. A customer's orders, invoices, credit and summary rows all
+ * live on the shard chosen by a CRC32 of the customer name, which does not change between JVMs or
+ * releases. Order and invoice ids are drawn from per-shard sequences that step by the number of shards
+ * and start at the shard's index, so ids are unique across shards and id % shards names the shard that
+ * holds the row.
+ */
+public class ShardRouter {
+
+    private static final String[] SHARDED_ID_TABLES = {"orders", "invoices"};
+
+    private final List<Connection> shards;
+
+    public ShardRouter(List<Connection> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.shards = List.copyOf(shards);
+    }
+
+    public int size() {
+        return shards.size();
+    }
+
+    public Connection connection(int shard) {
+        return shards.get(shard);
+    }
+
+    public List<Connection> connections() {
+        return shards;
+    }
+
+    public int shardFor(String customerName) {
+        CRC32 crc = new CRC32();
+        crc.update((customerName != null ? customerName : "").getBytes(StandardCharsets.UTF_8));
+        return (int) (crc.getValue() % shards.size());
+    }
+
+    public int shardForId(int id) {
+        return Math.floorMod(id, shards.size());
+    }
+
+    /**
+     * Makes every shard hand out ids congruent to its index modulo the number of shards. Sequences that
+     * already step by the number of shards are left alone, so this is safe to run on every start. With a
+     * single shard nothing is changed. Fails first, changing nothing, if the highest order or invoice id
+     * on a shard belongs to another shard. That check reads one index entry per table; the full scan of
+     * every row is verifyPlacement, which is run on request.
+     */
+    public void prepareIdSequences() throws SQLException {
+        if (shards.size() == 1) {
+            return;
+        }
+        List<String> problems = new ArrayList<>();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            for (String table : SHARDED_ID_TABLES) {
+                long max = maxId(shards.get(shard), table);
+                if (max > 0 && shardForId((int) max) != shard) {
+                    problems.add(table + " on shard " + shard + " end at id " + max + ", which belongs to shard " + shardForId((int) max));
+                }
+            }
+        }
+        if (!problems.isEmpty()) {
+            throw new IllegalStateException("Shard placement is broken: " + String.join("; ", problems));
+        }
+        for (int shard = 0; shard < shards.size(); shard++) {
+            Connection connection = shards.get(shard);
+            for (String table : SHARDED_ID_TABLES) {
+                prepareIdSequence(connection, table, shard);
+            }
+        }
+    }
+
+    /**
+     * Throws IllegalStateException when a shard holds rows the router would look for elsewhere: an order
+     * or invoice whose id modulo the number of shards is not the shard's index, or a customer whose CRC
+     * names another shard. Such rows come from data copied in before the split or written with another
+     * shard count, and must be moved before the service starts. This reads every order and invoice on
+     * every shard, so it runs only when SHARD_VERIFY_PLACEMENT is set, typically once after moving data.
+     */
+    public void verifyPlacement() throws SQLException {
+        List<String> problems = new ArrayList<>();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            Connection connection = shards.get(shard);
+            for (String table : SHARDED_ID_TABLES) {
+                long misplacedIds = countMisplacedIds(connection, table, shard);
+                if (misplacedIds > 0) {
+                    problems.add(misplacedIds + " " + table + " on shard " + shard + " have ids of another shard");
+                }
+                List<String> misplacedCustomers = misplacedCustomers(connection, table, shard);
+                if (!misplacedCustomers.isEmpty()) {
+                    problems.add(misplacedCustomers.size() + " customers with " + table + " on shard " + shard +
+                                 " belong to another shard, e.g. '" + misplacedCustomers.get(0) + "'");
+                }
+            }
+        }
+        if (!problems.isEmpty()) {
+            throw new IllegalStateException("Shard placement is broken: " + String.join("; ", problems));
+        }
+    }
+
+    private long countMisplacedIds(Connection connection, String table, int shard) throws SQLException {
+        String sql = "SELECT COUNT(*) FROM " + table + " WHERE MOD(id, ?) <> ?";
+        return Transactions.withConnection(connection, () -> {
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                stmt.setInt(1, shards.size());
+                stmt.setInt(2, shard);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    rs.next();
+                    return rs.getLong(1);
+                }
+            }
+        });
+    }
+
+    private List<String> misplacedCustomers(Connection connection, String table, int shard) throws SQLException {
+        return Transactions.withConnection(connection, () -> {
+            List<String> misplaced = new ArrayList<>();
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT DISTINCT customer_name FROM " + table)) {
+                while (rs.next()) {
+                    String customerName = rs.getString(1);
+                    if (shardFor(customerName) != shard) {
+                        misplaced.add(customerName);
+                    }
+                }
+            }
+            return misplaced;
+        });
+    }
+
+    private static long maxId(Connection connection, String table) throws SQLException {
+        return Transactions.withConnection(connection, () -> {
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(id), 0) FROM " + table)) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        });
+    }
+
+    private void prepareIdSequence(Connection connection, String table, int shard) throws SQLException {
+        int step = shards.size();
+        Transactions.run(connection, () -> {
+            boolean postgres = SqlDialect.isPostgres(connection);
+            String sequence = postgres ? serialSequence(connection, table) : null;
+            String incrementSql = postgres
+                    ? "SELECT seqincrement FROM pg_sequence WHERE seqrelid = CAST(? AS regclass)"
+                    : "SELECT IDENTITY_INCREMENT FROM INFORMATION_SCHEMA.COLUMNS " +
+                      "WHERE LOWER(TABLE_NAME) = ? AND LOWER(COLUMN_NAME) = 'id' AND TABLE_SCHEMA = SCHEMA()";
+            try (PreparedStatement stmt = connection.prepareStatement(incrementSql)) {
+                stmt.setString(1, postgres ? sequence : table);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (!rs.next()) {
+                        throw new SQLException("No id sequence found for " + table);
+                    }
+                    if (rs.getLong(1) == step) {
+                        return null;
+                    }
+                }
+            }
+
+            long max = maxId(connection, table);
+            // First id above every existing one that belongs to this shard
+            long next = max + Math.floorMod(shard - max, step);
+            if (next <= max) {
+                next += step;
+            }
+            try (Statement stmt = connection.createStatement()) {
+                if (postgres) {
+                    stmt.execute("ALTER SEQUENCE " + sequence + " INCREMENT BY " + step);
+                    stmt.execute("SELECT setval('" + sequence + "', " + next + ", false)");
+                } else {
+                    stmt.execute("ALTER TABLE " + table + " ALTER COLUMN id RESTART WITH " + next);
+                    stmt.execute("ALTER TABLE " + table + " ALTER COLUMN id SET INCREMENT BY " + step);
+                }
+            }
+            System.out.println("ShardRouter: " + table + " ids on shard " + shard + " now start at " + next + " and step by " + step);
+            return null;
+        });
+    }
+
+    private static String serialSequence(Connection connection, String table) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT pg_get_serial_sequence(?, 'id')")) {
+            stmt.setString(1, table);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next() || rs.getString(1) == null) {
+                    throw new SQLException("No id sequence found for " + table);
+                }
+                return rs.getString(1);
+            }
+        }
+    }
+
+    /**
+     * K-way merge of per-shard results that are each sorted by id descending. Returns at most limit
+     * items, newest first. Since ids are unique across shards, applying the same keyset bound on every
+     * shard and merging gives the same page a single database would.
+     */
+    public static <T> List<T> mergeNewestFirst(List<List<T>> perShard, ToIntFunction<T> id, int limit) {
+        return merge(perShard, Comparator.comparingInt(id).reversed(), limit);
+    }
+
+    // As above for results that are each sorted by the given order, which must be total across shards
+    public static <T> List<T> merge(List<List<T>> perShard, Comparator<T> order, int limit) {
+        if (perShard.size() == 1) {
+            List<T> only = perShard.get(0);
+            return only.size() <= limit ? only : new ArrayList<>(only.subList(0, limit));
+        }
+        // Heap entries are {shard, position}; the head is the shard whose next item comes first
+        PriorityQueue<int[]> heads = new PriorityQueue<>((a, b) ->
+                order.compare(perShard.get(a[0]).get(a[1]), perShard.get(b[0]).get(b[1])));
+        for (int shard = 0; shard < perShard.size(); shard++) {
+            if (!perShard.get(shard).isEmpty()) {
+                heads.add(new int[] {shard, 0});
+            }
+        }
+        List<T> merged = new ArrayList<>();
+        while (!heads.isEmpty() && merged.size() < limit) {
+            int[] head = heads.poll();
+            List<T> list = perShard.get(head[0]);
+            merged.add(list.get(head[1]));
+            if (head[1] + 1 < list.size()) {
+                heads.add(new int[] {head[0], head[1] + 1});
+            }
+        }
+        return merged;
+    }
+
+    static <T> List<T> mergeNewestFirst(List<List<T>> perShard, ToIntFunction<T> id) {
+        return mergeNewestFirst(perShard, id, Integer.MAX_VALUE);
+    }
+}
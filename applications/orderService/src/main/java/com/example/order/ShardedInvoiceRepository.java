@@ -0,0 +1,84 @@
+package com.example.order;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Invoices over several databases. An invoice lives on the shard of its customer, which is also
+ * where the customer's orders and credit row are, so creating an invoice while confirming an order
+ * joins the order's transaction. Invoice ids carry their shard the same way order ids do.
+ */
+public class ShardedInvoiceRepository implements InvoiceStore {
+
+    private final ShardRouter router;
+    private final List<InvoiceRepository> shards = new ArrayList<>();
+
+    public ShardedInvoiceRepository(ShardRouter router) {
+        this.router = router;
+        for (int i = 0; i < router.size(); i++) {
+            shards.add(new InvoiceRepository(router.connection(i)));
+        }
+    }
+
+    private InvoiceRepository forCustomer(String customerName) {
+        return shards.get(router.shardFor(customerName));
+    }
+
+    private InvoiceRepository forInvoice(int invoiceId) {
+        return shards.get(router.shardForId(invoiceId));
+    }
+
+    @Override
+    public void createInvoice(Invoice invoice) throws SQLException {
+        forCustomer(invoice.getCustomerName()).createInvoice(invoice);
+    }
+
+    @Override
+    public CustomerCredit findCredit(String customerName) throws SQLException {
+        return forCustomer(customerName).findCredit(customerName);
+    }
+
+    @Override
+    public void rebuildCreditIfEmpty() throws SQLException {
+        for (InvoiceRepository shard : shards) {
+            shard.rebuildCreditIfEmpty();
+        }
+    }
+
+    @Override
+    public List<Invoice> findByCustomer(String customerName) throws SQLException {
+        return forCustomer(customerName).findByCustomer(customerName);
+    }
+
+    @Override
+    public Invoice findById(int id) throws SQLException {
+        return forInvoice(id).findById(id);
+    }
+
+    @Override
+    public void markPaid(int id) throws SQLException {
+        forInvoice(id).markPaid(id);
+    }
+
+    @Override
+    public List<Invoice> findAll() throws SQLException {
+        List<Invoice> invoices = new ArrayList<>();
+        for (InvoiceRepository shard : shards) {
+            invoices.addAll(shard.findAll());
+        }
+        return invoices;
+    }
+
+    @Override
+    public List<Invoice> findPage(InvoiceFilter filter, Integer afterId, int limit) throws SQLException {
+        if (filter.getCustomerName() != null) {
+            return forCustomer(filter.getCustomerName()).findPage(filter, afterId, limit);
+        }
+        List<List<Invoice>> perShard = new ArrayList<>();
+        for (InvoiceRepository shard : shards) {
+            perShard.add(shard.findPage(filter, afterId, limit));
+        }
+        return ShardRouter.mergeNewestFirst(perShard, Invoice::getId, limit);
+    }
+}
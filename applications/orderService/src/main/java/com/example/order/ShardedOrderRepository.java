@@ -0,0 +1,162 @@
+package com.example.order;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Orders over several databases. Calls about one customer go to that customer's shard and
+ * calls about one order go to the shard encoded in its id; each shard is an ordinary OrderRepository, so
+ * the summary projection is kept in step inside each shard's transactions as before. Listings across
+ * customers query every shard with the same keyset bound and merge the results in their sort order.
+ * Batch status updates run one transaction per shard, so a batch that spans shards is not atomic as a whole.
+ */
+public class ShardedOrderRepository implements OrderStore {
+
+    private final ShardRouter router;
+    private final List<OrderRepository> shards = new ArrayList<>();
+
+    public ShardedOrderRepository(ShardRouter router, int hotMonths) {
+        this(router, hotMonths, null);
+    }
+
+    // statusCounters, when given, holds one OrderStatusCounters per shard
+    public ShardedOrderRepository(ShardRouter router, int hotMonths, List<OrderStatusCounters> statusCounters) {
+        this.router = router;
+        for (int i = 0; i < router.size(); i++) {
+            shards.add(new OrderRepository(ReplicaRouter.primaryOnly(router.connection(i)), hotMonths,
+                    statusCounters != null ? statusCounters.get(i) : null));
+        }
+    }
+
+    private OrderRepository forCustomer(String customerName) {
+        return shards.get(router.shardFor(customerName));
+    }
+
+    private OrderRepository forOrder(int orderId) {
+        return shards.get(router.shardForId(orderId));
+    }
+
+    @Override
+    public <T> T inOrderTransaction(int orderId, SqlWork<T> work) throws SQLException {
+        return forOrder(orderId).inTransaction(work);
+    }
+
+    @Override
+    public List<Order> findAll() throws SQLException {
+        List<List<Order>> perShard = new ArrayList<>();
+        for (OrderRepository shard : shards) {
+            perShard.add(shard.findAll());
+        }
+        return ShardRouter.mergeNewestFirst(perShard, Order::getId);
+    }
+
+    @Override
+    public List<Order> findPage(Integer afterId, int limit, boolean includeHistory) throws SQLException {
+        List<List<Order>> perShard = new ArrayList<>();
+        for (OrderRepository shard : shards) {
+            perShard.add(shard.findPage(afterId, limit, includeHistory));
+        }
+        return ShardRouter.mergeNewestFirst(perShard, Order::getId, limit);
+    }
+
+    // A customer prefix matches customers on any shard, so every search fans out and is merged newest first
+    @Override
+    public List<Order> search(OrderFilter filter, OrderCursor after, int limit) throws SQLException {
+        List<List<Order>> perShard = new ArrayList<>();
+        for (OrderRepository shard : shards) {
+            perShard.add(shard.search(filter, after, limit));
+        }
+        return ShardRouter.merge(perShard, Comparator.comparing(OrderCursor::of).reversed(), limit);
+    }
+
+    @Override
+    public Order findById(int id) throws SQLException {
+        return forOrder(id).findById(id);
+    }
+
+    @Override
+    public List<Order> findByCustomer(String customerName, Integer afterId, int limit, Long sinceVersion, boolean includeHistory) throws SQLException {
+        return forCustomer(customerName).findByCustomer(customerName, afterId, limit, sinceVersion, includeHistory);
+    }
+
+    @Override
+    public CustomerOrdersVersion findCustomerVersion(String customerName) throws SQLException {
+        return forCustomer(customerName).findCustomerVersion(customerName);
+    }
+
+    @Override
+    public CustomerOrderSummary findCustomerSummary(String customerName) throws SQLException {
+        return forCustomer(customerName).findCustomerSummary(customerName);
+    }
+
+    @Override
+    public Map<String, Long> statusCounts() throws SQLException {
+        Map<String, Long> counts = new TreeMap<>();
+        for (OrderRepository shard : shards) {
+            shard.statusCounts().forEach((status, count) -> counts.merge(status, count, Long::sum));
+        }
+        return counts;
+    }
+
+    @Override
+    public int createOrder(Order order) throws SQLException {
+        return forCustomer(order.getCustomerName()).createOrder(order);
+    }
+
+    // Each shard inserts its part of the list in its own transaction
+    @Override
+    public List<Integer> createOrders(List<Order> orders) throws SQLException {
+        Map<Integer, List<Integer>> positionsByShard = new HashMap<>();
+        for (int i = 0; i < orders.size(); i++) {
+            positionsByShard.computeIfAbsent(router.shardFor(orders.get(i).getCustomerName()), k -> new ArrayList<>()).add(i);
+        }
+        Integer[] ids = new Integer[orders.size()];
+        for (Map.Entry<Integer, List<Integer>> entry : positionsByShard.entrySet()) {
+            List<Order> shardOrders = new ArrayList<>();
+            for (int position : entry.getValue()) {
+                shardOrders.add(orders.get(position));
+            }
+            List<Integer> shardIds = shards.get(entry.getKey()).createOrders(shardOrders);
+            for (int i = 0; i < shardIds.size(); i++) {
+                ids[entry.getValue().get(i)] = shardIds.get(i);
+            }
+        }
+        return Arrays.asList(ids);
+    }
+
+    @Override
+    public void updatePointsEarned(int orderId, int points) throws SQLException {
+        forOrder(orderId).updatePointsEarned(orderId, points);
+    }
+
+    @Override
+    public void updateStatus(int orderId, String status) throws SQLException {
+        forOrder(orderId).updateStatus(orderId, status);
+    }
+
+    @Override
+    public boolean transitionStatus(int orderId, String from, String to) throws SQLException {
+        return forOrder(orderId).transitionStatus(orderId, from, to);
+    }
+
+    @Override
+    public Set<Integer> updateStatuses(Map<Integer, String> statuses) throws SQLException {
+        Map<Integer, Map<Integer, String>> byShard = new HashMap<>();
+        for (Map.Entry<Integer, String> entry : statuses.entrySet()) {
+            byShard.computeIfAbsent(router.shardForId(entry.getKey()), k -> new HashMap<>()).put(entry.getKey(), entry.getValue());
+        }
+        Set<Integer> updated = new HashSet<>();
+        for (Map.Entry<Integer, Map<Integer, String>> entry : byShard.entrySet()) {
+            updated.addAll(shards.get(entry.getKey()).updateStatuses(entry.getValue()));
+        }
+        return updated;
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.order;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes outbox events to the shard that holds the order, so they commit with the order change. Each
+ * shard's outbox is drained by its own OutboxDispatcher on that shard's connection.
+ */
+public class ShardedOutboxRepository implements OutboxWriter {
+
+    private final ShardRouter router;
+    private final List<OutboxRepository> shards = new ArrayList<>();
+
+    public ShardedOutboxRepository(ShardRouter router) {
+        this.router = router;
+        for (int i = 0; i < router.size(); i++) {
+            shards.add(new OutboxRepository(router.connection(i)));
+        }
+    }
+
+    @Override
+    public void enqueue(String eventType, int orderId) throws SQLException {
+        shards.get(router.shardForId(orderId)).enqueue(eventType, orderId);
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.order;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+public final class SqlDialect {
+
+    private SqlDialect() {}
+
+    // Production runs on PostgreSQL; tests run on H2, which lacks some of the set-based SQL used there.
+    public static boolean isPostgres(Connection connection) throws SQLException {
+        return "PostgreSQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName());
+    }
+}
@@ -0,0 +1,8 @@
+package com.example.order;
+
+import java.sql.SQLException;
+
+@FunctionalInterface
+public interface SqlWork<T> {
+    T run() throws SQLException;
+}
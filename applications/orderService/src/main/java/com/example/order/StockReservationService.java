@@ -5,47 +5,176 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 public class StockReservationService {
 
     private final HttpClient httpClient;
     private final String warehouseReserveUrl;
+    private final String warehouseReleaseUrl;
     private final TokenService tokenService;
+    private final int maxParallelism;
+    private final DownstreamGuard guard;
 
-    public StockReservationService() {
+    // WAREHOUSE_RELEASE_URL defaults to the release endpoint next to WAREHOUSE_RESERVE_URL
+    public StockReservationService(HttpClient httpClient, TokenService tokenService) {
         this(
-            System.getenv().getOrDefault("WAREHOUSE_RESERVE_URL", "http://warehouse-demo:8002/api/stock/reserve"),
-            new KeycloakTokenService(
-                System.getenv().getOrDefault("TOKEN_URL", "http://keycloak:8080/realms/webshop-realm/protocol/openid-connect/token"),
-                System.getenv().getOrDefault("CLIENT_ID", "order-client"),
-                System.getenv().getOrDefault("CLIENT_SECRET", "order-secret")
-            )
+            httpClient,
+            configuredReserveUrl(),
+            System.getenv().getOrDefault("WAREHOUSE_RELEASE_URL", releaseUrlFor(configuredReserveUrl())),
+            tokenService,
+            Integer.parseInt(System.getenv().getOrDefault("STOCK_RESERVATION_PARALLELISM", "4")),
+            DownstreamGuard.fromEnv("warehouse-stock", "WAREHOUSE_STOCK")
         );
     }
 
     public StockReservationService(String warehouseReserveUrl, TokenService tokenService) {
-        this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(5))
-                .build();
+        this(warehouseReserveUrl, releaseUrlFor(warehouseReserveUrl), tokenService, 4);
+    }
+
+    public StockReservationService(String warehouseReserveUrl, String warehouseReleaseUrl, TokenService tokenService, int maxParallelism) {
+        this(HttpClients.shared(), warehouseReserveUrl, warehouseReleaseUrl, tokenService, maxParallelism,
+                DownstreamGuard.fromEnv("warehouse-stock", "WAREHOUSE_STOCK"));
+    }
+
+    public StockReservationService(HttpClient httpClient, String warehouseReserveUrl, String warehouseReleaseUrl, TokenService tokenService,
+                                   int maxParallelism, DownstreamGuard guard) {
+        this.httpClient = httpClient;
         this.warehouseReserveUrl = warehouseReserveUrl;
+        this.warehouseReleaseUrl = warehouseReleaseUrl;
         this.tokenService = tokenService;
+        this.maxParallelism = Math.max(1, maxParallelism);
+        this.guard = guard;
+    }
+
+    public DownstreamGuard getGuard() { return guard; }
+
+    private static String configuredReserveUrl() {
+        return System.getenv().getOrDefault("WAREHOUSE_RESERVE_URL", "http://warehouse-demo:8002/api/stock/reserve");
+    }
+
+    // The release endpoint beside the reserve endpoint: the last path segment is replaced, nothing else
+    static String releaseUrlFor(String warehouseReserveUrl) {
+        return URI.create(warehouseReserveUrl).resolve("release").toString();
     }
 
     public CompletableFuture<Boolean> reserveStock(int productId, int quantity) {
+        return reserveStock(null, productId, quantity);
+    }
+
+    /**
+     * Reserves stock under reservationId. The warehouse marks the reserved units with it and a release
+     * with the same id frees only those, so a repeated or unneeded release cannot free another order's units.
+     */
+    public CompletableFuture<Boolean> reserveStock(String reservationId, int productId, int quantity) {
         System.out.println("StockReservationService: Reserving stock for product " + productId + " at " + warehouseReserveUrl);
+        return post(warehouseReserveUrl, reservationId, productId, quantity, true);
+    }
+
+    /**
+     * Releases stock reserved under reservationId. Releases compensate for reservations already made, so
+     * they are sent past the guard: an open breaker or a full bulkhead must not leave units reserved for
+     * an order that failed. They still time out after the guard's timeout.
+     */
+    public CompletableFuture<Boolean> releaseStock(String reservationId, int productId, int quantity) {
+        System.out.println("StockReservationService: Releasing stock for product " + productId + " at " + warehouseReleaseUrl);
+        return post(warehouseReleaseUrl, reservationId, productId, quantity, false);
+    }
+
+    /**
+     * Reserves every line of an order concurrently, with at most maxParallelism requests in flight.
+     * Completes with true when all lines were reserved. When any line is refused, the lines that were
+     * reserved are released again and the result is false; when a call fails with an exception, the
+     * reserved lines are released and the future completes exceptionally. A call that timed out or failed
+     * in flight may still have reserved its line, so that line is released too; only calls the guard
+     * refused before sending are known to have reserved nothing. All lines share one new reservation id,
+     * so releasing a line that was never reserved frees nothing.
+     */
+    public CompletableFuture<Boolean> reserveAll(List<OrderItem> items) {
+        String reservationId = UUID.randomUUID().toString();
+        List<OrderItem> reserved = Collections.synchronizedList(new ArrayList<>());
+        AtomicBoolean refused = new AtomicBoolean(false);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        CompletableFuture<Void> reservations = forEachBounded(items, item -> {
+            if (refused.get() || failure.get() != null) {
+                return CompletableFuture.completedFuture(null); // Order is already doomed, skip remaining lines
+            }
+            return reserveStock(reservationId, item.getProductId(), item.getQuantity()).handle((ok, ex) -> {
+                if (ex != null) {
+                    failure.compareAndSet(null, ex);
+                    if (DownstreamUnavailableException.find(ex) == null) {
+                        reserved.add(item);
+                    }
+                } else if (Boolean.TRUE.equals(ok)) {
+                    reserved.add(item);
+                } else {
+                    refused.set(true);
+                }
+                return null;
+            });
+        });
+
+        return reservations.thenCompose(v -> {
+            if (!refused.get() && failure.get() == null) {
+                return CompletableFuture.completedFuture(true);
+            }
+            return releaseAll(reservationId, new ArrayList<>(reserved)).thenApply(released -> {
+                if (failure.get() != null) {
+                    throw new IllegalStateException("Stock reservation failed", failure.get());
+                }
+                return false;
+            });
+        });
+    }
+
+    private CompletableFuture<Void> releaseAll(String reservationId, List<OrderItem> items) {
+        return forEachBounded(items, item -> releaseStock(reservationId, item.getProductId(), item.getQuantity()).handle((ok, ex) -> {
+            if (ex != null || !Boolean.TRUE.equals(ok)) {
+                System.err.println("CRITICAL: Failed to release " + item.getQuantity() + " of product " + item.getProductId() + ". Manual release required.");
+            }
+            return null;
+        }));
+    }
+
+    // Splits the items over maxParallelism lanes; each lane runs its calls one after another.
+    private CompletableFuture<Void> forEachBounded(List<OrderItem> items, Function<OrderItem, CompletableFuture<Void>> call) {
+        int lanes = Math.min(maxParallelism, items.size());
+        CompletableFuture<?>[] laneFutures = new CompletableFuture<?>[lanes];
+        for (int lane = 0; lane < lanes; lane++) {
+            CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+            for (int i = lane; i < items.size(); i += lanes) {
+                OrderItem item = items.get(i);
+                chain = chain.thenCompose(v -> call.apply(item));
+            }
+            laneFutures[lane] = chain;
+        }
+        return CompletableFuture.allOf(laneFutures);
+    }
+
+    private CompletableFuture<Boolean> post(String url, String reservationId, int productId, int quantity, boolean guarded) {
         return tokenService.getAccessToken().thenCompose(token -> {
             System.out.println("StockReservationService: Got token (length: " + (token != null ? token.length() : 0) + ")");
-            String json = "{\"productId\":" + productId + ",\"quantity\":" + quantity + "}";
-            
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(warehouseReserveUrl))
+            String json = "{" + (reservationId != null ? "\"reservationId\":\"" + reservationId + "\"," : "") +
+                          "\"productId\":" + productId + ",\"quantity\":" + quantity + "}";
+
+            HttpRequest.Builder request = HttpRequest.newBuilder()
+                    .uri(URI.create(url))
                     .header("Content-Type", "application/json")
                     .header("Authorization", "Bearer " + token)
-                    .POST(HttpRequest.BodyPublishers.ofString(json))
-                    .build();
+                    .POST(HttpRequest.BodyPublishers.ofString(json));
 
-            return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+            CompletableFuture<HttpResponse<String>> sent = guarded
+                    ? guard.send(httpClient, request)
+                    : httpClient.sendAsync(request.timeout(Duration.ofMillis(guard.getTimeoutMs())).build(), HttpResponse.BodyHandlers.ofString());
+            return sent
                     .thenApply(response -> {
                         System.out.println("StockReservationService: Response status: " + response.statusCode());
                         if (response.statusCode() != 200) {
@@ -0,0 +1,31 @@
+package com.example.order;
+
+public class StoredResponse {
+    private final int statusCode;
+    private final String body;
+    private final String requestHash;
+
+    public StoredResponse(int statusCode, String body) {
+        this(statusCode, body, null);
+    }
+
+    public StoredResponse(int statusCode, String body, String requestHash) {
+        this.statusCode = statusCode;
+        this.body = body;
+        this.requestHash = requestHash;
+    }
+
+    public int getStatusCode() { return statusCode; }
+
+    public String getBody() { return body; }
+
+    public String getRequestHash() { return requestHash; }
+
+    // A claimed key whose request has not finished yet
+    public boolean isInProgress() { return statusCode == 0; }
+
+    // Whether the key was first used with the same customer and body. Keys stored before fingerprints were kept match any request.
+    public boolean matches(String fingerprint) {
+        return requestHash == null || requestHash.equals(fingerprint);
+    }
+}
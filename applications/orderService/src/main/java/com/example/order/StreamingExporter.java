@@ -0,0 +1,338 @@
+package com.example.order;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Full exports of orders and invoices as CSV or NDJSON. Rows are read through a server-side cursor on a
+ * dedicated read-only connection and written to the output as they arrive, so memory use does not
+ * depend on the size of the export. Orders are written in the layout OrderImporter reads (one CSV line
+ * per item, one JSON object per order), with the order id as ref, so an export can be imported again.
+ */
+public class StreamingExporter {
+
+    private static final int FETCH_SIZE = 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+    /** Where the export goes. Opened only once the query has succeeded, so a failed query can still be answered with an error. */
+    @FunctionalInterface
+    public interface Sink {
+        OutputStream open() throws IOException;
+    }
+
+    private final List<ConnectionFactory> shards;
+
+    public StreamingExporter(ConnectionFactory connections) {
+        this(List.of(connections));
+    }
+
+    public StreamingExporter(List<ConnectionFactory> shards) {
+        this.shards = List.copyOf(shards);
+    }
+
+    /**
+     * Writes the orders created between from and to (inclusive, both optional) with their items, oldest
+     * first. Returns the number of orders written.
+     */
+    public long exportOrders(LocalDate from, LocalDate to, OrderImporter.Format format, Sink sink) throws SQLException, IOException {
+        StringBuilder sql = new StringBuilder(
+                "SELECT o.id, o.customer_name, o.status, o.total_amount, o.points_redeemed, o.points_earned, o.created_at, " +
+                "i.product_id, i.quantity FROM orders o " +
+                "LEFT JOIN order_items i ON i.order_id = o.id AND i.order_created_at = o.created_at WHERE 1 = 1");
+        List<Object> args = new ArrayList<>();
+        if (from != null) {
+            sql.append(" AND o.created_at >= ?");
+            args.add(Timestamp.valueOf(from.atStartOfDay()));
+        }
+        if (to != null) {
+            sql.append(" AND o.created_at < ?");
+            args.add(Timestamp.valueOf(to.plusDays(1).atStartOfDay()));
+        }
+        sql.append(" ORDER BY o.id, i.id");
+
+        String header = format == OrderImporter.Format.CSV
+                ? "ref,customer_name,status,total_amount,points_redeemed,points_earned,created_at,product_id,quantity\n" : "";
+        return stream(sql.toString(), args, header, sink, (rs, writer) -> {
+            long orders = 0;
+            if (format == OrderImporter.Format.CSV) {
+                int previousId = -1;
+                while (rs.next()) {
+                    int id = rs.getInt(1);
+                    if (id != previousId) {
+                        orders++;
+                        previousId = id;
+                    }
+                    writer.write(String.valueOf(id));
+                    writer.write(',');
+                    writer.write(csv(rs.getString(2)));
+                    writer.write(',');
+                    writer.write(csv(rs.getString(3)));
+                    writer.write(',');
+                    writer.write(decimal(rs.getBigDecimal(4)));
+                    writer.write(',');
+                    writer.write(String.valueOf(rs.getInt(5)));
+                    writer.write(',');
+                    writer.write(String.valueOf(rs.getInt(6)));
+                    writer.write(',');
+                    writer.write(timestamp(rs.getTimestamp(7)));
+                    writer.write(',');
+                    int productId = rs.getInt(8);
+                    if (!rs.wasNull()) {
+                        writer.write(String.valueOf(productId));
+                        writer.write(',');
+                        writer.write(String.valueOf(rs.getInt(9)));
+                    } else {
+                        writer.write(',');
+                    }
+                    writer.write('\n');
+                }
+            } else {
+                // Rows of one order are adjacent, so each order is closed when the next one starts
+                int previousId = -1;
+                boolean firstItem = true;
+                while (rs.next()) {
+                    int id = rs.getInt(1);
+                    if (id != previousId) {
+                        if (previousId != -1) {
+                            writer.write("]}\n");
+                        }
+                        orders++;
+                        previousId = id;
+                        firstItem = true;
+                        writer.write("{\"id\":");
+                        writer.write(String.valueOf(id));
+                        writer.write(",\"customerName\":");
+                        writer.write(json(rs.getString(2)));
+                        writer.write(",\"status\":");
+                        writer.write(json(rs.getString(3)));
+                        writer.write(",\"totalAmount\":");
+                        writer.write(decimal(rs.getBigDecimal(4)));
+                        writer.write(",\"pointsRedeemed\":");
+                        writer.write(String.valueOf(rs.getInt(5)));
+                        writer.write(",\"pointsEarned\":");
+                        writer.write(String.valueOf(rs.getInt(6)));
+                        writer.write(",\"createdAt\":\"");
+                        writer.write(timestamp(rs.getTimestamp(7)));
+                        writer.write("\",\"items\":[");
+                    }
+                    int productId = rs.getInt(8);
+                    if (!rs.wasNull()) {
+                        if (!firstItem) {
+                            writer.write(',');
+                        }
+                        firstItem = false;
+                        writer.write("{\"productId\":");
+                        writer.write(String.valueOf(productId));
+                        writer.write(",\"quantity\":");
+                        writer.write(String.valueOf(rs.getInt(9)));
+                        writer.write('}');
+                    }
+                }
+                if (previousId != -1) {
+                    writer.write("]}\n");
+                }
+            }
+            return orders;
+        });
+    }
+
+    /**
+     * Writes the invoices due between from and to (inclusive, both optional), in id order. Returns the
+     * number of invoices written.
+     */
+    public long exportInvoices(LocalDate from, LocalDate to, OrderImporter.Format format, Sink sink) throws SQLException, IOException {
+        StringBuilder sql = new StringBuilder("SELECT id, order_id, customer_name, amount, due_date, paid FROM invoices WHERE 1 = 1");
+        List<Object> args = new ArrayList<>();
+        if (from != null) {
+            sql.append(" AND due_date >= ?");
+            args.add(Date.valueOf(from));
+        }
+        if (to != null) {
+            sql.append(" AND due_date <= ?");
+            args.add(Date.valueOf(to));
+        }
+        sql.append(" ORDER BY id");
+
+        String header = format == OrderImporter.Format.CSV ? "id,order_id,customer_name,amount,due_date,paid\n" : "";
+        return stream(sql.toString(), args, header, sink, (rs, writer) -> {
+            long invoices = 0;
+            while (rs.next()) {
+                invoices++;
+                if (format == OrderImporter.Format.CSV) {
+                    writer.write(rs.getInt(1) + "," + rs.getInt(2) + "," + csv(rs.getString(3)) + "," +
+                                 decimal(rs.getBigDecimal(4)) + "," + rs.getDate(5) + "," + rs.getBoolean(6) + "\n");
+                } else {
+                    writer.write("{\"id\":" + rs.getInt(1) + ",\"orderId\":" + rs.getInt(2) +
+                                 ",\"customerName\":" + json(rs.getString(3)) + ",\"amount\":" + decimal(rs.getBigDecimal(4)) +
+                                 ",\"dueDate\":\"" + rs.getDate(5) + "\",\"paid\":" + rs.getBoolean(6) + "}\n");
+                }
+            }
+            return invoices;
+        });
+    }
+
+    @FunctionalInterface
+    public interface Export {
+        long run(LocalDate from, LocalDate to, OrderImporter.Format format, Sink sink) throws SQLException, IOException;
+    }
+
+    /**
+     * Answers an export request. Query parameters: format=csv|ndjson (default csv), from and to
+     * (yyyy-MM-dd, inclusive) and gzip=true for a gzip-compressed file. The body is sent chunked, since
+     * its length is not known up front.
+     */
+    public static void respond(HttpExchange exchange, Map<String, String> params, String fileName, Export export) throws IOException {
+        OrderImporter.Format format;
+        LocalDate from;
+        LocalDate to;
+        try {
+            String formatParam = params.getOrDefault("format", "csv");
+            format = OrderImporter.Format.valueOf(formatParam.toUpperCase());
+            from = parseDate(params.get("from"));
+            to = parseDate(params.get("to"));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            byte[] bytes = ("Invalid export parameters: " + e.getMessage()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(400, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+            return;
+        }
+        boolean gzip = "true".equalsIgnoreCase(params.get("gzip"));
+
+        boolean[] started = new boolean[1];
+        Sink sink = () -> {
+            started[0] = true;
+            boolean csv = format == OrderImporter.Format.CSV;
+            String contentType = csv ? "text/csv; charset=utf-8" : "application/x-ndjson; charset=utf-8";
+            exchange.getResponseHeaders().set("Content-Type", gzip ? "application/gzip" : contentType);
+            exchange.getResponseHeaders().set("Content-Disposition",
+                    "attachment; filename=\"" + fileName + (csv ? ".csv" : ".ndjson") + (gzip ? ".gz" : "") + "\"");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            return gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : new BufferedOutputStream(out, BUFFER_SIZE);
+        };
+        try {
+            long rows = export.run(from, to, format, sink);
+            System.out.println("StreamingExporter: Exported " + rows + " rows to " + fileName);
+        } catch (SQLException | IOException e) {
+            e.printStackTrace();
+            if (started[0]) {
+                // The status line is already out; cutting the chunked body short tells the client it is incomplete
+                exchange.close();
+            } else {
+                exchange.sendResponseHeaders(500, -1);
+            }
+        }
+    }
+
+    private static LocalDate parseDate(String value) {
+        return value == null || value.isEmpty() ? null : LocalDate.parse(value);
+    }
+
+    @FunctionalInterface
+    private interface RowWriter {
+        long write(ResultSet rs, Writer writer) throws SQLException, IOException;
+    }
+
+    // Shards are exported one after the other into the same output, each through its own cursor
+    private long stream(String sql, List<Object> args, String header, Sink sink, RowWriter rowWriter) throws SQLException, IOException {
+        Writer writer = null;
+        long rows = 0;
+        try {
+            for (ConnectionFactory shard : shards) {
+                try (Connection connection = shard.open()) {
+                    // Autocommit off makes the PostgreSQL driver fetch FETCH_SIZE rows at a time instead of the whole result
+                    connection.setReadOnly(true);
+                    connection.setAutoCommit(false);
+                    try (PreparedStatement stmt = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                        stmt.setFetchSize(FETCH_SIZE);
+                        for (int i = 0; i < args.size(); i++) {
+                            stmt.setObject(i + 1, args.get(i));
+                        }
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            if (writer == null) {
+                                writer = new BufferedWriter(new OutputStreamWriter(sink.open(), StandardCharsets.UTF_8), BUFFER_SIZE);
+                                writer.write(header);
+                            }
+                            rows += rowWriter.write(rs, writer);
+                        }
+                    } finally {
+                        connection.rollback();
+                    }
+                }
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        return rows;
+    }
+
+    private static String csv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+        return value;
+    }
+
+    // A JSON string literal for the value, or null. OrderController writes its JSON with this too.
+    static String json(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String decimal(BigDecimal value) {
+        return value == null ? "0" : value.stripTrailingZeros().toPlainString();
+    }
+
+    private static String timestamp(Timestamp value) {
+        return value == null ? "" : value.toLocalDateTime().format(TIMESTAMP);
+    }
+}
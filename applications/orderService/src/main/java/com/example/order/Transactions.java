@@ -0,0 +1,79 @@
+package com.example.order;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class Transactions {
+
+    // Actions waiting for the transactions the current thread has open, per connection
+    private static final ThreadLocal<Map<Connection, List<Runnable>>> AFTER_COMMIT = ThreadLocal.withInitial(IdentityHashMap::new);
+
+    private Transactions() {}
+
+    /**
+     * Runs the work in a single transaction on the given connection. The connection is shared between
+     * request threads, so the transaction holds the connection's monitor until it commits or rolls back.
+     * Nested calls join the transaction that is already open. The calling thread reads from the primary
+     * from here on, so it sees what it wrote.
+     */
+    public static <T> T run(Connection connection, SqlWork<T> work) throws SQLException {
+        ReplicaRouter.pinToPrimary();
+        T result;
+        List<Runnable> committed;
+        synchronized (connection) {
+            if (!connection.getAutoCommit()) {
+                return work.run();
+            }
+            connection.setAutoCommit(false);
+            committed = new ArrayList<>();
+            AFTER_COMMIT.get().put(connection, committed);
+            try {
+                result = work.run();
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                try {
+                    connection.rollback();
+                } catch (SQLException rollbackFailure) {
+                    e.addSuppressed(rollbackFailure);
+                }
+                throw e;
+            } finally {
+                AFTER_COMMIT.get().remove(connection);
+                connection.setAutoCommit(true);
+            }
+        }
+        for (Runnable action : committed) {
+            action.run();
+        }
+        return result;
+    }
+
+    /**
+     * Runs statements that need no transaction of their own on a shared connection. They hold the
+     * connection's monitor as run does, so they never execute inside a transaction another thread has
+     * open on it, where they would commit or roll back with that thread's work. Inside the calling
+     * thread's own transaction they join it. Unlike run, this does not pin the thread to the primary.
+     */
+    public static <T> T withConnection(Connection connection, SqlWork<T> work) throws SQLException {
+        synchronized (connection) {
+            return work.run();
+        }
+    }
+
+    /**
+     * Runs the action once the transaction open on the connection has committed, and drops it if the
+     * transaction rolls back. Outside a transaction started by run the action runs straight away.
+     */
+    public static void afterCommit(Connection connection, Runnable action) {
+        List<Runnable> actions = AFTER_COMMIT.get().get(connection);
+        if (actions != null) {
+            actions.add(action);
+        } else {
+            action.run();
+        }
+    }
+}
@@ -1,25 +1,159 @@
+-- orders and order_items are range-partitioned by month on the order's creation time. OrderPartitionMaintenance
+-- creates the default and monthly partitions and detaches old months when archiving is enabled.
+-- The partition key has to be part of every unique key, hence the composite primary keys.
 CREATE TABLE IF NOT EXISTS orders (
-    id SERIAL PRIMARY KEY,
+    id SERIAL,
     customer_name VARCHAR(255),
     status VARCHAR(50), -- PENDING, CONFIRMED, REJECTED
     total_amount DECIMAL(10, 2) DEFAULT 0.00,
     points_redeemed INT DEFAULT 0,
     points_earned INT DEFAULT 0,
-    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
-);
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id, created_at)
+) PARTITION BY RANGE (created_at);
 
+-- Items live in the partition of their order's month
 CREATE TABLE IF NOT EXISTS order_items (
-    id SERIAL PRIMARY KEY,
-    order_id INTEGER REFERENCES orders(id) ON DELETE CASCADE,
+    id SERIAL,
+    order_id INTEGER NOT NULL,
+    order_created_at TIMESTAMP NOT NULL,
     product_id INTEGER,
-    quantity INTEGER
-);
+    quantity INTEGER,
+    PRIMARY KEY (id, order_created_at),
+    FOREIGN KEY (order_id, order_created_at) REFERENCES orders (id, created_at) ON DELETE CASCADE
+) PARTITION BY RANGE (order_created_at);
 
+-- Databases created before partitioning keep their plain tables. Items there get the column the item join needs.
+ALTER TABLE order_items ADD COLUMN IF NOT EXISTS order_created_at TIMESTAMP;
+
+-- No foreign key to orders: its primary key includes created_at, and invoices outlive archived order partitions
 CREATE TABLE IF NOT EXISTS invoices (
     id SERIAL PRIMARY KEY,
-    order_id INTEGER REFERENCES orders(id) ON DELETE CASCADE,
+    order_id INTEGER,
     customer_name VARCHAR(255),
     amount DECIMAL(10, 2),
     due_date DATE,
     paid BOOLEAN DEFAULT FALSE
 );
+
+CREATE INDEX IF NOT EXISTS idx_order_items_order_id ON order_items (order_id);
+CREATE INDEX IF NOT EXISTS idx_orders_customer_id ON orders (customer_name, id DESC);
+
+-- Transactional outbox: written in the same transaction as the order change, drained by OutboxDispatcher
+CREATE TABLE IF NOT EXISTS outbox (
+    id SERIAL PRIMARY KEY,
+    event_type VARCHAR(50) NOT NULL,
+    order_id INTEGER NOT NULL,
+    status VARCHAR(20) DEFAULT 'PENDING', -- PENDING, SENT, DEAD
+    attempts INT DEFAULT 0,
+    next_attempt_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    last_error VARCHAR(1000),
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    processed_at TIMESTAMP
+);
+
+CREATE INDEX IF NOT EXISTS idx_outbox_pending ON outbox (next_attempt_at, id) WHERE status = 'PENDING';
+
+-- Responses to POST /api/orders keyed by the client's Idempotency-Key. response_status is NULL while in progress.
+-- request_hash fingerprints the customer and body the key was first used with. claimed_at is when the
+-- request now holding the key took it, so a claim whose request died can be taken over.
+CREATE TABLE IF NOT EXISTS idempotency_keys (
+    idempotency_key VARCHAR(255) PRIMARY KEY,
+    order_id INTEGER,
+    response_status INT,
+    response_body TEXT,
+    request_hash VARCHAR(64),
+    claimed_at TIMESTAMP,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+ALTER TABLE idempotency_keys ADD COLUMN IF NOT EXISTS request_hash VARCHAR(64);
+ALTER TABLE idempotency_keys ADD COLUMN IF NOT EXISTS claimed_at TIMESTAMP;
+
+-- Serves the retention purge
+CREATE INDEX IF NOT EXISTS idx_idempotency_keys_created ON idempotency_keys (created_at);
+
+-- Conditional GETs use change_version below, and nothing reads orders.updated_at any more
+DROP INDEX IF EXISTS idx_orders_customer_updated;
+ALTER TABLE orders DROP COLUMN IF EXISTS updated_at;
+
+-- Per-customer change counter behind the ETag and ?since= on /api/orders. OrderRepository takes the next
+-- version in the transaction of every order write and stamps it on orders.change_version. The counter row stays
+-- locked until commit, so a customer's changes commit in version order. Imported orders have no version.
+CREATE TABLE IF NOT EXISTS customer_order_versions (
+    customer_name VARCHAR(255) PRIMARY KEY,
+    version BIGINT NOT NULL
+);
+
+ALTER TABLE orders ADD COLUMN IF NOT EXISTS change_version BIGINT;
+CREATE INDEX IF NOT EXISTS idx_orders_customer_change ON orders (customer_name, change_version);
+
+-- Back-office search. status_code is the OrderStatus code of status, generated by the database so every writer
+-- keeps it in step, and NULL for statuses OrderStatus does not list. Pages are read newest first in
+-- (created_at, id) order, which the status index returns directly for one status.
+ALTER TABLE orders ADD COLUMN IF NOT EXISTS status_code SMALLINT GENERATED ALWAYS AS (CASE status WHEN 'PENDING' THEN 1 WHEN 'PENDING_CONFIRMATION' THEN 2 WHEN 'CONFIRMED' THEN 3 WHEN 'SHIPPED' THEN 4 WHEN 'DELIVERED' THEN 5 WHEN 'PAID' THEN 6 WHEN 'CANCELLED' THEN 7 WHEN 'REJECTED' THEN 8 WHEN 'CREDIT_REJECTED' THEN 9 WHEN 'REDEMPTION_FAILED' THEN 10 WHEN 'CONFIRMATION_FAILED' THEN 11 WHEN 'ERROR' THEN 12 END) STORED;
+CREATE INDEX IF NOT EXISTS idx_orders_status_created ON orders (status_code, created_at DESC, id DESC);
+-- Orders waiting for an order manager (OrderStatus.ACTIONABLE) are a small slice of all orders
+CREATE INDEX IF NOT EXISTS idx_orders_actionable ON orders (created_at DESC, id DESC) WHERE status_code IN (2, 11, 12);
+-- Customer prefix searches (LIKE 'abc%') need the pattern operator class under a non-C collation
+CREATE INDEX IF NOT EXISTS idx_orders_customer_prefix ON orders (customer_name varchar_pattern_ops);
+
+-- Read model behind GET /api/orders/summary. One row per customer and status, kept in step with orders by
+-- OrderRepository in the same transaction as each order change and filled from orders on first start.
+CREATE TABLE IF NOT EXISTS customer_order_summary (
+    customer_name VARCHAR(255) NOT NULL,
+    status VARCHAR(50) NOT NULL,
+    order_count INT NOT NULL DEFAULT 0,
+    points_earned BIGINT NOT NULL DEFAULT 0,
+    points_redeemed BIGINT NOT NULL DEFAULT 0,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (customer_name, status)
+);
+
+-- Order count per status behind the /orders dashboard, kept in step with orders in the same transactions as
+-- customer_order_summary and recounted periodically by OrderStatusCounters
+CREATE TABLE IF NOT EXISTS order_status_counts (
+    status VARCHAR(50) PRIMARY KEY,
+    order_count BIGINT NOT NULL DEFAULT 0,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Outstanding balance per customer, kept in step with invoices by InvoiceRepository so the credit checks on
+-- order creation are one primary-key lookup. Filled from the unpaid invoices on first start.
+CREATE TABLE IF NOT EXISTS customer_credit (
+    customer_name VARCHAR(255) PRIMARY KEY,
+    outstanding_amount DECIMAL(12, 2) NOT NULL DEFAULT 0,
+    earliest_unpaid_due DATE,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX IF NOT EXISTS idx_invoices_customer_unpaid ON invoices (customer_name, due_date) WHERE paid = false;
+
+-- Invoice listing filters. Customer pages walk idx_invoices_customer_id in keyset order.
+CREATE INDEX IF NOT EXISTS idx_invoices_customer_id ON invoices (customer_name, id DESC);
+CREATE INDEX IF NOT EXISTS idx_invoices_paid_due ON invoices (paid, due_date);
+CREATE INDEX IF NOT EXISTS idx_invoices_order_id ON invoices (order_id);
+
+-- Customers flagged for dunning by OverdueInvoiceScanner. Rows carry the date of the run that flagged them
+-- and are dropped when a later run finishes without finding anything overdue for the customer.
+CREATE TABLE IF NOT EXISTS customer_dunning (
+    customer_name VARCHAR(255) PRIMARY KEY,
+    overdue_invoices INT NOT NULL,
+    overdue_amount DECIMAL(12, 2) NOT NULL,
+    oldest_due_date DATE NOT NULL,
+    run_date DATE NOT NULL,
+    flagged_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Progress of resumable batch jobs: last_id is the highest source id whose effects are committed
+CREATE TABLE IF NOT EXISTS job_checkpoints (
+    job_name VARCHAR(100) PRIMARY KEY,
+    run_date DATE NOT NULL,
+    last_id INTEGER NOT NULL DEFAULT 0,
+    rows_processed BIGINT NOT NULL DEFAULT 0,
+    completed BOOLEAN NOT NULL DEFAULT FALSE,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+-- The overdue scan walks unpaid invoices in id order without touching paid ones
+CREATE INDEX IF NOT EXISTS idx_invoices_unpaid_id ON invoices (id) WHERE paid = false;
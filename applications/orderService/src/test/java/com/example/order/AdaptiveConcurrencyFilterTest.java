@@ -0,0 +1,147 @@
+package com.example.order;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class AdaptiveConcurrencyFilterTest {
+
+    private static final long TARGET_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final AtomicLong now = new AtomicLong(1_000_000_000L);
+
+    private AdaptiveConcurrencyFilter limiter(int limit, int maxQueue, long maxWaitMs) {
+        return new AdaptiveConcurrencyFilter(limit, 1, 100, 500, maxQueue, maxWaitMs, 20, Set.of("/api/orders/status"), now::get);
+    }
+
+    @Test
+    void testCriticalPathsKeepReservedShare() throws Exception {
+        AdaptiveConcurrencyFilter filter = limiter(10, 0, 0);
+        for (int i = 0; i < 8; i++) {
+            assertTrue(filter.acquire(false));
+        }
+
+        assertFalse(filter.acquire(false));
+        assertTrue(filter.acquire(true));
+        assertTrue(filter.acquire(true));
+        assertFalse(filter.acquire(true));
+        assertTrue(filter.toJson().contains("\"inFlight\":10"));
+        assertTrue(filter.toJson().contains("\"shed\":2"));
+    }
+
+    @Test
+    void testSlowResponsesShrinkLimitOncePerTargetPeriod() throws Exception {
+        AdaptiveConcurrencyFilter filter = limiter(10, 0, 0);
+        for (int i = 0; i < 3; i++) {
+            filter.acquire(false);
+        }
+
+        filter.release(2 * TARGET_NANOS);
+        filter.release(2 * TARGET_NANOS);
+        assertEquals(9, filter.getLimit());
+
+        now.addAndGet(TARGET_NANOS);
+        filter.release(3 * TARGET_NANOS);
+        assertEquals(8, filter.getLimit());
+    }
+
+    @Test
+    void testFastResponsesGrowLimitOnlyWhenItIsUsed() throws Exception {
+        AdaptiveConcurrencyFilter filter = limiter(10, 0, 0);
+        filter.acquire(false);
+        for (int i = 0; i < 20; i++) {
+            filter.release(TARGET_NANOS / 10);
+            filter.acquire(false);
+        }
+        assertEquals(10, filter.getLimit());
+
+        for (int i = 0; i < 7; i++) {
+            filter.acquire(false);
+        }
+        for (int i = 0; i < 20; i++) {
+            filter.release(TARGET_NANOS / 10);
+            filter.acquire(false);
+        }
+        assertEquals(11, filter.getLimit());
+    }
+
+    @Test
+    void testQueuedRequestIsAdmittedWhenSlotFrees() throws Exception {
+        AdaptiveConcurrencyFilter filter = limiter(1, 1, 5000);
+        assertTrue(filter.acquire(false));
+
+        CompletableFuture<Boolean> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return filter.acquire(false);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        while (filter.getQueued() == 0) {
+            Thread.sleep(1);
+        }
+        assertFalse(filter.acquire(false));
+
+        filter.release(0);
+        assertTrue(waiting.get(5, TimeUnit.SECONDS));
+        assertEquals(1, filter.getInFlight());
+    }
+
+    @Test
+    void testShedRequestGets503WithRetryAfter() throws Exception {
+        AdaptiveConcurrencyFilter filter = limiter(1, 0, 0);
+        filter.acquire(false);
+        HttpExchange exchange = exchange("/orders");
+        boolean[] handled = {false};
+
+        new Filter.Chain(List.of(filter), e -> handled[0] = true).doFilter(exchange);
+
+        assertFalse(handled[0]);
+        verify(exchange).sendResponseHeaders(eq(503), anyLong());
+        assertEquals("1", exchange.getResponseHeaders().getFirst("Retry-After"));
+    }
+
+    @Test
+    void testFastHandler503AndExportsLeaveLimitAlone() throws Exception {
+        AdaptiveConcurrencyFilter filter = limiter(10, 0, 0);
+        HttpExchange export = exchange("/orders/export");
+        new Filter.Chain(List.of(filter), e -> now.addAndGet(60 * TARGET_NANOS)).doFilter(export);
+        assertEquals(10, filter.getLimit());
+        assertEquals(0, filter.getInFlight());
+
+        HttpExchange unavailable = exchange("/api/orders");
+        when(unavailable.getResponseCode()).thenReturn(503);
+        new Filter.Chain(List.of(filter), e -> { }).doFilter(unavailable);
+        assertEquals(10, filter.getLimit());
+        assertEquals(0, filter.getInFlight());
+    }
+
+    @Test
+    void testMaxThreadsCoverTheMaxLimitAndTheQueue() {
+        // Sizes the server's thread pool: 100 in flight at the max limit and 25 waiting
+        assertEquals(125, limiter(10, 25, 200).getMaxThreads());
+    }
+
+    private static HttpExchange exchange(String path) {
+        HttpExchange exchange = mock(HttpExchange.class);
+        when(exchange.getRequestURI()).thenReturn(URI.create(path));
+        when(exchange.getResponseHeaders()).thenReturn(new Headers());
+        when(exchange.getResponseBody()).thenReturn(new ByteArrayOutputStream());
+        when(exchange.getResponseCode()).thenReturn(200);
+        return exchange;
+    }
+}
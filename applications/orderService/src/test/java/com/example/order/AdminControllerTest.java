@@ -0,0 +1,185 @@
+package com.example.order;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class AdminControllerTest {
+
+    @Mock
+    private OrderImporter importer;
+
+    @Mock
+    private OverdueInvoiceScanner overdueScanner;
+
+    @Mock
+    private HttpExchange exchange;
+
+    private AdminController controller;
+    private Headers requestHeaders;
+    private ByteArrayOutputStream responseBody;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        controller = new AdminController(importer, List.of(new DownstreamGuard("warehouse-stock", 3000, 32, 5, 10000, 1)), overdueScanner,
+                ReplicaRouter.primaryOnly(null), new AdaptiveConcurrencyFilter(10, 2, 50, 500, 5, 100, 20, Set.of()));
+        requestHeaders = new Headers();
+        responseBody = new ByteArrayOutputStream();
+
+        when(exchange.getRequestHeaders()).thenReturn(requestHeaders);
+        when(exchange.getResponseHeaders()).thenReturn(new Headers());
+        when(exchange.getResponseBody()).thenReturn(responseBody);
+        when(exchange.getRequestBody()).thenReturn(new ByteArrayInputStream(new byte[0]));
+    }
+
+    @Test
+    void testImportCsv() throws IOException, SQLException {
+        when(exchange.getRequestMethod()).thenReturn("POST");
+        when(exchange.getRequestURI()).thenReturn(URI.create("/admin/orders/import"));
+        requestHeaders.set("Content-Type", "text/csv; charset=utf-8");
+        when(importer.importOrders(any(InputStream.class), eq(OrderImporter.Format.CSV))).thenReturn(new OrderImporter.Result(3, 7));
+
+        controller.handle(exchange);
+
+        verify(exchange).sendResponseHeaders(eq(200), anyLong());
+        assertEquals("{\"orders\":3,\"items\":7}", responseBody.toString());
+    }
+
+    @Test
+    void testImportNdjson() throws IOException, SQLException {
+        when(exchange.getRequestMethod()).thenReturn("POST");
+        when(exchange.getRequestURI()).thenReturn(URI.create("/admin/orders/import"));
+        requestHeaders.set("Content-Type", "application/x-ndjson");
+        when(importer.importOrders(any(InputStream.class), eq(OrderImporter.Format.NDJSON))).thenReturn(new OrderImporter.Result(1, 1));
+
+        controller.handle(exchange);
+
+        verify(exchange).sendResponseHeaders(eq(200), anyLong());
+    }
+
+    @Test
+    void testImportRejectsUnknownContentType() throws IOException, SQLException {
+        when(exchange.getRequestMethod()).thenReturn("POST");
+        when(exchange.getRequestURI()).thenReturn(URI.create("/admin/orders/import"));
+        requestHeaders.set("Content-Type", "application/json");
+
+        controller.handle(exchange);
+
+        verify(exchange).sendResponseHeaders(eq(415), anyLong());
+        verify(importer, never()).importOrders(any(), any());
+    }
+
+    @Test
+    void testImportReportsBadInput() throws IOException, SQLException {
+        when(exchange.getRequestMethod()).thenReturn("POST");
+        when(exchange.getRequestURI()).thenReturn(URI.create("/admin/orders/import"));
+        requestHeaders.set("Content-Type", "text/csv");
+        when(importer.importOrders(any(InputStream.class), any())).thenThrow(new IllegalArgumentException("Line 3: Missing status"));
+
+        controller.handle(exchange);
+
+        verify(exchange).sendResponseHeaders(eq(400), anyLong());
+        assertEquals("Line 3: Missing status", responseBody.toString());
+    }
+
+    @Test
+    void testImportUnavailableWhenSharded() throws IOException {
+        controller = new AdminController(null, List.of(), overdueScanner, ReplicaRouter.primaryOnly(null), null);
+        when(exchange.getRequestMethod()).thenReturn("POST");
+        when(exchange.getRequestURI()).thenReturn(URI.create("/admin/orders/import"));
+        requestHeaders.set("Content-Type", "text/csv");
+
+        controller.handle(exchange);
+
+        verify(exchange).sendResponseHeaders(eq(501), anyLong());
+    }
+
+    @Test
+    void testImportMethodNotAllowed() throws IOException {
+        when(exchange.getRequestMethod()).thenReturn("GET");
+        when(exchange.getRequestURI()).thenReturn(URI.create("/admin/orders/import"));
+
+        controller.handle(exchange);
+
+        verify(exchange).sendResponseHeaders(eq(405), anyLong());
+    }
+
+    @Test
+    void testReplicaStatus() throws IOException {
+        when(exchange.getRequestMethod()).thenReturn("GET");
+        when(exchange.getRequestURI()).thenReturn(URI.create("/admin/replica"));
+
+        controller.handle(exchange);
+
+        verify(exchange).sendResponseHeaders(eq(200), anyLong());
+        assertEquals("{\"state\":\"DISABLED\",\"lagMs\":-1,\"maxLagMs\":0,\"connections\":0,\"replicaReads\":0,\"primaryReads\":0}",
+                     responseBody.toString());
+    }
+
+    @Test
+    void testConcurrencyLimit() throws IOException {
+        when(exchange.getRequestMethod()).thenReturn("GET");
+        when(exchange.getRequestURI()).thenReturn(URI.create("/admin/concurrency"));
+
+        controller.handle(exchange);
+
+        verify(exchange).sendResponseHeaders(eq(200), anyLong());
+        assertEquals("{\"limit\":10,\"reserved\":2,\"minLimit\":2,\"maxLimit\":50,\"inFlight\":0,\"queued\":0,\"maxQueue\":5," +
+                     "\"accepted\":0,\"shed\":0,\"timedOut\":0}", responseBody.toString());
+    }
+
+    @Test
+    void testDownstreams() throws IOException {
+        when(exchange.getRequestMethod()).thenReturn("GET");
+        when(exchange.getRequestURI()).thenReturn(URI.create("/admin/downstreams"));
+
+        controller.handle(exchange);
+
+        verify(exchange).sendResponseHeaders(eq(200), anyLong());
+        assertEquals("[{\"name\":\"warehouse-stock\",\"state\":\"CLOSED\",\"inFlight\":0,\"maxConcurrent\":32,\"timeoutMs\":3000," +
+                     "\"calls\":0,\"failures\":0,\"timeouts\":0,\"bulkheadRejections\":0,\"breakerRejections\":0}]", responseBody.toString());
+    }
+
+    @Test
+    void testOverdueScanStatus() throws IOException {
+        when(exchange.getRequestMethod()).thenReturn("GET");
+        when(exchange.getRequestURI()).thenReturn(URI.create("/admin/jobs/overdue-scan"));
+        when(overdueScanner.toJson()).thenReturn("{\"job\":\"overdue-invoice-scan\",\"state\":\"NEVER_RUN\"}");
+
+        controller.handle(exchange);
+
+        verify(exchange).sendResponseHeaders(eq(200), anyLong());
+        assertEquals("{\"job\":\"overdue-invoice-scan\",\"state\":\"NEVER_RUN\"}", responseBody.toString());
+    }
+
+    @Test
+    void testOverdueScanTrigger() throws IOException {
+        when(exchange.getRequestMethod()).thenReturn("POST");
+        when(exchange.getRequestURI()).thenReturn(URI.create("/admin/jobs/overdue-scan"));
+        when(overdueScanner.triggerNow()).thenReturn(true);
+
+        controller.handle(exchange);
+
+        verify(overdueScanner).triggerNow();
+        verify(exchange).sendResponseHeaders(eq(202), anyLong());
+    }
+}
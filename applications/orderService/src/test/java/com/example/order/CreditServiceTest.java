@@ -7,11 +7,14 @@ import org.mockito.MockitoAnnotations;
 
 import java.sql.SQLException;
 import java.time.LocalDate;
-import java.util.Arrays;
-import java.util.Collections;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class CreditServiceTest {
@@ -29,51 +32,55 @@ class CreditServiceTest {
 
     @Test
     void testCheckCreditLimit_UnderLimit() throws SQLException {
-        Invoice i1 = new Invoice(101, "John Doe", 100.0, LocalDate.now());
-        i1.setId(1);
-        i1.setPaid(false);
-        when(invoiceRepository.findByCustomer("John Doe")).thenReturn(Collections.singletonList(i1));
+        when(invoiceRepository.findCredit("John Doe")).thenReturn(new CustomerCredit("John Doe", 100.0, LocalDate.now()));
 
         assertTrue(creditService.checkCreditLimit("John Doe"));
     }
 
     @Test
     void testCheckCreditLimit_OverLimit() throws SQLException {
-        Invoice i1 = new Invoice(101, "John Doe", 600.0, LocalDate.now());
-        i1.setId(1);
-        i1.setPaid(false);
-        when(invoiceRepository.findByCustomer("John Doe")).thenReturn(Collections.singletonList(i1));
+        when(invoiceRepository.findCredit("John Doe")).thenReturn(new CustomerCredit("John Doe", 600.0, LocalDate.now()));
 
         assertFalse(creditService.checkCreditLimit("John Doe"));
     }
 
     @Test
-    void testCheckCreditLimit_PaidInvoicesIgnored() throws SQLException {
-        Invoice i1 = new Invoice(101, "John Doe", 600.0, LocalDate.now());
-        i1.setId(1);
-        i1.setPaid(true);
-        when(invoiceRepository.findByCustomer("John Doe")).thenReturn(Collections.singletonList(i1));
+    void testCheckCreditLimit_NoOutstandingInvoices() throws SQLException {
+        when(invoiceRepository.findCredit("John Doe")).thenReturn(new CustomerCredit("John Doe", 0, null));
 
         assertTrue(creditService.checkCreditLimit("John Doe"));
     }
 
     @Test
     void testCheckOverdueInvoices_NoOverdue() throws SQLException {
-        Invoice i1 = new Invoice(101, "John Doe", 100.0, LocalDate.now().plusDays(1));
-        i1.setId(1);
-        i1.setPaid(false);
-        when(invoiceRepository.findByCustomer("John Doe")).thenReturn(Collections.singletonList(i1));
+        when(invoiceRepository.findCredit("John Doe")).thenReturn(new CustomerCredit("John Doe", 100.0, LocalDate.now().plusDays(1)));
 
         assertTrue(creditService.checkOverdueInvoices("John Doe"));
     }
 
     @Test
     void testCheckOverdueInvoices_HasOverdue() throws SQLException {
-        Invoice i1 = new Invoice(101, "John Doe", 100.0, LocalDate.now().minusDays(1));
-        i1.setId(1);
-        i1.setPaid(false);
-        when(invoiceRepository.findByCustomer("John Doe")).thenReturn(Collections.singletonList(i1));
+        when(invoiceRepository.findCredit("John Doe")).thenReturn(new CustomerCredit("John Doe", 100.0, LocalDate.now().minusDays(1)));
 
         assertFalse(creditService.checkOverdueInvoices("John Doe"));
     }
+
+    @Test
+    void testCheckOrder() throws SQLException {
+        when(invoiceRepository.findCredit("Good")).thenReturn(new CustomerCredit("Good", 100.0, LocalDate.now().plusDays(5)));
+        when(invoiceRepository.findCredit("Over")).thenReturn(new CustomerCredit("Over", 600.0, LocalDate.now().plusDays(5)));
+        when(invoiceRepository.findCredit("Late")).thenReturn(new CustomerCredit("Late", 100.0, LocalDate.now().minusDays(5)));
+
+        assertNull(creditService.checkOrder("Good"));
+        assertEquals(CreditService.CREDIT_LIMIT_EXCEEDED, creditService.checkOrder("Over"));
+        assertEquals(CreditService.OVERDUE_INVOICES, creditService.checkOrder("Late"));
+        verify(invoiceRepository, never()).findByCustomer(anyString());
+    }
+
+    @Test
+    void testCheckOrder_FailsSafe() throws SQLException {
+        when(invoiceRepository.findCredit("John Doe")).thenThrow(new SQLException("down"));
+
+        assertEquals(CreditService.CREDIT_LIMIT_EXCEEDED, creditService.checkOrder("John Doe"));
+    }
 }
@@ -0,0 +1,147 @@
+package com.example.order;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownstreamGuardTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private DownstreamGuard guard;
+
+    @BeforeEach
+    void setUp() {
+        guard = new DownstreamGuard("warehouse", 200, 2, 3, 5000, 1, now::get);
+    }
+
+    @Test
+    void testBreakerOpensAfterConsecutiveFailuresAndFailsFast() {
+        for (int i = 0; i < 3; i++) {
+            assertThrows(CompletionException.class, () -> failing().join());
+        }
+        assertEquals(DownstreamGuard.State.OPEN, guard.getState());
+
+        boolean[] called = {false};
+        CompletableFuture<Boolean> rejected = guard.call(() -> {
+            called[0] = true;
+            return CompletableFuture.completedFuture(true);
+        }, ok -> !ok);
+
+        CompletionException e = assertThrows(CompletionException.class, rejected::join);
+        assertNotNull(DownstreamUnavailableException.find(e));
+        assertFalse(called[0]);
+        assertTrue(guard.toJson().contains("\"breakerRejections\":1"));
+    }
+
+    @Test
+    void testSuccessResetsFailureCount() {
+        failing();
+        failing();
+        guard.call(() -> CompletableFuture.completedFuture(true), ok -> !ok).join();
+        failing();
+        failing();
+
+        assertEquals(DownstreamGuard.State.CLOSED, guard.getState());
+    }
+
+    @Test
+    void testHalfOpenProbeClosesBreaker() {
+        openBreaker();
+        now.addAndGet(5000);
+
+        CompletableFuture<Boolean> probe = new CompletableFuture<>();
+        CompletableFuture<Boolean> probeResult = guard.call(() -> probe, ok -> !ok);
+        assertEquals(DownstreamGuard.State.HALF_OPEN, guard.getState());
+
+        // Only one probe at a time
+        CompletableFuture<Boolean> second = guard.call(() -> CompletableFuture.completedFuture(true), ok -> !ok);
+        assertThrows(CompletionException.class, second::join);
+
+        probe.complete(true);
+        assertTrue(probeResult.join());
+        assertEquals(DownstreamGuard.State.CLOSED, guard.getState());
+    }
+
+    @Test
+    void testOnlyTheProbeMovesTheBreakerOutOfHalfOpen() {
+        guard = new DownstreamGuard("warehouse", 10_000, 4, 3, 5000, 1, now::get);
+        // Admitted while closed, still in flight when the breaker opens
+        CompletableFuture<Boolean> stale = new CompletableFuture<>();
+        guard.call(() -> stale, ok -> !ok);
+        CompletableFuture<Boolean> staleFailure = new CompletableFuture<>();
+        guard.call(() -> staleFailure, ok -> !ok);
+        openBreaker();
+        now.addAndGet(5000);
+
+        CompletableFuture<Boolean> probe = new CompletableFuture<>();
+        guard.call(() -> probe, ok -> !ok);
+        assertEquals(DownstreamGuard.State.HALF_OPEN, guard.getState());
+
+        stale.complete(true);
+        staleFailure.complete(false);
+        assertEquals(DownstreamGuard.State.HALF_OPEN, guard.getState());
+
+        probe.complete(true);
+        assertEquals(DownstreamGuard.State.CLOSED, guard.getState());
+    }
+
+    @Test
+    void testFailedProbeReopensBreaker() {
+        openBreaker();
+        now.addAndGet(5000);
+
+        assertThrows(CompletionException.class, () -> failing().join());
+
+        assertEquals(DownstreamGuard.State.OPEN, guard.getState());
+    }
+
+    @Test
+    void testBulkheadRejectsCallsBeyondLimit() {
+        CompletableFuture<Boolean> first = new CompletableFuture<>();
+        CompletableFuture<Boolean> second = new CompletableFuture<>();
+        guard.call(() -> first, ok -> !ok);
+        guard.call(() -> second, ok -> !ok);
+        assertEquals(2, guard.getInFlight());
+
+        CompletableFuture<Boolean> third = guard.call(() -> CompletableFuture.completedFuture(true), ok -> !ok);
+        assertNotNull(DownstreamUnavailableException.find(assertThrows(CompletionException.class, third::join)));
+
+        first.complete(true);
+        assertEquals(1, guard.getInFlight());
+        assertTrue(guard.call(() -> CompletableFuture.completedFuture(true), ok -> !ok).join());
+    }
+
+    @Test
+    void testDeadlineFailsSlowCalls() {
+        CompletableFuture<Boolean> slow = guard.call(CompletableFuture::new, ok -> !ok);
+
+        assertThrows(CompletionException.class, slow::join);
+        assertEquals(0, guard.getInFlight());
+        assertTrue(guard.toJson().contains("\"timeouts\":1"));
+    }
+
+    @Test
+    void testFailureResultCountsTowardsBreaker() {
+        for (int i = 0; i < 3; i++) {
+            assertFalse(guard.call(() -> CompletableFuture.completedFuture(false), ok -> !ok).join());
+        }
+
+        assertEquals(DownstreamGuard.State.OPEN, guard.getState());
+    }
+
+    private void openBreaker() {
+        for (int i = 0; i < 3; i++) {
+            failing();
+        }
+        assertEquals(DownstreamGuard.State.OPEN, guard.getState());
+    }
+
+    private CompletableFuture<Boolean> failing() {
+        return guard.call(() -> CompletableFuture.failedFuture(new RuntimeException("warehouse down")), ok -> !ok);
+    }
+}
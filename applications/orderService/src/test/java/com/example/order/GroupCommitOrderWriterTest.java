@@ -0,0 +1,162 @@
+package com.example.order;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GroupCommitOrderWriterTest {
+
+    private Connection connection;
+    private OrderRepository repository;
+    private GroupCommitOrderWriter writer;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:groupcommitdb;DB_CLOSE_DELAY=-1");
+        repository = new OrderRepository(connection);
+        try (Statement stmt = connection.createStatement()) {
+            TestSchema.createOrderTables(stmt);
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        if (writer != null) {
+            writer.stop();
+        }
+        try (Statement stmt = connection.createStatement()) {
+            TestSchema.dropOrderTables(stmt);
+        }
+        connection.close();
+    }
+
+    @Test
+    void testEachCallerGetsTheIdOfItsOwnOrder() throws Exception {
+        writer = new GroupCommitOrderWriter(repository, 50, 20);
+        writer.start();
+
+        List<Integer> ids = createConcurrently(16, 10, writer::createOrder);
+
+        assertEquals(160, new HashSet<>(ids).size());
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals("Customer " + i, repository.findById(ids.get(i)).getCustomerName());
+        }
+        assertEquals(160, writer.getOrders());
+        assertTrue(writer.getCommits() < 160, "expected shared commits, got " + writer.getCommits());
+    }
+
+    @Test
+    void testFailedBatchIsRetriedOrderByOrder() throws Exception {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ALTER TABLE order_items ADD CONSTRAINT positive_quantity CHECK (quantity > 0)");
+        }
+        // The batch fills up before the writer stops waiting, so all three orders share one attempt
+        writer = new GroupCommitOrderWriter(repository, 3, 10_000);
+        writer.start();
+        Order bad = order("Bad");
+        bad.getItems().get(0).setQuantity(0);
+
+        Future<Integer> first = writer.submit(order("First"));
+        Future<Integer> failing = writer.submit(bad);
+        Future<Integer> last = writer.submit(order("Last"));
+
+        assertEquals("First", repository.findById(first.get(5, TimeUnit.SECONDS)).getCustomerName());
+        assertEquals("Last", repository.findById(last.get(5, TimeUnit.SECONDS)).getCustomerName());
+        Exception e = assertThrows(Exception.class, () -> failing.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(SQLException.class, e.getCause());
+        assertEquals(2, repository.findAll().size());
+    }
+
+    @Test
+    void testSubmitRequiresRunningWriter() {
+        writer = new GroupCommitOrderWriter(repository, 10, 5);
+        assertThrows(IllegalStateException.class, () -> writer.submit(order("John Doe")));
+    }
+
+    /**
+     * Load comparison: the same burst of concurrent order creations written one transaction per order and
+     * through the group-commit writer. Commit counts are asserted; orders/s is printed for comparison,
+     * and on an in-memory database says little about the fsync savings on a real one.
+     */
+    @Test
+    void testGroupCommitNeedsFewerCommitsThanOnePerOrder() throws Exception {
+        int threads = 32;
+        int perThread = 25;
+
+        long started = System.nanoTime();
+        createConcurrently(threads, perThread, repository::createOrder);
+        double direct = ordersPerSecond(threads * perThread, started);
+
+        writer = new GroupCommitOrderWriter(repository, 100, 5);
+        writer.start();
+        started = System.nanoTime();
+        createConcurrently(threads, perThread, writer::createOrder);
+        double grouped = ordersPerSecond(threads * perThread, started);
+
+        System.out.printf("GroupCommitOrderWriterTest: %d orders, one commit each: %.0f orders/s; grouped into %d commits: %.0f orders/s%n",
+                threads * perThread, direct, writer.getCommits(), grouped);
+        assertEquals(threads * perThread, writer.getOrders());
+        assertTrue(writer.getCommits() < threads * perThread / 2, "expected shared commits, got " + writer.getCommits());
+        assertEquals(2 * threads * perThread, repository.findAll().size());
+    }
+
+    private interface Creator {
+        int create(Order order) throws SQLException;
+    }
+
+    // Order i of the result was created for "Customer i"
+    private static List<Integer> createConcurrently(int threads, int perThread, Creator creator) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<List<Integer>>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                results.add(pool.submit(() -> {
+                    start.await();
+                    List<Integer> ids = new ArrayList<>();
+                    for (int i = 0; i < perThread; i++) {
+                        ids.add(creator.create(order("Customer " + (thread * perThread + i))));
+                    }
+                    return ids;
+                }));
+            }
+            start.countDown();
+            List<Integer> ids = new ArrayList<>();
+            for (Future<List<Integer>> result : results) {
+                ids.addAll(result.get(30, TimeUnit.SECONDS));
+            }
+            return ids;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static double ordersPerSecond(int orders, long startedNanos) {
+        return orders / ((System.nanoTime() - startedNanos) / 1e9);
+    }
+
+    private static Order order(String customer) {
+        Order order = new Order();
+        order.setCustomerName(customer);
+        order.setStatus("PENDING");
+        order.setTotalAmount(10.0);
+        order.addItem(new OrderItem(1, 1));
+        return order;
+    }
+}
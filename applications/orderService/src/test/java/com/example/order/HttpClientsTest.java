@@ -0,0 +1,94 @@
+package com.example.order;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpClientsTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private final AtomicInteger tokenRequests = new AtomicInteger();
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/token", exchange -> {
+            tokenRequests.incrementAndGet();
+            respond(exchange, "{\"access_token\":\"stub-token\",\"expires_in\":300}");
+        });
+        server.createContext("/api/stock/reserve", exchange -> respond(exchange, "{}"));
+        server.createContext("/api/fulfillment/order", exchange -> respond(exchange, "{}"));
+        server.createContext("/api/loyalty/accrue", exchange -> respond(exchange, "{\"pointsAccrued\":12}"));
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void testIntegrationsShareConnectionsAndToken() {
+        HttpClient client = HttpClients.create(2);
+        KeycloakTokenService tokenService = new KeycloakTokenService(client, baseUrl + "/token", "order-client", "secret");
+        StockReservationService stock = new StockReservationService(client, baseUrl + "/api/stock/reserve", baseUrl + "/api/stock/release",
+                tokenService, 2, new DownstreamGuard("warehouse-stock", 5000, 8, 5, 10000, 1));
+        OrderFulfillmentService fulfillment = new OrderFulfillmentService(client, baseUrl + "/api/fulfillment/order",
+                tokenService, new DownstreamGuard("warehouse-fulfillment", 5000, 8, 5, 10000, 1));
+        LoyaltyIntegrationService loyalty = new LoyaltyIntegrationService(client, baseUrl + "/api/loyalty/accrue", baseUrl + "/api/loyalty/redeem",
+                tokenService, new DownstreamGuard("loyalty", 5000, 8, 5, 10000, 1));
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(stock.reserveStock(1, 1).join());
+            assertTrue(fulfillment.notifyOrderConfirmed(i).join());
+            assertEquals(12, loyalty.accruePoints("john", i, 10.0, "[]").join());
+        }
+
+        assertEquals(1, tokenRequests.get());
+        assertEquals(1, tokenService.getTokenRequests());
+        // Sequential calls to one host go over one kept-alive connection whichever integration makes them
+        assertEquals(1, clientPorts.size(), "connections opened: " + clientPorts);
+    }
+
+    @Test
+    void testConcurrentCallersShareOneTokenRequest() {
+        HttpClient client = HttpClients.create(2);
+        KeycloakTokenService tokenService = new KeycloakTokenService(client, baseUrl + "/token", "order-client", "secret");
+
+        List<CompletableFuture<String>> tokens = List.of(tokenService.getAccessToken(), tokenService.getAccessToken(), tokenService.getAccessToken());
+
+        for (CompletableFuture<String> token : tokens) {
+            assertEquals("stub-token", token.join());
+        }
+        assertEquals(1, tokenRequests.get());
+    }
+
+    private void respond(HttpExchange exchange, String body) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        exchange.getRequestBody().readAllBytes();
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.order;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdempotencyKeyRepositoryTest {
+
+    private Connection connection;
+    private IdempotencyKeyRepository repository;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:idempotencydb;DB_CLOSE_DELAY=-1");
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE idempotency_keys (idempotency_key VARCHAR(255) PRIMARY KEY, order_id INT, response_status INT, response_body VARCHAR(4000), " +
+                         "request_hash VARCHAR(64), claimed_at TIMESTAMP, created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+        }
+        repository = new IdempotencyKeyRepository(connection, 2);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DROP TABLE idempotency_keys");
+        }
+        connection.close();
+    }
+
+    @Test
+    void testClaimNewKey() throws SQLException {
+        assertNull(repository.claim("key-1", "fp"));
+
+        StoredResponse second = repository.claim("key-1", "fp");
+        assertNotNull(second);
+        assertTrue(second.isInProgress());
+        assertTrue(connection.getAutoCommit());
+    }
+
+    @Test
+    void testCompletedResponseIsReplayed() throws SQLException {
+        assertNull(repository.claim("key-1", "fp"));
+        repository.complete("key-1", 7, 200, "{\"orderId\":7}");
+
+        StoredResponse replay = repository.claim("key-1", "fp");
+        assertEquals(200, replay.getStatusCode());
+        assertEquals("{\"orderId\":7}", replay.getBody());
+    }
+
+    @Test
+    void testOtherReplicaSeesCompletedResponse() throws SQLException {
+        assertNull(repository.claim("key-1", "fp"));
+        repository.complete("key-1", 7, 409, "{\"status\":\"REJECTED\"}");
+
+        IdempotencyKeyRepository otherReplica = new IdempotencyKeyRepository(connection, 2);
+        StoredResponse replay = otherReplica.claim("key-1", "fp");
+        assertEquals(409, replay.getStatusCode());
+        assertEquals("{\"status\":\"REJECTED\"}", replay.getBody());
+    }
+
+    @Test
+    void testEvictedKeyIsStillFoundInDatabase() throws SQLException {
+        for (int i = 1; i <= 3; i++) {
+            assertNull(repository.claim("key-" + i, "fp"));
+            repository.complete("key-" + i, i, 200, "{\"orderId\":" + i + "}");
+        }
+
+        // key-1 has dropped out of the two-entry cache
+        assertEquals("{\"orderId\":1}", repository.claim("key-1", "fp").getBody());
+    }
+
+    @Test
+    void testReleasedKeyCanBeClaimedAgain() throws SQLException {
+        assertNull(repository.claim("key-1", "fp"));
+        repository.release("key-1");
+
+        assertNull(repository.claim("key-1", "fp"));
+    }
+
+    @Test
+    void testCompleteWaitsForAnotherThreadsTransaction() throws Exception {
+        assertNull(repository.claim("key-1", "fp"));
+        CountDownLatch inTransaction = new CountDownLatch(1);
+        CompletableFuture<Void> finish = new CompletableFuture<>();
+        Thread other = new Thread(() -> {
+            try {
+                Transactions.run(connection, () -> {
+                    try (Statement stmt = connection.createStatement()) {
+                        stmt.execute("INSERT INTO idempotency_keys (idempotency_key) VALUES ('key-2')");
+                    }
+                    inTransaction.countDown();
+                    finish.join();
+                    throw new SQLException("rolled back");
+                });
+            } catch (SQLException expected) {
+                // the transaction rolls back
+            }
+        });
+        other.start();
+        assertTrue(inTransaction.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<Void> completion = CompletableFuture.runAsync(() -> {
+            try {
+                repository.complete("key-1", 7, 200, "{\"orderId\":7}");
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(200);
+        assertFalse(completion.isDone());
+
+        finish.complete(null);
+        completion.get(5, TimeUnit.SECONDS);
+        other.join();
+
+        // The other thread's rollback did not take the completed response with it
+        IdempotencyKeyRepository otherReplica = new IdempotencyKeyRepository(connection, 2);
+        assertEquals(200, otherReplica.claim("key-1", "fp").getStatusCode());
+        assertNull(otherReplica.claim("key-2", "fp"));
+    }
+
+    @Test
+    void testStoredResponseKeepsFingerprint() throws SQLException {
+        assertNull(repository.claim("key-1", "fp"));
+        repository.complete("key-1", 7, 200, "{\"orderId\":7}");
+
+        assertTrue(repository.claim("key-1", "fp").matches("fp"));
+        assertFalse(repository.claim("key-1", "fp").matches("other"));
+        IdempotencyKeyRepository otherReplica = new IdempotencyKeyRepository(connection, 2);
+        assertFalse(otherReplica.claim("key-1", "other").matches("other"));
+    }
+
+    @Test
+    void testStaleClaimIsTakenOver() throws SQLException {
+        IdempotencyKeyRepository shortTimeout = new IdempotencyKeyRepository(connection, 2, 1000);
+        assertNull(shortTimeout.claim("key-1", "fp"));
+        assertTrue(shortTimeout.claim("key-1", "fp").isInProgress());
+
+        ageClaim("key-1", 5000);
+        // The first request holding the key died; one retry takes over and the next sees it in progress
+        assertNull(shortTimeout.claim("key-1", "fp"));
+        assertTrue(shortTimeout.claim("key-1", "fp").isInProgress());
+    }
+
+    @Test
+    void testStaleClaimIsNotTakenOverByAnotherRequest() throws SQLException {
+        IdempotencyKeyRepository shortTimeout = new IdempotencyKeyRepository(connection, 2, 1000);
+        assertNull(shortTimeout.claim("key-1", "fp"));
+        ageClaim("key-1", 5000);
+
+        StoredResponse stored = shortTimeout.claim("key-1", "other");
+        assertTrue(stored.isInProgress());
+        assertFalse(stored.matches("other"));
+    }
+
+    @Test
+    void testPurgeDeletesOldKeys() throws SQLException {
+        assertNull(repository.claim("key-1", "fp"));
+        repository.complete("key-1", 7, 200, "{\"orderId\":7}");
+        assertNull(repository.claim("key-2", "fp"));
+
+        assertEquals(0, repository.purgeCreatedBefore(new Timestamp(System.currentTimeMillis() - 60_000)));
+        assertEquals(2, repository.purgeCreatedBefore(new Timestamp(System.currentTimeMillis() + 60_000)));
+
+        // Neither the table nor the cache remembers the purged response
+        assertNull(repository.claim("key-1", "fp"));
+    }
+
+    private void ageClaim(String key, long ageMs) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("UPDATE idempotency_keys SET claimed_at = ? WHERE idempotency_key = ?")) {
+            stmt.setTimestamp(1, new Timestamp(System.currentTimeMillis() - ageMs));
+            stmt.setString(2, key);
+            stmt.executeUpdate();
+        }
+    }
+}
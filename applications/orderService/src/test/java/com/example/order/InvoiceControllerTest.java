@@ -4,6 +4,7 @@ import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
@@ -16,9 +17,15 @@ import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.Collections;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.*;
 
 class InvoiceControllerTest {
@@ -29,6 +36,9 @@ class InvoiceControllerTest {
     @Mock
     private OrderRepository orderRepository;
 
+    @Mock
+    private StreamingExporter exporter;
+
     @Mock
     private HttpExchange exchange;
 
@@ -39,7 +49,7 @@ class InvoiceControllerTest {
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        controller = new InvoiceController(repository, orderRepository);
+        controller = new InvoiceController(repository, orderRepository, exporter);
         responseHeaders = new Headers();
         responseBody = new ByteArrayOutputStream();
 
@@ -59,7 +69,7 @@ class InvoiceControllerTest {
         i2.setId(2);
         i2.setPaid(true);
 
-        when(repository.findAll()).thenReturn(Arrays.asList(i1, i2));
+        when(repository.findPage(any(InvoiceFilter.class), isNull(), eq(50))).thenReturn(Arrays.asList(i1, i2));
 
         controller.handle(exchange);
 
@@ -71,6 +81,55 @@ class InvoiceControllerTest {
         assertTrue(response.contains("Mark Paid"));
     }
 
+    @Test
+    void testHandle_ListInvoicesFilteredAndPaged() throws IOException, SQLException {
+        when(exchange.getRequestMethod()).thenReturn("GET");
+        when(exchange.getRequestURI()).thenReturn(URI.create("/invoices?state=overdue&customer=John+Doe&dueFrom=2024-01-01&dueTo=2024-02-01&afterId=40&limit=2"));
+        Invoice i1 = new Invoice(101, "John Doe", 100.0, LocalDate.of(2024, 1, 10));
+        i1.setId(39);
+        Invoice i2 = new Invoice(102, "John Doe", 50.0, LocalDate.of(2024, 1, 20));
+        i2.setId(35);
+        ArgumentCaptor<InvoiceFilter> filter = ArgumentCaptor.forClass(InvoiceFilter.class);
+        when(repository.findPage(filter.capture(), eq(40), eq(2))).thenReturn(Arrays.asList(i1, i2));
+
+        controller.handle(exchange);
+
+        verify(exchange).sendResponseHeaders(eq(200), anyLong());
+        assertEquals(InvoiceFilter.PaymentState.OVERDUE, filter.getValue().getPaymentState());
+        assertEquals("John Doe", filter.getValue().getCustomerName());
+        assertEquals(LocalDate.of(2024, 1, 1), filter.getValue().getDueFrom());
+        assertEquals(LocalDate.of(2024, 2, 1), filter.getValue().getDueTo());
+        String response = responseBody.toString();
+        assertTrue(response.contains("/invoices?state=overdue&amp;customer=John+Doe&amp;dueFrom=2024-01-01&amp;dueTo=2024-02-01&amp;afterId=35&amp;limit=2"));
+        assertTrue(response.contains("Newest"));
+        verify(repository, never()).findAll();
+    }
+
+    @Test
+    void testHandle_ListInvoicesEscapesCustomer() throws IOException, SQLException {
+        when(exchange.getRequestMethod()).thenReturn("GET");
+        when(exchange.getRequestURI()).thenReturn(URI.create("/invoices?customer=%3Cscript%3E"));
+        when(repository.findPage(any(InvoiceFilter.class), isNull(), anyInt())).thenReturn(Collections.emptyList());
+
+        controller.handle(exchange);
+
+        String response = responseBody.toString();
+        assertFalse(response.contains("<script>"));
+        assertTrue(response.contains("&lt;script&gt;"));
+        assertFalse(response.contains("Older Invoices"));
+    }
+
+    @Test
+    void testHandle_ListInvoicesRejectsBadFilter() throws IOException, SQLException {
+        when(exchange.getRequestMethod()).thenReturn("GET");
+        when(exchange.getRequestURI()).thenReturn(URI.create("/invoices?state=lost"));
+
+        controller.handle(exchange);
+
+        verify(exchange).sendResponseHeaders(eq(400), anyLong());
+        verify(repository, never()).findPage(any(), any(), anyInt());
+    }
+
     @Test
     void testHandle_MarkPaid() throws IOException, SQLException {
         when(exchange.getRequestMethod()).thenReturn("POST");
@@ -105,4 +164,15 @@ class InvoiceControllerTest {
         verifyNoInteractions(orderRepository);
         verify(exchange).sendResponseHeaders(eq(302), anyLong());
     }
+
+    @Test
+    void testHandle_ExportInvoices() throws IOException, SQLException {
+        when(exchange.getRequestMethod()).thenReturn("GET");
+        when(exchange.getRequestURI()).thenReturn(URI.create("/invoices/export?from=2024-01-01&gzip=true"));
+
+        controller.handle(exchange);
+
+        verify(exporter).exportInvoices(eq(LocalDate.of(2024, 1, 1)), isNull(), eq(OrderImporter.Format.CSV), any());
+        verify(repository, never()).findPage(any(), any(), anyInt());
+    }
 }
@@ -23,7 +23,8 @@ class InvoiceRepositoryTest {
         connection = DriverManager.getConnection("jdbc:h2:mem:testdb;DB_CLOSE_DELAY=-1");
         repository = new InvoiceRepository(connection);
         try (Statement stmt = connection.createStatement()) {
-            stmt.execute("CREATE TABLE invoices (id INT AUTO_INCREMENT PRIMARY KEY, order_id INT, customer_name VARCHAR(255), amount DOUBLE, due_date DATE, paid BOOLEAN)");
+            TestSchema.createInvoices(stmt);
+            stmt.execute("CREATE TABLE customer_credit (customer_name VARCHAR(255) PRIMARY KEY, outstanding_amount DECIMAL(12, 2), earliest_unpaid_due DATE, updated_at TIMESTAMP)");
         }
     }
 
@@ -31,6 +32,7 @@ class InvoiceRepositoryTest {
     void tearDown() throws SQLException {
         try (Statement stmt = connection.createStatement()) {
             stmt.execute("DROP TABLE invoices");
+            stmt.execute("DROP TABLE customer_credit");
         }
         connection.close();
     }
@@ -67,4 +69,95 @@ class InvoiceRepositoryTest {
         Invoice updated = repository.findById(id);
         assertTrue(updated.isPaid());
     }
+
+    @Test
+    void testCreditFollowsInvoices() throws SQLException {
+        LocalDate today = LocalDate.now();
+        repository.createInvoice(new Invoice(101, "John Doe", 150.0, today.plusDays(30)));
+        repository.createInvoice(new Invoice(102, "John Doe", 50.0, today.minusDays(2)));
+        repository.createInvoice(new Invoice(103, "Jane Doe", 75.0, today.plusDays(10)));
+
+        CustomerCredit credit = repository.findCredit("John Doe");
+        assertEquals(200.0, credit.getOutstandingAmount(), 0.001);
+        assertEquals(today.minusDays(2), credit.getEarliestUnpaidDueDate());
+        assertTrue(credit.hasOverdueInvoices(today));
+
+        int overdueId = repository.findByCustomer("John Doe").stream().filter(i -> i.getOrderId() == 102).findFirst().get().getId();
+        repository.markPaid(overdueId);
+        repository.markPaid(overdueId);
+
+        credit = repository.findCredit("John Doe");
+        assertEquals(150.0, credit.getOutstandingAmount(), 0.001);
+        assertEquals(today.plusDays(30), credit.getEarliestUnpaidDueDate());
+        assertFalse(credit.hasOverdueInvoices(today));
+        assertEquals(75.0, repository.findCredit("Jane Doe").getOutstandingAmount(), 0.001);
+    }
+
+    @Test
+    void testCreditForUnknownCustomerIsEmpty() throws SQLException {
+        CustomerCredit credit = repository.findCredit("Nobody");
+
+        assertEquals(0.0, credit.getOutstandingAmount());
+        assertNull(credit.getEarliestUnpaidDueDate());
+    }
+
+    @Test
+    void testRebuildCreditFromExistingInvoices() throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("INSERT INTO invoices (order_id, customer_name, amount, due_date, paid) VALUES (1, 'John Doe', 100, DATE '2024-01-10', false)");
+            stmt.execute("INSERT INTO invoices (order_id, customer_name, amount, due_date, paid) VALUES (2, 'John Doe', 40, DATE '2024-01-05', false)");
+            stmt.execute("INSERT INTO invoices (order_id, customer_name, amount, due_date, paid) VALUES (3, 'John Doe', 999, DATE '2023-01-01', true)");
+        }
+
+        repository.rebuildCreditIfEmpty();
+        repository.rebuildCreditIfEmpty();
+
+        CustomerCredit credit = repository.findCredit("John Doe");
+        assertEquals(140.0, credit.getOutstandingAmount(), 0.001);
+        assertEquals(LocalDate.of(2024, 1, 5), credit.getEarliestUnpaidDueDate());
+    }
+
+    @Test
+    void testFindPageWalksNewestFirst() throws SQLException {
+        for (int i = 1; i <= 5; i++) {
+            repository.createInvoice(new Invoice(100 + i, "John Doe", 10.0, LocalDate.now().plusDays(i)));
+        }
+        InvoiceFilter all = new InvoiceFilter();
+
+        List<Invoice> first = repository.findPage(all, null, 2);
+        List<Invoice> second = repository.findPage(all, first.get(1).getId(), 2);
+        List<Invoice> last = repository.findPage(all, second.get(1).getId(), 2);
+
+        assertEquals(List.of(105, 104), first.stream().map(Invoice::getOrderId).toList());
+        assertEquals(List.of(103, 102), second.stream().map(Invoice::getOrderId).toList());
+        assertEquals(List.of(101), last.stream().map(Invoice::getOrderId).toList());
+    }
+
+    @Test
+    void testFindPageFilters() throws SQLException {
+        LocalDate today = LocalDate.now();
+        repository.createInvoice(new Invoice(101, "John Doe", 10.0, today.minusDays(5)));
+        repository.createInvoice(new Invoice(102, "John Doe", 10.0, today.plusDays(5)));
+        repository.createInvoice(new Invoice(103, "Jane Doe", 10.0, today.minusDays(3)));
+        repository.createInvoice(new Invoice(104, "Jane Doe", 10.0, today.minusDays(1)));
+        repository.markPaid(repository.findByCustomer("Jane Doe").stream().filter(i -> i.getOrderId() == 104).findFirst().get().getId());
+
+        InvoiceFilter overdue = new InvoiceFilter();
+        overdue.setPaymentState(InvoiceFilter.PaymentState.OVERDUE);
+        assertEquals(List.of(103, 101), repository.findPage(overdue, null, 10).stream().map(Invoice::getOrderId).toList());
+
+        InvoiceFilter paid = new InvoiceFilter();
+        paid.setPaymentState(InvoiceFilter.PaymentState.PAID);
+        assertEquals(List.of(104), repository.findPage(paid, null, 10).stream().map(Invoice::getOrderId).toList());
+
+        InvoiceFilter johnUnpaid = new InvoiceFilter();
+        johnUnpaid.setCustomerName("John Doe");
+        johnUnpaid.setPaymentState(InvoiceFilter.PaymentState.UNPAID);
+        assertEquals(List.of(102, 101), repository.findPage(johnUnpaid, null, 10).stream().map(Invoice::getOrderId).toList());
+
+        InvoiceFilter dueRange = new InvoiceFilter();
+        dueRange.setDueFrom(today.minusDays(3));
+        dueRange.setDueTo(today.minusDays(1));
+        assertEquals(List.of(104, 103), repository.findPage(dueRange, null, 10).stream().map(Invoice::getOrderId).toList());
+    }
 }
@@ -15,17 +15,27 @@ import java.io.InputStream;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.ArgumentMatchers.anyString;
-import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.contains;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.*;
 
 class OrderControllerTest {
@@ -35,14 +45,18 @@ class OrderControllerTest {
     @Mock
     private StockReservationService mockStockService;
     @Mock
-    private OrderFulfillmentService mockFulfillmentService;
-    @Mock
     private CreditService mockCreditService;
     @Mock
     private InvoiceRepository mockInvoiceRepository;
     @Mock
     private LoyaltyIntegrationService mockLoyaltyService;
     @Mock
+    private OutboxRepository mockOutboxRepository;
+    @Mock
+    private IdempotencyKeyRepository mockIdempotencyKeys;
+    @Mock
+    private StreamingExporter mockExporter;
+    @Mock
     private HttpExchange mockExchange;
 
     private OrderController controller;
@@ -51,10 +65,11 @@ class OrderControllerTest {
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        controller = new OrderController(mockRepo, mockStockService, mockFulfillmentService, mockCreditService, mockInvoiceRepository, mockLoyaltyService);
+        controller = new OrderController(mockRepo, mockStockService, mockCreditService, mockInvoiceRepository, mockLoyaltyService, mockOutboxRepository, mockIdempotencyKeys, mockExporter);
         responseBody = new ByteArrayOutputStream();
         when(mockExchange.getResponseBody()).thenReturn(responseBody);
         when(mockExchange.getResponseHeaders()).thenReturn(new Headers());
+        when(mockExchange.getRequestHeaders()).thenReturn(new Headers());
     }
 
     @Test
@@ -65,7 +80,7 @@ class OrderControllerTest {
         when(mockExchange.getRequestBody()).thenReturn(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
         
         when(mockRepo.createOrder(any(Order.class))).thenReturn(101);
-        when(mockStockService.reserveStock(anyInt(), anyInt())).thenReturn(CompletableFuture.completedFuture(true));
+        when(mockStockService.reserveAll(anyList())).thenReturn(CompletableFuture.completedFuture(true));
         when(mockLoyaltyService.redeemPoints(anyString(), anyInt(), anyInt())).thenReturn(CompletableFuture.completedFuture(true));
 
         controller.handle(mockExchange);
@@ -80,6 +95,105 @@ class OrderControllerTest {
         verify(mockExchange).sendResponseHeaders(eq(200), anyLong());
     }
 
+    @Test
+    void testHandleCreateOrder_UsesGroupCommitWriterWhenConfigured() throws IOException, SQLException {
+        GroupCommitOrderWriter writer = mock(GroupCommitOrderWriter.class);
+        controller = new OrderController(mockRepo, mockStockService, mockCreditService, mockInvoiceRepository, mockLoyaltyService, mockOutboxRepository, mockIdempotencyKeys, mockExporter, writer);
+        String json = "{\"customerName\":\"John Doe\",\"items\":[{\"productId\":1,\"quantity\":2}]}";
+        when(mockExchange.getRequestMethod()).thenReturn("POST");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders"));
+        when(mockExchange.getRequestBody()).thenReturn(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        when(writer.createOrder(any(Order.class))).thenReturn(202);
+        when(mockStockService.reserveAll(anyList())).thenReturn(CompletableFuture.completedFuture(true));
+
+        controller.handle(mockExchange);
+
+        verify(writer).createOrder(any(Order.class));
+        verify(mockRepo, never()).createOrder(any(Order.class));
+        verify(mockRepo).updateStatus(202, "PENDING_CONFIRMATION");
+        assertTrue(responseBody.toString().contains("\"orderId\":202"));
+    }
+
+    @Test
+    void testHandleCreateOrder_RecordsResponseForIdempotencyKey() throws IOException, SQLException {
+        String json = "{\"customerName\":\"John Doe\",\"items\":[{\"productId\":1,\"quantity\":1}]}";
+        Headers requestHeaders = new Headers();
+        requestHeaders.set("Idempotency-Key", "checkout-1");
+        when(mockExchange.getRequestHeaders()).thenReturn(requestHeaders);
+        when(mockExchange.getRequestMethod()).thenReturn("POST");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders"));
+        when(mockExchange.getRequestBody()).thenReturn(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        when(mockIdempotencyKeys.claim(eq("checkout-1"), anyString())).thenReturn(null);
+        when(mockRepo.createOrder(any(Order.class))).thenReturn(101);
+        when(mockStockService.reserveAll(anyList())).thenReturn(CompletableFuture.completedFuture(true));
+
+        controller.handle(mockExchange);
+
+        verify(mockIdempotencyKeys).complete(eq("checkout-1"), eq(101), eq(200), contains("PENDING_CONFIRMATION"));
+        verify(mockExchange).sendResponseHeaders(eq(200), anyLong());
+    }
+
+    @Test
+    void testHandleCreateOrder_ReplaysResponseForRepeatedIdempotencyKey() throws IOException, SQLException {
+        Headers requestHeaders = new Headers();
+        requestHeaders.set("Idempotency-Key", "checkout-1");
+        when(mockExchange.getRequestHeaders()).thenReturn(requestHeaders);
+        when(mockExchange.getRequestMethod()).thenReturn("POST");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders"));
+        String json = "{\"customerName\":\"John Doe\",\"items\":[{\"productId\":1,\"quantity\":1}]}";
+        when(mockExchange.getRequestBody()).thenReturn(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        String original = "{\"status\":\"PENDING_CONFIRMATION\", \"orderId\":101}";
+        String fingerprint = IdempotencyKeyRepository.fingerprint("John Doe", json);
+        when(mockIdempotencyKeys.claim("checkout-1", fingerprint)).thenReturn(new StoredResponse(200, original, fingerprint));
+
+        controller.handle(mockExchange);
+
+        verify(mockRepo, never()).createOrder(any());
+        verifyNoInteractions(mockStockService, mockLoyaltyService);
+        verify(mockExchange).sendResponseHeaders(eq(200), anyLong());
+        assertEquals(original, responseBody.toString());
+    }
+
+    @Test
+    void testHandleCreateOrder_RejectsKeyStillInProgress() throws IOException, SQLException {
+        Headers requestHeaders = new Headers();
+        requestHeaders.set("Idempotency-Key", "checkout-1");
+        when(mockExchange.getRequestHeaders()).thenReturn(requestHeaders);
+        when(mockExchange.getRequestMethod()).thenReturn("POST");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders"));
+        when(mockExchange.getRequestBody()).thenReturn(new ByteArrayInputStream("{\"customerName\":\"John Doe\"}".getBytes(StandardCharsets.UTF_8)));
+
+        when(mockIdempotencyKeys.claim(eq("checkout-1"), anyString())).thenReturn(new StoredResponse(0, null));
+
+        controller.handle(mockExchange);
+
+        verify(mockRepo, never()).createOrder(any());
+        verify(mockExchange).sendResponseHeaders(eq(409), anyLong());
+    }
+
+    @Test
+    void testHandleCreateOrder_RejectsKeyReusedForAnotherRequest() throws IOException, SQLException {
+        Headers requestHeaders = new Headers();
+        requestHeaders.set("Idempotency-Key", "checkout-1");
+        when(mockExchange.getRequestHeaders()).thenReturn(requestHeaders);
+        when(mockExchange.getRequestMethod()).thenReturn("POST");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders"));
+        String json = "{\"customerName\":\"Jane Doe\",\"items\":[{\"productId\":1,\"quantity\":1}]}";
+        when(mockExchange.getRequestBody()).thenReturn(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        String johnsResponse = "{\"status\":\"PENDING_CONFIRMATION\", \"orderId\":101}";
+        String johnsFingerprint = IdempotencyKeyRepository.fingerprint("John Doe", json.replace("Jane", "John"));
+        when(mockIdempotencyKeys.claim(eq("checkout-1"), anyString())).thenReturn(new StoredResponse(200, johnsResponse, johnsFingerprint));
+
+        controller.handle(mockExchange);
+
+        verify(mockRepo, never()).createOrder(any());
+        verify(mockExchange).sendResponseHeaders(eq(422), anyLong());
+        assertFalse(responseBody.toString().contains("101"));
+    }
+
     @Test
     void testHandleCreateOrder_RedemptionFailed() throws IOException, SQLException {
         String json = "{\"customerName\":\"John Doe\",\"pointsToRedeem\":100,\"items\":[{\"productId\":1,\"quantity\":1}]}";
@@ -105,7 +219,7 @@ class OrderControllerTest {
         
         when(mockRepo.createOrder(any(Order.class))).thenReturn(101);
         when(mockLoyaltyService.redeemPoints(anyString(), anyInt(), anyInt())).thenReturn(CompletableFuture.completedFuture(true));
-        when(mockStockService.reserveStock(anyInt(), anyInt())).thenReturn(CompletableFuture.completedFuture(false));
+        when(mockStockService.reserveAll(anyList())).thenReturn(CompletableFuture.completedFuture(false));
 
         controller.handle(mockExchange);
 
@@ -113,13 +227,117 @@ class OrderControllerTest {
         verify(mockExchange).sendResponseHeaders(eq(409), anyLong());
     }
 
+    @Test
+    void testHandleCreateOrder_CreditRefusedBeforeRemoteCalls() throws IOException, SQLException {
+        String json = "{\"customerName\":\"John Doe\",\"pointsToRedeem\":10,\"items\":[{\"productId\":1,\"quantity\":1}]}";
+        when(mockExchange.getRequestMethod()).thenReturn("POST");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders"));
+        when(mockExchange.getRequestBody()).thenReturn(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        when(mockCreditService.checkOrder("John Doe")).thenReturn(CreditService.OVERDUE_INVOICES);
+        ArgumentCaptor<Order> captor = ArgumentCaptor.forClass(Order.class);
+        when(mockRepo.createOrder(captor.capture())).thenReturn(101);
+
+        controller.handle(mockExchange);
+
+        assertEquals("CREDIT_REJECTED", captor.getValue().getStatus());
+        verify(mockLoyaltyService, never()).redeemPoints(anyString(), anyInt(), anyInt());
+        verify(mockStockService, never()).reserveAll(anyList());
+        verify(mockExchange).sendResponseHeaders(eq(409), anyLong());
+        assertEquals("{\"status\":\"CREDIT_REJECTED\", \"reason\":\"OVERDUE_INVOICES\", \"orderId\":101}", responseBody.toString());
+    }
+
+    @Test
+    void testHandleCreateOrder_WarehouseUnavailableFailsFast() throws IOException, SQLException {
+        String json = "{\"customerName\":\"John Doe\",\"items\":[{\"productId\":1,\"quantity\":1}]}";
+        when(mockExchange.getRequestMethod()).thenReturn("POST");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders"));
+        when(mockExchange.getRequestBody()).thenReturn(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        when(mockRepo.createOrder(any(Order.class))).thenReturn(101);
+        when(mockStockService.reserveAll(anyList())).thenReturn(CompletableFuture.failedFuture(
+                new DownstreamUnavailableException("warehouse-stock", "circuit breaker open", 7000)));
+        Headers responseHeaders = new Headers();
+        when(mockExchange.getResponseHeaders()).thenReturn(responseHeaders);
+
+        controller.handle(mockExchange);
+
+        verify(mockRepo).updateStatus(101, "REJECTED");
+        verify(mockExchange).sendResponseHeaders(eq(503), anyLong());
+        assertEquals("7", responseHeaders.getFirst("Retry-After"));
+        assertEquals("{\"status\":\"UNAVAILABLE\", \"orderId\":101}", responseBody.toString());
+    }
+
+    @Test
+    void testHandleCreateOrder_ReleasesIdempotencyKeyOnUnavailable() throws IOException, SQLException {
+        String json = "{\"customerName\":\"John Doe\",\"items\":[{\"productId\":1,\"quantity\":1}]}";
+        Headers requestHeaders = new Headers();
+        requestHeaders.set("Idempotency-Key", "checkout-1");
+        when(mockExchange.getRequestHeaders()).thenReturn(requestHeaders);
+        when(mockExchange.getRequestMethod()).thenReturn("POST");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders"));
+        when(mockExchange.getRequestBody()).thenReturn(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        when(mockIdempotencyKeys.claim(eq("checkout-1"), anyString())).thenReturn(null);
+        when(mockRepo.createOrder(any(Order.class))).thenReturn(101, 102);
+        when(mockStockService.reserveAll(anyList())).thenReturn(
+                CompletableFuture.failedFuture(new DownstreamUnavailableException("warehouse-stock", "circuit breaker open", 7000)),
+                CompletableFuture.completedFuture(true));
+
+        controller.handle(mockExchange);
+
+        verify(mockExchange).sendResponseHeaders(eq(503), anyLong());
+        verify(mockIdempotencyKeys).release("checkout-1");
+        verify(mockIdempotencyKeys, never()).complete(eq("checkout-1"), anyInt(), eq(503), anyString());
+
+        // The retry with the same key is processed instead of being answered with the stored 503
+        controller.handle(mockExchange);
+
+        verify(mockExchange).sendResponseHeaders(eq(200), anyLong());
+        verify(mockIdempotencyKeys).complete("checkout-1", 102, 200, "{\"status\":\"PENDING_CONFIRMATION\", \"orderId\":102}");
+    }
+
+    @Test
+    void testHandleCreateOrder_RetryAfterUnavailableDoesNotRedeemPointsTwice() throws IOException, SQLException {
+        String json = "{\"customerName\":\"John Doe\",\"pointsToRedeem\":50,\"items\":[{\"productId\":1,\"quantity\":1}]}";
+        Headers requestHeaders = new Headers();
+        requestHeaders.set("Idempotency-Key", "checkout-2");
+        when(mockExchange.getRequestHeaders()).thenReturn(requestHeaders);
+        when(mockExchange.getRequestMethod()).thenReturn("POST");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders"));
+        when(mockExchange.getRequestBody()).thenReturn(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        StoredResponse[] stored = new StoredResponse[1];
+        when(mockIdempotencyKeys.claim(eq("checkout-2"), anyString())).thenAnswer(invocation -> stored[0]);
+        doAnswer(invocation -> {
+            stored[0] = new StoredResponse(invocation.getArgument(2), invocation.getArgument(3));
+            return null;
+        }).when(mockIdempotencyKeys).complete(eq("checkout-2"), anyInt(), anyInt(), anyString());
+        when(mockRepo.createOrder(any(Order.class))).thenReturn(101, 102);
+        when(mockLoyaltyService.redeemPoints(anyString(), anyInt(), anyInt())).thenReturn(CompletableFuture.completedFuture(true));
+        when(mockStockService.reserveAll(anyList())).thenReturn(
+                CompletableFuture.failedFuture(new DownstreamUnavailableException("warehouse-stock", "circuit breaker open", 7000)),
+                CompletableFuture.completedFuture(true));
+
+        controller.handle(mockExchange);
+        controller.handle(mockExchange);
+
+        // The points are gone, so the answer is final and the retry replays it instead of ordering again
+        verify(mockIdempotencyKeys, never()).release("checkout-2");
+        verify(mockIdempotencyKeys).complete("checkout-2", 101, 409, "{\"status\":\"REJECTED\", \"orderId\":101}");
+        verify(mockExchange, times(2)).sendResponseHeaders(eq(409), anyLong());
+        verify(mockLoyaltyService, times(1)).redeemPoints("John Doe", 101, 50);
+        verify(mockRepo, times(1)).createOrder(any(Order.class));
+    }
+
     @Test
     void testHandleListOrders_ReturnsHtml() throws IOException, SQLException {
         when(mockExchange.getRequestMethod()).thenReturn("GET");
         when(mockExchange.getRequestURI()).thenReturn(URI.create("/orders"));
 
         Order o1 = new Order(1, "John Doe", "PENDING");
-        when(mockRepo.findAll()).thenReturn(Collections.singletonList(o1));
+        when(mockRepo.findPage(null, 50, false)).thenReturn(Collections.singletonList(o1));
 
         controller.handle(mockExchange);
 
@@ -129,19 +347,247 @@ class OrderControllerTest {
         assertTrue(response.contains("John Doe"));
     }
 
+    @Test
+    void testHandleListOrders_ShowsStatusCounts() throws IOException, SQLException {
+        when(mockExchange.getRequestMethod()).thenReturn("GET");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/orders"));
+        when(mockRepo.findPage(null, 50, false)).thenReturn(Collections.emptyList());
+        when(mockRepo.statusCounts()).thenReturn(Map.of("PENDING", 7L, "ON_HOLD<b>", 2L));
+
+        controller.handle(mockExchange);
+
+        String response = responseBody.toString();
+        assertTrue(response.contains("<strong>7</strong>PENDING"));
+        assertTrue(response.contains("<strong>0</strong>SHIPPED"));
+        assertTrue(response.contains("<strong>2</strong>ON_HOLD&lt;b&gt;"));
+    }
+
+    @Test
+    void testHandleListOrders_KeysetPagination() throws IOException, SQLException {
+        when(mockExchange.getRequestMethod()).thenReturn("GET");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/orders?afterId=10&limit=2"));
+
+        when(mockRepo.findPage(10, 2, false)).thenReturn(Arrays.asList(new Order(9, "John Doe", "PENDING"), new Order(7, "Jane Doe", "PENDING")));
+
+        controller.handle(mockExchange);
+
+        verify(mockRepo, never()).findAll();
+        verify(mockExchange).sendResponseHeaders(eq(200), anyLong());
+        assertTrue(responseBody.toString().contains("/orders?afterId=7&limit=2"));
+    }
+
+    @Test
+    void testHandleListOrders_OffersHistoryWhenHotWindowExhausted() throws IOException, SQLException {
+        when(mockExchange.getRequestMethod()).thenReturn("GET");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/orders?limit=2"));
+
+        when(mockRepo.findPage(null, 2, false)).thenReturn(Collections.singletonList(new Order(9, "John Doe", "PENDING")));
+
+        controller.handle(mockExchange);
+
+        assertTrue(responseBody.toString().contains("/orders?afterId=9&limit=2&scope=all"));
+    }
+
+    @Test
+    void testHandleApiListOrders_HistoryScope() throws IOException, SQLException {
+        when(mockExchange.getRequestMethod()).thenReturn("GET");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders?scope=all"));
+
+        when(mockRepo.findPage(null, 50, true)).thenReturn(Collections.singletonList(new Order(1, "John Doe", "DELIVERED")));
+
+        controller.handle(mockExchange);
+
+        verify(mockRepo).findPage(null, 50, true);
+        assertTrue(responseBody.toString().contains("\"id\":1"));
+    }
+
+    @Test
+    void testHandleListOrders_SearchesWithFilters() throws IOException, SQLException {
+        when(mockExchange.getRequestMethod()).thenReturn("GET");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/orders?status=actionable&customerPrefix=Jo&from=2026-01-01&limit=1"));
+        Order o1 = new Order(9, "John Doe", "PENDING_CONFIRMATION");
+        o1.setCreatedAt(Timestamp.from(Instant.parse("2026-03-01T10:00:00.123456Z")));
+        when(mockRepo.search(any(), isNull(), eq(1))).thenReturn(Collections.singletonList(o1));
+
+        controller.handle(mockExchange);
+
+        ArgumentCaptor<OrderFilter> filter = ArgumentCaptor.forClass(OrderFilter.class);
+        verify(mockRepo).search(filter.capture(), isNull(), eq(1));
+        verify(mockRepo, never()).findPage(any(), anyInt(), anyBoolean());
+        assertEquals(OrderStatus.ACTIONABLE, filter.getValue().getStatuses());
+        assertEquals("Jo", filter.getValue().getCustomerPrefix());
+        assertEquals(LocalDate.of(2026, 1, 1), filter.getValue().getCreatedFrom());
+        String response = responseBody.toString();
+        assertTrue(response.contains("<option value='actionable' selected>"));
+        assertTrue(response.contains("/orders?status=actionable&amp;customerPrefix=Jo&amp;from=2026-01-01&amp;cursor=2026-03-01T10%3A00%3A00.123456Z_9&amp;limit=1"));
+        assertTrue(response.contains("Confirm"));
+    }
+
+    @Test
+    void testHandleSearchOrders_ReturnsJsonWithNextCursor() throws IOException, SQLException {
+        Headers responseHeaders = new Headers();
+        when(mockExchange.getResponseHeaders()).thenReturn(responseHeaders);
+        when(mockExchange.getRequestMethod()).thenReturn("GET");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders/search?status=SHIPPED&cursor=2026-03-02T00%3A00%3A00Z_20&limit=1"));
+        Order o1 = new Order(12, "Jane Doe", "SHIPPED");
+        o1.setCreatedAt(Timestamp.from(Instant.parse("2026-03-01T10:00:00Z")));
+        when(mockRepo.search(any(), any(), eq(1))).thenReturn(Collections.singletonList(o1));
+
+        controller.handle(mockExchange);
+
+        ArgumentCaptor<OrderFilter> filter = ArgumentCaptor.forClass(OrderFilter.class);
+        ArgumentCaptor<OrderCursor> cursor = ArgumentCaptor.forClass(OrderCursor.class);
+        verify(mockRepo).search(filter.capture(), cursor.capture(), eq(1));
+        assertEquals(Set.of(OrderStatus.SHIPPED), filter.getValue().getStatuses());
+        assertEquals(20, cursor.getValue().getId());
+        assertEquals("2026-03-01T10:00:00Z_12", responseHeaders.getFirst("X-Next-Cursor"));
+        assertEquals("[{\"id\":12,\"customerName\":\"Jane Doe\",\"status\":\"SHIPPED\",\"pointsEarned\":0,\"pointsRedeemed\":0}]", responseBody.toString());
+    }
+
+    @Test
+    void testHandleSearchOrders_UnknownStatus() throws IOException, SQLException {
+        when(mockExchange.getRequestMethod()).thenReturn("GET");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders/search?status=ON_HOLD"));
+
+        controller.handle(mockExchange);
+
+        verify(mockExchange).sendResponseHeaders(eq(400), anyLong());
+        verify(mockRepo, never()).search(any(), any(), anyInt());
+    }
+
+    @Test
+    void testHandleListOrders_InvalidLimit() throws IOException {
+        when(mockExchange.getRequestMethod()).thenReturn("GET");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/orders?limit=abc"));
+
+        controller.handle(mockExchange);
+
+        verify(mockExchange).sendResponseHeaders(eq(400), anyLong());
+    }
+
     @Test
     void testHandleApiListOrders_ReturnsJson() throws IOException, SQLException {
         when(mockExchange.getRequestMethod()).thenReturn("GET");
         when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders?customer=John%20Doe"));
 
         Order o1 = new Order(1, "John Doe", "PENDING");
-        when(mockRepo.findAll()).thenReturn(Collections.singletonList(o1));
+        when(mockRepo.findByCustomer("John Doe", null, 50, null, true)).thenReturn(Collections.singletonList(o1));
 
         controller.handle(mockExchange);
 
+        verify(mockRepo, never()).findAll();
         verify(mockExchange).sendResponseHeaders(eq(200), anyLong());
         String response = responseBody.toString();
-        assertTrue(response.contains("\"customerName\":\"John Doe\""));
+        assertEquals("[{\"id\":1,\"customerName\":\"John Doe\",\"status\":\"PENDING\",\"pointsEarned\":0,\"pointsRedeemed\":0}]", response);
+    }
+
+    @Test
+    void testHandleApiListOrders_CustomerListCanBeLimitedToHotWindow() throws IOException, SQLException {
+        when(mockExchange.getRequestMethod()).thenReturn("GET");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders?customer=John%20Doe&scope=hot"));
+        when(mockRepo.findByCustomer("John Doe", null, 50, null, false)).thenReturn(Collections.singletonList(new Order(1, "John Doe", "PENDING")));
+
+        controller.handle(mockExchange);
+
+        verify(mockRepo, never()).findByCustomer("John Doe", null, 50, null, true);
+        verify(mockExchange).sendResponseHeaders(eq(200), anyLong());
+    }
+
+    @Test
+    void testHandleApiListOrders_EscapesControlCharacters() throws IOException, SQLException {
+        when(mockExchange.getRequestMethod()).thenReturn("GET");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders?customer=John%20Doe"));
+
+        Order o1 = new Order(1, "John \"JD\"\nDoe\t\u0001", "PENDING");
+        when(mockRepo.findByCustomer("John Doe", null, 50, null, true)).thenReturn(Collections.singletonList(o1));
+
+        controller.handle(mockExchange);
+
+        assertEquals("[{\"id\":1,\"customerName\":\"John \\\"JD\\\"\\nDoe\\t\\u0001\",\"status\":\"PENDING\",\"pointsEarned\":0,\"pointsRedeemed\":0}]",
+                responseBody.toString());
+    }
+
+    @Test
+    void testHandleApiListOrders_SetsETagAndVersion() throws IOException, SQLException {
+        when(mockExchange.getRequestMethod()).thenReturn("GET");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders?customer=John%20Doe"));
+        Headers responseHeaders = new Headers();
+        when(mockExchange.getResponseHeaders()).thenReturn(responseHeaders);
+
+        when(mockRepo.findCustomerVersion("John Doe")).thenReturn(new CustomerOrdersVersion(1, 1, 7));
+        when(mockRepo.findByCustomer("John Doe", null, 50, null, true)).thenReturn(Collections.singletonList(new Order(1, "John Doe", "PENDING")));
+
+        controller.handle(mockExchange);
+
+        assertEquals("\"1-1-7;after=;limit=50;since=;scope=all\"", responseHeaders.getFirst("ETag"));
+        assertEquals("7", responseHeaders.getFirst("X-Orders-Version"));
+        verify(mockExchange).sendResponseHeaders(eq(200), anyLong());
+    }
+
+    @Test
+    void testHandleApiListOrders_NotModified() throws IOException, SQLException {
+        when(mockExchange.getRequestMethod()).thenReturn("GET");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders?customer=John%20Doe"));
+        Headers requestHeaders = new Headers();
+        requestHeaders.set("If-None-Match", "\"1-1-7;after=;limit=50;since=;scope=all\"");
+        when(mockExchange.getRequestHeaders()).thenReturn(requestHeaders);
+
+        when(mockRepo.findCustomerVersion("John Doe")).thenReturn(new CustomerOrdersVersion(1, 1, 7));
+
+        controller.handle(mockExchange);
+
+        verify(mockRepo, never()).findByCustomer(anyString(), any(), anyInt(), any(), anyBoolean());
+        verify(mockExchange).sendResponseHeaders(304, -1);
+    }
+
+    @Test
+    void testHandleApiListOrders_NextPageWithFirstPagesETag() throws IOException, SQLException {
+        when(mockExchange.getRequestMethod()).thenReturn("GET");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders?customer=John%20Doe&afterId=60"));
+        Headers requestHeaders = new Headers();
+        requestHeaders.set("If-None-Match", "\"120-120-7;after=;limit=50;since=;scope=all\"");
+        when(mockExchange.getRequestHeaders()).thenReturn(requestHeaders);
+
+        when(mockRepo.findCustomerVersion("John Doe")).thenReturn(new CustomerOrdersVersion(120, 120, 7));
+        when(mockRepo.findByCustomer("John Doe", 60, 50, null, true)).thenReturn(Collections.singletonList(new Order(59, "John Doe", "PENDING")));
+
+        controller.handle(mockExchange);
+
+        verify(mockExchange).sendResponseHeaders(eq(200), anyLong());
+        assertTrue(responseBody.toString().contains("\"id\":59"));
+    }
+
+    @Test
+    void testHandleApiListOrders_IgnoresIfModifiedSince() throws IOException, SQLException {
+        when(mockExchange.getRequestMethod()).thenReturn("GET");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders?customer=John%20Doe"));
+        Headers requestHeaders = new Headers();
+        requestHeaders.set("If-Modified-Since", "Tue, 14 Nov 2023 22:13:20 GMT");
+        when(mockExchange.getRequestHeaders()).thenReturn(requestHeaders);
+
+        when(mockRepo.findCustomerVersion("John Doe")).thenReturn(new CustomerOrdersVersion(1, 1, 7));
+        when(mockRepo.findByCustomer("John Doe", null, 50, null, true)).thenReturn(Collections.singletonList(new Order(1, "John Doe", "PENDING")));
+
+        controller.handle(mockExchange);
+
+        verify(mockExchange).sendResponseHeaders(eq(200), anyLong());
+    }
+
+    @Test
+    void testHandleApiListOrders_ChangedSince() throws IOException, SQLException {
+        when(mockExchange.getRequestMethod()).thenReturn("GET");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders?customer=John%20Doe&since=7"));
+        Headers requestHeaders = new Headers();
+        requestHeaders.set("If-None-Match", "\"2-2-9;after=;limit=50;since=;scope=all\"");
+        when(mockExchange.getRequestHeaders()).thenReturn(requestHeaders);
+
+        when(mockRepo.findCustomerVersion("John Doe")).thenReturn(new CustomerOrdersVersion(2, 2, 9));
+        when(mockRepo.findByCustomer("John Doe", null, 50, 7L, true)).thenReturn(Collections.singletonList(new Order(2, "John Doe", "PENDING")));
+
+        controller.handle(mockExchange);
+
+        verify(mockExchange).sendResponseHeaders(eq(200), anyLong());
+        assertTrue(responseBody.toString().contains("\"id\":2"));
     }
 
     @Test
@@ -153,38 +599,92 @@ class OrderControllerTest {
 
         Order o1 = new Order(1, "John Doe", "PENDING_CONFIRMATION");
         o1.addItem(new OrderItem(1, 2));
-        when(mockRepo.findAll()).thenReturn(Collections.singletonList(o1));
-        
-        when(mockLoyaltyService.accruePoints(anyString(), anyInt(), anyDouble(), anyString())).thenReturn(CompletableFuture.completedFuture(10));
-        when(mockFulfillmentService.notifyOrderConfirmed(anyInt())).thenReturn(CompletableFuture.completedFuture(true));
+        when(mockRepo.findById(1)).thenReturn(o1);
+        when(mockRepo.inOrderTransaction(eq(1), any())).thenAnswer(invocation -> ((SqlWork<?>) invocation.getArgument(1)).run());
+        when(mockRepo.transitionStatus(1, "PENDING_CONFIRMATION", "CONFIRMED")).thenReturn(true);
 
         controller.handle(mockExchange);
 
-        verify(mockRepo).updateStatus(1, "CONFIRMED");
+        verify(mockRepo).inOrderTransaction(eq(1), any());
+        verify(mockRepo).transitionStatus(1, "PENDING_CONFIRMATION", "CONFIRMED");
+        verify(mockRepo, never()).findAll();
         verify(mockInvoiceRepository).createInvoice(any());
+        verify(mockOutboxRepository).enqueue(OutboxEvent.ORDER_CONFIRMED, 1);
+        verify(mockOutboxRepository).enqueue(OutboxEvent.POINTS_ACCRUAL, 1);
+        verifyNoInteractions(mockLoyaltyService);
         verify(mockExchange).sendResponseHeaders(eq(302), anyLong());
     }
 
     @Test
-    void testHandleConfirmOrder_FulfillmentFailed() throws IOException, SQLException {
+    void testHandleConfirmOrder_AlreadyConfirmed() throws IOException, SQLException {
         when(mockExchange.getRequestMethod()).thenReturn("POST");
         when(mockExchange.getRequestURI()).thenReturn(URI.create("/orders/confirm"));
-        String formData = "id=1";
-        when(mockExchange.getRequestBody()).thenReturn(new ByteArrayInputStream(formData.getBytes(StandardCharsets.UTF_8)));
+        when(mockExchange.getRequestBody()).thenReturn(new ByteArrayInputStream("id=1".getBytes(StandardCharsets.UTF_8)));
 
-        Order o1 = new Order(1, "John Doe", "PENDING_CONFIRMATION");
-        o1.addItem(new OrderItem(1, 2));
-        when(mockRepo.findAll()).thenReturn(Collections.singletonList(o1));
-        
-        when(mockLoyaltyService.accruePoints(anyString(), anyInt(), anyDouble(), anyString())).thenReturn(CompletableFuture.completedFuture(10));
-        when(mockFulfillmentService.notifyOrderConfirmed(anyInt())).thenReturn(CompletableFuture.completedFuture(false));
+        when(mockRepo.findById(1)).thenReturn(new Order(1, "John Doe", "CONFIRMED"));
+        when(mockRepo.inOrderTransaction(eq(1), any())).thenAnswer(invocation -> ((SqlWork<?>) invocation.getArgument(1)).run());
+        when(mockRepo.transitionStatus(1, "PENDING_CONFIRMATION", "CONFIRMED")).thenReturn(false);
+
+        controller.handle(mockExchange);
+
+        verify(mockExchange).sendResponseHeaders(eq(409), anyLong());
+        verifyNoInteractions(mockInvoiceRepository, mockOutboxRepository);
+    }
+
+    @Test
+    void testHandleConfirmOrder_TransactionFailed() throws IOException, SQLException {
+        when(mockExchange.getRequestMethod()).thenReturn("POST");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/orders/confirm"));
+        when(mockExchange.getRequestBody()).thenReturn(new ByteArrayInputStream("id=1".getBytes(StandardCharsets.UTF_8)));
+
+        when(mockRepo.findById(1)).thenReturn(new Order(1, "John Doe", "PENDING_CONFIRMATION"));
+        when(mockRepo.inOrderTransaction(eq(1), any())).thenThrow(new SQLException("connection lost"));
 
         controller.handle(mockExchange);
 
-        verify(mockRepo).updateStatus(1, "CONFIRMATION_FAILED");
         verify(mockExchange).sendResponseHeaders(eq(500), anyLong());
     }
 
+    @Test
+    void testHandleConfirmOrder_NotFound() throws IOException, SQLException {
+        when(mockExchange.getRequestMethod()).thenReturn("POST");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/orders/confirm"));
+        when(mockExchange.getRequestBody()).thenReturn(new ByteArrayInputStream("id=99".getBytes(StandardCharsets.UTF_8)));
+
+        controller.handle(mockExchange);
+
+        verify(mockRepo, never()).inOrderTransaction(anyInt(), any());
+        verify(mockExchange).sendResponseHeaders(eq(404), anyLong());
+    }
+
+    @Test
+    void testHandleCustomerSummary() throws IOException, SQLException {
+        when(mockExchange.getRequestMethod()).thenReturn("GET");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders/summary?customer=john"));
+        CustomerOrderSummary summary = new CustomerOrderSummary("john");
+        summary.addStatus("CONFIRMED", 2, 40, 10);
+        summary.addStatus("PENDING", 1, 0, 0);
+        when(mockRepo.findCustomerSummary("john")).thenReturn(summary);
+
+        controller.handle(mockExchange);
+
+        verify(mockRepo, never()).findByCustomer(anyString(), any(), anyInt(), any(), anyBoolean());
+        verify(mockExchange).sendResponseHeaders(eq(200), anyLong());
+        assertEquals("{\"customerName\":\"john\",\"orderCount\":3,\"pointsEarned\":40,\"pointsRedeemed\":10,\"statuses\":{\"CONFIRMED\":2,\"PENDING\":1}}",
+                responseBody.toString());
+    }
+
+    @Test
+    void testHandleCustomerSummary_MissingCustomer() throws IOException, SQLException {
+        when(mockExchange.getRequestMethod()).thenReturn("GET");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders/summary"));
+
+        controller.handle(mockExchange);
+
+        verify(mockRepo, never()).findCustomerSummary(anyString());
+        verify(mockExchange).sendResponseHeaders(eq(400), anyLong());
+    }
+
     @Test
     void testHandleUpdateStatus_Success() throws IOException, SQLException {
         when(mockExchange.getRequestMethod()).thenReturn("POST");
@@ -217,4 +717,69 @@ class OrderControllerTest {
 
         verify(mockExchange).sendResponseHeaders(eq(404), anyLong());
     }
+
+    @Test
+    void testHandleBatchUpdateStatus_JsonArray() throws IOException, SQLException {
+        String json = "[{\"orderId\":1,\"status\":\"SHIPPED\"},{\"orderId\":2,\"status\":\"SHIPPED\"},{\"status\":\"SHIPPED\"}]";
+        when(mockExchange.getRequestMethod()).thenReturn("POST");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders/status/batch"));
+        when(mockExchange.getRequestBody()).thenReturn(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        when(mockRepo.updateStatuses(anyMap())).thenReturn(Set.of(1));
+
+        controller.handle(mockExchange);
+
+        verify(mockRepo).updateStatuses(Map.of(1, "SHIPPED", 2, "SHIPPED"));
+        verify(mockRepo, never()).updateStatus(anyInt(), anyString());
+        verify(mockExchange).sendResponseHeaders(eq(200), anyLong());
+        assertEquals("{\"updated\":1,\"results\":[{\"orderId\":1,\"result\":\"updated\"},{\"orderId\":2,\"result\":\"not_found\"},{\"orderId\":null,\"result\":\"invalid\"}]}",
+                responseBody.toString());
+    }
+
+    @Test
+    void testHandleBatchUpdateStatus_Ndjson() throws IOException, SQLException {
+        String ndjson = "{\"orderId\":3,\"status\":\"SHIPPED\"}\n{\"orderId\":4,\"status\":\"DELIVERED\"}\n";
+        when(mockExchange.getRequestMethod()).thenReturn("POST");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders/status/batch"));
+        when(mockExchange.getRequestBody()).thenReturn(new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)));
+        when(mockRepo.updateStatuses(anyMap())).thenReturn(Set.of(3, 4));
+
+        controller.handle(mockExchange);
+
+        verify(mockRepo).updateStatuses(Map.of(3, "SHIPPED", 4, "DELIVERED"));
+        verify(mockExchange).sendResponseHeaders(eq(200), anyLong());
+    }
+
+    @Test
+    void testHandleBatchUpdateStatus_EmptyBody() throws IOException, SQLException {
+        when(mockExchange.getRequestMethod()).thenReturn("POST");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders/status/batch"));
+        when(mockExchange.getRequestBody()).thenReturn(new ByteArrayInputStream("[]".getBytes(StandardCharsets.UTF_8)));
+
+        controller.handle(mockExchange);
+
+        verify(mockRepo, never()).updateStatuses(anyMap());
+        verify(mockExchange).sendResponseHeaders(eq(400), anyLong());
+    }
+
+    @Test
+    void testHandleExportOrders() throws IOException, SQLException {
+        when(mockExchange.getRequestMethod()).thenReturn("GET");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/orders/export?format=ndjson&from=2024-01-01&to=2024-01-31"));
+
+        controller.handle(mockExchange);
+
+        verify(mockExporter).exportOrders(eq(LocalDate.of(2024, 1, 1)), eq(LocalDate.of(2024, 1, 31)), eq(OrderImporter.Format.NDJSON), any());
+        verify(mockRepo, never()).findPage(any(), anyInt(), anyBoolean());
+    }
+
+    @Test
+    void testExportIsNotServedUnderTheCustomerApi() throws IOException, SQLException {
+        when(mockExchange.getRequestMethod()).thenReturn("GET");
+        when(mockExchange.getRequestURI()).thenReturn(URI.create("/api/orders/export?format=ndjson"));
+
+        controller.handle(mockExchange);
+
+        verifyNoInteractions(mockExporter);
+        verify(mockExchange).sendResponseHeaders(404, -1);
+    }
 }
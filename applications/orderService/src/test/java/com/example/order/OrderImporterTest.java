@@ -0,0 +1,126 @@
+package com.example.order;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderImporterTest {
+
+    private static final String URL = "jdbc:h2:mem:importdb;DB_CLOSE_DELAY=-1";
+
+    private Connection connection;
+    private OrderRepository repository;
+    private OrderImporter importer;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        connection = DriverManager.getConnection(URL);
+        try (Statement stmt = connection.createStatement()) {
+            TestSchema.createOrderTables(stmt);
+        }
+        repository = new OrderRepository(connection);
+        importer = new OrderImporter(() -> DriverManager.getConnection(URL));
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            TestSchema.dropOrderTables(stmt);
+        }
+        connection.close();
+    }
+
+    @Test
+    void testImportCsv() throws SQLException, IOException {
+        String csv = "ref,customer_name,status,total_amount,points_redeemed,points_earned,created_at,product_id,quantity\n" +
+                     "L-1,\"Doe, John\",DELIVERED,30.5,5,30,2019-06-01T10:00:00,1,2\n" +
+                     "L-1,\"Doe, John\",DELIVERED,30.5,5,30,2019-06-01T10:00:00,2,1\n" +
+                     "L-2,Jane Doe,CANCELLED,0,0,0,2019-07-15 08:30:00,,\n";
+
+        OrderImporter.Result result = importer.importOrders(stream(csv), OrderImporter.Format.CSV);
+
+        assertEquals(2, result.getOrders());
+        assertEquals(2, result.getItems());
+        List<Order> orders = repository.findPage(null, 10, true);
+        assertEquals(2, orders.size());
+        Order john = orders.get(1);
+        assertEquals("Doe, John", john.getCustomerName());
+        assertEquals("DELIVERED", john.getStatus());
+        assertEquals(30, john.getPointsEarned());
+        assertEquals(Timestamp.valueOf("2019-06-01 10:00:00"), john.getCreatedAt());
+        assertEquals(2, john.getItems().size());
+        assertTrue(orders.get(0).getItems().isEmpty());
+        assertEquals(Map.of("DELIVERED", 1), repository.findCustomerSummary("Doe, John").getStatusCounts());
+    }
+
+    @Test
+    void testImportNdjson() throws SQLException, IOException {
+        String ndjson = "{\"customerName\":\"John Doe\",\"status\":\"DELIVERED\",\"totalAmount\":20.0,\"pointsRedeemed\":0,\"pointsEarned\":20,\"createdAt\":\"2020-01-02T03:04:05\",\"items\":[{\"productId\":1,\"quantity\":2},{\"productId\":3,\"quantity\":1}]}\n" +
+                        "\n" +
+                        "{\"customerName\":\"John Doe\",\"status\":\"DELIVERED\",\"totalAmount\":5.0,\"pointsEarned\":5,\"createdAt\":\"2020-02-02T03:04:05\",\"items\":[]}\n";
+
+        OrderImporter.Result result = importer.importOrders(stream(ndjson), OrderImporter.Format.NDJSON);
+
+        assertEquals(2, result.getOrders());
+        assertEquals(2, result.getItems());
+        CustomerOrderSummary summary = repository.findCustomerSummary("John Doe");
+        assertEquals(2, summary.getOrderCount());
+        assertEquals(25, summary.getPointsEarned());
+    }
+
+    @Test
+    void testImportIsAllOrNothing() throws SQLException {
+        String csv = "ref,customer_name,status,created_at,product_id,quantity\n" +
+                     "1,John Doe,DELIVERED,2019-06-01T10:00:00,1,2\n" +
+                     "2,Jane Doe,DELIVERED,not-a-date,1,1\n";
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> importer.importOrders(stream(csv), OrderImporter.Format.CSV));
+
+        assertTrue(e.getMessage().startsWith("Line 3"));
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM orders")) {
+            rs.next();
+            assertEquals(0, rs.getInt(1));
+        }
+    }
+
+    @Test
+    void testImportCsvRequiresHeaderColumns() {
+        String csv = "customer_name,status\nJohn Doe,DELIVERED\n";
+
+        assertThrows(IllegalArgumentException.class, () -> importer.importOrders(stream(csv), OrderImporter.Format.CSV));
+    }
+
+    @Test
+    void testImportSpansSeveralBatches() throws SQLException, IOException {
+        StringBuilder csv = new StringBuilder("ref,customer_name,status,created_at,product_id,quantity\n");
+        for (int i = 0; i < 2500; i++) {
+            csv.append(i).append(",Customer ").append(i % 7).append(",DELIVERED,2018-03-01T00:00:00,").append(i % 10 + 1).append(",1\n");
+        }
+
+        OrderImporter.Result result = importer.importOrders(stream(csv.toString()), OrderImporter.Format.CSV);
+
+        assertEquals(2500, result.getOrders());
+        assertEquals(2500, result.getItems());
+        assertEquals(358, repository.findCustomerSummary("Customer 0").getOrderCount());
+    }
+
+    private static ByteArrayInputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -6,9 +6,17 @@ import org.junit.jupiter.api.Test;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -22,16 +30,14 @@ class OrderRepositoryTest {
         connection = DriverManager.getConnection("jdbc:h2:mem:testdb;DB_CLOSE_DELAY=-1");
         repository = new OrderRepository(connection);
         try (Statement stmt = connection.createStatement()) {
-            stmt.execute("CREATE TABLE orders (id INT AUTO_INCREMENT PRIMARY KEY, customer_name VARCHAR(255), status VARCHAR(255), total_amount DOUBLE, points_redeemed INT, points_earned INT)");
-            stmt.execute("CREATE TABLE order_items (id INT AUTO_INCREMENT PRIMARY KEY, order_id INT, product_id INT, quantity INT)");
+            TestSchema.createOrderTables(stmt);
         }
     }
 
     @AfterEach
     void tearDown() throws SQLException {
         try (Statement stmt = connection.createStatement()) {
-            stmt.execute("DROP TABLE orders");
-            stmt.execute("DROP TABLE order_items");
+            TestSchema.dropOrderTables(stmt);
         }
         connection.close();
     }
@@ -57,6 +63,269 @@ class OrderRepositoryTest {
         assertEquals(1, saved.getItems().get(0).getProductId());
     }
 
+    @Test
+    void testCreateOrderInsertsAllItems() throws SQLException {
+        Order order = new Order();
+        order.setCustomerName("John Doe");
+        order.setStatus("PENDING");
+        for (int i = 1; i <= 100; i++) {
+            order.addItem(new OrderItem(i, 1));
+        }
+
+        int id = repository.createOrder(order);
+
+        Order saved = repository.findById(id);
+        assertEquals(100, saved.getItems().size());
+        assertEquals(100, saved.getItems().get(99).getProductId());
+        assertTrue(connection.getAutoCommit());
+    }
+
+    @Test
+    void testCreateOrderIsAtomic() throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ALTER TABLE order_items ADD CONSTRAINT positive_quantity CHECK (quantity > 0)");
+        }
+        Order order = new Order();
+        order.setCustomerName("John Doe");
+        order.setStatus("PENDING");
+        order.addItem(new OrderItem(1, 2));
+        order.addItem(new OrderItem(2, 0));
+
+        assertThrows(SQLException.class, () -> repository.createOrder(order));
+
+        // Neither the order row nor the valid first line survive the failed insert
+        assertTrue(repository.findAll().isEmpty());
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM order_items")) {
+            rs.next();
+            assertEquals(0, rs.getInt(1));
+        }
+        assertTrue(connection.getAutoCommit());
+    }
+
+    @Test
+    void testCreateOrdersInsertsAllInOneTransaction() throws SQLException {
+        List<Order> orders = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Order order = new Order();
+            order.setCustomerName(i < 2 ? "John Doe" : "Jane Doe");
+            order.setStatus("PENDING");
+            order.addItem(new OrderItem(i + 1, 1));
+            order.addItem(new OrderItem(i + 10, 2));
+            orders.add(order);
+        }
+
+        List<Integer> ids = repository.createOrders(orders);
+
+        assertEquals(3, ids.size());
+        for (int i = 0; i < 3; i++) {
+            Order saved = repository.findById(ids.get(i));
+            assertEquals(orders.get(i).getCustomerName(), saved.getCustomerName());
+            assertEquals(i + 1, saved.getItems().get(0).getProductId());
+            assertEquals(2, saved.getItems().size());
+        }
+        assertEquals(2, repository.findCustomerSummary("John Doe").getOrderCount());
+        assertTrue(connection.getAutoCommit());
+    }
+
+    @Test
+    void testCreateOrdersIsAtomic() throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ALTER TABLE order_items ADD CONSTRAINT positive_quantity CHECK (quantity > 0)");
+        }
+        Order good = new Order();
+        good.setCustomerName("John Doe");
+        good.setStatus("PENDING");
+        good.addItem(new OrderItem(1, 1));
+        Order bad = new Order();
+        bad.setCustomerName("Jane Doe");
+        bad.setStatus("PENDING");
+        bad.addItem(new OrderItem(2, 0));
+
+        assertThrows(SQLException.class, () -> repository.createOrders(List.of(good, bad)));
+
+        assertTrue(repository.findAll().isEmpty());
+        assertEquals(0, repository.findCustomerSummary("John Doe").getOrderCount());
+    }
+
+    @Test
+    void testFindAllLoadsItemsForEveryOrder() throws SQLException {
+        Order first = new Order();
+        first.setCustomerName("John Doe");
+        first.setStatus("PENDING");
+        first.addItem(new OrderItem(1, 2));
+        first.addItem(new OrderItem(2, 1));
+        int firstId = repository.createOrder(first);
+
+        Order empty = new Order();
+        empty.setCustomerName("Jane Doe");
+        empty.setStatus("PENDING");
+        int emptyId = repository.createOrder(empty);
+
+        List<Order> orders = repository.findAll();
+        assertEquals(2, orders.size());
+        assertEquals(emptyId, orders.get(0).getId());
+        assertTrue(orders.get(0).getItems().isEmpty());
+        assertEquals(firstId, orders.get(1).getId());
+        assertEquals(2, orders.get(1).getItems().size());
+        assertEquals(firstId, orders.get(1).getItems().get(0).getOrderId());
+    }
+
+    @Test
+    void testFindPageUsesKeyset() throws SQLException {
+        for (int i = 0; i < 5; i++) {
+            Order order = new Order();
+            order.setCustomerName("Customer " + i);
+            order.setStatus("PENDING");
+            order.addItem(new OrderItem(i, 1));
+            repository.createOrder(order);
+        }
+
+        List<Order> firstPage = repository.findPage(null, 2, false);
+        assertEquals(2, firstPage.size());
+        assertEquals("Customer 4", firstPage.get(0).getCustomerName());
+        assertEquals(1, firstPage.get(0).getItems().size());
+
+        List<Order> secondPage = repository.findPage(firstPage.get(1).getId(), 2, false);
+        assertEquals(2, secondPage.size());
+        assertEquals("Customer 2", secondPage.get(0).getCustomerName());
+        assertEquals("Customer 1", secondPage.get(1).getCustomerName());
+
+        List<Order> lastPage = repository.findPage(secondPage.get(1).getId(), 2, false);
+        assertEquals(1, lastPage.size());
+        assertEquals("Customer 0", lastPage.get(0).getCustomerName());
+    }
+
+    @Test
+    void testSearchFiltersOnStatusCustomerPrefixAndCreatedRange() throws SQLException {
+        int alice = createOrder("Alice", "PENDING");
+        int alan = createOrder("Alan", "PENDING_CONFIRMATION");
+        int bob = createOrder("Bob", "PENDING_CONFIRMATION");
+        int underscore = createOrder("Al_x", "CONFIRMATION_FAILED");
+        int alfred = createOrder("Alfred", "ON_HOLD");
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("UPDATE orders SET created_at = TIMESTAMP '2020-01-15 10:00:00' WHERE id = " + alan);
+        }
+
+        OrderFilter pending = new OrderFilter();
+        pending.setStatuses(EnumSet.of(OrderStatus.PENDING_CONFIRMATION));
+        assertEquals(List.of(bob, alan), ids(repository.search(pending, null, 10)));
+        assertEquals(1, repository.search(pending, null, 10).get(0).getItems().size());
+
+        OrderFilter actionable = new OrderFilter();
+        actionable.setStatuses(OrderStatus.ACTIONABLE);
+        assertEquals(List.of(underscore, bob, alan), ids(repository.search(actionable, null, 10)));
+
+        OrderFilter prefix = new OrderFilter();
+        prefix.setCustomerPrefix("Al");
+        assertEquals(List.of(alfred, underscore, alice, alan), ids(repository.search(prefix, null, 10)));
+        prefix.setCustomerPrefix("Al_");
+        assertEquals(List.of(underscore), ids(repository.search(prefix, null, 10)));
+
+        OrderFilter january = new OrderFilter();
+        january.setCreatedFrom(LocalDate.of(2020, 1, 1));
+        january.setCreatedTo(LocalDate.of(2020, 1, 15));
+        assertEquals(List.of(alan), ids(repository.search(january, null, 10)));
+
+        // Statuses OrderStatus does not know are stored without a code
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT status_code FROM orders WHERE id = " + alfred)) {
+            rs.next();
+            assertNull(rs.getObject(1));
+        }
+    }
+
+    @Test
+    void testSearchPagesByCreationTimeAndId() throws SQLException {
+        List<Order> batch = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Order order = new Order();
+            order.setCustomerName("Customer " + i);
+            order.setStatus("PENDING");
+            batch.add(order);
+        }
+        // One transaction, so all five share created_at and only the id orders them
+        List<Integer> batchIds = repository.createOrders(batch);
+        int older = createOrder("Customer 5", "PENDING");
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("UPDATE orders SET created_at = TIMESTAMP '2020-01-15 10:00:00' WHERE id = " + older);
+        }
+
+        List<Integer> paged = new ArrayList<>();
+        OrderCursor cursor = null;
+        List<Order> page;
+        do {
+            page = repository.search(new OrderFilter(), cursor, 2);
+            paged.addAll(ids(page));
+            cursor = page.isEmpty() ? null : OrderCursor.parse(OrderCursor.of(page.get(page.size() - 1)).toString());
+        } while (page.size() == 2);
+
+        List<Integer> expected = new ArrayList<>(batchIds);
+        expected.sort((a, b) -> Integer.compare(b, a));
+        expected.add(older);
+        assertEquals(expected, paged);
+    }
+
+    private int createOrder(String customerName, String status) throws SQLException {
+        Order order = new Order();
+        order.setCustomerName(customerName);
+        order.setStatus(status);
+        order.addItem(new OrderItem(1, 1));
+        return repository.createOrder(order);
+    }
+
+    private static List<Integer> ids(List<Order> orders) {
+        List<Integer> ids = new ArrayList<>();
+        for (Order order : orders) {
+            ids.add(order.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    void testFindByCustomerFiltersAndPages() throws SQLException {
+        for (int i = 0; i < 3; i++) {
+            Order johns = new Order();
+            johns.setCustomerName("John Doe");
+            johns.setStatus("PENDING");
+            johns.setPointsToRedeem(i);
+            repository.createOrder(johns);
+
+            Order janes = new Order();
+            janes.setCustomerName("Jane Doe");
+            janes.setStatus("PENDING");
+            repository.createOrder(janes);
+        }
+
+        List<Order> firstPage = repository.findByCustomer("John Doe", null, 2);
+        assertEquals(2, firstPage.size());
+        assertTrue(firstPage.stream().allMatch(o -> "John Doe".equals(o.getCustomerName())));
+        assertEquals(2, firstPage.get(0).getPointsToRedeem());
+
+        List<Order> secondPage = repository.findByCustomer("John Doe", firstPage.get(1).getId(), 2);
+        assertEquals(1, secondPage.size());
+        assertEquals(0, secondPage.get(0).getPointsToRedeem());
+    }
+
+    @Test
+    void testFindById() throws SQLException {
+        Order order = new Order();
+        order.setCustomerName("John Doe");
+        order.setStatus("PENDING");
+        order.setTotalAmount(42.5);
+        order.addItem(new OrderItem(3, 1));
+        order.addItem(new OrderItem(4, 2));
+        int id = repository.createOrder(order);
+
+        Order found = repository.findById(id);
+        assertEquals("John Doe", found.getCustomerName());
+        assertEquals(42.5, found.getTotalAmount());
+        assertEquals(2, found.getItems().size());
+        assertEquals(4, found.getItems().get(1).getProductId());
+
+        assertNull(repository.findById(id + 1));
+    }
+
     @Test
     void testUpdateStatus() throws SQLException {
         Order order = new Order();
@@ -70,6 +339,21 @@ class OrderRepositoryTest {
         assertEquals("CONFIRMED", orders.get(0).getStatus());
     }
 
+    @Test
+    void testTransitionStatusOnlyFromExpectedStatus() throws SQLException {
+        Order order = new Order();
+        order.setCustomerName("John Doe");
+        order.setStatus("PENDING_CONFIRMATION");
+        int id = repository.createOrder(order);
+
+        assertTrue(repository.transitionStatus(id, "PENDING_CONFIRMATION", "CONFIRMED"));
+        assertFalse(repository.transitionStatus(id, "PENDING_CONFIRMATION", "CONFIRMED"));
+        assertFalse(repository.transitionStatus(9999, "PENDING_CONFIRMATION", "CONFIRMED"));
+
+        assertEquals("CONFIRMED", repository.findById(id).getStatus());
+        assertEquals(Map.of("CONFIRMED", 1), repository.findCustomerSummary("John Doe").getStatusCounts());
+    }
+
     @Test
     void testUpdatePointsEarned() throws SQLException {
         Order order = new Order();
@@ -82,4 +366,180 @@ class OrderRepositoryTest {
         List<Order> orders = repository.findAll();
         assertEquals(50, orders.get(0).getPointsEarned());
     }
+
+    @Test
+    void testUpdateStatuses() throws SQLException {
+        Order first = new Order();
+        first.setCustomerName("John Doe");
+        first.setStatus("CONFIRMED");
+        int firstId = repository.createOrder(first);
+        Order second = new Order();
+        second.setCustomerName("Jane Doe");
+        second.setStatus("CONFIRMED");
+        int secondId = repository.createOrder(second);
+
+        Map<Integer, String> statuses = new LinkedHashMap<>();
+        statuses.put(firstId, "SHIPPED");
+        statuses.put(secondId, "DELIVERED");
+        statuses.put(9999, "SHIPPED");
+
+        Set<Integer> updated = repository.updateStatuses(statuses);
+
+        assertEquals(Set.of(firstId, secondId), updated);
+        assertEquals("SHIPPED", repository.findById(firstId).getStatus());
+        assertEquals("DELIVERED", repository.findById(secondId).getStatus());
+        assertTrue(connection.getAutoCommit());
+    }
+
+    @Test
+    void testCustomerVersionChangesOnUpdate() throws SQLException {
+        CustomerOrdersVersion empty = repository.findCustomerVersion("John Doe");
+        assertEquals(0, empty.getOrderCount());
+        assertEquals(0, empty.getVersion());
+
+        Order order = new Order();
+        order.setCustomerName("John Doe");
+        order.setStatus("PENDING");
+        int id = repository.createOrder(order);
+        CustomerOrdersVersion created = repository.findCustomerVersion("John Doe");
+        assertEquals(1, created.getOrderCount());
+        assertEquals(id, created.getMaxOrderId());
+        assertEquals(1, created.getVersion());
+
+        repository.updateStatus(id, "CONFIRMED");
+        CustomerOrdersVersion updated = repository.findCustomerVersion("John Doe");
+        assertNotEquals(created.toETag(null, 50, null, false), updated.toETag(null, 50, null, false));
+        assertEquals(2, updated.getVersion());
+    }
+
+    @Test
+    void testFindByCustomerChangedSince() throws SQLException {
+        Order old = new Order();
+        old.setCustomerName("John Doe");
+        old.setStatus("SHIPPED");
+        repository.createOrder(old);
+        Order recent = new Order();
+        recent.setCustomerName("John Doe");
+        recent.setStatus("PENDING");
+        int recentId = repository.createOrder(recent);
+        long seen = repository.findCustomerVersion("John Doe").getVersion();
+        repository.updateStatus(recentId, "CONFIRMED");
+
+        List<Order> changed = repository.findByCustomer("John Doe", null, 10, seen, false);
+
+        assertEquals(1, changed.size());
+        assertEquals(recentId, changed.get(0).getId());
+        assertTrue(repository.findByCustomer("John Doe", null, 10, repository.findCustomerVersion("John Doe").getVersion(), false).isEmpty());
+        assertEquals(2, repository.findByCustomer("John Doe", null, 10, null, false).size());
+    }
+
+    @Test
+    void testChangeVersionsArePerCustomer() throws SQLException {
+        Order johns = new Order();
+        johns.setCustomerName("John Doe");
+        johns.setStatus("PENDING");
+        Order janes = new Order();
+        janes.setCustomerName("Jane Doe");
+        janes.setStatus("PENDING");
+        List<Integer> ids = repository.createOrders(List.of(johns, janes));
+        repository.updateStatuses(Map.of(ids.get(0), "SHIPPED", ids.get(1), "SHIPPED"));
+
+        assertEquals(2, repository.findCustomerVersion("John Doe").getVersion());
+        assertEquals(2, repository.findCustomerVersion("Jane Doe").getVersion());
+    }
+
+    @Test
+    void testListingsReadOnlyHotWindowUnlessHistoryRequested() throws SQLException {
+        Order archived = new Order();
+        archived.setCustomerName("John Doe");
+        archived.setStatus("DELIVERED");
+        archived.addItem(new OrderItem(1, 1));
+        int archivedId = repository.createOrder(archived);
+        Order recent = new Order();
+        recent.setCustomerName("John Doe");
+        recent.setStatus("PENDING");
+        recent.addItem(new OrderItem(2, 1));
+        int recentId = repository.createOrder(recent);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("UPDATE orders SET created_at = TIMESTAMP '2020-01-15 00:00:00' WHERE id = " + archivedId);
+            stmt.execute("UPDATE order_items SET order_created_at = TIMESTAMP '2020-01-15 00:00:00' WHERE order_id = " + archivedId);
+        }
+
+        List<Order> hot = repository.findPage(null, 10, false);
+        assertEquals(1, hot.size());
+        assertEquals(recentId, hot.get(0).getId());
+        assertEquals(1, repository.findByCustomer("John Doe", null, 10).size());
+
+        List<Order> all = repository.findPage(null, 10, true);
+        assertEquals(2, all.size());
+        assertEquals(1, all.get(1).getItems().size());
+        assertEquals(2, repository.findByCustomer("John Doe", null, 10, null, true).size());
+
+        // Lookups by id are not limited to the hot window
+        assertEquals(1, repository.findById(archivedId).getItems().size());
+    }
+
+    @Test
+    void testCustomerSummaryFollowsOrderChanges() throws SQLException {
+        Order first = new Order();
+        first.setCustomerName("John Doe");
+        first.setStatus("PENDING");
+        first.setPointsToRedeem(10);
+        int firstId = repository.createOrder(first);
+        Order second = new Order();
+        second.setCustomerName("John Doe");
+        second.setStatus("PENDING");
+        int secondId = repository.createOrder(second);
+        Order other = new Order();
+        other.setCustomerName("Jane Doe");
+        other.setStatus("PENDING");
+        repository.createOrder(other);
+
+        repository.updateStatus(firstId, "CONFIRMED");
+        repository.updatePointsEarned(firstId, 50);
+        repository.updatePointsEarned(firstId, 60);
+        repository.updateStatuses(Map.of(firstId, "SHIPPED", secondId, "REJECTED"));
+
+        CustomerOrderSummary summary = repository.findCustomerSummary("John Doe");
+        assertEquals(2, summary.getOrderCount());
+        assertEquals(60, summary.getPointsEarned());
+        assertEquals(10, summary.getPointsRedeemed());
+        assertEquals(Map.of("REJECTED", 1, "SHIPPED", 1), summary.getStatusCounts());
+        assertEquals(1, repository.findCustomerSummary("Jane Doe").getOrderCount());
+        assertEquals(0, repository.findCustomerSummary("Nobody").getOrderCount());
+    }
+
+    @Test
+    void testCustomerSummaryRolledBackWithOrder() throws SQLException {
+        Order order = new Order();
+        order.setCustomerName("John Doe");
+        order.setStatus("PENDING");
+        int id = repository.createOrder(order);
+
+        assertThrows(SQLException.class, () -> repository.inTransaction(() -> {
+            repository.updateStatus(id, "CONFIRMED");
+            throw new SQLException("invoice failed");
+        }));
+
+        assertEquals(Map.of("PENDING", 1), repository.findCustomerSummary("John Doe").getStatusCounts());
+    }
+
+    @Test
+    void testRebuildSummaryFromExistingOrders() throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("INSERT INTO orders (customer_name, status, points_redeemed, points_earned) VALUES ('John Doe', 'CONFIRMED', 5, 20)");
+            stmt.execute("INSERT INTO orders (customer_name, status, points_redeemed, points_earned) VALUES ('John Doe', 'CONFIRMED', 0, 30)");
+            stmt.execute("INSERT INTO orders (customer_name, status, points_redeemed, points_earned) VALUES ('John Doe', 'PENDING', 0, 0)");
+        }
+        CustomerOrderSummaryProjection projection = new CustomerOrderSummaryProjection(connection);
+
+        projection.rebuildIfEmpty();
+        projection.rebuildIfEmpty();
+
+        CustomerOrderSummary summary = projection.find("John Doe");
+        assertEquals(3, summary.getOrderCount());
+        assertEquals(50, summary.getPointsEarned());
+        assertEquals(5, summary.getPointsRedeemed());
+        assertEquals(Map.of("CONFIRMED", 2, "PENDING", 1), summary.getStatusCounts());
+    }
 }
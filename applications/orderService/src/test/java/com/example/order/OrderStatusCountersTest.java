@@ -0,0 +1,123 @@
+package com.example.order;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderStatusCountersTest {
+
+    private static final String URL = "jdbc:h2:mem:statuscountdb;DB_CLOSE_DELAY=-1";
+
+    private Connection connection;
+    private OrderStatusCounters counters;
+    private OrderRepository repository;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        connection = DriverManager.getConnection(URL);
+        try (Statement stmt = connection.createStatement()) {
+            TestSchema.createOrderTables(stmt);
+        }
+        counters = new OrderStatusCounters(() -> DriverManager.getConnection(URL));
+        repository = new OrderRepository(ReplicaRouter.primaryOnly(connection), 3, counters);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            TestSchema.dropOrderTables(stmt);
+        }
+        connection.close();
+    }
+
+    @Test
+    void testCountersFollowOrderChanges() throws SQLException {
+        int first = repository.createOrder(order("John Doe"));
+        int second = repository.createOrder(order("Jane Doe"));
+        repository.createOrders(List.of(order("Jim Doe"), order(null)));
+        repository.updateStatus(first, "PENDING_CONFIRMATION");
+        repository.updateStatuses(Map.of(second, "CONFIRMED"));
+
+        Map<String, Long> expected = Map.of("CONFIRMED", 1L, "PENDING", 2L, "PENDING_CONFIRMATION", 1L);
+        assertEquals(expected, nonZero(repository.statusCounts()));
+        assertEquals(expected, nonZero(OrderStatusCounters.read(connection)));
+    }
+
+    @Test
+    void testRolledBackChangeLeavesCountersAlone() throws SQLException {
+        repository.createOrder(order("John Doe"));
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ALTER TABLE order_items ADD CONSTRAINT positive_quantity CHECK (quantity > 0)");
+        }
+        Order bad = order("Jane Doe");
+        bad.getItems().get(0).setQuantity(0);
+
+        assertThrows(SQLException.class, () -> repository.createOrder(bad));
+
+        assertEquals(Map.of("PENDING", 1L), counters.snapshot());
+        assertEquals(Map.of("PENDING", 1L), OrderStatusCounters.read(connection));
+    }
+
+    @Test
+    void testRefreshPicksUpChangesMadeElsewhere() throws SQLException {
+        repository.createOrder(order("John Doe"));
+        // An order repository without counters, like the outbox dispatcher's, only changes the table
+        new OrderRepository(connection).createOrder(order("Jane Doe"));
+        assertEquals(Map.of("PENDING", 1L), counters.snapshot());
+
+        counters.refresh();
+
+        assertEquals(Map.of("PENDING", 2L), counters.snapshot());
+    }
+
+    @Test
+    void testReconcileCorrectsDrift() throws SQLException {
+        int id = repository.createOrder(order("John Doe"));
+        repository.createOrder(order("Jane Doe"));
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("UPDATE orders SET status = 'SHIPPED' WHERE id = " + id);
+            stmt.execute("INSERT INTO order_status_counts (status, order_count) VALUES ('LOST', 4)");
+        }
+
+        assertEquals(3, counters.reconcile());
+        assertEquals(0, counters.reconcile());
+
+        Map<String, Long> expected = Map.of("LOST", 0L, "PENDING", 1L, "SHIPPED", 1L);
+        assertEquals(expected, counters.snapshot());
+        assertEquals(expected, OrderStatusCounters.read(connection));
+    }
+
+    @Test
+    void testRebuildFillsCountersFromExistingOrders() throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("INSERT INTO orders (customer_name, status) VALUES ('John Doe', 'CONFIRMED'), ('Jane Doe', 'CONFIRMED'), (NULL, NULL)");
+        }
+
+        new CustomerOrderSummaryProjection(connection).rebuildIfEmpty();
+        counters.refresh();
+
+        assertEquals(Map.of("CONFIRMED", 2L, "UNKNOWN", 1L), counters.snapshot());
+    }
+
+    private static Map<String, Long> nonZero(Map<String, Long> counts) {
+        counts.values().removeIf(count -> count == 0);
+        return counts;
+    }
+
+    private static Order order(String customer) {
+        Order order = new Order();
+        order.setCustomerName(customer);
+        order.setStatus("PENDING");
+        order.addItem(new OrderItem(1, 1));
+        return order;
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.order;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderStatusTest {
+
+    @Test
+    void testCodesAreUniqueAndRoundTrip() {
+        Set<Integer> codes = new HashSet<>();
+        for (OrderStatus status : OrderStatus.values()) {
+            assertTrue(codes.add(status.code()), "Duplicate code " + status.code());
+            assertSame(status, OrderStatus.fromCode(status.code()));
+            assertSame(status, OrderStatus.parse(status.name()));
+        }
+        assertNull(OrderStatus.parse("ON_HOLD"));
+        assertNull(OrderStatus.parse(null));
+        assertThrows(IllegalArgumentException.class, () -> OrderStatus.fromCode(0));
+    }
+
+    @Test
+    void testCodeCondition() {
+        assertEquals("status_code = 4", OrderStatus.codeCondition(EnumSet.of(OrderStatus.SHIPPED)));
+        assertEquals("status_code IN (1, 3)", OrderStatus.codeCondition(EnumSet.of(OrderStatus.CONFIRMED, OrderStatus.PENDING)));
+    }
+
+    @Test
+    void testSchemaMatchesEnum() throws IOException {
+        String schema = schema();
+        assertTrue(schema.contains("GENERATED ALWAYS AS (" + OrderStatus.statusCodeExpression() + ") STORED"));
+
+        Matcher when = Pattern.compile("WHEN '(\\w+)' THEN (\\d+)").matcher(statement(schema, "ADD COLUMN IF NOT EXISTS status_code"));
+        Set<OrderStatus> mapped = EnumSet.noneOf(OrderStatus.class);
+        while (when.find()) {
+            OrderStatus status = OrderStatus.parse(when.group(1));
+            assertNotNull(status, "schema.sql maps unknown status " + when.group(1));
+            assertEquals(status.code(), Integer.parseInt(when.group(2)), "schema.sql code of " + status);
+            mapped.add(status);
+        }
+        assertEquals(EnumSet.allOf(OrderStatus.class), mapped);
+    }
+
+    @Test
+    void testActionableIndexCoversActionableStatuses() throws IOException {
+        String index = statement(schema(), "CREATE INDEX IF NOT EXISTS idx_orders_actionable");
+        Matcher in = Pattern.compile("WHERE status_code IN \\(([\\d, ]+)\\)$").matcher(index);
+        assertTrue(in.find(), index);
+        Set<OrderStatus> indexed = EnumSet.noneOf(OrderStatus.class);
+        for (String code : in.group(1).split(",")) {
+            indexed.add(OrderStatus.fromCode(Integer.parseInt(code.trim())));
+        }
+        assertEquals(OrderStatus.ACTIONABLE, indexed);
+        assertTrue(index.endsWith("WHERE " + OrderStatus.codeCondition(OrderStatus.ACTIONABLE)));
+    }
+
+    private static String schema() throws IOException {
+        try (InputStream is = OrderStatus.class.getResourceAsStream("/schema.sql")) {
+            return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String statement(String schema, String prefix) {
+        for (String statement : schema.split(";")) {
+            String sql = statement.replaceAll("(?m)^--.*$", "").trim();
+            if (sql.contains(prefix)) {
+                return sql;
+            }
+        }
+        return fail("schema.sql has no statement containing " + prefix);
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.order;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class OutboxDispatcherTest {
+
+    @Mock
+    private OrderFulfillmentService fulfillmentService;
+    @Mock
+    private LoyaltyIntegrationService loyaltyService;
+
+    private Connection connection;
+    private OrderRepository orderRepository;
+    private OutboxRepository outboxRepository;
+    private OutboxDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        MockitoAnnotations.openMocks(this);
+        connection = DriverManager.getConnection("jdbc:h2:mem:outboxdb;DB_CLOSE_DELAY=-1");
+        try (Statement stmt = connection.createStatement()) {
+            TestSchema.createOrderTables(stmt);
+            stmt.execute("CREATE TABLE outbox (id INT AUTO_INCREMENT PRIMARY KEY, event_type VARCHAR(50), order_id INT, status VARCHAR(20), attempts INT, " +
+                         "next_attempt_at TIMESTAMP, last_error VARCHAR(1000), created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, processed_at TIMESTAMP)");
+        }
+        orderRepository = new OrderRepository(connection);
+        outboxRepository = new OutboxRepository(connection);
+        dispatcher = new OutboxDispatcher(connection, fulfillmentService, loyaltyService, 10, 2, 1000, 60000);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DROP TABLE outbox");
+            TestSchema.dropOrderTables(stmt);
+        }
+        connection.close();
+    }
+
+    @Test
+    void testDispatchBatch_DeliversEventsAndRecordsPoints() throws SQLException {
+        int orderId = createConfirmedOrder();
+        outboxRepository.enqueue(OutboxEvent.ORDER_CONFIRMED, orderId);
+        outboxRepository.enqueue(OutboxEvent.POINTS_ACCRUAL, orderId);
+
+        when(fulfillmentService.notifyOrderConfirmed(orderId)).thenReturn(CompletableFuture.completedFuture(true));
+        when(loyaltyService.accruePoints(eq("John Doe"), eq(orderId), anyDouble(), anyString())).thenReturn(CompletableFuture.completedFuture(12));
+
+        assertEquals(2, dispatcher.dispatchBatch());
+
+        assertEquals(0, countOutbox("PENDING"));
+        assertEquals(2, countOutbox("SENT"));
+        assertEquals(12, orderRepository.findById(orderId).getPointsEarned());
+        assertEquals(0, dispatcher.dispatchBatch());
+    }
+
+    @Test
+    void testDispatchBatch_DeliversEventsConcurrently() throws SQLException {
+        int orderId = createConfirmedOrder();
+        outboxRepository.enqueue(OutboxEvent.ORDER_CONFIRMED, orderId);
+        outboxRepository.enqueue(OutboxEvent.POINTS_ACCRUAL, orderId);
+
+        // Both calls are issued before either completes
+        CompletableFuture<Boolean> notification = new CompletableFuture<>();
+        when(fulfillmentService.notifyOrderConfirmed(orderId)).thenReturn(notification);
+        when(loyaltyService.accruePoints(anyString(), anyInt(), anyDouble(), anyString())).thenAnswer(invocation -> {
+            assertFalse(notification.isDone());
+            notification.complete(true);
+            return CompletableFuture.completedFuture(5);
+        });
+
+        assertEquals(2, dispatcher.dispatchBatch());
+        assertEquals(2, countOutbox("SENT"));
+    }
+
+    @Test
+    void testDispatchBatch_DeliversOutsideTheClaimTransaction() throws SQLException {
+        int orderId = createConfirmedOrder();
+        outboxRepository.enqueue(OutboxEvent.ORDER_CONFIRMED, orderId);
+
+        when(fulfillmentService.notifyOrderConfirmed(orderId)).thenAnswer(invocation -> {
+            // The claim has committed, and its lease keeps another dispatcher from claiming the event again
+            assertTrue(connection.getAutoCommit());
+            try (Connection other = DriverManager.getConnection("jdbc:h2:mem:outboxdb;DB_CLOSE_DELAY=-1")) {
+                assertTrue(new OutboxRepository(other).claimBatch(10, new Timestamp(System.currentTimeMillis())).isEmpty());
+            }
+            return CompletableFuture.completedFuture(true);
+        });
+
+        assertEquals(1, dispatcher.dispatchBatch());
+        assertEquals(1, countOutbox("SENT"));
+    }
+
+    @Test
+    void testDispatchBatch_FailedSettlementKeepsTheRestOfTheBatch() throws SQLException {
+        int orderId = createConfirmedOrder();
+        outboxRepository.enqueue(OutboxEvent.ORDER_CONFIRMED, orderId);
+        outboxRepository.enqueue(OutboxEvent.POINTS_ACCRUAL, orderId);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ALTER TABLE orders ADD CONSTRAINT non_negative_points CHECK (points_earned >= 0)");
+        }
+
+        when(fulfillmentService.notifyOrderConfirmed(orderId)).thenReturn(CompletableFuture.completedFuture(true));
+        when(loyaltyService.accruePoints(anyString(), anyInt(), anyDouble(), anyString())).thenReturn(CompletableFuture.completedFuture(-1));
+
+        assertEquals(2, dispatcher.dispatchBatch());
+
+        // Only the accrual is left, leased, for another attempt
+        assertEquals(1, countOutbox("SENT"));
+        assertEquals(1, countOutbox("PENDING"));
+        assertEquals(0, dispatcher.dispatchBatch());
+    }
+
+    @Test
+    void testDispatchBatch_ReschedulesFailedEvent() throws SQLException {
+        int orderId = createConfirmedOrder();
+        outboxRepository.enqueue(OutboxEvent.ORDER_CONFIRMED, orderId);
+
+        when(fulfillmentService.notifyOrderConfirmed(orderId)).thenReturn(CompletableFuture.failedFuture(new RuntimeException("warehouse down")));
+
+        assertEquals(1, dispatcher.dispatchBatch());
+
+        assertEquals(1, countOutbox("PENDING"));
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT attempts, last_error, next_attempt_at > CURRENT_TIMESTAMP AS deferred FROM outbox")) {
+            assertTrue(rs.next());
+            assertEquals(1, rs.getInt("attempts"));
+            assertTrue(rs.getString("last_error").contains("warehouse down"));
+            assertTrue(rs.getBoolean("deferred"));
+        }
+        assertEquals("CONFIRMED", orderRepository.findById(orderId).getStatus());
+        // Backed off, so the next poll claims nothing
+        assertEquals(0, dispatcher.dispatchBatch());
+    }
+
+    @Test
+    void testDispatchBatch_MarksOrderFailedWhenAttemptsExhausted() throws SQLException {
+        int orderId = createConfirmedOrder();
+        outboxRepository.enqueue(OutboxEvent.ORDER_CONFIRMED, orderId);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("UPDATE outbox SET attempts = 1");
+        }
+
+        when(fulfillmentService.notifyOrderConfirmed(orderId)).thenReturn(CompletableFuture.completedFuture(false));
+
+        assertEquals(1, dispatcher.dispatchBatch());
+
+        assertEquals(1, countOutbox("DEAD"));
+        assertEquals("CONFIRMATION_FAILED", orderRepository.findById(orderId).getStatus());
+    }
+
+    private int createConfirmedOrder() throws SQLException {
+        Order order = new Order();
+        order.setCustomerName("John Doe");
+        order.setStatus("CONFIRMED");
+        order.setTotalAmount(100.0);
+        order.addItem(new OrderItem(1, 2));
+        return orderRepository.createOrder(order);
+    }
+
+    private int countOutbox(String status) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM outbox WHERE status = '" + status + "'")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
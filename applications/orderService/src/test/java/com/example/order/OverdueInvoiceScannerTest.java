@@ -0,0 +1,189 @@
+package com.example.order;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class OverdueInvoiceScannerTest {
+
+    private static final String URL = "jdbc:h2:mem:scandb;DB_CLOSE_DELAY=-1";
+    private static final LocalDate TODAY = LocalDate.of(2024, 3, 1);
+
+    private Connection connection;
+    private OverdueInvoiceScanner scanner;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        connection = DriverManager.getConnection(URL);
+        try (Statement stmt = connection.createStatement()) {
+            TestSchema.createInvoices(stmt);
+            stmt.execute("CREATE TABLE customer_dunning (customer_name VARCHAR(255) PRIMARY KEY, overdue_invoices INT, overdue_amount DECIMAL(12, 2), oldest_due_date DATE, run_date DATE, flagged_at TIMESTAMP)");
+            stmt.execute("CREATE TABLE job_checkpoints (job_name VARCHAR(100) PRIMARY KEY, run_date DATE, last_id INT, rows_processed BIGINT, completed BOOLEAN, updated_at TIMESTAMP)");
+        }
+        scanner = new OverdueInvoiceScanner(() -> DriverManager.getConnection(URL), 2, 2);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DROP TABLE invoices");
+            stmt.execute("DROP TABLE customer_dunning");
+            stmt.execute("DROP TABLE job_checkpoints");
+        }
+        connection.close();
+    }
+
+    @Test
+    void testFlagsCustomersWithOverdueInvoices() throws SQLException {
+        insertInvoice("John Doe", 100, "2024-02-01", false);
+        insertInvoice("Jane Doe", 40, "2024-02-10", false);
+        insertInvoice("John Doe", 50, "2024-01-15", false);
+        insertInvoice("John Doe", 70, "2024-01-01", true);
+        insertInvoice("Jane Doe", 30, "2024-03-05", false);
+        insertInvoice("Jim Doe", 20, "2024-02-28", false);
+
+        assertEquals(4, scanner.run(TODAY));
+
+        assertDunning("John Doe", 2, 150.0, "2024-01-15");
+        assertDunning("Jane Doe", 1, 40.0, "2024-02-10");
+        assertDunning("Jim Doe", 1, 20.0, "2024-02-28");
+        assertEquals(3, count("SELECT COUNT(*) FROM customer_dunning"));
+        assertEquals(4, count("SELECT rows_processed FROM job_checkpoints WHERE completed = true"));
+        assertTrue(scanner.toJson().contains("\"invoices\":4"));
+    }
+
+    @Test
+    void testFinishedRunIsNotRepeatedOnTheSameDay() throws SQLException {
+        insertInvoice("John Doe", 100, "2024-02-01", false);
+        scanner.run(TODAY);
+
+        assertEquals(0, scanner.run(TODAY));
+        assertDunning("John Doe", 1, 100.0, "2024-02-01");
+    }
+
+    @Test
+    void testResumesAfterLastCheckpoint() throws SQLException {
+        insertInvoice("John Doe", 100, "2024-02-01", false);
+        insertInvoice("John Doe", 50, "2024-01-15", false);
+        insertInvoice("John Doe", 25, "2024-02-20", false);
+        insertInvoice("Jane Doe", 40, "2024-02-10", false);
+        // A run that committed its first chunk (invoices 1 and 2) and then died
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("INSERT INTO job_checkpoints VALUES ('" + OverdueInvoiceScanner.JOB_NAME + "', DATE '2024-03-01', 2, 2, false, CURRENT_TIMESTAMP)");
+            stmt.execute("INSERT INTO customer_dunning VALUES ('John Doe', 2, 150, DATE '2024-01-15', DATE '2024-03-01', CURRENT_TIMESTAMP)");
+        }
+
+        assertEquals(2, scanner.run(TODAY));
+
+        assertDunning("John Doe", 3, 175.0, "2024-01-15");
+        assertDunning("Jane Doe", 1, 40.0, "2024-02-10");
+        assertEquals(4, count("SELECT rows_processed FROM job_checkpoints WHERE completed = true"));
+    }
+
+    @Test
+    void testRecoverFinishesARunLeftUnfinishedOnAnEarlierDay() throws SQLException {
+        insertInvoice("John Doe", 100, "2024-02-01", false);
+        insertInvoice("John Doe", 50, "2024-01-15", false);
+        insertInvoice("Jane Doe", 40, "2024-02-10", false);
+        // Yesterday's run committed its first chunk and died; nothing restarted it that day
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("INSERT INTO job_checkpoints VALUES ('" + OverdueInvoiceScanner.JOB_NAME + "', DATE '2024-02-29', 2, 2, false, CURRENT_TIMESTAMP)");
+            stmt.execute("INSERT INTO customer_dunning VALUES ('John Doe', 2, 150, DATE '2024-01-15', DATE '2024-02-29', CURRENT_TIMESTAMP)");
+        }
+
+        assertEquals(1, scanner.recover(TODAY, false));
+
+        assertDunning("John Doe", 2, 150.0, "2024-01-15");
+        assertDunning("Jane Doe", 1, 40.0, "2024-02-10");
+        assertEquals(3, count("SELECT rows_processed FROM job_checkpoints WHERE completed = true AND run_date = DATE '2024-02-29'"));
+    }
+
+    @Test
+    void testRecoverRunsTodayOnlyWhenDue() throws SQLException {
+        insertInvoice("John Doe", 100, "2024-02-01", false);
+
+        assertEquals(0, scanner.recover(TODAY, false));
+        assertEquals(0, count("SELECT COUNT(*) FROM job_checkpoints"));
+
+        assertEquals(1, scanner.recover(TODAY, true));
+        assertEquals(0, scanner.recover(TODAY, true));
+        assertDunning("John Doe", 1, 100.0, "2024-02-01");
+    }
+
+    @Test
+    void testStartResumesAnUnfinishedRunRightAway() throws Exception {
+        insertInvoice("John Doe", 100, "2024-02-01", false);
+        insertInvoice("Jane Doe", 40, "2024-02-10", false);
+        insertInvoice("Jim Doe", 20, "2024-02-20", false);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("INSERT INTO job_checkpoints VALUES ('" + OverdueInvoiceScanner.JOB_NAME + "', DATE '" + LocalDate.now().minusDays(1) +
+                         "', 2, 2, false, CURRENT_TIMESTAMP)");
+        }
+
+        // Scheduled for later today, so the only run start() makes now is the recovery
+        int hour = LocalTime.now().getHour() + 1;
+        assumeTrue(hour < 24);
+        scanner.start(hour);
+        try {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (count("SELECT COUNT(*) FROM job_checkpoints WHERE completed = true") == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+        } finally {
+            scanner.stop();
+        }
+
+        assertEquals(1, count("SELECT COUNT(*) FROM job_checkpoints WHERE completed = true"));
+        assertEquals(1, count("SELECT COUNT(*) FROM customer_dunning WHERE customer_name = 'Jim Doe'"));
+    }
+
+    @Test
+    void testNextRunReplacesEarlierFlags() throws SQLException {
+        insertInvoice("John Doe", 100, "2024-02-01", false);
+        insertInvoice("Jane Doe", 40, "2024-02-10", false);
+        scanner.run(TODAY);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("UPDATE invoices SET paid = true WHERE customer_name = 'Jane Doe'");
+        }
+
+        assertEquals(1, scanner.run(TODAY.plusDays(1)));
+
+        assertDunning("John Doe", 1, 100.0, "2024-02-01");
+        assertEquals(0, count("SELECT COUNT(*) FROM customer_dunning WHERE customer_name = 'Jane Doe'"));
+    }
+
+    private void insertInvoice(String customerName, double amount, String dueDate, boolean paid) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("INSERT INTO invoices (order_id, customer_name, amount, due_date, paid) VALUES (1, '" + customerName + "', " +
+                         amount + ", DATE '" + dueDate + "', " + paid + ")");
+        }
+    }
+
+    private void assertDunning(String customerName, int invoices, double amount, String oldestDue) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT overdue_invoices, overdue_amount, oldest_due_date FROM customer_dunning WHERE customer_name = '" + customerName + "'")) {
+            assertTrue(rs.next(), customerName + " not flagged");
+            assertEquals(invoices, rs.getInt(1));
+            assertEquals(amount, rs.getDouble(2), 0.001);
+            assertEquals(LocalDate.parse(oldestDue), rs.getDate(3).toLocalDate());
+        }
+    }
+
+    private long count(String sql) throws SQLException {
+        try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
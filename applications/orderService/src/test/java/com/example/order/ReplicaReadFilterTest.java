@@ -0,0 +1,54 @@
+package com.example.order;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ReplicaReadFilterTest {
+
+    private final Connection primary = mock(Connection.class);
+    private final Connection replica = mock(Connection.class);
+
+    @Test
+    void testGetRequestsMayReadFromReplica() throws Exception {
+        assertSame(replica, readDuring("GET"));
+        assertSame(primary, readAfterRequest());
+    }
+
+    @Test
+    void testPostRequestsReadFromPrimary() throws Exception {
+        ReplicaRouter.allowReplicaReads();
+        assertSame(primary, readDuring("POST"));
+    }
+
+    private Connection readDuring(String method) throws Exception {
+        ReplicaRouter router = healthyRouter();
+        HttpExchange exchange = mock(HttpExchange.class);
+        when(exchange.getRequestMethod()).thenReturn(method);
+        AtomicReference<Connection> read = new AtomicReference<>();
+        new Filter.Chain(List.of(new ReplicaReadFilter()), e -> read.set(router.forRead())).doFilter(exchange);
+        return read.get();
+    }
+
+    private Connection readAfterRequest() throws Exception {
+        return healthyRouter().forRead();
+    }
+
+    private ReplicaRouter healthyRouter() throws Exception {
+        DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+        when(metaData.getDatabaseProductName()).thenReturn("H2");
+        when(replica.getMetaData()).thenReturn(metaData);
+        ReplicaRouter router = new ReplicaRouter(primary, () -> replica, 1, 1000);
+        router.checkReplica();
+        return router;
+    }
+}
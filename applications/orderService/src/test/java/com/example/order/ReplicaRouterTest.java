@@ -0,0 +1,118 @@
+package com.example.order;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicaRouterTest {
+
+    private static final String REPLICA_URL = "jdbc:h2:mem:replicadb;DB_CLOSE_DELAY=-1";
+
+    private Connection primary;
+    private Connection replica;
+    private ReplicaRouter router;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        primary = DriverManager.getConnection("jdbc:h2:mem:primarydb;DB_CLOSE_DELAY=-1");
+        replica = DriverManager.getConnection(REPLICA_URL);
+        // Two separate databases stand in for a primary and a replica that has not caught up yet
+        for (Connection connection : List.of(primary, replica)) {
+            try (Statement stmt = connection.createStatement()) {
+                TestSchema.createOrderTables(stmt);
+            }
+        }
+        router = new ReplicaRouter(primary, () -> DriverManager.getConnection(REPLICA_URL), 2, 1000);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        ReplicaRouter.pinToPrimary();
+        for (Connection connection : List.of(primary, replica)) {
+            try (Statement stmt = connection.createStatement()) {
+                TestSchema.dropOrderTables(stmt);
+            }
+            connection.close();
+        }
+    }
+
+    @Test
+    void testReadsStayOnPrimaryUntilReplicaIsCheckedAndAllowed() throws SQLException {
+        assertSame(primary, router.forRead());
+        ReplicaRouter.allowReplicaReads();
+        assertEquals(ReplicaRouter.State.UNCHECKED, router.getState());
+        assertSame(primary, router.forRead());
+
+        router.checkReplica();
+
+        assertEquals(ReplicaRouter.State.REPLICA, router.getState());
+        assertEquals(0, router.getLagMs());
+        assertNotSame(primary, router.forRead());
+
+        ReplicaRouter.pinToPrimary();
+        assertSame(primary, router.forRead());
+    }
+
+    @Test
+    void testReadAfterWriteStaysOnPrimary() throws SQLException {
+        OrderRepository repository = new OrderRepository(router, 3);
+        router.checkReplica();
+        ReplicaRouter.allowReplicaReads();
+
+        assertTrue(repository.findAll().isEmpty());
+        Order order = new Order();
+        order.setCustomerName("John Doe");
+        order.setStatus("PENDING");
+        int id = repository.createOrder(order);
+
+        // The replica has not seen the order, but this thread now reads from the primary
+        assertNotNull(repository.findById(id));
+        assertEquals(1, repository.findCustomerSummary("John Doe").getOrderCount());
+
+        ReplicaRouter.allowReplicaReads();
+        assertNull(repository.findById(id));
+    }
+
+    @Test
+    void testFallsBackToPrimaryWhenLagExceedsLimit() throws SQLException {
+        ReplicaRouter strict = new ReplicaRouter(primary, () -> DriverManager.getConnection(REPLICA_URL), 1, -1);
+        ReplicaRouter.allowReplicaReads();
+
+        strict.checkReplica();
+
+        assertEquals(ReplicaRouter.State.LAGGING, strict.getState());
+        assertSame(primary, strict.forRead());
+    }
+
+    @Test
+    void testFallsBackToPrimaryWhenReplicaIsUnreachable() throws SQLException {
+        ReplicaRouter unreachable = new ReplicaRouter(primary, () -> {
+            throw new SQLException("Connection refused");
+        }, 1, 1000);
+        ReplicaRouter.allowReplicaReads();
+
+        unreachable.checkReplica();
+
+        assertEquals(ReplicaRouter.State.UNREACHABLE, unreachable.getState());
+        assertSame(primary, unreachable.forRead());
+        assertTrue(unreachable.toJson().startsWith("{\"state\":\"UNREACHABLE\",\"lagMs\":-1,"));
+    }
+
+    @Test
+    void testPrimaryOnly() {
+        ReplicaRouter primaryOnly = ReplicaRouter.primaryOnly(primary);
+        ReplicaRouter.allowReplicaReads();
+        primaryOnly.checkReplica();
+
+        assertEquals(ReplicaRouter.State.DISABLED, primaryOnly.getState());
+        assertSame(primary, primaryOnly.forRead());
+    }
+}
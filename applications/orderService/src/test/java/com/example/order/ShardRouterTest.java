@@ -0,0 +1,157 @@
+package com.example.order;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardRouterTest {
+
+    private Connection shard0;
+    private Connection shard1;
+    private ShardRouter router;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        shard0 = DriverManager.getConnection("jdbc:h2:mem:routershard0db;DB_CLOSE_DELAY=-1");
+        shard1 = DriverManager.getConnection("jdbc:h2:mem:routershard1db;DB_CLOSE_DELAY=-1");
+        for (Connection connection : List.of(shard0, shard1)) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE TABLE orders (id INT AUTO_INCREMENT PRIMARY KEY, customer_name VARCHAR(255))");
+                stmt.execute("CREATE TABLE invoices (id INT AUTO_INCREMENT PRIMARY KEY, customer_name VARCHAR(255))");
+            }
+        }
+        router = new ShardRouter(List.of(shard0, shard1));
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        for (Connection connection : List.of(shard0, shard1)) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("DROP TABLE orders");
+                stmt.execute("DROP TABLE invoices");
+            }
+            connection.close();
+        }
+    }
+
+    @Test
+    void testShardForIsStableAndInRange() {
+        ShardRouter four = new ShardRouter(List.of(shard0, shard1, shard0, shard1));
+        for (String name : List.of("Alice", "Bob", "Carol", "Dave", "", "Ünïcødé")) {
+            int shard = four.shardFor(name);
+            assertTrue(shard >= 0 && shard < 4);
+            assertEquals(shard, four.shardFor(name));
+        }
+        // CRC32("Alice") = 0xe64f9343, so the placement does not depend on String.hashCode
+        assertEquals(0xe64f9343L % 4, four.shardFor("Alice"));
+        assertEquals(four.shardFor(""), four.shardFor(null));
+    }
+
+    @Test
+    void testShardForId() {
+        assertEquals(0, router.shardForId(10));
+        assertEquals(1, router.shardForId(11));
+    }
+
+    @Test
+    void testPrepareIdSequencesInterleavesIds() throws SQLException {
+        insertOrder(shard0, 2, customerOn(0));
+        insertOrder(shard0, 4, customerOn(0));
+        insertOrder(shard1, 1, customerOn(1));
+
+        router.prepareIdSequences();
+        // A second start must not move the sequences again
+        router.prepareIdSequences();
+
+        List<Integer> ids0 = insert(shard0, "orders", 2);
+        List<Integer> ids1 = insert(shard1, "orders", 2);
+        assertEquals(List.of(6, 8), ids0);
+        assertEquals(List.of(3, 5), ids1);
+
+        assertEquals(List.of(2, 4), insert(shard0, "invoices", 2));
+        assertEquals(List.of(1, 3), insert(shard1, "invoices", 2));
+    }
+
+    @Test
+    void testPrepareIdSequencesRefusesMaxIdOfAnotherShard() throws SQLException {
+        // Orders 1 to 3 were written while there was a single database
+        insert(shard0, "orders", 3);
+
+        IllegalStateException refused = assertThrows(IllegalStateException.class, router::prepareIdSequences);
+
+        assertTrue(refused.getMessage().contains("orders on shard 0 end at id 3, which belongs to shard 1"), refused.getMessage());
+        // Nothing was changed: the next id still follows the old sequence
+        assertEquals(List.of(4), insert(shard0, "orders", 1));
+    }
+
+    @Test
+    void testVerifyPlacementRefusesCustomersOfAnotherShard() throws SQLException {
+        String customer = customerOn(1);
+        insertOrder(shard0, 2, customer);
+
+        IllegalStateException refused = assertThrows(IllegalStateException.class, router::verifyPlacement);
+
+        assertTrue(refused.getMessage().contains("1 customers with orders on shard 0 belong to another shard, e.g. '" + customer + "'"),
+                refused.getMessage());
+    }
+
+    @Test
+    void testVerifyPlacementAcceptsRowsOnTheirShards() throws SQLException {
+        insertOrder(shard0, 2, customerOn(0));
+        insertOrder(shard1, 3, customerOn(1));
+
+        assertDoesNotThrow(router::verifyPlacement);
+    }
+
+    @Test
+    void testPrepareIdSequencesLeavesSingleShardAlone() throws SQLException {
+        new ShardRouter(List.of(shard0)).prepareIdSequences();
+        assertEquals(List.of(1, 2), insert(shard0, "orders", 2));
+    }
+
+    @Test
+    void testMergeNewestFirst() {
+        List<List<Integer>> perShard = List.of(List.of(10, 6, 4), List.of(9, 7, 1), List.of());
+        assertEquals(List.of(10, 9, 7, 6, 4, 1), ShardRouter.mergeNewestFirst(perShard, id -> id));
+        assertEquals(List.of(10, 9, 7), ShardRouter.mergeNewestFirst(perShard, id -> id, 3));
+    }
+
+    // A customer name the router places on the given shard
+    private String customerOn(int shard) {
+        for (int i = 0; ; i++) {
+            if (router.shardFor("customer-" + i) == shard) {
+                return "customer-" + i;
+            }
+        }
+    }
+
+    private static void insertOrder(Connection connection, int id, String customerName) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("INSERT INTO orders (id, customer_name) VALUES (" + id + ", '" + customerName + "')");
+        }
+    }
+
+    private static List<Integer> insert(Connection connection, String table, int rows) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        try (Statement stmt = connection.createStatement()) {
+            for (int i = 0; i < rows; i++) {
+                stmt.executeUpdate("INSERT INTO " + table + " (customer_name) VALUES ('x')", Statement.RETURN_GENERATED_KEYS);
+                try (ResultSet rs = stmt.getGeneratedKeys()) {
+                    rs.next();
+                    ids.add(rs.getInt(1));
+                }
+            }
+        }
+        return ids;
+    }
+}
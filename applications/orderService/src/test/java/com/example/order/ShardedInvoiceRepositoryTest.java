@@ -0,0 +1,102 @@
+package com.example.order;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedInvoiceRepositoryTest {
+
+    private Connection shard0;
+    private Connection shard1;
+    private ShardRouter router;
+    private ShardedInvoiceRepository repository;
+    private String customer0;
+    private String customer1;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        shard0 = DriverManager.getConnection("jdbc:h2:mem:invoiceshard0db;DB_CLOSE_DELAY=-1");
+        shard1 = DriverManager.getConnection("jdbc:h2:mem:invoiceshard1db;DB_CLOSE_DELAY=-1");
+        for (Connection connection : List.of(shard0, shard1)) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE TABLE orders (id INT AUTO_INCREMENT PRIMARY KEY, customer_name VARCHAR(255))");
+                TestSchema.createInvoices(stmt);
+                stmt.execute("CREATE TABLE customer_credit (customer_name VARCHAR(255) PRIMARY KEY, outstanding_amount DECIMAL(12, 2), earliest_unpaid_due DATE, updated_at TIMESTAMP)");
+            }
+        }
+        router = new ShardRouter(List.of(shard0, shard1));
+        router.prepareIdSequences();
+        repository = new ShardedInvoiceRepository(router);
+        customer0 = customerOn(0);
+        customer1 = customerOn(1);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        for (Connection connection : List.of(shard0, shard1)) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("DROP TABLE orders");
+                stmt.execute("DROP TABLE invoices");
+                stmt.execute("DROP TABLE customer_credit");
+            }
+            connection.close();
+        }
+    }
+
+    @Test
+    void testInvoicesAndCreditFollowTheCustomer() throws SQLException {
+        repository.createInvoice(new Invoice(2, customer0, 100.0, LocalDate.now().plusDays(30)));
+        repository.createInvoice(new Invoice(1, customer1, 40.0, LocalDate.now().plusDays(30)));
+
+        assertEquals(1, new InvoiceRepository(shard0).findAll().size());
+        assertEquals(customer1, new InvoiceRepository(shard1).findAll().get(0).getCustomerName());
+        assertEquals(100.0, repository.findCredit(customer0).getOutstandingAmount(), 0.001);
+        assertEquals(40.0, repository.findCredit(customer1).getOutstandingAmount(), 0.001);
+
+        Invoice invoice = repository.findByCustomer(customer1).get(0);
+        assertEquals(1, invoice.getId() % 2);
+        repository.markPaid(invoice.getId());
+        assertTrue(repository.findById(invoice.getId()).isPaid());
+        assertEquals(0.0, repository.findCredit(customer1).getOutstandingAmount(), 0.001);
+    }
+
+    @Test
+    void testFindPageMergesShardsUnlessFilteredByCustomer() throws SQLException {
+        for (int i = 0; i < 3; i++) {
+            repository.createInvoice(new Invoice(i, customer0, 10.0, LocalDate.now()));
+            repository.createInvoice(new Invoice(i, customer1, 10.0, LocalDate.now()));
+        }
+
+        List<Invoice> page = repository.findPage(new InvoiceFilter(), null, 4);
+        assertEquals(4, page.size());
+        for (int i = 1; i < page.size(); i++) {
+            assertTrue(page.get(i - 1).getId() > page.get(i).getId());
+        }
+        List<Invoice> rest = repository.findPage(new InvoiceFilter(), page.get(3).getId(), 4);
+        assertEquals(2, rest.size());
+
+        InvoiceFilter filter = new InvoiceFilter();
+        filter.setCustomerName(customer1);
+        List<Invoice> customerPage = repository.findPage(filter, null, 10);
+        assertEquals(3, customerPage.size());
+        assertTrue(customerPage.stream().allMatch(inv -> customer1.equals(inv.getCustomerName())));
+    }
+
+    private String customerOn(int shard) {
+        for (int i = 0; ; i++) {
+            String name = "Customer " + i;
+            if (router.shardFor(name) == shard) {
+                return name;
+            }
+        }
+    }
+}
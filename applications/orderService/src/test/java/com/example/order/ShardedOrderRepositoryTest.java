@@ -0,0 +1,204 @@
+package com.example.order;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedOrderRepositoryTest {
+
+    private Connection shard0;
+    private Connection shard1;
+    private ShardRouter router;
+    private ShardedOrderRepository repository;
+    private String customer0;
+    private String customer1;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        shard0 = DriverManager.getConnection("jdbc:h2:mem:ordershard0db;DB_CLOSE_DELAY=-1");
+        shard1 = DriverManager.getConnection("jdbc:h2:mem:ordershard1db;DB_CLOSE_DELAY=-1");
+        for (Connection connection : List.of(shard0, shard1)) {
+            try (Statement stmt = connection.createStatement()) {
+                TestSchema.createOrderTables(stmt);
+                TestSchema.createInvoices(stmt);
+            }
+        }
+        router = new ShardRouter(List.of(shard0, shard1));
+        router.prepareIdSequences();
+        repository = new ShardedOrderRepository(router, 3);
+        customer0 = customerOn(0);
+        customer1 = customerOn(1);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        for (Connection connection : List.of(shard0, shard1)) {
+            try (Statement stmt = connection.createStatement()) {
+                TestSchema.dropOrderTables(stmt);
+                stmt.execute("DROP TABLE invoices");
+            }
+            connection.close();
+        }
+    }
+
+    @Test
+    void testOrdersAreStoredOnTheCustomersShard() throws SQLException {
+        int id0 = repository.createOrder(order(customer0));
+        int id1 = repository.createOrder(order(customer1));
+
+        assertEquals(0, id0 % 2);
+        assertEquals(1, id1 % 2);
+        assertEquals(1, count(shard0, "orders"));
+        assertEquals(1, count(shard1, "orders"));
+        assertEquals(customer1, repository.findById(id1).getCustomerName());
+        assertEquals(1, repository.findById(id1).getItems().size());
+        assertEquals(1, repository.findByCustomer(customer1, null, 10).size());
+        assertEquals(1, repository.findCustomerSummary(customer0).getOrderCount());
+    }
+
+    @Test
+    void testCreateOrdersSplitsTheBatchByShard() throws SQLException {
+        List<Integer> ids = repository.createOrders(List.of(order(customer0), order(customer1), order(customer0)));
+
+        assertEquals(0, ids.get(0) % 2);
+        assertEquals(1, ids.get(1) % 2);
+        assertEquals(0, ids.get(2) % 2);
+        assertEquals(2, count(shard0, "orders"));
+        assertEquals(customer1, repository.findById(ids.get(1)).getCustomerName());
+    }
+
+    @Test
+    void testFindPageMergesShardsNewestFirst() throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ids.add(repository.createOrder(order(customer0)));
+            ids.add(repository.createOrder(order(customer1)));
+        }
+        ids.sort((a, b) -> Integer.compare(b, a));
+
+        List<Integer> paged = new ArrayList<>();
+        Integer afterId = null;
+        List<Order> page;
+        do {
+            page = repository.findPage(afterId, 3, false);
+            for (Order order : page) {
+                paged.add(order.getId());
+            }
+            afterId = page.isEmpty() ? null : page.get(page.size() - 1).getId();
+        } while (page.size() == 3);
+
+        assertEquals(ids, paged);
+        assertEquals(10, repository.findAll().size());
+        assertEquals(ids.get(0), repository.findAll().get(0).getId());
+    }
+
+    @Test
+    void testSearchMergesShardsByCreationTime() throws SQLException {
+        for (int i = 0; i < 4; i++) {
+            repository.createOrder(order(customer0));
+            repository.createOrder(order(customer1));
+        }
+        // The newest order by id is made the oldest by creation time, so a merge by id would misplace it
+        int oldest = repository.createOrder(order(customer1));
+        try (Statement stmt = shard1.createStatement()) {
+            stmt.execute("UPDATE orders SET created_at = TIMESTAMP '2020-01-15 10:00:00' WHERE id = " + oldest);
+        }
+        List<Order> all = repository.findAll();
+        all.sort(Comparator.comparing(OrderCursor::of).reversed());
+
+        List<Integer> paged = new ArrayList<>();
+        OrderCursor cursor = null;
+        List<Order> page;
+        do {
+            page = repository.search(new OrderFilter(), cursor, 3);
+            for (Order order : page) {
+                paged.add(order.getId());
+            }
+            cursor = page.isEmpty() ? null : OrderCursor.of(page.get(page.size() - 1));
+        } while (page.size() == 3);
+
+        List<Integer> expected = new ArrayList<>();
+        for (Order order : all) {
+            expected.add(order.getId());
+        }
+        assertEquals(expected, paged);
+        assertEquals(oldest, paged.get(paged.size() - 1));
+    }
+
+    @Test
+    void testUpdateStatusesRoutesEachIdToItsShard() throws SQLException {
+        int id0 = repository.createOrder(order(customer0));
+        int id1 = repository.createOrder(order(customer1));
+
+        Map<Integer, String> statuses = new LinkedHashMap<>();
+        statuses.put(id0, "SHIPPED");
+        statuses.put(id1, "CANCELLED");
+        statuses.put(999, "SHIPPED");
+        Set<Integer> updated = repository.updateStatuses(statuses);
+
+        assertEquals(Set.of(id0, id1), updated);
+        assertEquals("SHIPPED", repository.findById(id0).getStatus());
+        assertEquals("CANCELLED", repository.findById(id1).getStatus());
+
+        repository.updateStatus(id1, "CONFIRMED");
+        assertEquals("CONFIRMED", repository.findById(id1).getStatus());
+    }
+
+    @Test
+    void testOrderTransactionRunsOnTheOrdersShard() throws SQLException {
+        int id1 = repository.createOrder(order(customer1));
+        ShardedInvoiceRepository invoices = new ShardedInvoiceRepository(router);
+
+        assertThrows(SQLException.class, () -> repository.inOrderTransaction(id1, () -> {
+            repository.updateStatus(id1, "CONFIRMED");
+            try (Statement stmt = shard1.createStatement()) {
+                stmt.execute("INSERT INTO invoices (order_id, customer_name, amount, paid) VALUES (" + id1 + ", '" + customer1 + "', 10, FALSE)");
+            }
+            throw new SQLException("boom");
+        }));
+
+        assertEquals("PENDING", repository.findById(id1).getStatus());
+        assertEquals(0, count(shard1, "invoices"));
+        assertTrue(invoices.findByCustomer(customer1).isEmpty());
+    }
+
+    private String customerOn(int shard) {
+        for (int i = 0; ; i++) {
+            String name = "Customer " + i;
+            if (router.shardFor(name) == shard) {
+                return name;
+            }
+        }
+    }
+
+    private static Order order(String customer) {
+        Order order = new Order();
+        order.setCustomerName(customer);
+        order.setStatus("PENDING");
+        order.setTotalAmount(10.0);
+        order.addItem(new OrderItem(1, 1));
+        return order;
+    }
+
+    private static int count(Connection connection, String table) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
@@ -38,7 +38,7 @@ public class StockReservationServicePactTest {
                 .path("/api/stock/reserve")
                 .method("POST")
                 .headers("Content-Type", "application/json", "Authorization", "Bearer dummy-token")
-                .body("{\"productId\":1,\"quantity\":2}")
+                .body("{\"reservationId\":\"reservation-1\",\"productId\":1,\"quantity\":2}")
             .willRespondWith()
                 .status(200)
                 .headers(java.util.Map.of("Content-Type", "application/json"))
@@ -46,6 +46,23 @@ public class StockReservationServicePactTest {
             .toPact(V4Pact.class);
     }
 
+    @Pact(consumer = "OrderService")
+    public V4Pact releasePact(PactBuilder builder) {
+        return builder
+            .usingLegacyDsl()
+            .given("Warehouse is up")
+            .uponReceiving("A request to release reserved stock")
+                .path("/api/stock/release")
+                .method("POST")
+                .headers("Content-Type", "application/json", "Authorization", "Bearer dummy-token")
+                .body("{\"reservationId\":\"reservation-1\",\"productId\":1,\"quantity\":2}")
+            .willRespondWith()
+                .status(200)
+                .headers(java.util.Map.of("Content-Type", "application/json"))
+                .body("{\"status\":\"released\",\"released\":2}")
+            .toPact(V4Pact.class);
+    }
+
     @Test
     @PactTestFor(pactMethod = "createPact")
     void testReserveStock(MockServer mockServer) throws IOException, ExecutionException, InterruptedException {
@@ -57,9 +74,19 @@ public class StockReservationServicePactTest {
         StockReservationService service = new StockReservationService(mockUrl, tokenService);
 
         // Execute
-        CompletableFuture<Boolean> future = service.reserveStock(1, 2);
+        CompletableFuture<Boolean> future = service.reserveStock("reservation-1", 1, 2);
         
         // Assert
         assert(future.get());
     }
+
+    @Test
+    @PactTestFor(pactMethod = "releasePact")
+    void testReleaseStock(MockServer mockServer) throws ExecutionException, InterruptedException {
+        when(tokenService.getAccessToken()).thenReturn(CompletableFuture.completedFuture("dummy-token"));
+
+        StockReservationService service = new StockReservationService(mockServer.getUrl() + "/api/stock/reserve", tokenService);
+
+        assert(service.releaseStock("reservation-1", 1, 2).get());
+    }
 }
@@ -0,0 +1,164 @@
+package com.example.order;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class StockReservationServiceTest {
+
+    @Mock
+    private TokenService tokenService;
+
+    private StockReservationService service;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        service = spy(new StockReservationService("http://warehouse/api/stock/reserve", "http://warehouse/api/stock/release", tokenService, 2));
+    }
+
+    @Test
+    void testReserveAll_AllLinesReserved() {
+        doReturn(CompletableFuture.completedFuture(true)).when(service).reserveStock(anyString(), anyInt(), anyInt());
+
+        List<OrderItem> items = Arrays.asList(new OrderItem(1, 1), new OrderItem(2, 2), new OrderItem(3, 3));
+
+        assertTrue(service.reserveAll(items).join());
+        verify(service).reserveStock(anyString(), eq(1), eq(1));
+        verify(service).reserveStock(anyString(), eq(2), eq(2));
+        verify(service).reserveStock(anyString(), eq(3), eq(3));
+        verify(service, never()).releaseStock(anyString(), anyInt(), anyInt());
+    }
+
+    @Test
+    void testReserveAll_ReleasesReservedLinesOnRefusal() {
+        doReturn(CompletableFuture.completedFuture(true)).when(service).reserveStock(anyString(), eq(1), eq(1));
+        doReturn(CompletableFuture.completedFuture(false)).when(service).reserveStock(anyString(), eq(2), eq(2));
+        doReturn(CompletableFuture.completedFuture(true)).when(service).releaseStock(anyString(), anyInt(), anyInt());
+
+        List<OrderItem> items = Arrays.asList(new OrderItem(1, 1), new OrderItem(2, 2));
+
+        assertFalse(service.reserveAll(items).join());
+        verify(service).releaseStock(anyString(), eq(1), eq(1));
+        verify(service, never()).releaseStock(anyString(), eq(2), eq(2));
+    }
+
+    @Test
+    void testReserveAll_ReleasesUnderTheOrdersReservationId() {
+        doReturn(CompletableFuture.completedFuture(true)).when(service).reserveStock(anyString(), eq(1), eq(1));
+        doReturn(CompletableFuture.completedFuture(false)).when(service).reserveStock(anyString(), eq(2), eq(2));
+        doReturn(CompletableFuture.completedFuture(true)).when(service).releaseStock(anyString(), anyInt(), anyInt());
+
+        assertFalse(service.reserveAll(Arrays.asList(new OrderItem(1, 1), new OrderItem(2, 2))).join());
+
+        ArgumentCaptor<String> reserved = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<String> released = ArgumentCaptor.forClass(String.class);
+        verify(service).reserveStock(reserved.capture(), eq(1), eq(1));
+        verify(service).releaseStock(released.capture(), eq(1), eq(1));
+        assertEquals(reserved.getValue(), released.getValue());
+        // Another order gets its own reservation id
+        service.reserveAll(List.of(new OrderItem(1, 1))).join();
+        verify(service, times(2)).reserveStock(reserved.capture(), eq(1), eq(1));
+        assertNotEquals(released.getValue(), reserved.getValue());
+    }
+
+    @Test
+    void testReserveAll_ReleasesReservedLinesOnError() {
+        doReturn(CompletableFuture.completedFuture(true)).when(service).reserveStock(anyString(), eq(1), eq(1));
+        doReturn(CompletableFuture.failedFuture(new RuntimeException("warehouse down"))).when(service).reserveStock(anyString(), eq(2), eq(2));
+        doReturn(CompletableFuture.completedFuture(true)).when(service).releaseStock(anyString(), anyInt(), anyInt());
+
+        List<OrderItem> items = Arrays.asList(new OrderItem(1, 1), new OrderItem(2, 2));
+
+        assertThrows(CompletionException.class, () -> service.reserveAll(items).join());
+        verify(service).releaseStock(anyString(), eq(1), eq(1));
+        // The failed call may have reserved its line before it failed
+        verify(service).releaseStock(anyString(), eq(2), eq(2));
+    }
+
+    @Test
+    void testReserveAll_DoesNotReleaseLinesTheGuardRefused() {
+        doReturn(CompletableFuture.completedFuture(true)).when(service).reserveStock(anyString(), eq(1), eq(1));
+        doReturn(CompletableFuture.failedFuture(new DownstreamUnavailableException("warehouse-stock", "circuit breaker open", 1000)))
+                .when(service).reserveStock(anyString(), eq(2), eq(2));
+        doReturn(CompletableFuture.completedFuture(true)).when(service).releaseStock(anyString(), anyInt(), anyInt());
+
+        assertThrows(CompletionException.class, () -> service.reserveAll(Arrays.asList(new OrderItem(1, 1), new OrderItem(2, 2))).join());
+        verify(service).releaseStock(anyString(), eq(1), eq(1));
+        verify(service, never()).releaseStock(anyString(), eq(2), eq(2));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testReleaseStock_BypassesAnOpenBreaker() {
+        HttpClient httpClient = mock(HttpClient.class);
+        HttpResponse<String> ok = mock(HttpResponse.class);
+        when(ok.statusCode()).thenReturn(200);
+        when(httpClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(CompletableFuture.completedFuture(ok));
+        when(tokenService.getAccessToken()).thenReturn(CompletableFuture.completedFuture("token"));
+        DownstreamGuard guard = new DownstreamGuard("warehouse-stock", 1000, 1, 1, 60_000, 1);
+        guard.call(() -> CompletableFuture.failedFuture(new RuntimeException("warehouse down")), r -> false);
+        assertEquals(DownstreamGuard.State.OPEN, guard.getState());
+        StockReservationService guarded = new StockReservationService(httpClient, "http://warehouse/api/stock/reserve",
+                "http://warehouse/api/stock/release", tokenService, 2, guard);
+
+        CompletionException refused = assertThrows(CompletionException.class, () -> guarded.reserveStock("reservation-1", 1, 1).join());
+        assertNotNull(DownstreamUnavailableException.find(refused));
+        assertTrue(guarded.releaseStock("reservation-1", 1, 1).join());
+        verify(httpClient, times(1)).sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
+    }
+
+    @Test
+    void testReserveAll_BoundsInFlightRequests() {
+        CompletableFuture<Boolean> first = new CompletableFuture<>();
+        CompletableFuture<Boolean> second = new CompletableFuture<>();
+        doReturn(first).when(service).reserveStock(anyString(), eq(1), eq(1));
+        doReturn(second).when(service).reserveStock(anyString(), eq(2), eq(1));
+        doReturn(CompletableFuture.completedFuture(true)).when(service).reserveStock(anyString(), eq(3), eq(1));
+
+        List<OrderItem> items = Arrays.asList(new OrderItem(1, 1), new OrderItem(2, 1), new OrderItem(3, 1));
+        CompletableFuture<Boolean> result = service.reserveAll(items);
+
+        // Two lanes: the first two lines are issued together, the third waits for its lane
+        verify(service).reserveStock(anyString(), eq(1), eq(1));
+        verify(service).reserveStock(anyString(), eq(2), eq(1));
+        verify(service, never()).reserveStock(anyString(), eq(3), eq(1));
+
+        first.complete(true);
+        verify(service).reserveStock(anyString(), eq(3), eq(1));
+        assertFalse(result.isDone());
+
+        second.complete(true);
+        assertTrue(result.join());
+    }
+
+    @Test
+    void testReserveAll_EmptyOrder() {
+        assertTrue(service.reserveAll(List.of()).join());
+        verify(service, never()).reserveStock(anyString(), anyInt(), anyInt());
+    }
+
+    @Test
+    void testReleaseUrlReplacesOnlyTheLastPathSegment() {
+        assertEquals("http://warehouse-demo:8002/api/stock/release", StockReservationService.releaseUrlFor("http://warehouse-demo:8002/api/stock/reserve"));
+        assertEquals("http://reserve.internal/reserve/api/stock/release", StockReservationService.releaseUrlFor("http://reserve.internal/reserve/api/stock/reserve"));
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.order;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class StreamingExporterTest {
+
+    private static final String URL = "jdbc:h2:mem:exportdb;DB_CLOSE_DELAY=-1";
+
+    private Connection connection;
+    private StreamingExporter exporter;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        connection = DriverManager.getConnection(URL);
+        try (Statement stmt = connection.createStatement()) {
+            TestSchema.createOrderTables(stmt);
+            TestSchema.createInvoices(stmt);
+            stmt.execute("INSERT INTO orders (customer_name, status, total_amount, points_redeemed, points_earned, created_at) VALUES " +
+                         "('Doe, John', 'DELIVERED', 30.5, 5, 30, TIMESTAMP '2024-01-10 10:00:00'), " +
+                         "('Jane \"JD\" Doe', 'CANCELLED', 0, 0, 0, TIMESTAMP '2024-02-01 08:30:00'), " +
+                         "('Jim Doe', 'CONFIRMED', 12, 0, 12, TIMESTAMP '2024-03-05 12:00:00')");
+            stmt.execute("INSERT INTO order_items (order_id, order_created_at, product_id, quantity) VALUES " +
+                         "(1, TIMESTAMP '2024-01-10 10:00:00', 1, 2), (1, TIMESTAMP '2024-01-10 10:00:00', 2, 1), " +
+                         "(3, TIMESTAMP '2024-03-05 12:00:00', 7, 3)");
+            stmt.execute("INSERT INTO invoices (order_id, customer_name, amount, due_date, paid) VALUES " +
+                         "(1, 'Doe, John', 30.5, DATE '2024-02-10', true), (3, 'Jim Doe', 12, DATE '2024-04-05', false)");
+        }
+        exporter = new StreamingExporter(() -> DriverManager.getConnection(URL));
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            TestSchema.dropOrderTables(stmt);
+            stmt.execute("DROP TABLE invoices");
+        }
+        connection.close();
+    }
+
+    @Test
+    void testExportOrdersCsvInImportLayout() throws SQLException, IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long orders = exporter.exportOrders(null, LocalDate.of(2024, 2, 1), OrderImporter.Format.CSV, () -> out);
+
+        assertEquals(2, orders);
+        assertEquals("ref,customer_name,status,total_amount,points_redeemed,points_earned,created_at,product_id,quantity\n" +
+                     "1,\"Doe, John\",DELIVERED,30.5,5,30,2024-01-10T10:00:00,1,2\n" +
+                     "1,\"Doe, John\",DELIVERED,30.5,5,30,2024-01-10T10:00:00,2,1\n" +
+                     "2,\"Jane \"\"JD\"\" Doe\",CANCELLED,0,0,0,2024-02-01T08:30:00,,\n",
+                     out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testExportOrdersNdjson() throws SQLException, IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long orders = exporter.exportOrders(LocalDate.of(2024, 2, 1), null, OrderImporter.Format.NDJSON, () -> out);
+
+        assertEquals(2, orders);
+        assertEquals("{\"id\":2,\"customerName\":\"Jane \\\"JD\\\" Doe\",\"status\":\"CANCELLED\",\"totalAmount\":0,\"pointsRedeemed\":0,\"pointsEarned\":0,\"createdAt\":\"2024-02-01T08:30:00\",\"items\":[]}\n" +
+                     "{\"id\":3,\"customerName\":\"Jim Doe\",\"status\":\"CONFIRMED\",\"totalAmount\":12,\"pointsRedeemed\":0,\"pointsEarned\":12,\"createdAt\":\"2024-03-05T12:00:00\",\"items\":[{\"productId\":7,\"quantity\":3}]}\n",
+                     out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testExportedOrdersCanBeImportedAgain() throws SQLException, IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exporter.exportOrders(null, null, OrderImporter.Format.NDJSON, () -> out);
+        OrderImporter.Result result = new OrderImporter(() -> DriverManager.getConnection(URL))
+                .importOrders(new ByteArrayInputStream(out.toByteArray()), OrderImporter.Format.NDJSON);
+
+        assertEquals(3, result.getOrders());
+        assertEquals(3, result.getItems());
+    }
+
+    @Test
+    void testExportInvoicesByDueDate() throws SQLException, IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long invoices = exporter.exportInvoices(LocalDate.of(2024, 3, 1), LocalDate.of(2024, 4, 30), OrderImporter.Format.CSV, () -> out);
+
+        assertEquals(1, invoices);
+        assertEquals("id,order_id,customer_name,amount,due_date,paid\n2,3,Jim Doe,12,2024-04-05,false\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testExportConcatenatesShardsUnderOneHeader() throws SQLException, IOException {
+        String otherUrl = "jdbc:h2:mem:exportshard1db;DB_CLOSE_DELAY=-1";
+        try (Connection other = DriverManager.getConnection(otherUrl);
+             Statement stmt = other.createStatement()) {
+            stmt.execute("CREATE TABLE invoices (id INT PRIMARY KEY, order_id INT, customer_name VARCHAR(255), amount DOUBLE, due_date DATE, paid BOOLEAN)");
+            stmt.execute("INSERT INTO invoices VALUES (7, 9, 'Ann Roe', 5, DATE '2024-04-01', false)");
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            StreamingExporter sharded = new StreamingExporter(List.of(
+                    () -> DriverManager.getConnection(URL), () -> DriverManager.getConnection(otherUrl)));
+
+            long invoices = sharded.exportInvoices(LocalDate.of(2024, 3, 1), null, OrderImporter.Format.CSV, () -> out);
+
+            assertEquals(2, invoices);
+            assertEquals("id,order_id,customer_name,amount,due_date,paid\n2,3,Jim Doe,12,2024-04-05,false\n7,9,Ann Roe,5,2024-04-01,false\n",
+                         out.toString(StandardCharsets.UTF_8));
+            stmt.execute("DROP TABLE invoices");
+        }
+    }
+
+    @Test
+    void testRespondStreamsGzipWithoutContentLength() throws IOException {
+        HttpExchange exchange = mock(HttpExchange.class);
+        Headers headers = new Headers();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        when(exchange.getResponseHeaders()).thenReturn(headers);
+        when(exchange.getResponseBody()).thenReturn(body);
+        Map<String, String> params = new HashMap<>();
+        params.put("format", "ndjson");
+        params.put("gzip", "true");
+
+        StreamingExporter.respond(exchange, params, "invoices", exporter::exportInvoices);
+
+        verify(exchange).sendResponseHeaders(200, 0);
+        assertEquals("application/gzip", headers.getFirst("Content-Type"));
+        assertEquals("attachment; filename=\"invoices.ndjson.gz\"", headers.getFirst("Content-Disposition"));
+        String ndjson = new String(new GZIPInputStream(new ByteArrayInputStream(body.toByteArray())).readAllBytes(), StandardCharsets.UTF_8);
+        assertEquals(2, ndjson.lines().count());
+        assertTrue(ndjson.startsWith("{\"id\":1,\"orderId\":1,\"customerName\":\"Doe, John\",\"amount\":30.5,\"dueDate\":\"2024-02-10\",\"paid\":true}"));
+    }
+
+    @Test
+    void testRespondRejectsBadParameters() throws IOException {
+        HttpExchange exchange = mock(HttpExchange.class);
+        when(exchange.getResponseHeaders()).thenReturn(new Headers());
+        when(exchange.getResponseBody()).thenReturn(new ByteArrayOutputStream());
+        Map<String, String> params = new HashMap<>();
+        params.put("from", "yesterday");
+
+        StreamingExporter.respond(exchange, params, "orders", exporter::exportOrders);
+
+        verify(exchange).sendResponseHeaders(eq(400), anyLong());
+    }
+}
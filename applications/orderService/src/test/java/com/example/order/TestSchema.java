@@ -0,0 +1,37 @@
+package com.example.order;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * H2 versions of the tables in schema.sql that the repository tests need, kept in one place so a schema
+ * change is made once. Partitioning and PostgreSQL-only indexes are left out.
+ */
+final class TestSchema {
+
+    private TestSchema() {}
+
+    /** orders and order_items with the summary, counter and version tables OrderRepository keeps in step. */
+    static void createOrderTables(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TABLE orders (id INT AUTO_INCREMENT PRIMARY KEY, customer_name VARCHAR(255), status VARCHAR(255), total_amount DOUBLE, " +
+                     "points_redeemed INT, points_earned INT, created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, change_version BIGINT, " +
+                     "status_code SMALLINT GENERATED ALWAYS AS (" + OrderStatus.statusCodeExpression() + "))");
+        stmt.execute("CREATE TABLE order_items (id INT AUTO_INCREMENT PRIMARY KEY, order_id INT, order_created_at TIMESTAMP, product_id INT, quantity INT)");
+        stmt.execute("CREATE TABLE customer_order_summary (customer_name VARCHAR(255), status VARCHAR(50), order_count INT, points_earned BIGINT, " +
+                     "points_redeemed BIGINT, updated_at TIMESTAMP, PRIMARY KEY (customer_name, status))");
+        stmt.execute("CREATE TABLE order_status_counts (status VARCHAR(50) PRIMARY KEY, order_count BIGINT, updated_at TIMESTAMP)");
+        stmt.execute("CREATE TABLE customer_order_versions (customer_name VARCHAR(255) PRIMARY KEY, version BIGINT NOT NULL)");
+    }
+
+    static void dropOrderTables(Statement stmt) throws SQLException {
+        stmt.execute("DROP TABLE orders");
+        stmt.execute("DROP TABLE order_items");
+        stmt.execute("DROP TABLE customer_order_summary");
+        stmt.execute("DROP TABLE order_status_counts");
+        stmt.execute("DROP TABLE customer_order_versions");
+    }
+
+    static void createInvoices(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TABLE invoices (id INT AUTO_INCREMENT PRIMARY KEY, order_id INT, customer_name VARCHAR(255), amount DOUBLE, due_date DATE, paid BOOLEAN)");
+    }
+}
@@ -94,7 +94,12 @@ public class DeliveryRepository {
         return 0;
     }
 
-    public synchronized boolean reserveStock(int productId, int quantity) throws SQLException {
+    public boolean reserveStock(int productId, int quantity) throws SQLException {
+        return reserveStock(productId, quantity, null);
+    }
+
+    // reservationId, when given, marks the reserved individuals so only releaseStock with the same id frees them
+    public synchronized boolean reserveStock(int productId, int quantity, String reservationId) throws SQLException {
         // Check availability
         int available = countStock(productId);
         if (available < quantity) {
@@ -103,18 +108,44 @@ public class DeliveryRepository {
 
         // Reserve items (Update state to 'Reserved')
         // We use a subquery to select specific IDs to update
-        String sql = "UPDATE product_individuals SET state = 'Reserved' WHERE id IN (" +
+        String sql = "UPDATE product_individuals SET state = 'Reserved', reservation_id = ? WHERE id IN (" +
                      "SELECT id FROM product_individuals WHERE product_id = ? AND state = 'New' LIMIT ?" +
                      ")";
         
         try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setInt(1, productId);
-            stmt.setInt(2, quantity);
+            stmt.setString(1, reservationId);
+            stmt.setInt(2, productId);
+            stmt.setInt(3, quantity);
             int updated = stmt.executeUpdate();
             return updated == quantity;
         }
     }
 
+    public int releaseStock(int productId, int quantity) throws SQLException {
+        return releaseStock(productId, quantity, null);
+    }
+
+    // Compensation for reserveStock: returns up to 'quantity' individuals reserved under reservationId to stock.
+    // Individuals reserved without an id belong to no order in particular, so a release without an id frees any
+    // of those and a repeated one can free units another order reserved. With an id, a repeated release or a
+    // release for a reservation that never happened frees nothing.
+    public synchronized int releaseStock(int productId, int quantity, String reservationId) throws SQLException {
+        String sql = "UPDATE product_individuals SET state = 'New', reservation_id = NULL WHERE id IN (" +
+                     "SELECT id FROM product_individuals WHERE product_id = ? AND state = 'Reserved' AND " +
+                     (reservationId != null ? "reservation_id = ?" : "reservation_id IS NULL") + " LIMIT ?" +
+                     ")";
+
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            int i = 1;
+            stmt.setInt(i++, productId);
+            if (reservationId != null) {
+                stmt.setString(i++, reservationId);
+            }
+            stmt.setInt(i, quantity);
+            return stmt.executeUpdate();
+        }
+    }
+
     private List<ProductIndividual> findIndividualsByDeliveryId(int deliveryId) throws SQLException {
         List<ProductIndividual> list = new ArrayList<>();
         String sql = "SELECT id, delivery_id, product_id, serial_number, state FROM product_individuals WHERE delivery_id = ?";
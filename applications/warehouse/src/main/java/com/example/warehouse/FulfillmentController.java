@@ -8,8 +8,11 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.HashMap;
 import java.net.URLDecoder;
 
@@ -85,6 +88,12 @@ public class FulfillmentController implements HttpHandler {
             }
             
             html.append("</tbody></table>");
+            if (orders.stream().anyMatch(o -> "PENDING".equals(o.getStatus()))) {
+                html.append("<form method='post'>");
+                html.append("<input type='hidden' name='action' value='shipAllPending'>");
+                html.append("<button type='submit' class='btn btn-success'>Mark All Pending Shipped</button>");
+                html.append("</form>");
+            }
             html.append("</div></body></html>");
             
             String response = html.toString();
@@ -106,6 +115,23 @@ public class FulfillmentController implements HttpHandler {
         Map<String, String> params = parseFormData(formData);
         
         try {
+            if ("shipAllPending".equals(params.get("action"))) {
+                Set<Integer> notUpdated = shipAllPending();
+                if (!notUpdated.isEmpty()) {
+                    byte[] bytes = ("Orders were marked shipped here, but the Order Service could not be updated for " +
+                                    notUpdated.size() + " of them: " + notUpdated).getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                    exchange.sendResponseHeaders(502, bytes.length);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(bytes);
+                    }
+                    return;
+                }
+                exchange.getResponseHeaders().set("Location", "/fulfillment");
+                exchange.sendResponseHeaders(302, -1);
+                return;
+            }
+
             int orderId = Integer.parseInt(params.get("orderId"));
             String status = params.get("status");
             
@@ -125,6 +151,30 @@ public class FulfillmentController implements HttpHandler {
         }
     }
 
+    // Ships a whole wave with one batched update here and batch requests to the Order Service.
+    // Returns the orders the Order Service could not be told about.
+    private Set<Integer> shipAllPending() throws SQLException {
+        List<Integer> pending = new ArrayList<>();
+        for (FulfillmentOrder o : repository.findAllFulfillmentOrders()) {
+            if ("PENDING".equals(o.getStatus())) {
+                pending.add(o.getOrderId());
+            }
+        }
+        if (pending.isEmpty()) {
+            return Set.of();
+        }
+        repository.updateFulfillmentStatuses(pending, "SHIPPED");
+
+        if (orderUpdateService == null) {
+            return Set.of();
+        }
+        Map<Integer, String> statuses = new LinkedHashMap<>();
+        for (int orderId : pending) {
+            statuses.put(orderId, "SHIPPED");
+        }
+        return orderUpdateService.updateStatuses(statuses).join();
+    }
+
     private Map<String, String> parseFormData(String formData) {
         Map<String, String> map = new HashMap<>();
         String[] pairs = formData.split("&");
@@ -59,4 +59,16 @@ public class FulfillmentOrderRepository {
             stmt.executeUpdate();
         }
     }
+
+    public void updateFulfillmentStatuses(List<Integer> orderIds, String status) throws SQLException {
+        String sql = "UPDATE fulfillment_orders SET status = ? WHERE order_id = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            for (int orderId : orderIds) {
+                stmt.setString(1, status);
+                stmt.setInt(2, orderId);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
 }
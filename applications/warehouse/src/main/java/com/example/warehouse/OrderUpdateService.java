@@ -5,14 +5,27 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class OrderUpdateService {
 
+    // The order service's batch endpoint refuses requests with more entries than this with 413
+    static final int MAX_BATCH = 1000;
+    private static final int MAX_ATTEMPTS = 3;
+
     private final HttpClient httpClient;
     private final String orderServiceUrl;
     private final TokenService tokenService;
+    private final long retryBackoffMs;
 
     public OrderUpdateService() {
         this(
@@ -33,9 +46,14 @@ public class OrderUpdateService {
 
     // Added constructor for testing
     public OrderUpdateService(String orderServiceUrl, TokenService tokenService, HttpClient httpClient) {
+        this(orderServiceUrl, tokenService, httpClient, 500);
+    }
+
+    public OrderUpdateService(String orderServiceUrl, TokenService tokenService, HttpClient httpClient, long retryBackoffMs) {
         this.orderServiceUrl = orderServiceUrl;
         this.tokenService = tokenService;
         this.httpClient = httpClient;
+        this.retryBackoffMs = retryBackoffMs;
     }
 
     public void updateStatus(int orderId, String status) {
@@ -68,4 +86,80 @@ public class OrderUpdateService {
             }
         });
     }
+
+    /**
+     * Sends the changes to the order service's batch endpoint as NDJSON, in requests of at most MAX_BATCH
+     * entries sent one after another. A request that fails with an exception, a 5xx or a 429 is retried
+     * up to MAX_ATTEMPTS times with doubling backoff. Completes with the ids of the orders whose change
+     * could not be delivered, which is empty when every request was accepted.
+     */
+    public CompletableFuture<Set<Integer>> updateStatuses(Map<Integer, String> statuses) {
+        if (statuses.isEmpty()) {
+            return CompletableFuture.completedFuture(new HashSet<>());
+        }
+        List<Map<Integer, String>> batches = new ArrayList<>();
+        Map<Integer, String> batch = new LinkedHashMap<>();
+        for (Map.Entry<Integer, String> entry : statuses.entrySet()) {
+            batch.put(entry.getKey(), entry.getValue());
+            if (batch.size() == MAX_BATCH) {
+                batches.add(batch);
+                batch = new LinkedHashMap<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        System.out.println("Updating status for " + statuses.size() + " orders in " + batches.size() + " requests");
+
+        Set<Integer> failed = ConcurrentHashMap.newKeySet();
+        return tokenService.getAccessToken().thenCompose(token -> {
+            CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+            for (Map<Integer, String> next : batches) {
+                chain = chain.thenCompose(v -> sendBatch(token, next, 1)).thenAccept(delivered -> {
+                    if (!delivered) {
+                        failed.addAll(next.keySet());
+                    }
+                });
+            }
+            return chain;
+        }).handle((v, e) -> {
+            if (e != null) {
+                System.err.println("Exception during batch order status update: " + e.getMessage());
+                return new HashSet<>(statuses.keySet());
+            }
+            if (!failed.isEmpty()) {
+                System.err.println("Failed to update order status for " + failed.size() + " of " + statuses.size() + " orders");
+            }
+            return new HashSet<>(failed);
+        });
+    }
+
+    private CompletableFuture<Boolean> sendBatch(String token, Map<Integer, String> batch, int attempt) {
+        StringBuilder ndjson = new StringBuilder();
+        for (Map.Entry<Integer, String> entry : batch.entrySet()) {
+            ndjson.append(String.format(Locale.US, "{\"orderId\":%d,\"status\":\"%s\"}", entry.getKey(), entry.getValue())).append('\n');
+        }
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(orderServiceUrl + "/batch"))
+                .header("Content-Type", "application/x-ndjson")
+                .header("Authorization", "Bearer " + token)
+                .POST(HttpRequest.BodyPublishers.ofString(ndjson.toString()))
+                .build();
+
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()).handle((response, e) -> {
+            if (e == null && response.statusCode() == 200) {
+                System.out.println("Updated order statuses: " + response.body());
+                return CompletableFuture.completedFuture(true);
+            }
+            boolean retryable = e != null || response.statusCode() >= 500 || response.statusCode() == 429;
+            System.err.println("Failed to update order statuses (attempt " + attempt + "). " +
+                    (e != null ? "Exception: " + e.getMessage() : "Status: " + response.statusCode() + " Body: " + response.body()));
+            if (!retryable || attempt >= MAX_ATTEMPTS) {
+                return CompletableFuture.completedFuture(false);
+            }
+            long delayMs = retryBackoffMs << (attempt - 1);
+            return CompletableFuture.supplyAsync(() -> null, CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS))
+                    .thenCompose(v -> sendBatch(token, batch, attempt + 1));
+        }).thenCompose(result -> result);
+    }
 }
@@ -29,9 +29,10 @@ public class StockReservationController implements HttpHandler {
                 String json = new String(is.readAllBytes(), StandardCharsets.UTF_8);
                 System.out.println("Stock Reservation received: " + json);
                 
-                // Simple parse: {"productId": 1, "quantity": 1}
+                // Simple parse: {"reservationId": "...", "productId": 1, "quantity": 1}, reservationId optional
                 int productId = 0;
                 int quantity = 0;
+                String reservationId = null;
                 
                 json = json.replace("{", "").replace("}", "").replace("\"", "");
                 String[] pairs = json.split(",");
@@ -43,6 +44,7 @@ public class StockReservationController implements HttpHandler {
                     
                     if ("productId".equals(key)) productId = Integer.parseInt(value);
                     if ("quantity".equals(key)) quantity = Integer.parseInt(value);
+                    if ("reservationId".equals(key) && !value.isEmpty()) reservationId = value;
                 }
                 
                 // productId is treated as pmId
@@ -59,8 +61,23 @@ public class StockReservationController implements HttpHandler {
                 }
 
                 int warehouseId = p.getId();
+
+                if (exchange.getRequestURI().getPath().endsWith("/release")) {
+                    int released = repository.releaseStock(warehouseId, quantity, reservationId);
+                    if (p.getPmId() != null) {
+                        stockService.syncStock(p.getPmId(), repository.countStock(warehouseId));
+                    }
+
+                    String response = "{\"status\":\"released\",\"released\":" + released + "}";
+                    exchange.getResponseHeaders().set("Content-Type", "application/json");
+                    exchange.sendResponseHeaders(200, response.length());
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(response.getBytes());
+                    }
+                    return;
+                }
                 
-                boolean success = repository.reserveStock(warehouseId, quantity);
+                boolean success = repository.reserveStock(warehouseId, quantity, reservationId);
                 
                 if (success) {
                     // Trigger sync to Webshop
@@ -170,6 +170,9 @@ public class WarehouseApplication {
         
         HttpContext stockReserveContext = server.createContext("/api/stock/reserve", new StockReservationController(deliveryRepository, productRepository, stockService));
         stockReserveContext.getFilters().add(stockReserveFilter);
+
+        HttpContext stockReleaseContext = server.createContext("/api/stock/release", new StockReservationController(deliveryRepository, productRepository, stockService));
+        stockReleaseContext.getFilters().add(stockReserveFilter);
         
         HttpContext orderFulfillmentContext = server.createContext("/api/fulfillment/order", new OrderFulfillmentController(fulfillmentOrderRepository));
         orderFulfillmentContext.getFilters().add(fulfillmentFilter);
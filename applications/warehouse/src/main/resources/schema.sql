@@ -14,9 +14,13 @@ CREATE TABLE IF NOT EXISTS product_individuals (
     delivery_id INTEGER REFERENCES deliveries(id) ON DELETE CASCADE,
     product_id INTEGER REFERENCES products(id),
     serial_number VARCHAR(255),
-    state VARCHAR(50)
+    state VARCHAR(50),
+    reservation_id VARCHAR(64)
 );
 
+-- Databases created before reservations carried an id
+ALTER TABLE product_individuals ADD COLUMN IF NOT EXISTS reservation_id VARCHAR(64);
+
 CREATE TABLE IF NOT EXISTS fulfillment_orders (
     id SERIAL PRIMARY KEY,
     order_id INTEGER UNIQUE,
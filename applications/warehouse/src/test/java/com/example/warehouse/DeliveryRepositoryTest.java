@@ -36,7 +36,8 @@ class DeliveryRepositoryTest {
                          "delivery_id INT, " +
                          "product_id INT, " +
                          "serial_number VARCHAR(255), " +
-                         "state VARCHAR(50)" +
+                         "state VARCHAR(50), " +
+                         "reservation_id VARCHAR(64)" +
                          ")");
         }
     }
@@ -150,6 +151,54 @@ class DeliveryRepositoryTest {
         assertFalse(success);
     }
 
+    @Test
+    void testReleaseStock() throws SQLException {
+        int deliveryId = repository.createDelivery("Sender R");
+
+        for (int i = 0; i < 3; i++) {
+            ProductIndividual pi = new ProductIndividual();
+            pi.setDeliveryId(deliveryId);
+            pi.setProductId(300);
+            pi.setSerialNumber("SN-R" + i);
+            pi.setState("New");
+            repository.addIndividual(pi);
+        }
+
+        assertTrue(repository.reserveStock(300, 3));
+        assertEquals(0, repository.countStock(300));
+
+        assertEquals(2, repository.releaseStock(300, 2));
+        assertEquals(2, repository.countStock(300));
+
+        // Only one reserved individual is left to release
+        assertEquals(1, repository.releaseStock(300, 5));
+        assertEquals(3, repository.countStock(300));
+    }
+
+    @Test
+    void testReleaseStock_OnlyFreesTheSameReservation() throws SQLException {
+        int deliveryId = repository.createDelivery("Sender T");
+
+        for (int i = 0; i < 4; i++) {
+            ProductIndividual pi = new ProductIndividual();
+            pi.setDeliveryId(deliveryId);
+            pi.setProductId(400);
+            pi.setSerialNumber("SN-T" + i);
+            pi.setState("New");
+            repository.addIndividual(pi);
+        }
+
+        assertTrue(repository.reserveStock(400, 2, "order-a"));
+        assertTrue(repository.reserveStock(400, 2, "order-b"));
+
+        assertEquals(2, repository.releaseStock(400, 2, "order-a"));
+        // Repeated release, and a release for a reservation that never happened, leave order-b's units reserved
+        assertEquals(0, repository.releaseStock(400, 2, "order-a"));
+        assertEquals(0, repository.releaseStock(400, 2, "order-c"));
+        assertEquals(0, repository.releaseStock(400, 2));
+        assertEquals(2, repository.countStock(400));
+    }
+
     @Test
     void testFindAll() throws SQLException {
         repository.createDelivery("A");
@@ -12,11 +12,16 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.verify;
@@ -109,4 +114,38 @@ class FulfillmentControllerTest {
 
         verify(exchange).sendResponseHeaders(eq(500), eq(-1L));
     }
+
+    @Test
+    void testShipAllPending() throws IOException, SQLException {
+        when(exchange.getRequestMethod()).thenReturn("POST");
+        String body = "action=shipAllPending";
+        when(exchange.getRequestBody()).thenReturn(new ByteArrayInputStream(body.getBytes()));
+        when(repository.findAllFulfillmentOrders()).thenReturn(Arrays.asList(
+                new FulfillmentOrder(1, 101, "PENDING"),
+                new FulfillmentOrder(2, 102, "SHIPPED"),
+                new FulfillmentOrder(3, 103, "PENDING")));
+
+        when(orderUpdateService.updateStatuses(anyMap())).thenReturn(CompletableFuture.completedFuture(Set.of()));
+
+        controller.handle(exchange);
+
+        verify(repository).updateFulfillmentStatuses(Arrays.asList(101, 103), "SHIPPED");
+        verify(orderUpdateService).updateStatuses(Map.of(101, "SHIPPED", 103, "SHIPPED"));
+        verify(exchange).sendResponseHeaders(eq(302), eq(-1L));
+    }
+
+    @Test
+    void testShipAllPending_ReportsOrdersTheOrderServiceMissed() throws IOException, SQLException {
+        when(exchange.getRequestMethod()).thenReturn("POST");
+        when(exchange.getRequestBody()).thenReturn(new ByteArrayInputStream("action=shipAllPending".getBytes()));
+        when(repository.findAllFulfillmentOrders()).thenReturn(Arrays.asList(
+                new FulfillmentOrder(1, 101, "PENDING"),
+                new FulfillmentOrder(3, 103, "PENDING")));
+        when(orderUpdateService.updateStatuses(anyMap())).thenReturn(CompletableFuture.completedFuture(Set.of(103)));
+
+        controller.handle(exchange);
+
+        verify(exchange).sendResponseHeaders(eq(502), anyLong());
+        assertTrue(responseBody.toString().contains("103"));
+    }
 }
@@ -8,6 +8,7 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -70,4 +71,17 @@ class FulfillmentOrderRepositoryTest {
         assertEquals(1, list.size());
         assertEquals("SHIPPED", list.get(0).getStatus());
     }
+
+    @Test
+    void testUpdateStatuses() throws SQLException {
+        repository.createFulfillmentOrder(301);
+        repository.createFulfillmentOrder(302);
+        repository.createFulfillmentOrder(303);
+
+        repository.updateFulfillmentStatuses(Arrays.asList(301, 303), "SHIPPED");
+
+        for (FulfillmentOrder o : repository.findAllFulfillmentOrders()) {
+            assertEquals(o.getOrderId() == 302 ? "PENDING" : "SHIPPED", o.getStatus());
+        }
+    }
 }
@@ -7,9 +7,14 @@ import org.mockito.ArgumentCaptor;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
@@ -96,4 +101,95 @@ class OrderUpdateServiceTest {
         // Assert
         verify(mockHttpClient, timeout(1000)).sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
     }
+
+    @Test
+    void updateStatuses_sendsOneBatchRequest() {
+        when(mockTokenService.getAccessToken()).thenReturn(CompletableFuture.completedFuture("test-token"));
+
+        HttpResponse<String> mockResponse = mock(HttpResponse.class);
+        when(mockResponse.statusCode()).thenReturn(200);
+        when(mockHttpClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(CompletableFuture.completedFuture(mockResponse));
+
+        Map<Integer, String> statuses = new LinkedHashMap<>();
+        statuses.put(1, "SHIPPED");
+        statuses.put(2, "SHIPPED");
+        orderUpdateService.updateStatuses(statuses);
+
+        ArgumentCaptor<HttpRequest> requestCaptor = ArgumentCaptor.forClass(HttpRequest.class);
+        verify(mockHttpClient, timeout(1000).times(1)).sendAsync(requestCaptor.capture(), any(HttpResponse.BodyHandler.class));
+        assertEquals(orderServiceUrl + "/batch", requestCaptor.getValue().uri().toString());
+        assertEquals("application/x-ndjson", requestCaptor.getValue().headers().firstValue("Content-Type").orElse(null));
+    }
+
+    @Test
+    void updateStatuses_splitsMoreThanOneBatchIntoSeveralRequests() {
+        when(mockTokenService.getAccessToken()).thenReturn(CompletableFuture.completedFuture("test-token"));
+        HttpResponse<String> mockResponse = mock(HttpResponse.class);
+        when(mockResponse.statusCode()).thenReturn(200);
+        when(mockHttpClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(CompletableFuture.completedFuture(mockResponse));
+
+        // 2500 pending orders: the order service accepts at most 1000 per request
+        Map<Integer, String> statuses = new LinkedHashMap<>();
+        for (int id = 1; id <= 2500; id++) {
+            statuses.put(id, "SHIPPED");
+        }
+        Set<Integer> failed = orderUpdateService.updateStatuses(statuses).join();
+
+        assertTrue(failed.isEmpty());
+        ArgumentCaptor<HttpRequest> requestCaptor = ArgumentCaptor.forClass(HttpRequest.class);
+        verify(mockHttpClient, times(3)).sendAsync(requestCaptor.capture(), any(HttpResponse.BodyHandler.class));
+        List<HttpRequest> requests = requestCaptor.getAllValues();
+        assertEquals(ndjsonLength(1, 1000), requests.get(0).bodyPublisher().orElseThrow().contentLength());
+        assertEquals(ndjsonLength(1001, 2000), requests.get(1).bodyPublisher().orElseThrow().contentLength());
+        assertEquals(ndjsonLength(2001, 2500), requests.get(2).bodyPublisher().orElseThrow().contentLength());
+    }
+
+    @Test
+    void updateStatuses_retriesServerErrorsAndReportsUndeliveredOrders() {
+        orderUpdateService = new OrderUpdateService(orderServiceUrl, mockTokenService, mockHttpClient, 1);
+        when(mockTokenService.getAccessToken()).thenReturn(CompletableFuture.completedFuture("test-token"));
+        HttpResponse<String> unavailable = mock(HttpResponse.class);
+        when(unavailable.statusCode()).thenReturn(503);
+        HttpResponse<String> ok = mock(HttpResponse.class);
+        when(ok.statusCode()).thenReturn(200);
+        // First batch: fails once, then succeeds. Second batch: fails every attempt.
+        when(mockHttpClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(CompletableFuture.completedFuture(unavailable))
+                .thenReturn(CompletableFuture.completedFuture(ok))
+                .thenReturn(CompletableFuture.completedFuture(unavailable));
+
+        Map<Integer, String> statuses = new LinkedHashMap<>();
+        for (int id = 1; id <= 1200; id++) {
+            statuses.put(id, "SHIPPED");
+        }
+        Set<Integer> failed = orderUpdateService.updateStatuses(statuses).join();
+
+        verify(mockHttpClient, times(5)).sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
+        assertEquals(200, failed.size());
+        assertTrue(failed.contains(1001) && failed.contains(1200) && !failed.contains(1000));
+    }
+
+    @Test
+    void updateStatuses_doesNotRetryClientErrors() {
+        when(mockTokenService.getAccessToken()).thenReturn(CompletableFuture.completedFuture("test-token"));
+        HttpResponse<String> rejected = mock(HttpResponse.class);
+        when(rejected.statusCode()).thenReturn(400);
+        when(mockHttpClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenReturn(CompletableFuture.completedFuture(rejected));
+
+        Set<Integer> failed = orderUpdateService.updateStatuses(Map.of(1, "SHIPPED")).join();
+
+        verify(mockHttpClient, times(1)).sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
+        assertEquals(Set.of(1), failed);
+    }
+
+    private static long ndjsonLength(int fromId, int toId) {
+        long length = 0;
+        for (int id = fromId; id <= toId; id++) {
+            length += ("{\"orderId\":" + id + ",\"status\":\"SHIPPED\"}\n").length();
+        }
+        return length;
+    }
 }
@@ -53,11 +53,16 @@ public class WarehousePactProviderTest {
         
         DeliveryRepository mockDeliveryRepo = new DeliveryRepository(null) {
             @Override
-            public boolean reserveStock(int productId, int quantity) throws SQLException {
+            public boolean reserveStock(int productId, int quantity, String reservationId) throws SQLException {
                 System.out.println("Mock Repository: Reserved " + quantity + " of product " + productId);
                 return true; // Always succeed for this test
             }
             @Override
+            public int releaseStock(int productId, int quantity, String reservationId) throws SQLException {
+                System.out.println("Mock Repository: Released " + quantity + " of product " + productId);
+                return quantity;
+            }
+            @Override
             public int countStock(int productId) throws SQLException {
                 return 100; // Always return enough stock
             }
@@ -83,6 +88,7 @@ public class WarehousePactProviderTest {
         // Mount controllers directly
         server.createContext("/api/products/sync", new ProductSyncController(mockProductRepo));
         server.createContext("/api/stock/reserve", new StockReservationController(mockDeliveryRepo, mockProductRepo, mockStockService));
+        server.createContext("/api/stock/release", new StockReservationController(mockDeliveryRepo, mockProductRepo, mockStockService));
         server.createContext("/api/fulfillment/order", new OrderFulfillmentController(mockFulfillmentRepo));
 
         server.setExecutor(Executors.newCachedThreadPool());
@@ -24,7 +24,9 @@ public class OrderController implements HttpHandler {
             String json = new String(is.readAllBytes(), StandardCharsets.UTF_8);
             
             try {
-                HttpResponse<String> response = orderService.createOrder(json).join();
+                // Passed through so retries of the same checkout are not turned into new orders
+                String idempotencyKey = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+                HttpResponse<String> response = orderService.createOrder(json, idempotencyKey).join();
                 
                 byte[] bytes = response.body().getBytes(StandardCharsets.UTF_8);
                 exchange.getResponseHeaders().set("Content-Type", "application/json");
@@ -5,14 +5,29 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
 public class OrderService {
 
+    private static final int ORDER_HISTORY_CACHE_SIZE = 1000;
+    // The order service's largest page
+    private static final int ORDER_PAGE_SIZE = 500;
+
     private final HttpClient httpClient;
     private final String orderServiceUrl;
     private final TokenService tokenService;
 
+    // Last order list seen per customer, revalidated with If-None-Match so unchanged lists are not resent
+    private final Map<String, CachedOrders> orderHistoryCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedOrders> eldest) {
+            return size() > ORDER_HISTORY_CACHE_SIZE;
+        }
+    };
+
     public OrderService() {
         this(
             System.getenv().getOrDefault("ORDER_SERVICE_URL", "http://order-service:8003/api/orders"),
@@ -32,31 +47,117 @@ public class OrderService {
         this.tokenService = tokenService;
     }
 
+    /**
+     * The customer's full order history as one JSON array. The first page is revalidated with the ETag of
+     * the last list seen; it covers the customer's whole list, so a 304 means no page has changed. Otherwise
+     * the remaining pages are followed through X-Next-After-Id.
+     */
     public CompletableFuture<String> getOrdersForCustomer(String customerName) {
         return tokenService.getAccessToken().thenCompose(token -> {
-            String url = orderServiceUrl + "?customer=" + customerName.replace(" ", "%20");
-            
-            HttpRequest request = HttpRequest.newBuilder()
+            String url = orderServiceUrl + "?customer=" + customerName.replace(" ", "%20") + "&scope=all&limit=" + ORDER_PAGE_SIZE;
+            CachedOrders cached = cachedOrders(customerName);
+
+            HttpRequest.Builder builder = HttpRequest.newBuilder()
                     .uri(URI.create(url))
                     .header("Authorization", "Bearer " + token)
-                    .GET()
-                    .build();
+                    .GET();
+            if (cached != null) {
+                builder.header("If-None-Match", cached.etag);
+            }
 
-            return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
-                    .thenApply(HttpResponse::body);
+            return httpClient.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofString())
+                    .thenCompose(response -> {
+                        if (response.statusCode() == 304 && cached != null) {
+                            return CompletableFuture.completedFuture(cached.body);
+                        }
+                        if (response.statusCode() != 200) {
+                            return CompletableFuture.completedFuture(response.body());
+                        }
+                        StringBuilder orders = new StringBuilder();
+                        appendPage(orders, response.body());
+                        return remainingPages(token, url, response, orders).thenApply(all -> {
+                            response.headers().firstValue("ETag").ifPresent(etag -> rememberOrders(customerName, new CachedOrders(etag, all)));
+                            return all;
+                        });
+                    });
         });
     }
 
+    private CompletableFuture<String> remainingPages(String token, String url, HttpResponse<String> previous, StringBuilder orders) {
+        Optional<String> nextAfterId = previous.headers().firstValue("X-Next-After-Id");
+        if (nextAfterId.isEmpty()) {
+            return CompletableFuture.completedFuture("[" + orders + "]");
+        }
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(url + "&afterId=" + nextAfterId.get()))
+                .header("Authorization", "Bearer " + token)
+                .GET()
+                .build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenCompose(response -> {
+                    if (response.statusCode() != 200) {
+                        return CompletableFuture.failedFuture(new IllegalStateException(
+                                "Order service returned " + response.statusCode() + " for the next page of orders"));
+                    }
+                    appendPage(orders, response.body());
+                    return remainingPages(token, url, response, orders);
+                });
+    }
+
+    // Appends the elements of a JSON array page to the ones collected so far
+    private static void appendPage(StringBuilder orders, String page) {
+        String elements = page == null ? "" : page.trim();
+        if (elements.startsWith("[") && elements.endsWith("]")) {
+            elements = elements.substring(1, elements.length() - 1).trim();
+        }
+        if (elements.isEmpty()) {
+            return;
+        }
+        if (orders.length() > 0) {
+            orders.append(',');
+        }
+        orders.append(elements);
+    }
+
     public CompletableFuture<HttpResponse<String>> createOrder(String orderJson) {
+        return createOrder(orderJson, null);
+    }
+
+    public CompletableFuture<HttpResponse<String>> createOrder(String orderJson, String idempotencyKey) {
         return tokenService.getAccessToken().thenCompose(token -> {
-            HttpRequest request = HttpRequest.newBuilder()
+            HttpRequest.Builder builder = HttpRequest.newBuilder()
                     .uri(URI.create(orderServiceUrl))
                     .header("Content-Type", "application/json")
                     .header("Authorization", "Bearer " + token)
-                    .POST(HttpRequest.BodyPublishers.ofString(orderJson))
-                    .build();
+                    .POST(HttpRequest.BodyPublishers.ofString(orderJson));
+            if (idempotencyKey != null) {
+                builder.header("Idempotency-Key", idempotencyKey);
+            }
+            HttpRequest request = builder.build();
 
             return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
         });
     }
+
+    private CachedOrders cachedOrders(String customerName) {
+        synchronized (orderHistoryCache) {
+            return orderHistoryCache.get(customerName);
+        }
+    }
+
+    private void rememberOrders(String customerName, CachedOrders orders) {
+        synchronized (orderHistoryCache) {
+            orderHistoryCache.put(customerName, orders);
+        }
+    }
+
+    private static final class CachedOrders {
+        private final String etag;
+        private final String body;
+
+        private CachedOrders(String etag, String body) {
+            this.etag = etag;
+            this.body = body;
+        }
+    }
 }
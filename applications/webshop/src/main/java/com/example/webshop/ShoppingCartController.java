@@ -87,7 +87,9 @@ public class ShoppingCartController implements HttpHandler {
         "  localStorage.setItem('cart', JSON.stringify(cart));" +
         "  renderCart();" +
         "}" +
+        "let checkoutInFlight = false;" +
         "function checkout() {" +
+        "  if (checkoutInFlight) return;" +
         "  let cart = JSON.parse(localStorage.getItem('cart')) || [];" +
         "  if (cart.length === 0) { alert('Cart is empty!'); return; }" +
         "  const token = getCookie('webshop_auth_token');" +
@@ -111,14 +113,23 @@ public class ShoppingCartController implements HttpHandler {
         "    totalAmount: total," +
         "    items: cart.map(i => ({ productId: i.id, quantity: i.quantity }))" +
         "  };" +
+        "  checkoutInFlight = true;" +
+        "  let checkoutKey = sessionStorage.getItem('checkoutKey');" +
+        "  if (!checkoutKey) {" +
+        "    checkoutKey = crypto.randomUUID();" +
+        "    sessionStorage.setItem('checkoutKey', checkoutKey);" +
+        "  }" +
         "  fetch('/api/orders', {" +
         "    method: 'POST'," +
         "    headers: { " +
         "      'Content-Type': 'application/json'," +
-        "      'Authorization': 'Bearer ' + token" +
+        "      'Authorization': 'Bearer ' + token," +
+        "      'Idempotency-Key': checkoutKey" +
         "    }," +
         "    body: JSON.stringify(order)" +
         "  }).then(res => {" +
+        "    checkoutInFlight = false;" +
+        "    sessionStorage.removeItem('checkoutKey');" +
         "    if (res.ok) {" +
         "      alert('Order placed successfully!');" +
         "      localStorage.removeItem('cart');" +
@@ -126,6 +137,9 @@ public class ShoppingCartController implements HttpHandler {
         "    } else {" +
         "      alert('Failed to place order. Insufficient stock or points?');" +
         "    }" +
+        "  }).catch(err => {" +
+        "    checkoutInFlight = false;" +
+        "    alert('Could not reach the shop. Please try again.');" +
         "  });" +
         "}" +
         "window.onload = renderCart;" +
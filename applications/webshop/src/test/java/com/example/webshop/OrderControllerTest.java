@@ -14,6 +14,7 @@ import java.net.http.HttpResponse;
 import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
@@ -40,6 +41,7 @@ class OrderControllerTest {
 
         when(exchange.getResponseHeaders()).thenReturn(responseHeaders);
         when(exchange.getResponseBody()).thenReturn(responseBody);
+        when(exchange.getRequestHeaders()).thenReturn(new Headers());
     }
 
     @Test
@@ -51,7 +53,7 @@ class OrderControllerTest {
         HttpResponse<String> mockResponse = mock(HttpResponse.class);
         when(mockResponse.statusCode()).thenReturn(201);
         when(mockResponse.body()).thenReturn("{\"status\":\"created\"}");
-        when(orderService.createOrder(anyString())).thenReturn(CompletableFuture.completedFuture(mockResponse));
+        when(orderService.createOrder(anyString(), any())).thenReturn(CompletableFuture.completedFuture(mockResponse));
 
         controller.handle(exchange);
 
@@ -60,6 +62,26 @@ class OrderControllerTest {
         assertTrue(response.contains("created"));
     }
 
+    @Test
+    void testHandle_PostOrder_ForwardsIdempotencyKey() throws IOException {
+        when(exchange.getRequestMethod()).thenReturn("POST");
+        Headers requestHeaders = new Headers();
+        requestHeaders.set("Idempotency-Key", "checkout-1");
+        when(exchange.getRequestHeaders()).thenReturn(requestHeaders);
+        String json = "{\"customerName\":\"John Doe\"}";
+        when(exchange.getRequestBody()).thenReturn(new ByteArrayInputStream(json.getBytes()));
+
+        HttpResponse<String> mockResponse = mock(HttpResponse.class);
+        when(mockResponse.statusCode()).thenReturn(200);
+        when(mockResponse.body()).thenReturn("{\"status\":\"PENDING_CONFIRMATION\"}");
+        when(orderService.createOrder(anyString(), any())).thenReturn(CompletableFuture.completedFuture(mockResponse));
+
+        controller.handle(exchange);
+
+        verify(orderService).createOrder(json, "checkout-1");
+        verify(exchange).sendResponseHeaders(eq(200), anyLong());
+    }
+
     @Test
     void testHandle_PostOrder_Failure() throws IOException {
         when(exchange.getRequestMethod()).thenReturn("POST");
@@ -68,7 +90,7 @@ class OrderControllerTest {
 
         CompletableFuture<HttpResponse<String>> future = new CompletableFuture<>();
         future.completeExceptionally(new RuntimeException("Service down"));
-        when(orderService.createOrder(anyString())).thenReturn(future);
+        when(orderService.createOrder(anyString(), any())).thenReturn(future);
 
         controller.handle(exchange);
 
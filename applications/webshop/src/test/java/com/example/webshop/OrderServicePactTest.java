@@ -48,7 +48,7 @@ public class OrderServicePactTest {
             .uponReceiving("A request to get orders for a customer")
                 .path("/api/orders")
                 .method("GET")
-                .query("customer=John Doe")
+                .query("customer=John Doe&scope=all&limit=500")
                 .headers("Authorization", "Bearer dummy-token")
             .willRespondWith()
                 .status(200)
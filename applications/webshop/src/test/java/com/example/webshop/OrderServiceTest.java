@@ -0,0 +1,101 @@
+package com.example.webshop;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class OrderServiceTest {
+
+    private static final String ORDERS = "[{\"id\":1,\"customerName\":\"John Doe\",\"status\":\"PENDING\",\"pointsEarned\":0,\"pointsRedeemed\":0}]";
+
+    private HttpServer server;
+    private OrderService orderService;
+    private final List<String> ifNoneMatchSeen = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(0), 0);
+        server.createContext("/api/orders", exchange -> {
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            ifNoneMatchSeen.add(String.valueOf(ifNoneMatch));
+            exchange.getResponseHeaders().set("ETag", "\"1-1-1000\"");
+            if ("\"1-1-1000\"".equals(ifNoneMatch)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            byte[] bytes = ORDERS.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        });
+        server.start();
+
+        TokenService tokenService = mock(TokenService.class);
+        when(tokenService.getAccessToken()).thenReturn(CompletableFuture.completedFuture("token"));
+        orderService = new OrderService("http://localhost:" + server.getAddress().getPort() + "/api/orders", tokenService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void getOrdersForCustomer_RevalidatesWithETag() {
+        assertEquals(ORDERS, orderService.getOrdersForCustomer("John Doe").join());
+        assertEquals(ORDERS, orderService.getOrdersForCustomer("John Doe").join());
+
+        assertEquals(List.of("null", "\"1-1-1000\""), ifNoneMatchSeen);
+    }
+
+    @Test
+    void getOrdersForCustomer_FollowsPagesOfTheFullHistory() throws IOException {
+        List<String> queries = new CopyOnWriteArrayList<>();
+        server.createContext("/paged/orders", exchange -> {
+            String query = exchange.getRequestURI().getQuery();
+            queries.add(query);
+            String page;
+            if (query.contains("afterId=5")) {
+                page = "[{\"id\":4}]";
+            } else {
+                exchange.getResponseHeaders().set("X-Next-After-Id", "5");
+                page = "[{\"id\":6},{\"id\":5}]";
+            }
+            byte[] bytes = page.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        });
+        TokenService tokenService = mock(TokenService.class);
+        when(tokenService.getAccessToken()).thenReturn(CompletableFuture.completedFuture("token"));
+        OrderService paged = new OrderService("http://localhost:" + server.getAddress().getPort() + "/paged/orders", tokenService);
+
+        assertEquals("[{\"id\":6},{\"id\":5},{\"id\":4}]", paged.getOrdersForCustomer("John Doe").join());
+
+        assertEquals(List.of("customer=John Doe&scope=all&limit=500", "customer=John Doe&scope=all&limit=500&afterId=5"), queries);
+    }
+
+    @Test
+    void getOrdersForCustomer_CachesPerCustomer() {
+        orderService.getOrdersForCustomer("John Doe").join();
+        orderService.getOrdersForCustomer("Jane Doe").join();
+
+        assertEquals("null", ifNoneMatchSeen.get(1));
+    }
+}
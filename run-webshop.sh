@@ -193,7 +193,7 @@ docker run -d --rm --network webshop-net --name warehouse-demo \
 echo "--- Starting Order Service ---"
 docker run -d --rm --network webshop-net --name order-service \
     -v "$(pwd)/applications/orderService/target:/app" \
-    -e DB_URL=jdbc:postgresql://db-order:5432/postgres \
+    -e DB_URL=jdbc:postgresql://db-order:5432/postgres?reWriteBatchedInserts=true \
     -e DB_USER=postgres \
     -e DB_PASSWORD=postgres \
     -e WAREHOUSE_RESERVE_URL=http://warehouse-demo:8002/api/stock/reserve \